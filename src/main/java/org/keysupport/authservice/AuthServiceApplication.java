@@ -2,8 +2,17 @@ package org.keysupport.authservice;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.sql.init.SqlInitializationAutoConfiguration;
 
-@SpringBootApplication
+/**
+ * The only database is the client registry's, which {@link ClientRegistryConfiguration} connects
+ * when enabled, so Spring Boot's own DataSource and its JDBC helpers are left out.
+ */
+@SpringBootApplication(exclude = { DataSourceAutoConfiguration.class, JdbcTemplateAutoConfiguration.class,
+		DataSourceTransactionManagerAutoConfiguration.class, SqlInitializationAutoConfiguration.class })
 public class AuthServiceApplication {
 
 	public static void main(String[] args) {
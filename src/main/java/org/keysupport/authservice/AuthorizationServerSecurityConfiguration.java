@@ -0,0 +1,134 @@
+package org.keysupport.authservice;
+
+import static org.springframework.security.config.Customizer.withDefaults;
+
+import java.util.List;
+import java.util.Set;
+
+import org.keysupport.authservice.introspection.LocalIntrospectionAuthenticationProvider;
+import org.keysupport.authservice.introspection.LocalTokenIntrospector;
+import org.keysupport.authservice.introspection.RevocationRecordingAuthorizationService;
+import org.keysupport.authservice.jose.JwtTokenCustomizer;
+import org.keysupport.authservice.mtls.CertificateBoundTokenCustomizer;
+import org.keysupport.authservice.mtls.MtlsClientSettings;
+import org.keysupport.authservice.mtls.TlsSessionIdentityCache;
+import org.keysupport.authservice.mtls.X509ClientAuthenticationConverter;
+import org.keysupport.authservice.mtls.X509ClientAuthenticationProvider;
+import org.keysupport.authservice.validation.CertificateValidator;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.MediaType;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.oauth2.server.authorization.InMemoryOAuth2AuthorizationService;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationService;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClientRepository;
+import org.springframework.security.oauth2.server.authorization.config.annotation.web.configuration.OAuth2AuthorizationServerConfiguration;
+import org.springframework.security.oauth2.server.authorization.config.annotation.web.configurers.OAuth2AuthorizationServerConfigurer;
+import org.springframework.security.oauth2.server.authorization.token.JwtEncodingContext;
+import org.springframework.security.oauth2.server.authorization.token.OAuth2TokenCustomizer;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.LoginUrlAuthenticationEntryPoint;
+import org.springframework.security.web.util.matcher.MediaTypeRequestMatcher;
+
+/**
+ * The authorization server filter chains, as Spring Boot would configure them, plus RFC 8705
+ * mutual TLS client authentication and certificate-bound access tokens, local token
+ * introspection when it is enabled, and unauthenticated health and metrics endpoints.
+ */
+@Configuration
+public class AuthorizationServerSecurityConfiguration {
+
+	private static final String CERTIFICATE_BOUND_ACCESS_TOKENS = "tls_client_certificate_bound_access_tokens";
+
+	@Bean
+	public TlsSessionIdentityCache tlsSessionIdentityCache() {
+		return new TlsSessionIdentityCache();
+	}
+
+	@Bean
+	@Order(Ordered.HIGHEST_PRECEDENCE)
+	public SecurityFilterChain authorizationServerSecurityFilterChain(HttpSecurity http,
+			TlsSessionIdentityCache tlsSessionIdentityCache, RegisteredClientRepository registeredClientRepository,
+			CertificateValidator certificateValidator, ValidationProperties validationProperties,
+			ObjectProvider<LocalTokenIntrospector> localTokenIntrospector,
+			ObjectProvider<OAuth2AuthorizationService> authorizationService) throws Exception {
+		OAuth2AuthorizationServerConfiguration.applyDefaultSecurity(http);
+		OAuth2AuthorizationServerConfigurer authorizationServer = http.getConfigurer(OAuth2AuthorizationServerConfigurer.class);
+		LocalTokenIntrospector introspector = localTokenIntrospector.getIfAvailable();
+		if (introspector != null) {
+			authorizationServer
+				.authorizationService(new RevocationRecordingAuthorizationService(
+						authorizationService.getIfAvailable(InMemoryOAuth2AuthorizationService::new),
+						introspector.getRevocationFilter()))
+				.tokenIntrospectionEndpoint(introspection -> introspection
+					.authenticationProvider(new LocalIntrospectionAuthenticationProvider(introspector)));
+		}
+		authorizationServer
+			.clientAuthentication(clientAuthentication -> clientAuthentication
+				.authenticationConverter(new X509ClientAuthenticationConverter(tlsSessionIdentityCache,
+						registeredClientRepository))
+				.authenticationProvider(new X509ClientAuthenticationProvider(registeredClientRepository,
+						certificateValidator, validationProperties.getDefaultPolicyId())))
+			.authorizationServerMetadataEndpoint(metadata -> metadata
+				.authorizationServerMetadataCustomizer(builder -> builder
+					.tokenEndpointAuthenticationMethod(MtlsClientSettings.TLS_CLIENT_AUTH.getValue())
+					.tokenEndpointAuthenticationMethod(MtlsClientSettings.SELF_SIGNED_TLS_CLIENT_AUTH.getValue())
+					.claim(CERTIFICATE_BOUND_ACCESS_TOKENS, true)))
+			.oidc(oidc -> oidc
+				.providerConfigurationEndpoint(providerConfiguration -> providerConfiguration
+					.providerConfigurationCustomizer(builder -> builder
+						.tokenEndpointAuthenticationMethod(MtlsClientSettings.TLS_CLIENT_AUTH.getValue())
+						.tokenEndpointAuthenticationMethod(MtlsClientSettings.SELF_SIGNED_TLS_CLIENT_AUTH.getValue())
+						.claim(CERTIFICATE_BOUND_ACCESS_TOKENS, true))));
+		http.oauth2ResourceServer(resourceServer -> resourceServer.jwt(withDefaults()));
+		http.exceptionHandling(exceptions -> exceptions.defaultAuthenticationEntryPointFor(
+				new LoginUrlAuthenticationEntryPoint("/login"), htmlRequestMatcher()));
+		return http.build();
+	}
+
+	/**
+	 * Health and the Prometheus scrape are open, as they are served on the management port,
+	 * which is not exposed publicly.
+	 */
+	@Bean
+	@Order(SecurityProperties.BASIC_AUTH_ORDER - 1)
+	public SecurityFilterChain actuatorSecurityFilterChain(HttpSecurity http) throws Exception {
+		http.securityMatcher(EndpointRequest.to("health", "prometheus"))
+				.authorizeHttpRequests(requests -> requests.anyRequest().permitAll());
+		return http.build();
+	}
+
+	@Bean
+	@Order(SecurityProperties.BASIC_AUTH_ORDER)
+	public SecurityFilterChain defaultSecurityFilterChain(HttpSecurity http) throws Exception {
+		http.authorizeHttpRequests(requests -> requests.anyRequest().authenticated()).formLogin(withDefaults());
+		return http.build();
+	}
+
+	@Bean
+	public CertificateBoundTokenCustomizer certificateBoundTokenCustomizer() {
+		return new CertificateBoundTokenCustomizer();
+	}
+
+	/**
+	 * The single customizer the authorization server accepts, applying every
+	 * {@link JwtTokenCustomizer} in order.
+	 */
+	@Bean
+	public OAuth2TokenCustomizer<JwtEncodingContext> jwtTokenCustomizer(ObjectProvider<JwtTokenCustomizer> customizers) {
+		List<JwtTokenCustomizer> ordered = customizers.orderedStream().toList();
+		return context -> ordered.forEach(customizer -> customizer.customize(context));
+	}
+
+	private static MediaTypeRequestMatcher htmlRequestMatcher() {
+		MediaTypeRequestMatcher requestMatcher = new MediaTypeRequestMatcher(MediaType.TEXT_HTML);
+		requestMatcher.setIgnoredMediaTypes(Set.of(MediaType.ALL));
+		return requestMatcher;
+	}
+
+}
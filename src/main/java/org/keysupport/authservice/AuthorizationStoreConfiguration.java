@@ -0,0 +1,85 @@
+package org.keysupport.authservice;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.spy.memcached.ClientMode;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.FailureMode;
+import net.spy.memcached.MemcachedClient;
+
+import org.keysupport.authservice.authorization.MemcachedOAuth2AuthorizationService;
+import org.keysupport.authservice.introspection.MemcachedRevocationReplicator;
+import org.keysupport.authservice.introspection.RevocationFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClientRepository;
+
+/**
+ * Replaces the authorization server's in-memory authorization store with one in memcached
+ * when {@code keysupport.authorization-store.enabled=true}, so codes and refresh tokens
+ * issued by one node are honoured by the others. With local introspection enabled as well,
+ * token revocations are replicated between nodes through the same memcached.
+ */
+@Configuration
+@EnableConfigurationProperties(AuthorizationStoreProperties.class)
+@ConditionalOnProperty(prefix = "keysupport.authorization-store", name = "enabled", havingValue = "true")
+public class AuthorizationStoreConfiguration {
+
+	@Bean(destroyMethod = "shutdown")
+	public MemcachedClient authorizationMemcachedClient(AuthorizationStoreProperties properties) throws IOException {
+		if (properties.getServers().isEmpty()) {
+			throw new IllegalStateException("keysupport.authorization-store.servers is required");
+		}
+		List<InetSocketAddress> addresses = new ArrayList<>();
+		for (String server : properties.getServers()) {
+			int colon = server.lastIndexOf(':');
+			addresses.add(colon < 0
+					? new InetSocketAddress(server, 11211)
+					: new InetSocketAddress(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1))));
+		}
+		ConnectionFactoryBuilder connectionFactory = new ConnectionFactoryBuilder()
+				.setClientMode(properties.getDiscovery() == AuthorizationStoreProperties.Discovery.DYNAMIC
+						? ClientMode.Dynamic
+						: ClientMode.Static)
+				.setProtocol(ConnectionFactoryBuilder.Protocol.TEXT)
+				.setOpTimeout(properties.getTimeout().toMillis())
+				// Fail fast to the caller rather than queue requests for a node that is down.
+				.setFailureMode(FailureMode.Cancel)
+				.setDaemon(true);
+		return new MemcachedClient(connectionFactory.build(), addresses);
+	}
+
+	@Bean
+	public MemcachedOAuth2AuthorizationService authorizationService(MemcachedClient authorizationMemcachedClient,
+			RegisteredClientRepository registeredClientRepository, AuthorizationStoreProperties properties) {
+		MemcachedOAuth2AuthorizationService authorizationService = new MemcachedOAuth2AuthorizationService(
+				authorizationMemcachedClient, registeredClientRepository);
+		authorizationService.setKeyPrefix(properties.getKeyPrefix());
+		authorizationService.setTimeout(properties.getTimeout());
+		authorizationService.setUnexpiringTtl(properties.getUnexpiringTtl());
+		authorizationService.setMaximumTtl(properties.getMaximumTtl());
+		authorizationService.setNearCacheMaximumSize(properties.getNearCacheMaximumSize());
+		authorizationService.setNearCacheTtl(properties.getNearCacheTtl());
+		return authorizationService;
+	}
+
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(prefix = "keysupport.kms.introspection", name = "enabled", havingValue = "true")
+	public MemcachedRevocationReplicator revocationReplicator(MemcachedClient authorizationMemcachedClient,
+			RevocationFilter revocationFilter, AuthorizationStoreProperties properties) {
+		MemcachedRevocationReplicator replicator = new MemcachedRevocationReplicator(authorizationMemcachedClient,
+				revocationFilter, properties.getKeyPrefix(), Clock.systemUTC());
+		replicator.setPollInterval(properties.getRevocationPollInterval());
+		replicator.setSnapshotInterval(properties.getRevocationSnapshotInterval());
+		replicator.setDeltaTtl(properties.getRevocationDeltaTtl());
+		replicator.start();
+		return replicator;
+	}
+
+}
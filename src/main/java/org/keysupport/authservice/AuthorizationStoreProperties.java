@@ -0,0 +1,180 @@
+package org.keysupport.authservice;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.keysupport.authservice.authorization.MemcachedOAuth2AuthorizationService;
+import org.keysupport.authservice.introspection.MemcachedRevocationReplicator;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Shared authorization storage settings, bound from {@code keysupport.authorization-store.*}.
+ */
+@ConfigurationProperties(prefix = "keysupport.authorization-store")
+public class AuthorizationStoreProperties {
+
+	/**
+	 * Keep authorizations in memcached, shared by every node; when false they are held in
+	 * memory by each node.
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * Memcached servers as host:port, or the cluster's configuration endpoint with
+	 * {@code DYNAMIC} discovery.
+	 */
+	private List<String> servers = new ArrayList<>();
+
+	private Discovery discovery = Discovery.STATIC;
+
+	private String keyPrefix = "oauth2:";
+
+	/**
+	 * How long a lookup waits for memcached before failing.
+	 */
+	private Duration timeout = Duration.ofMillis(500);
+
+	/**
+	 * How long an authorization that holds no tokens yet, e.g. awaiting consent, is kept.
+	 */
+	private Duration unexpiringTtl = Duration.ofMinutes(10);
+
+	/**
+	 * The longest any authorization is kept.
+	 */
+	private Duration maximumTtl = Duration.ofDays(30);
+
+	/**
+	 * How long a node may serve an authorization from its near-cache, and so how long another
+	 * node's change may go unseen; zero disables the near-cache.
+	 */
+	private Duration nearCacheTtl = MemcachedOAuth2AuthorizationService.DEFAULT_NEAR_CACHE_TTL;
+
+	private int nearCacheMaximumSize = MemcachedOAuth2AuthorizationService.DEFAULT_NEAR_CACHE_MAXIMUM_SIZE;
+
+	/**
+	 * How often a node picks up tokens revoked on other nodes, with local introspection
+	 * enabled; the longest another node may still find a revoked token active.
+	 */
+	private Duration revocationPollInterval = MemcachedRevocationReplicator.DEFAULT_POLL_INTERVAL;
+
+	/**
+	 * How often one of the nodes writes the compact snapshot of all revocations.
+	 */
+	private Duration revocationSnapshotInterval = MemcachedRevocationReplicator.DEFAULT_SNAPSHOT_INTERVAL;
+
+	/**
+	 * How long each single revocation is kept for the other nodes to pick up.
+	 */
+	private Duration revocationDeltaTtl = MemcachedRevocationReplicator.DEFAULT_DELTA_TTL;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public List<String> getServers() {
+		return servers;
+	}
+
+	public void setServers(List<String> servers) {
+		this.servers = servers;
+	}
+
+	public Discovery getDiscovery() {
+		return discovery;
+	}
+
+	public void setDiscovery(Discovery discovery) {
+		this.discovery = discovery;
+	}
+
+	public String getKeyPrefix() {
+		return keyPrefix;
+	}
+
+	public void setKeyPrefix(String keyPrefix) {
+		this.keyPrefix = keyPrefix;
+	}
+
+	public Duration getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(Duration timeout) {
+		this.timeout = timeout;
+	}
+
+	public Duration getUnexpiringTtl() {
+		return unexpiringTtl;
+	}
+
+	public void setUnexpiringTtl(Duration unexpiringTtl) {
+		this.unexpiringTtl = unexpiringTtl;
+	}
+
+	public Duration getMaximumTtl() {
+		return maximumTtl;
+	}
+
+	public void setMaximumTtl(Duration maximumTtl) {
+		this.maximumTtl = maximumTtl;
+	}
+
+	public Duration getNearCacheTtl() {
+		return nearCacheTtl;
+	}
+
+	public void setNearCacheTtl(Duration nearCacheTtl) {
+		this.nearCacheTtl = nearCacheTtl;
+	}
+
+	public int getNearCacheMaximumSize() {
+		return nearCacheMaximumSize;
+	}
+
+	public void setNearCacheMaximumSize(int nearCacheMaximumSize) {
+		this.nearCacheMaximumSize = nearCacheMaximumSize;
+	}
+
+	public Duration getRevocationPollInterval() {
+		return revocationPollInterval;
+	}
+
+	public void setRevocationPollInterval(Duration revocationPollInterval) {
+		this.revocationPollInterval = revocationPollInterval;
+	}
+
+	public Duration getRevocationSnapshotInterval() {
+		return revocationSnapshotInterval;
+	}
+
+	public void setRevocationSnapshotInterval(Duration revocationSnapshotInterval) {
+		this.revocationSnapshotInterval = revocationSnapshotInterval;
+	}
+
+	public Duration getRevocationDeltaTtl() {
+		return revocationDeltaTtl;
+	}
+
+	public void setRevocationDeltaTtl(Duration revocationDeltaTtl) {
+		this.revocationDeltaTtl = revocationDeltaTtl;
+	}
+
+	public enum Discovery {
+		/**
+		 * Use the listed servers as they are.
+		 */
+		STATIC,
+		/**
+		 * ElastiCache auto discovery: the single server listed is the cluster's configuration
+		 * endpoint, polled for the current nodes.
+		 */
+		DYNAMIC
+	}
+
+}
@@ -18,6 +18,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
+import org.keysupport.authservice.awskms.jce.provider.KmsHttpClients;
 import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
 import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAKeyFactory;
 
@@ -30,6 +31,7 @@ import com.nimbusds.jose.jwk.RSAKey;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 
+import software.amazon.awssdk.http.SdkHttpClient;
 import software.amazon.awssdk.services.kms.KmsClient;
 
 /**
@@ -54,13 +56,32 @@ import software.amazon.awssdk.services.kms.KmsClient;
  */
 public class AwsKmsRfc8705 {
 
+	protected static SdkHttpClient httpClient;
 	protected static KmsClient kmsClient;
 	protected static KmsProvider kmsProvider;
 	public static final String keyArn = "arn:aws:kms:us-east-1:216896468348:key/3a60ee88-dc4e-4b93-9e77-4c13db4b6714";
 	public static final String keyId = "RSA4096";
 
+	/**
+	 * Set up the KMS provider over a connection pool of this class's own, created on the first
+	 * call and reused by later ones rather than replaced.
+	 */
 	public static KeyStore iniKms() {
-		kmsClient = KmsClient.builder().build();
+		synchronized (AwsKmsRfc8705.class) {
+			if (httpClient == null) {
+				httpClient = KmsHttpClients.create();
+			}
+		}
+		return iniKms(httpClient);
+	}
+
+	/**
+	 * Set up the KMS provider over the caller's connection pool, e.g. one shared with the
+	 * application's other KMS clients. The caller closes it; the SDK leaves a client it was
+	 * given open.
+	 */
+	public static KeyStore iniKms(SdkHttpClient sharedHttpClient) {
+		kmsClient = KmsClient.builder().httpClient(sharedHttpClient).build();
 		kmsProvider = new KmsProvider(kmsClient);
 		Security.insertProviderAt(kmsProvider, Security.getProviders().length);
 		KeyPair keyPair = KmsRSAKeyFactory.getKeyPair(kmsClient, keyArn);
@@ -0,0 +1,60 @@
+package org.keysupport.authservice;
+
+import javax.sql.DataSource;
+
+import org.keysupport.authservice.client.CachingJdbcRegisteredClientRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Replaces the registered clients of {@code application.yml} with ones kept in a database when
+ * {@code keysupport.client-registry.enabled=true}, for as many mTLS clients as are onboarded.
+ * Each node caches the clients it has seen and evicts them as their versions change.
+ * <p>
+ * The database is the registry's own, connected through
+ * {@code keysupport.client-registry.datasource}; without the registry the application opens no
+ * connection pool at all.
+ */
+@Configuration
+@EnableConfigurationProperties(ClientRegistryProperties.class)
+@ConditionalOnProperty(prefix = "keysupport.client-registry", name = "enabled", havingValue = "true")
+public class ClientRegistryConfiguration {
+
+	private static final String SCHEMA = "org/keysupport/authservice/client/registered-client-schema.sql";
+
+	@Bean
+	public DataSource clientRegistryDataSource(ClientRegistryProperties properties) {
+		ClientRegistryProperties.Datasource datasource = properties.getDatasource();
+		DataSource dataSource = DataSourceBuilder.create()
+				.url(datasource.getUrl())
+				.username(datasource.getUsername())
+				.password(datasource.getPassword())
+				.build();
+		if (properties.isInitializeSchema()) {
+			new ResourceDatabasePopulator(new ClassPathResource(SCHEMA)).execute(dataSource);
+		}
+		return dataSource;
+	}
+
+	@Bean(destroyMethod = "close")
+	public CachingJdbcRegisteredClientRepository registeredClientRepository(DataSource clientRegistryDataSource,
+			ClientRegistryProperties properties) {
+		CachingJdbcRegisteredClientRepository repository = new CachingJdbcRegisteredClientRepository(
+				new JdbcTemplate(clientRegistryDataSource),
+				new TransactionTemplate(new DataSourceTransactionManager(clientRegistryDataSource)));
+		repository.setCacheMaximumSize(properties.getCacheMaximumSize());
+		repository.setPollInterval(properties.getPollInterval());
+		repository.setChangeWindow(properties.getChangeWindow());
+		repository.start();
+		return repository;
+	}
+
+}
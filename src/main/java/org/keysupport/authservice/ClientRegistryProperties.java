@@ -0,0 +1,127 @@
+package org.keysupport.authservice;
+
+import java.time.Duration;
+
+import org.keysupport.authservice.client.CachingJdbcRegisteredClientRepository;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Registered client storage settings, bound from {@code keysupport.client-registry.*}.
+ */
+@ConfigurationProperties(prefix = "keysupport.client-registry")
+public class ClientRegistryProperties {
+
+	/**
+	 * Keep registered clients in a database; when false they are the ones registered under
+	 * {@code spring.security.oauth2.authorizationserver.client}.
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * Create the registry's tables at startup if they do not exist.
+	 */
+	private boolean initializeSchema = false;
+
+	/**
+	 * Clients each node holds in its near-cache.
+	 */
+	private int cacheMaximumSize = CachingJdbcRegisteredClientRepository.DEFAULT_CACHE_MAXIMUM_SIZE;
+
+	/**
+	 * How often a node looks for clients changed by others; the longest it may use a client's
+	 * previous registration.
+	 */
+	private Duration pollInterval = CachingJdbcRegisteredClientRepository.DEFAULT_POLL_INTERVAL;
+
+	/**
+	 * How far back each poll rereads changes, longer than a save's transaction takes to commit.
+	 */
+	private Duration changeWindow = CachingJdbcRegisteredClientRepository.DEFAULT_CHANGE_WINDOW;
+
+	private final Datasource datasource = new Datasource();
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isInitializeSchema() {
+		return initializeSchema;
+	}
+
+	public void setInitializeSchema(boolean initializeSchema) {
+		this.initializeSchema = initializeSchema;
+	}
+
+	public int getCacheMaximumSize() {
+		return cacheMaximumSize;
+	}
+
+	public void setCacheMaximumSize(int cacheMaximumSize) {
+		this.cacheMaximumSize = cacheMaximumSize;
+	}
+
+	public Duration getPollInterval() {
+		return pollInterval;
+	}
+
+	public void setPollInterval(Duration pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+
+	public Duration getChangeWindow() {
+		return changeWindow;
+	}
+
+	public void setChangeWindow(Duration changeWindow) {
+		this.changeWindow = changeWindow;
+	}
+
+	public Datasource getDatasource() {
+		return datasource;
+	}
+
+	/**
+	 * Connection to the database holding the registered clients.
+	 */
+	public static class Datasource {
+
+		/**
+		 * JDBC URL of the database; the driver is picked from it.
+		 */
+		private String url;
+
+		private String username;
+
+		private String password;
+
+		public String getUrl() {
+			return url;
+		}
+
+		public void setUrl(String url) {
+			this.url = url;
+		}
+
+		public String getUsername() {
+			return username;
+		}
+
+		public void setUsername(String username) {
+			this.username = username;
+		}
+
+		public String getPassword() {
+			return password;
+		}
+
+		public void setPassword(String password) {
+			this.password = password;
+		}
+
+	}
+
+}
@@ -0,0 +1,525 @@
+package org.keysupport.authservice;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsAliasCache;
+import org.keysupport.authservice.awskms.jce.provider.KmsHttpClients;
+import org.keysupport.authservice.awskms.jce.provider.KmsKeyCache;
+import org.keysupport.authservice.awskms.jce.provider.KmsKeyConcurrencyLimitingClient;
+import org.keysupport.authservice.awskms.jce.provider.KmsKeyPermits;
+import org.keysupport.authservice.awskms.jce.provider.KmsPublicKey;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.KmsRegionRoutingClient;
+import org.keysupport.authservice.awskms.jce.provider.KmsRequestScheduler;
+import org.keysupport.authservice.awskms.jce.provider.KmsRequestSchedulers;
+import org.keysupport.authservice.awskms.jce.provider.KmsSchedulingClient;
+import org.keysupport.authservice.awskms.jce.provider.ec.KmsECKeyFactory;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAKeyFactory;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsAsyncSigner;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsVerificationMode;
+import org.keysupport.authservice.awskms.metrics.KmsCacheMetrics;
+import org.keysupport.authservice.awskms.metrics.KmsSchedulerMetrics;
+import org.keysupport.authservice.awskms.metrics.MeteredKmsAsyncClient;
+import org.keysupport.authservice.awskms.metrics.MeteredKmsClient;
+import org.keysupport.authservice.awskms.simulator.KmsSimulator;
+import org.keysupport.authservice.introspection.LocalTokenIntrospector;
+import org.keysupport.authservice.introspection.RevocationFilter;
+import org.keysupport.authservice.jose.DelegatedSigningKeyManager;
+import org.keysupport.authservice.jose.EncryptedAccessTokenGenerator;
+import org.keysupport.authservice.jose.JwtTokenCustomizer;
+import org.keysupport.authservice.jose.KmsJwkSet;
+import org.keysupport.authservice.jose.KmsJwsAlgorithms;
+import org.keysupport.authservice.jose.KmsJwtEncoder;
+import org.keysupport.authservice.jose.KmsSigningRouter;
+import org.keysupport.authservice.jose.KmsSigningWarmup;
+import org.keysupport.authservice.jose.TokenEncryptionKeyManager;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.security.oauth2.core.OAuth2Token;
+import org.springframework.security.oauth2.core.oidc.endpoint.OidcParameterNames;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.JwtClaimNames;
+import org.springframework.security.oauth2.jwt.JwtEncoder;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.security.oauth2.server.authorization.token.DelegatingOAuth2TokenGenerator;
+import org.springframework.security.oauth2.server.authorization.token.JwtEncodingContext;
+import org.springframework.security.oauth2.server.authorization.token.JwtGenerator;
+import org.springframework.security.oauth2.server.authorization.token.OAuth2AccessTokenGenerator;
+import org.springframework.security.oauth2.server.authorization.token.OAuth2RefreshTokenGenerator;
+import org.springframework.security.oauth2.server.authorization.token.OAuth2TokenCustomizer;
+import org.springframework.security.oauth2.server.authorization.token.OAuth2TokenGenerator;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.JWK;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.KmsClientBuilder;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+
+/**
+ * Wires the KMS provider into the application when {@code keysupport.kms.enabled=true}.
+ */
+@Configuration
+@EnableConfigurationProperties(KmsProperties.class)
+@ConditionalOnProperty(prefix = "keysupport.kms", name = "enabled", havingValue = "true")
+public class KmsConfiguration {
+
+	/**
+	 * Answers the provider's KMS requests in process when
+	 * {@code keysupport.kms.simulator.enabled=true}, with the configured keys created in it.
+	 */
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(prefix = "keysupport.kms.simulator", name = "enabled", havingValue = "true")
+	public KmsSimulator kmsSimulator(KmsProperties properties) {
+		KmsProperties.Simulator simulator = properties.getSimulator();
+		Map<String, KmsSimulator.Latency> latencies = new LinkedHashMap<>(KmsSimulator.DEFAULT_LATENCIES);
+		simulator.getLatency().forEach((operation, latency) -> latencies.put(operation, KmsSimulator.Latency.of(
+				latency.getMedian(), latency.getP99() != null ? latency.getP99() : latency.getMedian())));
+		KmsSimulator kmsSimulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				simulator.getQuotas(), latencies);
+		KeySpec signingKeySpec = simulator.getSigningKeySpec() != null
+				? simulator.getSigningKeySpec()
+				: KmsSimulator.keySpecFor(properties.getSigningAlgorithm());
+		for (KmsProperties.SigningKey signingKey : signingKeys(properties)) {
+			kmsSimulator.createKey(signingKey.getKeyArn(), signingKeySpec);
+		}
+		if (properties.getTokenEncryption().isEnabled()) {
+			kmsSimulator.createKey(properties.getTokenEncryption().getKeyArn(), KeySpec.SYMMETRIC_DEFAULT);
+		}
+		return kmsSimulator;
+	}
+
+	/**
+	 * The HTTP connection pool the KMS clients of every region share.
+	 */
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(prefix = "keysupport.kms.simulator", name = "enabled", havingValue = "false", matchIfMissing = true)
+	public SdkHttpClient kmsHttpClient(KmsProperties properties) {
+		KmsProperties.Http http = properties.getHttp();
+		return KmsHttpClients.create(http.getMaxConnections(), http.getConnectionAcquisitionTimeout(),
+				http.getConnectionTimeout(), http.getSocketTimeout(), http.getConnectionMaxIdleTime(),
+				http.getConnectionTimeToLive());
+	}
+
+	/**
+	 * The quota schedulers of the regions the configured keys are in, one per region since
+	 * quotas are per region, when {@code keysupport.kms.scheduler.enabled=true}. The blocking
+	 * client and the asynchronous signer both pace on them.
+	 */
+	@Bean
+	@ConditionalOnProperty(prefix = "keysupport.kms.scheduler", name = "enabled", havingValue = "true")
+	public KmsRequestSchedulers kmsRequestSchedulers(ObjectProvider<MeterRegistry> meterRegistry, KmsProperties properties) {
+		MeterRegistry registry = meterRegistry.getIfAvailable();
+		Map<String, KmsRequestScheduler> regionalSchedulers = new LinkedHashMap<>();
+		for (String region : otherRegions(properties)) {
+			regionalSchedulers.put(region, scheduler(region, registry, properties));
+		}
+		return new KmsRequestSchedulers(scheduler(properties.getRegion(), registry, properties), regionalSchedulers,
+				properties.getScheduler().getMaxAttempts());
+	}
+
+	/**
+	 * The permits per key of {@code keysupport.kms.concurrency}, shared by the blocking client
+	 * and the asynchronous signer, with aliases resolved through the provider's alias cache.
+	 */
+	@Bean
+	@ConditionalOnProperty(prefix = "keysupport.kms.concurrency", name = "enabled", havingValue = "true")
+	public KmsKeyPermits kmsKeyPermits(KmsAliasCache kmsAliasCache, KmsProperties properties) {
+		KmsProperties.Concurrency concurrency = properties.getConcurrency();
+		return new KmsKeyPermits(kmsAliasCache, properties.getRegion(), concurrency.getMaxInFlightPerKey(),
+				concurrency.getMaxWait());
+	}
+
+	/**
+	 * The client every KMS request goes through: one client per region the configured keys
+	 * are in, all on the one HTTP connection pool, each timed and counted when a meter
+	 * registry is present, and paced by its region's scheduler when
+	 * {@code keysupport.kms.scheduler.enabled=true}. The scheduler retries throttled requests
+	 * itself, so the SDK clients are then built without retries. When
+	 * {@code keysupport.kms.concurrency.enabled=true} the requests in flight per key are
+	 * capped ahead of all of them.
+	 */
+	@Bean
+	public KmsClient kmsClient(ObjectProvider<KmsSimulator> kmsSimulator, ObjectProvider<SdkHttpClient> kmsHttpClient,
+			ObjectProvider<MeterRegistry> meterRegistry, ObjectProvider<KmsRequestSchedulers> kmsRequestSchedulers,
+			ObjectProvider<KmsKeyPermits> kmsKeyPermits, KmsProperties properties) {
+		KmsSimulator simulator = kmsSimulator.getIfAvailable();
+		SdkHttpClient httpClient = kmsHttpClient.getIfAvailable();
+		MeterRegistry registry = meterRegistry.getIfAvailable();
+		KmsRequestSchedulers schedulers = kmsRequestSchedulers.getIfAvailable();
+		KmsClient kmsClient = regionalClient(properties.getRegion(), simulator, httpClient, registry, schedulers, properties);
+		Set<String> regions = otherRegions(properties);
+		if (!regions.isEmpty()) {
+			Map<String, KmsClient> regionalClients = new LinkedHashMap<>();
+			for (String region : regions) {
+				regionalClients.put(region, regionalClient(region, simulator, httpClient, registry, schedulers, properties));
+			}
+			kmsClient = new KmsRegionRoutingClient(kmsClient, regionalClients);
+		}
+		KmsKeyPermits permits = kmsKeyPermits.getIfAvailable();
+		if (permits != null) {
+			kmsClient = new KmsKeyConcurrencyLimitingClient(kmsClient, permits);
+		}
+		return kmsClient;
+	}
+
+	/**
+	 * @param region null for the SDK default region
+	 * @param httpClient the shared connection pool, or null for the SDK's own
+	 * @param schedulers null when the scheduler is disabled
+	 */
+	private static KmsClient regionalClient(String region, KmsSimulator simulator, SdkHttpClient httpClient,
+			MeterRegistry registry, KmsRequestSchedulers schedulers, KmsProperties properties) {
+		KmsClient kmsClient;
+		if (simulator != null) {
+			kmsClient = simulator.client();
+		} else {
+			KmsClientBuilder builder = KmsClient.builder();
+			if (region != null) {
+				builder.region(Region.of(region));
+			}
+			if (httpClient != null) {
+				builder.httpClient(httpClient);
+			}
+			if (schedulers != null) {
+				builder.overrideConfiguration(ClientOverrideConfiguration.builder().retryPolicy(RetryPolicy.none()).build());
+			}
+			kmsClient = builder.build();
+		}
+		if (registry != null) {
+			kmsClient = new MeteredKmsClient(kmsClient, registry, regionTag(region));
+		}
+		if (schedulers != null) {
+			kmsClient = new KmsSchedulingClient(kmsClient, schedulers.forRegion(region), schedulers.getMaxAttempts());
+		}
+		return kmsClient;
+	}
+
+	private static KmsRequestScheduler scheduler(String region, MeterRegistry registry, KmsProperties properties) {
+		KmsProperties.Scheduler schedulerProperties = properties.getScheduler();
+		KmsRequestScheduler scheduler = new KmsRequestScheduler(schedulerProperties.getQuotas(),
+				schedulerProperties.getUtilization(), schedulerProperties.getMaxQueueTime());
+		if (registry != null) {
+			new KmsSchedulerMetrics(scheduler, regionTag(region)).bindTo(registry);
+		}
+		return scheduler;
+	}
+
+	/**
+	 * @return the regions of the configured keys' ARNs other than {@code keysupport.kms.region}
+	 */
+	private static Set<String> otherRegions(KmsProperties properties) {
+		Set<String> regions = new LinkedHashSet<>();
+		for (KmsProperties.SigningKey signingKey : signingKeys(properties)) {
+			regions.add(KmsRegionRoutingClient.region(signingKey.getKeyArn()));
+		}
+		regions.add(KmsRegionRoutingClient.region(properties.getTokenEncryption().getKeyArn()));
+		regions.remove(null);
+		regions.remove(properties.getRegion());
+		return regions;
+	}
+
+	private static String regionTag(String region) {
+		return region != null ? region : MeteredKmsClient.DEFAULT_REGION;
+	}
+
+	/**
+	 * Signs without holding a thread per KMS round trip, for callers that consume the future of
+	 * {@link KmsProvider#getAsyncSigner()}, when {@code keysupport.kms.async.enabled=true}. Like
+	 * {@link #kmsClient} it has an asynchronous client per region the signing keys are in, or
+	 * the simulator's, timed in the same meters when a meter registry is present, and it paces
+	 * on the same schedulers and takes the same per-key permits, whichever are enabled, so the
+	 * two share each quota and each key's cap.
+	 */
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(prefix = "keysupport.kms.async", name = "enabled", havingValue = "true")
+	public KmsAsyncSigner kmsAsyncSigner(ObjectProvider<KmsSimulator> kmsSimulator,
+			ObjectProvider<MeterRegistry> meterRegistry, ObjectProvider<KmsRequestSchedulers> kmsRequestSchedulers,
+			ObjectProvider<KmsKeyPermits> kmsKeyPermits, KmsProperties properties) {
+		KmsSimulator simulator = kmsSimulator.getIfAvailable();
+		MeterRegistry registry = meterRegistry.getIfAvailable();
+		KmsRequestSchedulers schedulers = kmsRequestSchedulers.getIfAvailable();
+		int maxInFlightPerKey = properties.getAsync().getMaxInFlightPerKey();
+		Map<String, KmsAsyncClient> regionalClients = new LinkedHashMap<>();
+		for (String region : otherRegions(properties)) {
+			regionalClients.put(region, regionalAsyncClient(region, simulator, registry, schedulers, maxInFlightPerKey));
+		}
+		return new KmsAsyncSigner(
+				regionalAsyncClient(properties.getRegion(), simulator, registry, schedulers, maxInFlightPerKey),
+				regionalClients, schedulers, kmsKeyPermits.getIfAvailable(), maxInFlightPerKey);
+	}
+
+	private static KmsAsyncClient regionalAsyncClient(String region, KmsSimulator simulator, MeterRegistry registry,
+			KmsRequestSchedulers schedulers, int maxConcurrency) {
+		KmsAsyncClient kmsAsyncClient = simulator != null ? simulator.asyncClient()
+				: KmsAsyncSigner.defaultClient(region, maxConcurrency, schedulers == null);
+		if (registry != null) {
+			kmsAsyncClient = new MeteredKmsAsyncClient(kmsAsyncClient, registry, regionTag(region));
+		}
+		return kmsAsyncClient;
+	}
+
+	/**
+	 * The one alias index of the application, shared by the provider and the per-key limits.
+	 * It pages ListAliases through the finished client, looked up on first use since that
+	 * client is built with this cache. Its refresh thread is stopped with the context.
+	 */
+	@Bean(destroyMethod = "close")
+	public KmsAliasCache kmsAliasCache(@Lazy KmsClient kmsClient) {
+		return new KmsAliasCache(kmsClient);
+	}
+
+	@Bean
+	public KmsProvider kmsProvider(KmsClient kmsClient, KmsAliasCache kmsAliasCache,
+			ObjectProvider<KmsAsyncSigner> kmsAsyncSigner) {
+		KmsProvider kmsProvider = new KmsProvider(kmsClient, kmsAliasCache, KmsVerificationMode.LOCAL_PREFERRED,
+				kmsAsyncSigner.getIfAvailable());
+		Security.insertProviderAt(kmsProvider, Security.getProviders().length);
+		return kmsProvider;
+	}
+
+	/**
+	 * The key cache shared through the client, with every signing key's public key loaded in
+	 * parallel, before the beans that need them look them up one at a time.
+	 */
+	@Bean
+	public KmsKeyCache kmsKeyCache(KmsClient kmsClient, KmsProperties properties) throws GeneralSecurityException {
+		KmsKeyCache kmsKeyCache = KmsKeyCache.forClient(kmsClient);
+		List<String> keyArns = new ArrayList<>();
+		for (KmsProperties.SigningKey signingKey : signingKeys(properties)) {
+			keyArns.add(signingKey.getKeyArn());
+		}
+		kmsKeyCache.preloadPublicKeys(keyArns);
+		return kmsKeyCache;
+	}
+
+	@Bean
+	public KmsCacheMetrics kmsCacheMetrics(KmsKeyCache kmsKeyCache, KmsProvider kmsProvider) {
+		return new KmsCacheMetrics(kmsKeyCache, kmsProvider.getAliasCache());
+	}
+
+	/**
+	 * The public key of the first signing key, which also certifies delegated keys.
+	 */
+	@Bean
+	public KmsPublicKey kmsSigningPublicKey(KmsKeyCache kmsKeyCache, KmsProperties properties) throws GeneralSecurityException {
+		return publicKey(kmsKeyCache, signingKeys(properties).get(0).getKeyArn());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "keysupport.kms.delegated", name = "enabled", havingValue = "true")
+	public DelegatedSigningKeyManager delegatedSigningKeyManager(KmsProvider kmsProvider, KmsPublicKey kmsSigningPublicKey,
+			KmsKeyCache kmsKeyCache, KmsProperties properties) throws GeneralSecurityException, JOSEException {
+		KmsProperties.SigningKey signingKey = signingKeys(properties).get(0);
+		DelegatedSigningKeyManager manager = new DelegatedSigningKeyManager(kmsProvider,
+				privateKey(kmsKeyCache, signingKey.getKeyArn()),
+				kmsSigningPublicKey.getPublicKey(),
+				kmsKeyId(signingKey.getKeyId()),
+				properties.getSigningAlgorithm(),
+				properties.getDelegated().getRotationInterval(),
+				properties.getDelegated().getMaxTokenLifetime());
+		manager.start();
+		return manager;
+	}
+
+	@Bean
+	public KmsJwkSet kmsJwkSet(KmsPublicKey kmsSigningPublicKey, KmsKeyCache kmsKeyCache, KmsProperties properties,
+			ObjectProvider<DelegatedSigningKeyManager> delegatedSigningKeyManager,
+			@Value("${keysupport.well-known.max-age:1h}") Duration maxAge) throws GeneralSecurityException {
+		List<KmsProperties.SigningKey> signingKeys = signingKeys(properties);
+		List<JWK> jwks = new ArrayList<>();
+		jwks.add(KmsJwkSet.toJwk(kmsSigningPublicKey, kmsKeyId(signingKeys.get(0).getKeyId()), properties.getSigningAlgorithm()));
+		for (KmsProperties.SigningKey signingKey : signingKeys.subList(1, signingKeys.size())) {
+			jwks.add(KmsJwkSet.toJwk(publicKey(kmsKeyCache, signingKey.getKeyArn()), kmsKeyId(signingKey.getKeyId()),
+					properties.getSigningAlgorithm()));
+		}
+		return new KmsJwkSet(jwks, delegatedSigningKeyManager.getIfAvailable(), maxAge,
+				properties.getKeyRotationLeadTime());
+	}
+
+	@Bean
+	public KmsSigningRouter kmsSigningRouter(KmsKeyCache kmsKeyCache, KmsProperties properties) {
+		List<KmsSigningRouter.SigningKey> keys = new ArrayList<>();
+		for (KmsProperties.SigningKey signingKey : signingKeys(properties)) {
+			keys.add(new KmsSigningRouter.SigningKey(kmsKeyId(signingKey.getKeyId()), privateKey(kmsKeyCache, signingKey.getKeyArn())));
+		}
+		return new KmsSigningRouter(keys);
+	}
+
+	/**
+	 * Replaces the encoder Spring Authorization Server would otherwise build over the
+	 * {@link KmsJwkSet}, so access and ID tokens are signed through the KMS provider.
+	 */
+	@Bean
+	public JwtEncoder kmsJwtEncoder(KmsProvider kmsProvider, KmsSigningRouter kmsSigningRouter, KmsProperties properties,
+			ObjectProvider<DelegatedSigningKeyManager> delegatedSigningKeyManager) {
+		return new KmsJwtEncoder(kmsProvider, kmsSigningRouter, properties.getSigningAlgorithm(),
+				delegatedSigningKeyManager.getIfAvailable());
+	}
+
+	/**
+	 * Opens KMS connections, signs a few tokens per key through the application's encoder and
+	 * runs the in-process signing work until it is compiled, at startup. It runs as an
+	 * {@link org.springframework.boot.ApplicationRunner}, so the readiness probe stays down
+	 * until it finishes.
+	 */
+	@Bean
+	@ConditionalOnProperty(prefix = "keysupport.kms.warmup", name = "enabled", havingValue = "true")
+	public KmsSigningWarmup kmsSigningWarmup(KmsClient kmsClient, JwtEncoder jwtEncoder, KmsProvider kmsProvider,
+			KmsSigningRouter kmsSigningRouter, KmsJwkSet kmsJwkSet, KmsProperties properties) {
+		KmsProperties.Warmup warmup = properties.getWarmup();
+		return new KmsSigningWarmup(kmsClient, jwtEncoder, kmsProvider, kmsSigningRouter, kmsJwkSet,
+				properties.getSigningAlgorithm(), warmup.getConnections(), warmup.getSignsPerKey(), warmup.getIterations(),
+				warmup.getMaxDuration());
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "keysupport.kms.token-encryption", name = "enabled", havingValue = "true")
+	public TokenEncryptionKeyManager tokenEncryptionKeyManager(KmsClient kmsClient, KmsProperties properties) {
+		KmsProperties.TokenEncryption tokenEncryption = properties.getTokenEncryption();
+		TokenEncryptionKeyManager manager = new TokenEncryptionKeyManager(kmsClient, tokenEncryption.getKeyArn(),
+				tokenEncryption.getRotationInterval(), tokenEncryption.getMaxTokenLifetime(), Clock.systemUTC());
+		manager.start();
+		return manager;
+	}
+
+	/**
+	 * The authorization server's default token generators, with encrypted opaque access
+	 * tokens in front for clients whose access token format is {@code reference}. Declaring
+	 * the generator replaces the one the authorization server would build, so the JWT
+	 * generator is given the encoder and customizer here.
+	 */
+	@Bean
+	@ConditionalOnProperty(prefix = "keysupport.kms.token-encryption", name = "enabled", havingValue = "true")
+	public OAuth2TokenGenerator<OAuth2Token> tokenGenerator(JwtEncoder jwtEncoder,
+			OAuth2TokenCustomizer<JwtEncodingContext> jwtTokenCustomizer, TokenEncryptionKeyManager tokenEncryptionKeyManager) {
+		JwtGenerator jwtGenerator = new JwtGenerator(jwtEncoder);
+		jwtGenerator.setJwtCustomizer(jwtTokenCustomizer);
+		EncryptedAccessTokenGenerator encryptedAccessTokenGenerator = new EncryptedAccessTokenGenerator(tokenEncryptionKeyManager);
+		encryptedAccessTokenGenerator.setAccessTokenCustomizer(jwtTokenCustomizer);
+		return new DelegatingOAuth2TokenGenerator(encryptedAccessTokenGenerator, jwtGenerator,
+				new OAuth2AccessTokenGenerator(), new OAuth2RefreshTokenGenerator());
+	}
+
+	/**
+	 * Access tokens default to RS256, and ID tokens to the client's ID token signature
+	 * algorithm; request the configured KMS algorithm for both, the one published in the JWKs
+	 * and the one {@link KmsJwtEncoder} signs with.
+	 */
+	@Bean
+	public JwtTokenCustomizer kmsSigningAlgorithmCustomizer(KmsProperties properties) {
+		SignatureAlgorithm algorithm = SignatureAlgorithm.from(KmsJwsAlgorithms.of(properties.getSigningAlgorithm()).getName());
+		return context -> {
+			if (algorithm != null && (OAuth2TokenType.ACCESS_TOKEN.equals(context.getTokenType())
+					|| OidcParameterNames.ID_TOKEN.equals(context.getTokenType().getValue()))) {
+				context.getJwsHeader().algorithm(algorithm);
+			}
+		};
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "keysupport.kms.introspection", name = "enabled", havingValue = "true")
+	public RevocationFilter revocationFilter(KmsProperties properties) {
+		KmsProperties.Introspection introspection = properties.getIntrospection();
+		RevocationFilter revocationFilter = new RevocationFilter(introspection.getExpectedRevocations(),
+				introspection.getFalsePositiveProbability(), introspection.getBucketWidth(), Clock.systemUTC());
+		revocationFilter.start(introspection.getPurgeInterval());
+		return revocationFilter;
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "keysupport.kms.introspection", name = "enabled", havingValue = "true")
+	public LocalTokenIntrospector localTokenIntrospector(KmsJwkSet kmsJwkSet,
+			ObjectProvider<TokenEncryptionKeyManager> tokenEncryptionKeyManager, RevocationFilter revocationFilter) {
+		return new LocalTokenIntrospector(kmsJwkSet, tokenEncryptionKeyManager.getIfAvailable(), revocationFilter,
+				Clock.systemUTC());
+	}
+
+	/**
+	 * Local introspection and revocation go by token id, which signed access tokens do not
+	 * otherwise carry.
+	 */
+	@Bean
+	@ConditionalOnProperty(prefix = "keysupport.kms.introspection", name = "enabled", havingValue = "true")
+	public JwtTokenCustomizer accessTokenIdCustomizer() {
+		return context -> {
+			if (OAuth2TokenType.ACCESS_TOKEN.equals(context.getTokenType())) {
+				context.getClaims().claims(claims -> claims.putIfAbsent(JwtClaimNames.JTI, UUID.randomUUID().toString()));
+			}
+		};
+	}
+
+	/**
+	 * The configured signing keys, or the single {@code key-arn} key when none are listed.
+	 * Keys listed without a name are named by their ARN.
+	 */
+	static List<KmsProperties.SigningKey> signingKeys(KmsProperties properties) {
+		List<KmsProperties.SigningKey> signingKeys = new ArrayList<>();
+		for (KmsProperties.SigningKey configured : properties.getSigningKeys()) {
+			KmsProperties.SigningKey signingKey = new KmsProperties.SigningKey();
+			signingKey.setKeyArn(configured.getKeyArn());
+			signingKey.setKeyId(configured.getKeyId() != null ? configured.getKeyId() : configured.getKeyArn());
+			signingKeys.add(signingKey);
+		}
+		if (signingKeys.isEmpty()) {
+			KmsProperties.SigningKey signingKey = new KmsProperties.SigningKey();
+			signingKey.setKeyArn(properties.getKeyArn());
+			signingKey.setKeyId(properties.getKeyId());
+			signingKeys.add(signingKey);
+		}
+		return signingKeys;
+	}
+
+	private static KmsPublicKey publicKey(KmsKeyCache kmsKeyCache, String keyArn) throws GeneralSecurityException {
+		KmsKeyCache.KeyInfo keyInfo = kmsKeyCache.getKeyInfo(keyArn);
+		return keyInfo.isRsa()
+				? KmsRSAKeyFactory.getPublicKey(kmsKeyCache, keyArn)
+				: KmsECKeyFactory.getPublicKey(kmsKeyCache, keyArn);
+	}
+
+	private static PrivateKey privateKey(KmsKeyCache kmsKeyCache, String keyArn) {
+		KmsKeyCache.KeyInfo keyInfo = kmsKeyCache.getKeyInfo(keyArn);
+		return keyInfo.isRsa() ? KmsRSAKeyFactory.getPrivateKey(keyArn) : KmsECKeyFactory.getPrivateKey(keyArn);
+	}
+
+	/**
+	 * The JWK "kid" published for the KMS key, derived as in {@link AwsKmsRfc8705}.
+	 *
+	 * @param properties
+	 * @return
+	 */
+	static String kmsKeyId(KmsProperties properties) {
+		return kmsKeyId(properties.getKeyId());
+	}
+
+	/**
+	 * @param keyId the configured name of a signing key
+	 * @return the JWK "kid" published for it
+	 */
+	static String kmsKeyId(String keyId) {
+		return UUID.nameUUIDFromBytes(keyId.getBytes()).toString();
+	}
+
+}
@@ -0,0 +1,742 @@
+package org.keysupport.authservice;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsHttpClients;
+import org.keysupport.authservice.awskms.jce.provider.KmsKeyConcurrencyLimitingClient;
+import org.keysupport.authservice.awskms.jce.provider.KmsRequestScheduler;
+import org.keysupport.authservice.awskms.jce.provider.KmsSchedulingClient;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsAsyncSigner;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.keysupport.authservice.introspection.RevocationFilter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import software.amazon.awssdk.services.kms.model.KeySpec;
+
+/**
+ * AWS KMS settings for token signing, bound from {@code keysupport.kms.*}.
+ */
+@ConfigurationProperties(prefix = "keysupport.kms")
+public class KmsProperties {
+
+	/**
+	 * Use AWS KMS for token signing; when false the authorization server defaults apply.
+	 */
+	private boolean enabled = false;
+
+	/**
+	 * ARN (or key id / alias) of the KMS signing key.
+	 */
+	private String keyArn;
+
+	/**
+	 * Name used to derive the JWK "kid" of the KMS key, as in {@link AwsKmsRfc8705}.
+	 */
+	private String keyId = "RSA4096";
+
+	/**
+	 * Region of the KMS client for keys not named by an ARN; the SDK default region when unset.
+	 */
+	private String region;
+
+	/**
+	 * KMS keys to spread token signing over, each published under its own kid; when empty,
+	 * {@link #keyArn} alone signs. All must be of one key type. Request quotas are per
+	 * region, so only keys in different regions add signing throughput.
+	 */
+	private final List<SigningKey> signingKeys = new ArrayList<>();
+
+	private KmsSigningAlgorithm signingAlgorithm = KmsSigningAlgorithm.RSASSA_PSS_SHA_512;
+
+	/**
+	 * How long a new KMS signing key is listed, and so published in the JWKS, before tokens
+	 * are signed with it when the signing keys are rotated. Resource servers must re-fetch the
+	 * JWKS within it, so the JWKS max-age is held to half of it.
+	 */
+	private Duration keyRotationLeadTime = Duration.ofHours(2);
+
+	private final Delegated delegated = new Delegated();
+
+	private final TokenEncryption tokenEncryption = new TokenEncryption();
+
+	private final Introspection introspection = new Introspection();
+
+	private final Simulator simulator = new Simulator();
+
+	private final Scheduler scheduler = new Scheduler();
+
+	private final Warmup warmup = new Warmup();
+
+	private final Http http = new Http();
+
+	private final Concurrency concurrency = new Concurrency();
+
+	private final Async async = new Async();
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public String getKeyArn() {
+		return keyArn;
+	}
+
+	public void setKeyArn(String keyArn) {
+		this.keyArn = keyArn;
+	}
+
+	public String getKeyId() {
+		return keyId;
+	}
+
+	public void setKeyId(String keyId) {
+		this.keyId = keyId;
+	}
+
+	public String getRegion() {
+		return region;
+	}
+
+	public void setRegion(String region) {
+		this.region = region;
+	}
+
+	public List<SigningKey> getSigningKeys() {
+		return signingKeys;
+	}
+
+	public KmsSigningAlgorithm getSigningAlgorithm() {
+		return signingAlgorithm;
+	}
+
+	public void setSigningAlgorithm(KmsSigningAlgorithm signingAlgorithm) {
+		this.signingAlgorithm = signingAlgorithm;
+	}
+
+	public Duration getKeyRotationLeadTime() {
+		return keyRotationLeadTime;
+	}
+
+	public void setKeyRotationLeadTime(Duration keyRotationLeadTime) {
+		this.keyRotationLeadTime = keyRotationLeadTime;
+	}
+
+	public Delegated getDelegated() {
+		return delegated;
+	}
+
+	public TokenEncryption getTokenEncryption() {
+		return tokenEncryption;
+	}
+
+	public Introspection getIntrospection() {
+		return introspection;
+	}
+
+	public Simulator getSimulator() {
+		return simulator;
+	}
+
+	public Scheduler getScheduler() {
+		return scheduler;
+	}
+
+	public Warmup getWarmup() {
+		return warmup;
+	}
+
+	public Http getHttp() {
+		return http;
+	}
+
+	public Concurrency getConcurrency() {
+		return concurrency;
+	}
+
+	public Async getAsync() {
+		return async;
+	}
+
+	/**
+	 * Warm-up of the token signing path before the application reports ready.
+	 */
+	public static class Warmup {
+
+		private boolean enabled = false;
+
+		/**
+		 * Connections to open to KMS per signing key.
+		 */
+		private int connections = 4;
+
+		/**
+		 * Tokens to sign through KMS per signing key.
+		 */
+		private int signsPerKey = 2;
+
+		/**
+		 * Passes over the in-process signing and verification work, so the JIT compiles it.
+		 */
+		private int iterations = 2000;
+
+		/**
+		 * Longest those passes may take; readiness waits for them.
+		 */
+		private Duration maxDuration = Duration.ofSeconds(10);
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getConnections() {
+			return connections;
+		}
+
+		public void setConnections(int connections) {
+			this.connections = connections;
+		}
+
+		public int getSignsPerKey() {
+			return signsPerKey;
+		}
+
+		public void setSignsPerKey(int signsPerKey) {
+			this.signsPerKey = signsPerKey;
+		}
+
+		public int getIterations() {
+			return iterations;
+		}
+
+		public void setIterations(int iterations) {
+			this.iterations = iterations;
+		}
+
+		public Duration getMaxDuration() {
+			return maxDuration;
+		}
+
+		public void setMaxDuration(Duration maxDuration) {
+			this.maxDuration = maxDuration;
+		}
+
+	}
+
+	/**
+	 * One of several KMS signing keys.
+	 */
+	public static class SigningKey {
+
+		/**
+		 * ARN of the KMS signing key; its region picks the KMS client.
+		 */
+		private String keyArn;
+
+		/**
+		 * Name used to derive the JWK "kid" of the key; the ARN when unset.
+		 */
+		private String keyId;
+
+		public String getKeyArn() {
+			return keyArn;
+		}
+
+		public void setKeyArn(String keyArn) {
+			this.keyArn = keyArn;
+		}
+
+		public String getKeyId() {
+			return keyId;
+		}
+
+		public void setKeyId(String keyId) {
+			this.keyId = keyId;
+		}
+
+	}
+
+	/**
+	 * Short-lived in-memory signing keys certified by the KMS key.
+	 */
+	public static class Delegated {
+
+		/**
+		 * Sign tokens with delegated keys instead of calling KMS per token.
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * How long each delegated key is used for signing before the next one takes over.
+		 */
+		private Duration rotationInterval = Duration.ofMinutes(15);
+
+		/**
+		 * Longest lifetime of a token signed by a delegated key.
+		 */
+		private Duration maxTokenLifetime = Duration.ofHours(1);
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public Duration getRotationInterval() {
+			return rotationInterval;
+		}
+
+		public void setRotationInterval(Duration rotationInterval) {
+			this.rotationInterval = rotationInterval;
+		}
+
+		public Duration getMaxTokenLifetime() {
+			return maxTokenLifetime;
+		}
+
+		public void setMaxTokenLifetime(Duration maxTokenLifetime) {
+			this.maxTokenLifetime = maxTokenLifetime;
+		}
+
+	}
+
+	/**
+	 * Opaque access tokens encrypted ({@code dir}, A256GCM) under data keys from a symmetric
+	 * KMS key, for clients whose access token format is {@code reference}.
+	 */
+	public static class TokenEncryption {
+
+		private boolean enabled = false;
+
+		/**
+		 * ARN (or key id / alias) of the symmetric KMS key that generates the data keys.
+		 */
+		private String keyArn;
+
+		/**
+		 * How long each data key encrypts new tokens before the next one takes over.
+		 */
+		private Duration rotationInterval = Duration.ofMinutes(15);
+
+		/**
+		 * Longest lifetime of an encrypted token; longer client settings are capped to it.
+		 */
+		private Duration maxTokenLifetime = Duration.ofHours(1);
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public String getKeyArn() {
+			return keyArn;
+		}
+
+		public void setKeyArn(String keyArn) {
+			this.keyArn = keyArn;
+		}
+
+		public Duration getRotationInterval() {
+			return rotationInterval;
+		}
+
+		public void setRotationInterval(Duration rotationInterval) {
+			this.rotationInterval = rotationInterval;
+		}
+
+		public Duration getMaxTokenLifetime() {
+			return maxTokenLifetime;
+		}
+
+		public void setMaxTokenLifetime(Duration maxTokenLifetime) {
+			this.maxTokenLifetime = maxTokenLifetime;
+		}
+
+	}
+
+	public static class Introspection {
+
+		/**
+		 * Introspect tokens signed or encrypted by this server locally, without a store lookup.
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * How many unexpired revocations the revocation filter is first sized for.
+		 */
+		private int expectedRevocations = RevocationFilter.DEFAULT_EXPECTED_REVOCATIONS;
+
+		/**
+		 * Rate at which tokens that were never revoked still fall through to the exact set.
+		 */
+		private double falsePositiveProbability = RevocationFilter.DEFAULT_FALSE_POSITIVE_PROBABILITY;
+
+		/**
+		 * The span of token expiry times whose revocations are kept, and dropped, together.
+		 */
+		private Duration bucketWidth = RevocationFilter.DEFAULT_BUCKET_WIDTH;
+
+		/**
+		 * How often revocations of expired tokens are dropped.
+		 */
+		private Duration purgeInterval = Duration.ofMinutes(1);
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getExpectedRevocations() {
+			return expectedRevocations;
+		}
+
+		public void setExpectedRevocations(int expectedRevocations) {
+			this.expectedRevocations = expectedRevocations;
+		}
+
+		public double getFalsePositiveProbability() {
+			return falsePositiveProbability;
+		}
+
+		public void setFalsePositiveProbability(double falsePositiveProbability) {
+			this.falsePositiveProbability = falsePositiveProbability;
+		}
+
+		public Duration getBucketWidth() {
+			return bucketWidth;
+		}
+
+		public void setBucketWidth(Duration bucketWidth) {
+			this.bucketWidth = bucketWidth;
+		}
+
+		public Duration getPurgeInterval() {
+			return purgeInterval;
+		}
+
+		public void setPurgeInterval(Duration purgeInterval) {
+			this.purgeInterval = purgeInterval;
+		}
+
+	}
+
+	/**
+	 * An in-process stand-in for KMS, for load tests and local runs without AWS credentials.
+	 * The configured key ARNs are created in it at startup.
+	 */
+	public static class Simulator {
+
+		private boolean enabled = false;
+
+		/**
+		 * Spec of the simulated signing key; by default the one the signing algorithm implies.
+		 */
+		private KeySpec signingKeySpec;
+
+		/**
+		 * Requests per second by quota: RSA, ECC, SYMMETRIC, or an operation such as
+		 * DescribeKey. KMS's default quotas unless overridden; 0 removes a quota.
+		 */
+		private final Map<String, Integer> quotas = new LinkedHashMap<>(KmsRequestScheduler.DEFAULT_QUOTAS);
+
+		/**
+		 * Latency by operation, or by operation and key spec as "Sign:RSA_4096"; rough KMS
+		 * latencies for any left out.
+		 */
+		private final Map<String, Latency> latency = new LinkedHashMap<>();
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public KeySpec getSigningKeySpec() {
+			return signingKeySpec;
+		}
+
+		public void setSigningKeySpec(KeySpec signingKeySpec) {
+			this.signingKeySpec = signingKeySpec;
+		}
+
+		public Map<String, Integer> getQuotas() {
+			return quotas;
+		}
+
+		public Map<String, Latency> getLatency() {
+			return latency;
+		}
+
+		public static class Latency {
+
+			private Duration median = Duration.ZERO;
+
+			/**
+			 * 99th percentile latency; the median if not set.
+			 */
+			private Duration p99;
+
+			public Duration getMedian() {
+				return median;
+			}
+
+			public void setMedian(Duration median) {
+				this.median = median;
+			}
+
+			public Duration getP99() {
+				return p99;
+			}
+
+			public void setP99(Duration p99) {
+				this.p99 = p99;
+			}
+
+		}
+
+	}
+
+	/**
+	 * Paces KMS requests to the account's quotas, signing first, backing off when throttled.
+	 */
+	public static class Scheduler {
+
+		private boolean enabled = false;
+
+		/**
+		 * Requests per second by quota class: RSA, ECC, SYMMETRIC, or an operation such as
+		 * DescribeKey. KMS's default quotas unless overridden; 0 stops pacing a class.
+		 */
+		private final Map<String, Integer> quotas = new LinkedHashMap<>(KmsRequestScheduler.DEFAULT_QUOTAS);
+
+		/**
+		 * Fraction of each quota to aim for, leaving room for other users of the account.
+		 */
+		private double utilization = KmsRequestScheduler.DEFAULT_UTILIZATION;
+
+		/**
+		 * How long a request may wait for its turn before failing as throttled.
+		 */
+		private Duration maxQueueTime = KmsRequestScheduler.DEFAULT_MAX_QUEUE_TIME;
+
+		/**
+		 * Attempts per request, including retries of throttled requests; the SDK's own retries
+		 * are turned off.
+		 */
+		private int maxAttempts = KmsSchedulingClient.DEFAULT_MAX_ATTEMPTS;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public Map<String, Integer> getQuotas() {
+			return quotas;
+		}
+
+		public double getUtilization() {
+			return utilization;
+		}
+
+		public void setUtilization(double utilization) {
+			this.utilization = utilization;
+		}
+
+		public Duration getMaxQueueTime() {
+			return maxQueueTime;
+		}
+
+		public void setMaxQueueTime(Duration maxQueueTime) {
+			this.maxQueueTime = maxQueueTime;
+		}
+
+		public int getMaxAttempts() {
+			return maxAttempts;
+		}
+
+		public void setMaxAttempts(int maxAttempts) {
+			this.maxAttempts = maxAttempts;
+		}
+
+	}
+
+	/**
+	 * The HTTP connection pool all KMS clients share.
+	 */
+	public static class Http {
+
+		/**
+		 * Connections pooled across the clients of every region.
+		 */
+		private int maxConnections = KmsHttpClients.DEFAULT_MAX_CONNECTIONS;
+
+		/**
+		 * How long a request may wait for a pooled connection.
+		 */
+		private Duration connectionAcquisitionTimeout = KmsHttpClients.DEFAULT_CONNECTION_ACQUISITION_TIMEOUT;
+
+		private Duration connectionTimeout = KmsHttpClients.DEFAULT_CONNECTION_TIMEOUT;
+
+		private Duration socketTimeout = KmsHttpClients.DEFAULT_SOCKET_TIMEOUT;
+
+		/**
+		 * How long a connection may sit idle in the pool before it is closed.
+		 */
+		private Duration connectionMaxIdleTime = KmsHttpClients.DEFAULT_CONNECTION_MAX_IDLE_TIME;
+
+		/**
+		 * How long a connection may be reused, so connections follow KMS endpoint DNS changes.
+		 */
+		private Duration connectionTimeToLive = KmsHttpClients.DEFAULT_CONNECTION_TIME_TO_LIVE;
+
+		public int getMaxConnections() {
+			return maxConnections;
+		}
+
+		public void setMaxConnections(int maxConnections) {
+			this.maxConnections = maxConnections;
+		}
+
+		public Duration getConnectionAcquisitionTimeout() {
+			return connectionAcquisitionTimeout;
+		}
+
+		public void setConnectionAcquisitionTimeout(Duration connectionAcquisitionTimeout) {
+			this.connectionAcquisitionTimeout = connectionAcquisitionTimeout;
+		}
+
+		public Duration getConnectionTimeout() {
+			return connectionTimeout;
+		}
+
+		public void setConnectionTimeout(Duration connectionTimeout) {
+			this.connectionTimeout = connectionTimeout;
+		}
+
+		public Duration getSocketTimeout() {
+			return socketTimeout;
+		}
+
+		public void setSocketTimeout(Duration socketTimeout) {
+			this.socketTimeout = socketTimeout;
+		}
+
+		public Duration getConnectionMaxIdleTime() {
+			return connectionMaxIdleTime;
+		}
+
+		public void setConnectionMaxIdleTime(Duration connectionMaxIdleTime) {
+			this.connectionMaxIdleTime = connectionMaxIdleTime;
+		}
+
+		public Duration getConnectionTimeToLive() {
+			return connectionTimeToLive;
+		}
+
+		public void setConnectionTimeToLive(Duration connectionTimeToLive) {
+			this.connectionTimeToLive = connectionTimeToLive;
+		}
+
+	}
+
+	/**
+	 * Caps the KMS requests in flight per key, however many request threads there are.
+	 */
+	public static class Concurrency {
+
+		private boolean enabled = false;
+
+		/**
+		 * Most requests in flight to KMS for one key.
+		 */
+		private int maxInFlightPerKey = KmsKeyConcurrencyLimitingClient.DEFAULT_MAX_IN_FLIGHT_PER_KEY;
+
+		/**
+		 * How long a request may wait for a slot before failing as throttled.
+		 */
+		private Duration maxWait = Duration.ofSeconds(1);
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getMaxInFlightPerKey() {
+			return maxInFlightPerKey;
+		}
+
+		public void setMaxInFlightPerKey(int maxInFlightPerKey) {
+			this.maxInFlightPerKey = maxInFlightPerKey;
+		}
+
+		public Duration getMaxWait() {
+			return maxWait;
+		}
+
+		public void setMaxWait(Duration maxWait) {
+			this.maxWait = maxWait;
+		}
+
+	}
+
+	/**
+	 * Offers the provider's non-blocking, coalescing {@code KmsAsyncSigner} to callers that can
+	 * consume a future. It routes by region, paces on the scheduler and takes the per-key
+	 * permits of the blocking client, whichever of those are enabled.
+	 */
+	public static class Async {
+
+		private boolean enabled = false;
+
+		/**
+		 * Most of the signer's Sign requests outstanding to KMS for one key, within the per-key
+		 * limits when those are enabled.
+		 */
+		private int maxInFlightPerKey = KmsAsyncSigner.DEFAULT_MAX_IN_FLIGHT_PER_KEY;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getMaxInFlightPerKey() {
+			return maxInFlightPerKey;
+		}
+
+		public void setMaxInFlightPerKey(int maxInFlightPerKey) {
+			this.maxInFlightPerKey = maxInFlightPerKey;
+		}
+
+	}
+
+}
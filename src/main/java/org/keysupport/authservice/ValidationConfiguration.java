@@ -0,0 +1,112 @@
+package org.keysupport.authservice;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Clock;
+
+import org.keysupport.authservice.validation.CachingCertificateValidator;
+import org.keysupport.authservice.validation.CertificateValidator;
+import org.keysupport.authservice.validation.CompiledPolicy;
+import org.keysupport.authservice.validation.IntermediateStore;
+import org.keysupport.authservice.validation.LocalCertificateValidator;
+import org.keysupport.authservice.validation.ValidationPolicy;
+import org.keysupport.authservice.validation.VssClient;
+import org.keysupport.authservice.validation.revocation.RevocationStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Client certificate validation for the RFC 8705 token flow.
+ */
+@Configuration
+@EnableConfigurationProperties(ValidationProperties.class)
+public class ValidationConfiguration {
+
+	@Bean
+	public VssClient vssClient(ValidationProperties properties) {
+		return new VssClient(properties.getVssBaseUri(), properties.getTimeout());
+	}
+
+	@Bean
+	public IntermediateStore intermediateStore(ValidationProperties properties) throws IOException {
+		IntermediateStore store = new IntermediateStore(properties.getIntermediateBundles(), properties.getBundleReloadInterval());
+		if (!properties.getIntermediateBundles().isEmpty()) {
+			store.start();
+		}
+		return store;
+	}
+
+	/**
+	 * In {@code LOCAL} mode validation never leaves the process; see {@link LocalValidationConfiguration}.
+	 * Either way, verdicts are cached, and dropped whenever a new CRL is indexed. Closing the
+	 * cache stops its revalidation threads.
+	 */
+	@Bean(destroyMethod = "close")
+	public CertificateValidator certificateValidator(VssClient vssClient,
+			ObjectProvider<LocalCertificateValidator> localValidator, ObjectProvider<RevocationStore> revocationStore,
+			ValidationProperties properties) {
+		CertificateValidator delegate = properties.getMode() == ValidationProperties.Mode.LOCAL
+				? localValidator.getObject()
+				: vssClient;
+		CachingCertificateValidator cachingValidator = new CachingCertificateValidator(delegate,
+				properties.getRefreshAhead(), properties.getMaximumSize(), Clock.systemUTC());
+		// Cached verdicts predate the new CRL; revalidate rather than serve a revoked certificate.
+		revocationStore.ifAvailable(store -> store.addListener(revocation -> cachingValidator.invalidateAll()));
+		return cachingValidator;
+	}
+
+	@Configuration
+	@ConditionalOnProperty(prefix = "keysupport.validation", name = "mode", havingValue = "local")
+	static class LocalValidationConfiguration {
+
+		/**
+		 * The default policy is fetched once from the validation service and compiled with the
+		 * intermediates from the local bundles (recompiled whenever they change), or from the
+		 * service when no bundles are configured.
+		 */
+		@Bean
+		public LocalCertificateValidator localCertificateValidator(VssClient vssClient,
+				IntermediateStore intermediateStore, ValidationProperties properties) throws GeneralSecurityException {
+			ValidationPolicy policy = vssClient.getPolicy(properties.getDefaultPolicyId());
+			LocalCertificateValidator localValidator = new LocalCertificateValidator();
+			if (properties.getIntermediateBundles().isEmpty()) {
+				localValidator.register(CompiledPolicy.compile(policy, vssClient.getIntermediates(properties.getDefaultPolicyId())));
+			} else {
+				localValidator.register(CompiledPolicy.compile(policy, intermediateStore.current().getCertificates()));
+				intermediateStore.addListener(index -> {
+					try {
+						localValidator.register(CompiledPolicy.compile(policy, index.getCertificates()));
+					} catch (GeneralSecurityException e) {
+						throw new IllegalStateException(e);
+					}
+				});
+			}
+			return localValidator;
+		}
+
+		/**
+		 * With a CRL directory, revocation is checked locally too, against serial indexes of the
+		 * CRLs that persist across restarts. Closing the store stops its reload thread and
+		 * releases the mapped index files.
+		 */
+		@Bean(destroyMethod = "close")
+		@ConditionalOnProperty(prefix = "keysupport.validation", name = "crl-directory")
+		public RevocationStore revocationStore(LocalCertificateValidator localValidator, ValidationProperties properties)
+				throws IOException {
+			Path indexDirectory = properties.getCrlIndexDirectory() != null
+					? properties.getCrlIndexDirectory()
+					: properties.getCrlDirectory().resolve("index");
+			RevocationStore revocationStore = new RevocationStore(properties.getCrlDirectory(), indexDirectory,
+					properties.getCrlReloadInterval(), localValidator::findCertificatesBySubject);
+			revocationStore.start();
+			localValidator.setRevocationStore(revocationStore);
+			return revocationStore;
+		}
+
+	}
+
+}
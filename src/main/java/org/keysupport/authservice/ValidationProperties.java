@@ -0,0 +1,165 @@
+package org.keysupport.authservice;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.keysupport.authservice.validation.CachingCertificateValidator;
+import org.keysupport.authservice.validation.VssClient;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Client certificate validation settings, bound from {@code keysupport.validation.*}.
+ */
+@ConfigurationProperties(prefix = "keysupport.validation")
+public class ValidationProperties {
+
+	/**
+	 * Where certificates are validated: by calling the validation service, or in-process
+	 * against the compiled policy.
+	 */
+	private Mode mode = Mode.VSS;
+
+	/**
+	 * Base URI of the reference validation service.
+	 */
+	private URI vssBaseUri = VssClient.DEFAULT_BASE_URI;
+
+	/**
+	 * Policy applied when the client does not ask for one, e.g. "aal3".
+	 */
+	private String defaultPolicyId = "cc54e0ec-49da-333a-8150-2dd00b758b17";
+
+	private Duration timeout = Duration.ofSeconds(5);
+
+	/**
+	 * Local CMS hint list bundles (.p7b) with the intermediates for {@code LOCAL} mode. When
+	 * empty, the intermediates are fetched from the validation service at startup.
+	 */
+	private List<Path> intermediateBundles = new ArrayList<>();
+
+	/**
+	 * How often the intermediate bundles are checked for changes.
+	 */
+	private Duration bundleReloadInterval = Duration.ofMinutes(1);
+
+	/**
+	 * Fraction of a cached result's lifetime, at its end, during which reads trigger a
+	 * background revalidation.
+	 */
+	private double refreshAhead = CachingCertificateValidator.DEFAULT_REFRESH_AHEAD;
+
+	private int maximumSize = CachingCertificateValidator.DEFAULT_MAXIMUM_SIZE;
+
+	/**
+	 * Directory of DER encoded complete and delta CRLs (.crl) checked in {@code LOCAL} mode.
+	 * When unset, revocation is not checked locally.
+	 */
+	private Path crlDirectory;
+
+	/**
+	 * Where the CRL serial indexes are kept across restarts; "index" under the CRL directory
+	 * when unset.
+	 */
+	private Path crlIndexDirectory;
+
+	/**
+	 * How often the CRL directory is checked for new CRLs.
+	 */
+	private Duration crlReloadInterval = Duration.ofMinutes(5);
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	public URI getVssBaseUri() {
+		return vssBaseUri;
+	}
+
+	public void setVssBaseUri(URI vssBaseUri) {
+		this.vssBaseUri = vssBaseUri;
+	}
+
+	public String getDefaultPolicyId() {
+		return defaultPolicyId;
+	}
+
+	public void setDefaultPolicyId(String defaultPolicyId) {
+		this.defaultPolicyId = defaultPolicyId;
+	}
+
+	public Duration getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(Duration timeout) {
+		this.timeout = timeout;
+	}
+
+	public List<Path> getIntermediateBundles() {
+		return intermediateBundles;
+	}
+
+	public void setIntermediateBundles(List<Path> intermediateBundles) {
+		this.intermediateBundles = intermediateBundles;
+	}
+
+	public Duration getBundleReloadInterval() {
+		return bundleReloadInterval;
+	}
+
+	public void setBundleReloadInterval(Duration bundleReloadInterval) {
+		this.bundleReloadInterval = bundleReloadInterval;
+	}
+
+	public double getRefreshAhead() {
+		return refreshAhead;
+	}
+
+	public void setRefreshAhead(double refreshAhead) {
+		this.refreshAhead = refreshAhead;
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public void setMaximumSize(int maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+
+	public Path getCrlDirectory() {
+		return crlDirectory;
+	}
+
+	public void setCrlDirectory(Path crlDirectory) {
+		this.crlDirectory = crlDirectory;
+	}
+
+	public Path getCrlIndexDirectory() {
+		return crlIndexDirectory;
+	}
+
+	public void setCrlIndexDirectory(Path crlIndexDirectory) {
+		this.crlIndexDirectory = crlIndexDirectory;
+	}
+
+	public Duration getCrlReloadInterval() {
+		return crlReloadInterval;
+	}
+
+	public void setCrlReloadInterval(Duration crlReloadInterval) {
+		this.crlReloadInterval = crlReloadInterval;
+	}
+
+	public enum Mode {
+		VSS, LOCAL
+	}
+
+}
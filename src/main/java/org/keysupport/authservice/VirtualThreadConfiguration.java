@@ -0,0 +1,34 @@
+package org.keysupport.authservice;
+
+import org.keysupport.authservice.web.VirtualThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Handles each HTTP request on its own virtual thread when {@code keysupport.threads.virtual=true},
+ * so the token endpoint's blocking KMS calls park a virtual thread rather than hold one of
+ * Tomcat's 200 platform threads; the per-key limits of {@code keysupport.kms.concurrency} then
+ * bound what reaches KMS. On a runtime without virtual threads Tomcat keeps its own pool.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "keysupport.threads", name = "virtual", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+	private static final Logger log = LoggerFactory.getLogger(VirtualThreadConfiguration.class);
+
+	@Bean
+	public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+		if (!VirtualThreads.isAvailable()) {
+			log.warn("keysupport.threads.virtual is set, but Java {} has no virtual threads; "
+					+ "requests are handled on Tomcat's thread pool", System.getProperty("java.version"));
+			return protocolHandler -> {
+			};
+		}
+		return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("tomcat-handler-"));
+	}
+
+}
@@ -0,0 +1,53 @@
+package org.keysupport.authservice;
+
+import java.time.Duration;
+import java.util.Set;
+
+import org.keysupport.authservice.jose.KmsJwkSet;
+import org.keysupport.authservice.web.CachedDocumentFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.server.authorization.settings.AuthorizationServerSettings;
+
+/**
+ * Serves the JWKS and the discovery documents from pre-serialized, ETag-tagged bytes ahead of
+ * the Spring Security filter chain, so polling resource servers never rebuild them. The
+ * discovery documents name the issuer, so they are only held when
+ * {@code spring.security.oauth2.authorizationserver.issuer} is set, as the shipped
+ * configuration does.
+ */
+@Configuration
+public class WellKnownDocumentConfiguration {
+
+	private static final Logger log = LoggerFactory.getLogger(WellKnownDocumentConfiguration.class);
+
+	@Bean
+	public FilterRegistrationBean<CachedDocumentFilter> cachedDocumentFilter(
+			ObjectProvider<AuthorizationServerSettings> authorizationServerSettings,
+			ObjectProvider<KmsJwkSet> kmsJwkSet,
+			@Value("${keysupport.well-known.max-age:1h}") Duration maxAge) {
+		AuthorizationServerSettings settings = authorizationServerSettings
+				.getIfAvailable(() -> AuthorizationServerSettings.builder().build());
+		KmsJwkSet jwkSet = kmsJwkSet.getIfAvailable();
+		if (settings.getIssuer() == null) {
+			log.warn("spring.security.oauth2.authorizationserver.issuer is not set, so the discovery documents are "
+					+ "built for every request");
+		}
+		CachedDocumentFilter filter = new CachedDocumentFilter(
+				settings.getJwkSetEndpoint(),
+				jwkSet == null ? null : jwkSet::getDocument,
+				Set.of("/.well-known/openid-configuration", "/.well-known/oauth-authorization-server"),
+				settings.getIssuer(),
+				maxAge);
+		FilterRegistrationBean<CachedDocumentFilter> registration = new FilterRegistrationBean<>(filter);
+		registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 1);
+		return registration;
+	}
+
+}
@@ -0,0 +1,681 @@
+package org.keysupport.authservice.authorization;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.jackson2.SecurityJackson2Modules;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2DeviceCode;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.security.oauth2.core.OAuth2UserCode;
+import org.springframework.security.oauth2.core.OAuth2Token;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationResponseType;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationCode;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.jackson2.OAuth2AuthorizationServerJackson2Module;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+
+/**
+ * Compact binary encoding of an {@link OAuth2Authorization}.
+ * <p>
+ * Fields are written in a fixed order with variable-length integers for lengths and
+ * timestamps, so a typical client credentials authorization with a JWT access token encodes
+ * to little more than the token itself. Attribute and token metadata values are tagged: the
+ * types the authorization server actually stores (strings, numbers, instants, collections,
+ * claim maps, the authenticated user and the authorization request) have their own compact
+ * forms, and anything else falls back to Spring Security's allowlisted Jackson mapping, as
+ * {@code JdbcOAuth2AuthorizationService} uses for everything.
+ * <p>
+ * The registered client is not encoded, only its id; it is looked up on decode.
+ */
+public final class AuthorizationCodec {
+
+	private static final byte VERSION = 1;
+
+	private static final byte AUTHORIZATION_CODE = 1;
+	private static final byte ACCESS_TOKEN = 2;
+	private static final byte REFRESH_TOKEN = 3;
+	private static final byte ID_TOKEN = 4;
+	private static final byte DEVICE_CODE = 5;
+	private static final byte USER_CODE = 6;
+
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte TRUE = 2;
+	private static final byte FALSE = 3;
+	private static final byte INTEGER = 4;
+	private static final byte LONG = 5;
+	private static final byte DOUBLE = 6;
+	private static final byte INSTANT = 7;
+	private static final byte URL = 8;
+	private static final byte LIST = 9;
+	private static final byte SET = 10;
+	private static final byte MAP = 11;
+	private static final byte STRING_ARRAY = 12;
+	private static final byte USERNAME_PASSWORD_AUTHENTICATION = 13;
+	private static final byte AUTHORIZATION_REQUEST = 14;
+	private static final byte JSON = 15;
+
+	private static final String JSON_VALUE = "value";
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	public AuthorizationCodec() {
+		ClassLoader classLoader = AuthorizationCodec.class.getClassLoader();
+		objectMapper.registerModules(SecurityJackson2Modules.getModules(classLoader));
+		objectMapper.registerModule(new OAuth2AuthorizationServerJackson2Module());
+	}
+
+	/**
+	 * @param authorization
+	 * @return
+	 * @throws IllegalArgumentException if the authorization holds a token type this codec
+	 *             does not know
+	 */
+	public byte[] encode(OAuth2Authorization authorization) {
+		Writer out = new Writer();
+		out.writeByte(VERSION);
+		out.writeString(authorization.getId());
+		out.writeString(authorization.getRegisteredClientId());
+		out.writeString(authorization.getPrincipalName());
+		out.writeString(authorization.getAuthorizationGrantType().getValue());
+		out.writeVarInt(authorization.getAuthorizedScopes().size());
+		for (String scope : authorization.getAuthorizedScopes()) {
+			out.writeString(scope);
+		}
+		List<OAuth2Authorization.Token<?>> tokens = tokens(authorization);
+		out.writeVarInt(tokens.size());
+		for (OAuth2Authorization.Token<?> token : tokens) {
+			writeToken(out, token);
+		}
+		writeMap(out, authorization.getAttributes());
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param encoded
+	 * @param registeredClient the client whose id was encoded
+	 * @return
+	 * @throws IOException if the encoding is malformed or of an unknown version
+	 */
+	public OAuth2Authorization decode(byte[] encoded, RegisteredClient registeredClient) throws IOException {
+		try {
+			Reader in = new Reader(ByteBuffer.wrap(encoded));
+			checkVersion(in);
+			OAuth2Authorization.Builder builder = OAuth2Authorization.withRegisteredClient(registeredClient)
+					.id(in.readString());
+			String registeredClientId = in.readString();
+			if (!registeredClientId.equals(registeredClient.getId())) {
+				throw new IOException("Authorization is for client " + registeredClientId + ", not " + registeredClient.getId());
+			}
+			builder.principalName(in.readString())
+					.authorizationGrantType(new AuthorizationGrantType(in.readString()));
+			int scopeCount = in.readCount();
+			Set<String> scopes = new LinkedHashSet<>();
+			for (int i = 0; i < scopeCount; i++) {
+				scopes.add(in.readString());
+			}
+			builder.authorizedScopes(scopes);
+			int tokenCount = in.readCount();
+			for (int i = 0; i < tokenCount; i++) {
+				readToken(in, builder);
+			}
+			Map<String, Object> attributes = readMap(in);
+			builder.attributes(values -> values.putAll(attributes));
+			if (in.buffer.hasRemaining()) {
+				throw new IOException("Trailing bytes after encoded authorization");
+			}
+			return builder.build();
+		} catch (BufferUnderflowException | IllegalArgumentException | ClassCastException e) {
+			// A value of the wrong type where a token's times or scopes belong is as malformed as a short read.
+			throw new IOException("Malformed encoded authorization", e);
+		}
+	}
+
+	/**
+	 * @param encoded
+	 * @return the id of the registered client the authorization is for, read without decoding
+	 *         the rest
+	 * @throws IOException if the encoding is malformed or of an unknown version
+	 */
+	public String readRegisteredClientId(byte[] encoded) throws IOException {
+		try {
+			Reader in = new Reader(ByteBuffer.wrap(encoded));
+			checkVersion(in);
+			in.readString();
+			return in.readString();
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Malformed encoded authorization", e);
+		}
+	}
+
+	private static void checkVersion(Reader in) throws IOException {
+		byte version = in.buffer.get();
+		if (version != VERSION) {
+			throw new IOException("Unsupported encoded authorization version " + version);
+		}
+	}
+
+	/**
+	 * @return the authorization's tokens of the types this codec encodes, in encoding order
+	 */
+	static List<OAuth2Authorization.Token<?>> tokens(OAuth2Authorization authorization) {
+		List<OAuth2Authorization.Token<?>> tokens = new ArrayList<>(6);
+		for (Class<? extends OAuth2Token> type : List.of(OAuth2AuthorizationCode.class, OAuth2AccessToken.class,
+				OAuth2RefreshToken.class, OidcIdToken.class, OAuth2DeviceCode.class, OAuth2UserCode.class)) {
+			OAuth2Authorization.Token<?> token = authorization.getToken(type);
+			if (token != null) {
+				tokens.add(token);
+			}
+		}
+		return tokens;
+	}
+
+	private void writeToken(Writer out, OAuth2Authorization.Token<?> token) {
+		OAuth2Token value = token.getToken();
+		if (value instanceof OAuth2AuthorizationCode) {
+			out.writeByte(AUTHORIZATION_CODE);
+		} else if (value instanceof OAuth2AccessToken) {
+			out.writeByte(ACCESS_TOKEN);
+		} else if (value instanceof OAuth2RefreshToken) {
+			out.writeByte(REFRESH_TOKEN);
+		} else if (value instanceof OidcIdToken) {
+			out.writeByte(ID_TOKEN);
+		} else if (value instanceof OAuth2DeviceCode) {
+			out.writeByte(DEVICE_CODE);
+		} else if (value instanceof OAuth2UserCode) {
+			out.writeByte(USER_CODE);
+		} else {
+			throw new IllegalArgumentException("Unsupported token type " + value.getClass().getName());
+		}
+		out.writeString(value.getTokenValue());
+		writeValue(out, value.getIssuedAt());
+		writeValue(out, value.getExpiresAt());
+		if (value instanceof OAuth2AccessToken) {
+			OAuth2AccessToken accessToken = (OAuth2AccessToken) value;
+			out.writeString(accessToken.getTokenType().getValue());
+			writeValue(out, accessToken.getScopes());
+		}
+		writeMap(out, token.getMetadata());
+	}
+
+	private void readToken(Reader in, OAuth2Authorization.Builder builder) throws IOException {
+		byte kind = in.buffer.get();
+		String value = in.readString();
+		Instant issuedAt = (Instant) readValue(in);
+		Instant expiresAt = (Instant) readValue(in);
+		OAuth2AccessToken.TokenType tokenType = null;
+		Set<String> scopes = null;
+		if (kind == ACCESS_TOKEN) {
+			String type = in.readString();
+			if (!OAuth2AccessToken.TokenType.BEARER.getValue().equalsIgnoreCase(type)) {
+				throw new IOException("Unsupported access token type " + type);
+			}
+			tokenType = OAuth2AccessToken.TokenType.BEARER;
+			@SuppressWarnings("unchecked")
+			Set<String> accessTokenScopes = (Set<String>) readValue(in);
+			scopes = accessTokenScopes;
+		}
+		Map<String, Object> metadata = readMap(in);
+		OAuth2Token token;
+		switch (kind) {
+			case AUTHORIZATION_CODE:
+				token = new OAuth2AuthorizationCode(value, issuedAt, expiresAt);
+				break;
+			case ACCESS_TOKEN:
+				token = new OAuth2AccessToken(tokenType, value, issuedAt, expiresAt, scopes);
+				break;
+			case REFRESH_TOKEN:
+				token = new OAuth2RefreshToken(value, issuedAt, expiresAt);
+				break;
+			case ID_TOKEN:
+				@SuppressWarnings("unchecked")
+				Map<String, Object> claims = (Map<String, Object>) metadata.get(OAuth2Authorization.Token.CLAIMS_METADATA_NAME);
+				token = new OidcIdToken(value, issuedAt, expiresAt, claims);
+				break;
+			case DEVICE_CODE:
+				token = new OAuth2DeviceCode(value, issuedAt, expiresAt);
+				break;
+			case USER_CODE:
+				token = new OAuth2UserCode(value, issuedAt, expiresAt);
+				break;
+			default:
+				throw new IOException("Unknown token kind " + kind);
+		}
+		builder.token(token, values -> values.putAll(metadata));
+	}
+
+	private void writeMap(Writer out, Map<String, Object> map) {
+		out.writeVarInt(map.size());
+		for (Map.Entry<String, Object> entry : map.entrySet()) {
+			out.writeString(entry.getKey());
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	private Map<String, Object> readMap(Reader in) throws IOException {
+		int size = in.readCount();
+		Map<String, Object> map = new LinkedHashMap<>(Math.max(4, size * 2));
+		for (int i = 0; i < size; i++) {
+			map.put(in.readString(), readValue(in));
+		}
+		return map;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeValue(Writer out, Object value) {
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof String) {
+			out.writeByte(STRING);
+			out.writeString((String) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeVarLong(zigZag((Integer) value));
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeVarLong(zigZag((Long) value));
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeLong(Double.doubleToLongBits((Double) value));
+		} else if (value instanceof Instant) {
+			Instant instant = (Instant) value;
+			out.writeByte(INSTANT);
+			out.writeVarLong(zigZag(instant.getEpochSecond()));
+			out.writeVarInt(instant.getNano());
+		} else if (value instanceof URL) {
+			out.writeByte(URL);
+			out.writeString(value.toString());
+		} else if (value instanceof String[]) {
+			String[] strings = (String[]) value;
+			out.writeByte(STRING_ARRAY);
+			out.writeVarInt(strings.length);
+			for (String string : strings) {
+				out.writeString(string);
+			}
+		} else if ((value instanceof List || value instanceof Set) && isPlain(value)) {
+			Collection<?> collection = (Collection<?>) value;
+			out.writeByte(value instanceof Set ? SET : LIST);
+			out.writeVarInt(collection.size());
+			for (Object element : collection) {
+				writeValue(out, element);
+			}
+		} else if (value instanceof Map && hasStringKeys((Map<?, ?>) value) && isPlain(value)) {
+			out.writeByte(MAP);
+			writeMap(out, (Map<String, Object>) value);
+		} else if (isNativeAuthentication(value)) {
+			writeAuthentication(out, (UsernamePasswordAuthenticationToken) value);
+		} else if (value instanceof OAuth2AuthorizationRequest
+				&& AuthorizationGrantType.AUTHORIZATION_CODE.equals(((OAuth2AuthorizationRequest) value).getGrantType())) {
+			writeAuthorizationRequest(out, (OAuth2AuthorizationRequest) value);
+		} else {
+			out.writeByte(JSON);
+			out.writeBytes(writeJson(value));
+		}
+	}
+
+	private Object readValue(Reader in) throws IOException {
+		byte tag = in.buffer.get();
+		switch (tag) {
+			case NULL:
+				return null;
+			case STRING:
+				return in.readString();
+			case TRUE:
+				return Boolean.TRUE;
+			case FALSE:
+				return Boolean.FALSE;
+			case INTEGER:
+				return (int) unZigZag(in.readVarLong());
+			case LONG:
+				return unZigZag(in.readVarLong());
+			case DOUBLE:
+				return Double.longBitsToDouble(in.buffer.getLong());
+			case INSTANT:
+				return Instant.ofEpochSecond(unZigZag(in.readVarLong()), in.readVarLong());
+			case URL:
+				try {
+					return new URL(in.readString());
+				} catch (MalformedURLException e) {
+					throw new IOException(e);
+				}
+			case STRING_ARRAY: {
+				String[] strings = new String[in.readCount()];
+				for (int i = 0; i < strings.length; i++) {
+					strings[i] = in.readString();
+				}
+				return strings;
+			}
+			case LIST:
+			case SET: {
+				int size = in.readCount();
+				Collection<Object> collection = tag == SET ? new LinkedHashSet<>(Math.max(4, size * 2)) : new ArrayList<>(size);
+				for (int i = 0; i < size; i++) {
+					collection.add(readValue(in));
+				}
+				return collection;
+			}
+			case MAP:
+				return readMap(in);
+			case USERNAME_PASSWORD_AUTHENTICATION:
+				return readAuthentication(in);
+			case AUTHORIZATION_REQUEST:
+				return readAuthorizationRequest(in);
+			case JSON:
+				return readJson(in.readBytes());
+			default:
+				throw new IOException("Unknown value tag " + tag);
+		}
+	}
+
+	/**
+	 * The user authentication of a login form, with no credentials and plain authorities.
+	 */
+	private static boolean isNativeAuthentication(Object value) {
+		if (value == null || value.getClass() != UsernamePasswordAuthenticationToken.class) {
+			return false;
+		}
+		UsernamePasswordAuthenticationToken authentication = (UsernamePasswordAuthenticationToken) value;
+		Object principal = authentication.getPrincipal();
+		Object details = authentication.getDetails();
+		return authentication.getCredentials() == null
+				&& (principal instanceof String || (principal != null && principal.getClass() == User.class))
+				&& (details == null || details.getClass() == WebAuthenticationDetails.class)
+				&& authentication.getAuthorities().stream().allMatch(authority -> authority.getClass() == SimpleGrantedAuthority.class)
+				&& (!(principal instanceof User) || ((User) principal).getAuthorities().stream()
+						.allMatch(authority -> authority.getClass() == SimpleGrantedAuthority.class));
+	}
+
+	private static void writeAuthentication(Writer out, UsernamePasswordAuthenticationToken authentication) {
+		out.writeByte(USERNAME_PASSWORD_AUTHENTICATION);
+		out.writeByte((byte) (authentication.isAuthenticated() ? 1 : 0));
+		writeAuthorities(out, authentication.getAuthorities());
+		if (authentication.getPrincipal() instanceof User) {
+			User user = (User) authentication.getPrincipal();
+			out.writeByte((byte) 1);
+			out.writeString(user.getUsername());
+			out.writeByte((byte) ((user.isEnabled() ? 1 : 0) | (user.isAccountNonExpired() ? 2 : 0)
+					| (user.isCredentialsNonExpired() ? 4 : 0) | (user.isAccountNonLocked() ? 8 : 0)));
+			writeAuthorities(out, user.getAuthorities());
+		} else {
+			out.writeByte((byte) 0);
+			out.writeString((String) authentication.getPrincipal());
+		}
+		WebAuthenticationDetails details = (WebAuthenticationDetails) authentication.getDetails();
+		out.writeByte((byte) (details == null ? 0 : 1));
+		if (details != null) {
+			out.writeNullableString(details.getRemoteAddress());
+			out.writeNullableString(details.getSessionId());
+		}
+	}
+
+	private static UsernamePasswordAuthenticationToken readAuthentication(Reader in) throws IOException {
+		boolean authenticated = in.buffer.get() == 1;
+		List<GrantedAuthority> authorities = readAuthorities(in);
+		Object principal;
+		if (in.buffer.get() == 1) {
+			String username = in.readString();
+			int flags = in.buffer.get();
+			// Credentials are erased before an authorization is saved; User cannot hold null.
+			principal = new User(username, "", (flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0, (flags & 8) != 0,
+					readAuthorities(in));
+		} else {
+			principal = in.readString();
+		}
+		UsernamePasswordAuthenticationToken authentication = authenticated
+				? UsernamePasswordAuthenticationToken.authenticated(principal, null, authorities)
+				: UsernamePasswordAuthenticationToken.unauthenticated(principal, null);
+		if (in.buffer.get() == 1) {
+			authentication.setDetails(new WebAuthenticationDetails(in.readNullableString(), in.readNullableString()));
+		}
+		return authentication;
+	}
+
+	private static void writeAuthorities(Writer out, Collection<? extends GrantedAuthority> authorities) {
+		out.writeVarInt(authorities.size());
+		for (GrantedAuthority authority : authorities) {
+			out.writeString(authority.getAuthority());
+		}
+	}
+
+	private static List<GrantedAuthority> readAuthorities(Reader in) throws IOException {
+		int size = in.readCount();
+		List<GrantedAuthority> authorities = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			authorities.add(new SimpleGrantedAuthority(in.readString()));
+		}
+		return authorities;
+	}
+
+	private void writeAuthorizationRequest(Writer out, OAuth2AuthorizationRequest request) {
+		out.writeByte(AUTHORIZATION_REQUEST);
+		out.writeString(request.getAuthorizationUri());
+		out.writeString(request.getClientId());
+		out.writeNullableString(request.getRedirectUri());
+		writeValue(out, request.getScopes());
+		out.writeNullableString(request.getState());
+		writeMap(out, request.getAdditionalParameters());
+		writeMap(out, request.getAttributes());
+		out.writeNullableString(request.getAuthorizationRequestUri());
+	}
+
+	@SuppressWarnings("unchecked")
+	private OAuth2AuthorizationRequest readAuthorizationRequest(Reader in) throws IOException {
+		OAuth2AuthorizationRequest.Builder builder = OAuth2AuthorizationRequest.authorizationCode()
+				.authorizationUri(in.readString())
+				.clientId(in.readString())
+				.redirectUri(in.readNullableString())
+				.scopes((Set<String>) readValue(in))
+				.state(in.readNullableString());
+		Map<String, Object> additionalParameters = readMap(in);
+		Map<String, Object> attributes = readMap(in);
+		String authorizationRequestUri = in.readNullableString();
+		builder.additionalParameters(additionalParameters).attributes(attributes);
+		if (authorizationRequestUri != null) {
+			builder.authorizationRequestUri(authorizationRequestUri);
+		}
+		OAuth2AuthorizationRequest request = builder.build();
+		if (!OAuth2AuthorizationResponseType.CODE.equals(request.getResponseType())) {
+			throw new IOException("Unexpected authorization request response type");
+		}
+		return request;
+	}
+
+	private byte[] writeJson(Object value) {
+		Map<String, Object> wrapper = new HashMap<>(2);
+		wrapper.put(JSON_VALUE, value);
+		try {
+			return objectMapper.writeValueAsBytes(wrapper);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot encode " + value.getClass().getName(), e);
+		}
+	}
+
+	private Object readJson(byte[] json) throws IOException {
+		Map<String, Object> wrapper = objectMapper.readValue(json, new TypeReference<Map<String, Object>>() {
+		});
+		return wrapper.get(JSON_VALUE);
+	}
+
+	/**
+	 * Whether a collection or map is one of the JDK's general purpose implementations, so
+	 * decoding it as a {@link LinkedHashMap}, {@link LinkedHashSet} or {@link ArrayList} loses
+	 * nothing the application relies on.
+	 */
+	private static boolean isPlain(Object value) {
+		String name = value.getClass().getName();
+		return name.startsWith("java.util.");
+	}
+
+	private static boolean hasStringKeys(Map<?, ?> map) {
+		for (Object key : map.keySet()) {
+			if (!(key instanceof String)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static final class Writer {
+
+		private byte[] bytes = new byte[256];
+		private int length;
+
+		void writeByte(byte value) {
+			ensure(1);
+			bytes[length++] = value;
+		}
+
+		void writeLong(long value) {
+			ensure(8);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				bytes[length++] = (byte) (value >>> shift);
+			}
+		}
+
+		void writeVarInt(int value) {
+			writeVarLong(value & 0xffffffffL);
+		}
+
+		void writeVarLong(long value) {
+			ensure(10);
+			while ((value & ~0x7fL) != 0) {
+				bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+		}
+
+		void writeBytes(byte[] value) {
+			writeVarInt(value.length);
+			ensure(value.length);
+			System.arraycopy(value, 0, bytes, length, value.length);
+			length += value.length;
+		}
+
+		void writeString(String value) {
+			writeBytes(value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * Strings that may be null are written with their length plus one, zero for null.
+		 */
+		void writeNullableString(String value) {
+			if (value == null) {
+				writeVarInt(0);
+				return;
+			}
+			byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(encoded.length + 1);
+			ensure(encoded.length);
+			System.arraycopy(encoded, 0, bytes, length, encoded.length);
+			length += encoded.length;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(bytes, length);
+		}
+
+		private void ensure(int additional) {
+			if (length + additional > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+			}
+		}
+	}
+
+	private static final class Reader {
+
+		private final ByteBuffer buffer;
+
+		Reader(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				byte b = buffer.get();
+				value |= (long) (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Malformed variable-length integer");
+		}
+
+		/**
+		 * @return a length or count, checked against what is left to read: every byte or
+		 *         element takes at least one more, so a corrupt count cannot allocate much
+		 */
+		int readCount() throws IOException {
+			long value = readVarLong();
+			if (value < 0 || value > buffer.remaining() + 1L) {
+				throw new IOException("Malformed length " + value);
+			}
+			return (int) value;
+		}
+
+		byte[] readBytes() throws IOException {
+			int length = readCount();
+			if (length > buffer.remaining()) {
+				throw new IOException("Truncated encoded authorization");
+			}
+			byte[] value = new byte[length];
+			buffer.get(value);
+			return value;
+		}
+
+		String readString() throws IOException {
+			return new String(readBytes(), StandardCharsets.UTF_8);
+		}
+
+		String readNullableString() throws IOException {
+			int length = readCount();
+			if (length == 0) {
+				return null;
+			}
+			if (length - 1 > buffer.remaining()) {
+				throw new IOException("Truncated encoded authorization");
+			}
+			String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length - 1, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length - 1);
+			return value;
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+package org.keysupport.authservice.authorization;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Stores already encoded values as the raw item data, tagged with a flag so items written by
+ * anything else (another client's serializing transcoder, an older format) read as absent
+ * rather than as garbage.
+ */
+final class EncodedAuthorizationTranscoder implements Transcoder<byte[]> {
+
+	/**
+	 * "K" in the type byte, beyond the stock spymemcached types and without their serialized
+	 * or compressed bits. Kept short: spymemcached sizes the text protocol's store command
+	 * line for small flags, and an absolute expiration already takes ten digits.
+	 */
+	static final int FLAGS = 0x4b00;
+
+	static final EncodedAuthorizationTranscoder INSTANCE = new EncodedAuthorizationTranscoder();
+
+	@Override
+	public boolean asyncDecode(CachedData data) {
+		return false;
+	}
+
+	@Override
+	public CachedData encode(byte[] value) {
+		return new CachedData(FLAGS, value, getMaxSize());
+	}
+
+	@Override
+	public byte[] decode(CachedData data) {
+		return data.getFlags() == FLAGS ? data.getData() : null;
+	}
+
+	@Override
+	public int getMaxSize() {
+		return CachedData.MAX_SIZE;
+	}
+
+}
@@ -0,0 +1,485 @@
+package org.keysupport.authservice.authorization;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.OperationFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2DeviceCode;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.security.oauth2.core.OAuth2UserCode;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.endpoint.OidcParameterNames;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationCode;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationService;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClientRepository;
+
+/**
+ * An {@link OAuth2AuthorizationService} shared by every node through memcached, with a small
+ * local near-cache in front.
+ * <p>
+ * Each authorization is one item, {@link AuthorizationCodec encoded} compactly and keyed by a
+ * hash of its id. Every token value and the {@code state} attribute get a pointer item, keyed
+ * by a hash of the value, holding the authorization id; values are hashed so no credential
+ * ever appears in the memcached key space. A lookup by token follows the pointer and then
+ * checks the authorization really holds that token with the requested type, so pointers left
+ * behind by a rotated refresh token or an earlier save lead nowhere. Items expire with the
+ * authorization's last token.
+ * <p>
+ * Writes are asynchronous: {@link #save} and {@link #remove} update the near-cache and queue
+ * the memcached operations without waiting for them; failures are logged. The exception is
+ * saving an authorization that holds an unredeemed authorization or device code, which waits
+ * up to the {@link #setTimeout timeout} for its items to be stored, as the code may be
+ * redeemed on another node as soon as it is handed out. This node reads its
+ * own writes through the near-cache and, for items not cached, through the client's in-order
+ * connection to each server. Other nodes may serve the previous state of an authorization
+ * from their near-cache for up to its time-to-live, so it bounds how long an authorization
+ * code or refresh token used on one node can still be accepted on another; keep it short, or
+ * zero to disable the near-cache.
+ */
+public class MemcachedOAuth2AuthorizationService implements OAuth2AuthorizationService, AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(MemcachedOAuth2AuthorizationService.class);
+
+	public static final Duration DEFAULT_NEAR_CACHE_TTL = Duration.ofSeconds(2);
+	public static final int DEFAULT_NEAR_CACHE_MAXIMUM_SIZE = 10_000;
+
+	/**
+	 * Expiration times beyond this many seconds are taken by memcached as absolute unix times.
+	 */
+	private static final long MAXIMUM_RELATIVE_EXPIRATION = Duration.ofDays(30).toSeconds();
+
+	private static final String AUTHORIZATION_KEY = "a:";
+	private static final String TOKEN_KEY = "t:";
+
+	private final MemcachedClient client;
+	private final RegisteredClientRepository registeredClientRepository;
+	private final AuthorizationCodec codec = new AuthorizationCodec();
+	private final Set<Future<Boolean>> pendingWrites = ConcurrentHashMap.newKeySet();
+
+	private String keyPrefix = "oauth2:";
+	private Duration timeout = Duration.ofMillis(500);
+	private Duration unexpiringTtl = Duration.ofMinutes(10);
+	private Duration maximumTtl = Duration.ofDays(30);
+	private Duration nearCacheTtl = DEFAULT_NEAR_CACHE_TTL;
+	private Clock clock = Clock.systemUTC();
+	private Map<String, NearCacheEntry> nearCache;
+
+	public MemcachedOAuth2AuthorizationService(MemcachedClient client, RegisteredClientRepository registeredClientRepository) {
+		this.client = client;
+		this.registeredClientRepository = registeredClientRepository;
+		setNearCacheMaximumSize(DEFAULT_NEAR_CACHE_MAXIMUM_SIZE);
+	}
+
+	@Override
+	public void save(OAuth2Authorization authorization) {
+		byte[] encoded = codec.encode(authorization);
+		int expiration = expiration(authorization);
+		String authorizationKey = authorizationKey(authorization.getId());
+		List<String> tokenKeys = tokenKeys(authorization);
+		if (!nearCacheTtl.isZero()) {
+			long expiresAt = clock.millis() + nearCacheTtl.toMillis();
+			nearCache.put(authorizationKey, new NearCacheEntry(authorization, expiresAt));
+			NearCacheEntry pointer = new NearCacheEntry(authorization.getId(), expiresAt);
+			tokenKeys.forEach(key -> nearCache.put(key, pointer));
+		}
+		List<OperationFuture<Boolean>> writes = new ArrayList<>(tokenKeys.size() + 1);
+		// The record before its pointers, so a pointer rarely leads to a record not yet stored.
+		writes.add(track(client.set(authorizationKey, expiration, encoded, EncodedAuthorizationTranscoder.INSTANCE),
+				authorizationKey));
+		byte[] id = authorization.getId().getBytes(StandardCharsets.UTF_8);
+		for (String tokenKey : tokenKeys) {
+			writes.add(track(client.set(tokenKey, expiration, id, EncodedAuthorizationTranscoder.INSTANCE), tokenKey));
+		}
+		if (holdsUnredeemedCode(authorization)) {
+			awaitStored(writes);
+		}
+	}
+
+	@Override
+	public void remove(OAuth2Authorization authorization) {
+		List<String> keys = new ArrayList<>(tokenKeys(authorization));
+		keys.add(0, authorizationKey(authorization.getId()));
+		for (String key : keys) {
+			nearCache.remove(key);
+			track(client.delete(key), key);
+		}
+	}
+
+	@Override
+	public OAuth2Authorization findById(String id) {
+		OAuth2Authorization authorization = find(id);
+		return authorization != null && authorization.getId().equals(id) ? authorization : null;
+	}
+
+	@Override
+	public OAuth2Authorization findByToken(String token, OAuth2TokenType tokenType) {
+		String tokenKey = tokenKey(token);
+		NearCacheEntry pointer = fromNearCache(tokenKey);
+		String id;
+		if (pointer != null) {
+			id = pointer.id;
+		} else {
+			byte[] encodedId = get(tokenKey);
+			if (encodedId == null) {
+				return null;
+			}
+			id = new String(encodedId, StandardCharsets.UTF_8);
+		}
+		// Always through the authorization itself, which a save replaces, never a copy held for
+		// the token: a pointer may outlive the token it was written for.
+		OAuth2Authorization authorization = find(id);
+		if (authorization == null || !hasToken(authorization, token, tokenType)) {
+			return null;
+		}
+		if (pointer == null) {
+			cache(tokenKey, new NearCacheEntry(id, 0));
+		}
+		return authorization;
+	}
+
+	/**
+	 * Wait for the writes queued so far to reach memcached, e.g. before shutting down.
+	 *
+	 * @param timeout
+	 * @return true if they all completed within the timeout
+	 */
+	public boolean awaitWrites(Duration timeout) {
+		long deadline = System.nanoTime() + timeout.toNanos();
+		for (Future<Boolean> write : new ArrayList<>(pendingWrites)) {
+			try {
+				write.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				return false;
+			} catch (ExecutionException e) {
+				// Logged by the completion listener.
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Give the queued writes a few seconds to land before the client is shut down.
+	 */
+	@Override
+	public void close() {
+		if (!awaitWrites(Duration.ofSeconds(5))) {
+			log.warn("{} authorization writes to memcached still pending at shutdown", pendingWrites.size());
+		}
+	}
+
+	private OAuth2Authorization find(String id) {
+		String authorizationKey = authorizationKey(id);
+		NearCacheEntry cached = fromNearCache(authorizationKey);
+		if (cached != null) {
+			return cached.authorization;
+		}
+		OAuth2Authorization authorization = load(authorizationKey);
+		if (authorization != null) {
+			cache(authorizationKey, new NearCacheEntry(authorization, 0));
+		}
+		return authorization;
+	}
+
+	private OAuth2Authorization load(String authorizationKey) {
+		byte[] encoded = get(authorizationKey);
+		if (encoded == null) {
+			return null;
+		}
+		try {
+			String registeredClientId = codec.readRegisteredClientId(encoded);
+			RegisteredClient registeredClient = registeredClientRepository.findById(registeredClientId);
+			if (registeredClient == null) {
+				log.debug("Ignoring authorization for unknown client {}", registeredClientId);
+				return null;
+			}
+			return codec.decode(encoded, registeredClient);
+		} catch (IOException e) {
+			log.warn("Ignoring undecodable authorization item {}", authorizationKey, e);
+			return null;
+		}
+	}
+
+	private byte[] get(String key) {
+		Future<byte[]> future = client.asyncGet(key, EncodedAuthorizationTranscoder.INSTANCE);
+		try {
+			return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(false);
+			throw new IllegalStateException("Timed out reading authorization from memcached", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Reading authorization from memcached failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted reading authorization from memcached", e);
+		}
+	}
+
+	/**
+	 * Wait for the writes of a save to be stored, within the timeout.
+	 *
+	 * @throws IllegalStateException if one is not
+	 */
+	private void awaitStored(List<OperationFuture<Boolean>> writes) {
+		long deadline = System.nanoTime() + timeout.toNanos();
+		for (OperationFuture<Boolean> write : writes) {
+			try {
+				if (!Boolean.TRUE.equals(write.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS))) {
+					throw new IllegalStateException("Storing authorization in memcached failed: "
+							+ write.getStatus().getMessage());
+				}
+			} catch (TimeoutException e) {
+				throw new IllegalStateException("Timed out storing authorization in memcached", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Storing authorization in memcached failed", e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted storing authorization in memcached", e);
+			}
+		}
+	}
+
+	private OperationFuture<Boolean> track(OperationFuture<Boolean> write, String key) {
+		pendingWrites.add(write);
+		write.addListener(completed -> {
+			pendingWrites.remove(completed);
+			if (!completed.getStatus().isSuccess() && !isDeleteOfMissingItem(completed)) {
+				log.warn("Writing authorization item {} to memcached failed: {}", key, completed.getStatus().getMessage());
+			}
+		});
+		return write;
+	}
+
+	private static boolean isDeleteOfMissingItem(OperationFuture<?> completed) {
+		String message = completed.getStatus().getMessage();
+		return message != null && message.contains("NOT_FOUND");
+	}
+
+	private NearCacheEntry fromNearCache(String key) {
+		NearCacheEntry entry = nearCache.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expiresAt <= clock.millis()) {
+			nearCache.remove(key, entry);
+			return null;
+		}
+		return entry;
+	}
+
+	private void cache(String key, NearCacheEntry entry) {
+		if (!nearCacheTtl.isZero()) {
+			nearCache.put(key, entry.expiringAt(clock.millis() + nearCacheTtl.toMillis()));
+		}
+	}
+
+	/**
+	 * @return the memcached expiration of the authorization's items: when its last token
+	 *         expires, as seconds from now or, beyond 30 days, as a unix time
+	 */
+	private int expiration(OAuth2Authorization authorization) {
+		Instant now = clock.instant();
+		Instant expiresAt = null;
+		boolean unbounded = false;
+		for (OAuth2Authorization.Token<?> token : AuthorizationCodec.tokens(authorization)) {
+			Instant tokenExpiresAt = token.getToken().getExpiresAt();
+			if (tokenExpiresAt == null) {
+				unbounded = true;
+			} else if (expiresAt == null || tokenExpiresAt.isAfter(expiresAt)) {
+				expiresAt = tokenExpiresAt;
+			}
+		}
+		long seconds;
+		if (unbounded) {
+			seconds = maximumTtl.toSeconds();
+		} else if (expiresAt == null) {
+			// Not yet issued anything, e.g. awaiting consent.
+			seconds = unexpiringTtl.toSeconds();
+		} else {
+			seconds = Math.min(maximumTtl.toSeconds(), Math.max(1, Duration.between(now, expiresAt).toSeconds() + 1));
+		}
+		return Math.toIntExact(seconds <= MAXIMUM_RELATIVE_EXPIRATION ? seconds : now.getEpochSecond() + seconds);
+	}
+
+	private List<String> tokenKeys(OAuth2Authorization authorization) {
+		List<String> keys = new ArrayList<>(7);
+		String state = authorization.getAttribute(OAuth2ParameterNames.STATE);
+		if (state != null) {
+			keys.add(tokenKey(state));
+		}
+		for (OAuth2Authorization.Token<?> token : AuthorizationCodec.tokens(authorization)) {
+			keys.add(tokenKey(token.getToken().getTokenValue()));
+		}
+		return keys;
+	}
+
+	private static boolean holdsUnredeemedCode(OAuth2Authorization authorization) {
+		OAuth2Authorization.Token<OAuth2AuthorizationCode> code = authorization.getToken(OAuth2AuthorizationCode.class);
+		OAuth2Authorization.Token<OAuth2DeviceCode> deviceCode = authorization.getToken(OAuth2DeviceCode.class);
+		return (code != null && !code.isInvalidated()) || (deviceCode != null && !deviceCode.isInvalidated());
+	}
+
+	/**
+	 * As {@code InMemoryOAuth2AuthorizationService} matches a token to an authorization.
+	 */
+	private static boolean hasToken(OAuth2Authorization authorization, String token, OAuth2TokenType tokenType) {
+		if (tokenType == null) {
+			return matchesState(authorization, token)
+					|| matches(authorization.getToken(OAuth2AuthorizationCode.class), token)
+					|| matches(authorization.getToken(OAuth2AccessToken.class), token)
+					|| matches(authorization.getToken(OidcIdToken.class), token)
+					|| matches(authorization.getToken(OAuth2RefreshToken.class), token)
+					|| matches(authorization.getToken(OAuth2DeviceCode.class), token)
+					|| matches(authorization.getToken(OAuth2UserCode.class), token);
+		} else if (OAuth2ParameterNames.STATE.equals(tokenType.getValue())) {
+			return matchesState(authorization, token);
+		} else if (OAuth2ParameterNames.CODE.equals(tokenType.getValue())) {
+			return matches(authorization.getToken(OAuth2AuthorizationCode.class), token);
+		} else if (OAuth2TokenType.ACCESS_TOKEN.equals(tokenType)) {
+			return matches(authorization.getToken(OAuth2AccessToken.class), token);
+		} else if (OidcParameterNames.ID_TOKEN.equals(tokenType.getValue())) {
+			return matches(authorization.getToken(OidcIdToken.class), token);
+		} else if (OAuth2TokenType.REFRESH_TOKEN.equals(tokenType)) {
+			return matches(authorization.getToken(OAuth2RefreshToken.class), token);
+		} else if (OAuth2ParameterNames.DEVICE_CODE.equals(tokenType.getValue())) {
+			return matches(authorization.getToken(OAuth2DeviceCode.class), token);
+		} else if (OAuth2ParameterNames.USER_CODE.equals(tokenType.getValue())) {
+			return matches(authorization.getToken(OAuth2UserCode.class), token);
+		}
+		return false;
+	}
+
+	private static boolean matchesState(OAuth2Authorization authorization, String token) {
+		return token.equals(authorization.getAttribute(OAuth2ParameterNames.STATE));
+	}
+
+	private static boolean matches(OAuth2Authorization.Token<?> authorizationToken, String token) {
+		return authorizationToken != null && authorizationToken.getToken().getTokenValue().equals(token);
+	}
+
+	private String authorizationKey(String id) {
+		return keyPrefix + AUTHORIZATION_KEY + hash(id);
+	}
+
+	private String tokenKey(String token) {
+		return keyPrefix + TOKEN_KEY + hash(token);
+	}
+
+	private static String hash(String value) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param keyPrefix prepended to every key, to share a cluster between deployments
+	 */
+	public void setKeyPrefix(String keyPrefix) {
+		this.keyPrefix = keyPrefix;
+	}
+
+	/**
+	 * @param timeout how long a lookup, or the save of an unredeemed code, waits for memcached
+	 *            before failing
+	 */
+	public void setTimeout(Duration timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param unexpiringTtl how long an authorization without tokens, e.g. awaiting consent, is kept
+	 */
+	public void setUnexpiringTtl(Duration unexpiringTtl) {
+		this.unexpiringTtl = unexpiringTtl;
+	}
+
+	/**
+	 * @param maximumTtl the longest any authorization is kept, including one with a token
+	 *            that never expires
+	 */
+	public void setMaximumTtl(Duration maximumTtl) {
+		this.maximumTtl = maximumTtl;
+	}
+
+	/**
+	 * @param nearCacheTtl how long this node serves an authorization from its near-cache
+	 *            without going to memcached; zero disables the near-cache
+	 */
+	public void setNearCacheTtl(Duration nearCacheTtl) {
+		this.nearCacheTtl = nearCacheTtl;
+		if (nearCacheTtl.isZero()) {
+			nearCache.clear();
+		}
+	}
+
+	public void setNearCacheMaximumSize(int maximumSize) {
+		this.nearCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, NearCacheEntry> eldest) {
+				return size() > maximumSize;
+			}
+		});
+	}
+
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * An authorization, under its own key, or the id of the authorization holding a token,
+	 * under the token's key.
+	 */
+	private static final class NearCacheEntry {
+		private final OAuth2Authorization authorization;
+		private final String id;
+		private final long expiresAt;
+
+		NearCacheEntry(OAuth2Authorization authorization, long expiresAt) {
+			this.authorization = authorization;
+			this.id = authorization.getId();
+			this.expiresAt = expiresAt;
+		}
+
+		NearCacheEntry(String id, long expiresAt) {
+			this.authorization = null;
+			this.id = id;
+			this.expiresAt = expiresAt;
+		}
+
+		NearCacheEntry expiringAt(long expiresAt) {
+			return authorization != null ? new NearCacheEntry(authorization, expiresAt) : new NearCacheEntry(id, expiresAt);
+		}
+	}
+
+}
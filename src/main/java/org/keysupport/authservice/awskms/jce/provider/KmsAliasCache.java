@@ -0,0 +1,291 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.AliasListEntry;
+import software.amazon.awssdk.services.kms.model.ListAliasesRequest;
+import software.amazon.awssdk.services.kms.model.ListAliasesResponse;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Alias to target key index for a KMS account/region.
+ * <p>
+ * The full ListAliases result is paged once and held as an immutable snapshot. Reads
+ * never touch KMS while the snapshot is younger than the TTL; once it is older, the
+ * stale snapshot keeps being served while a single background refresh runs. An alias
+ * missing from a snapshot paged within the negative TTL is taken not to exist; otherwise a
+ * miss forces a (shared) refresh so newly created aliases are found. Either way the miss is
+ * negatively cached for the negative TTL, and refreshes drop only the entries of aliases that
+ * now exist, so lookups of several unknown aliases do not keep paging ListAliases.
+ * <p>
+ * Refreshes page ListAliases on a blocking client, so by default they run on the cache's own
+ * single daemon thread, started on the first refresh and stopped again when idle, rather
+ * than on a shared pool whose other work they would hold up while callers wait on them.
+ */
+public class KmsAliasCache implements AutoCloseable {
+
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+    public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofSeconds(30);
+
+    static final int MAXIMUM_MISSES = 1024;
+
+    private final KmsClient kmsClient;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final Executor refreshExecutor;
+    private final ExecutorService ownedExecutor;
+
+    private volatile Snapshot snapshot;
+    private final AtomicReference<CompletableFuture<Snapshot>> refreshing = new AtomicReference<>();
+    private final ConcurrentMap<String, Long> misses = new ConcurrentHashMap<>();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    public KmsAliasCache(KmsClient kmsClient) {
+        this(kmsClient, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, null, refreshExecutor());
+    }
+
+    /**
+     * @param kmsClient
+     * @param ttl
+     * @param negativeTtl
+     * @param refreshExecutor runs the ListAliases paging; not shut down by {@link #close()}
+     */
+    public KmsAliasCache(KmsClient kmsClient, Duration ttl, Duration negativeTtl, Executor refreshExecutor) {
+        this(kmsClient, ttl, negativeTtl, refreshExecutor, null);
+    }
+
+    private KmsAliasCache(KmsClient kmsClient, Duration ttl, Duration negativeTtl, Executor refreshExecutor,
+            ExecutorService ownedExecutor) {
+        this.kmsClient = kmsClient;
+        this.ttlNanos = ttl.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+        this.refreshExecutor = refreshExecutor != null ? refreshExecutor : ownedExecutor;
+        this.ownedExecutor = ownedExecutor;
+    }
+
+    /**
+     * Resolve an alias (with or without the "alias/" prefix) to its target key id.
+     *
+     * @param alias
+     * @return the target key id, or null if the alias does not exist
+     */
+    public String getTargetKeyId(String alias) {
+        String prefixedAlias = getPrefixedAlias(alias);
+        Snapshot current = current();
+        String targetKeyId = current.aliases.get(prefixedAlias);
+        if (targetKeyId != null) {
+            hitCount.increment();
+            return targetKeyId;
+        }
+
+        long now = System.nanoTime();
+        Long missedAt = misses.get(prefixedAlias);
+        if (missedAt != null && now - missedAt < negativeTtlNanos) {
+            hitCount.increment();
+            return null;
+        }
+
+        if (now - current.loadedAt < negativeTtlNanos) {
+            // Paged recently enough to answer for the alias as a negative entry would.
+            hitCount.increment();
+        } else {
+            missCount.increment();
+            current = await(refresh());
+            targetKeyId = current.aliases.get(prefixedAlias);
+            if (targetKeyId != null) {
+                return targetKeyId;
+            }
+        }
+        remember(prefixedAlias, current.loadedAt);
+        return null;
+    }
+
+    /**
+     * @return all alias names (prefixed) and their target key ids
+     */
+    public Map<String, String> getAliases() {
+        return current().aliases;
+    }
+
+    /**
+     * @return alias lookups answered from the snapshot or a negative entry
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return alias lookups that forced ListAliases to be paged again
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return aliases negatively cached
+     */
+    int getNegativeEntryCount() {
+        return misses.size();
+    }
+
+    /**
+     * @return aliases in the current snapshot, without loading one
+     */
+    public int size() {
+        Snapshot current = this.snapshot;
+        return current == null ? 0 : current.aliases.size();
+    }
+
+    /**
+     * Drop the current snapshot and negative entries; the next read pages ListAliases again.
+     */
+    public void invalidate() {
+        this.snapshot = null;
+        this.misses.clear();
+    }
+
+    /**
+     * Stop the cache's own refresh thread. Lookups that need a refresh afterwards fail with
+     * {@link RejectedExecutionException}.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+    private Snapshot current() {
+        Snapshot current = this.snapshot;
+        if (current == null) {
+            return await(refresh());
+        }
+        if (System.nanoTime() - current.loadedAt > ttlNanos) {
+            refresh();
+        }
+        return current;
+    }
+
+    private CompletableFuture<Snapshot> refresh() {
+        CompletableFuture<Snapshot> future = new CompletableFuture<>();
+        CompletableFuture<Snapshot> inFlight;
+        while ((inFlight = refreshing.get()) == null) {
+            if (refreshing.compareAndSet(null, future)) {
+                break;
+            }
+        }
+        if (inFlight != null) {
+            return inFlight;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    Snapshot loaded = load();
+                    this.snapshot = loaded;
+                    misses.keySet().removeIf(loaded.aliases::containsKey);
+                    future.complete(loaded);
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    refreshing.compareAndSet(future, null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Nothing will run the refresh; let the next read start another.
+            refreshing.compareAndSet(future, null);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Record that the alias was not in the snapshot loaded at the given time. Expired entries
+     * are dropped once {@link #MAXIMUM_MISSES} aliases are held, and all of them if none had
+     * expired, so lookups of arbitrary alias names cannot grow the map without bound.
+     */
+    private void remember(String prefixedAlias, long missedAt) {
+        if (misses.size() >= MAXIMUM_MISSES) {
+            long now = System.nanoTime();
+            misses.values().removeIf(at -> now - at >= negativeTtlNanos);
+            if (misses.size() >= MAXIMUM_MISSES) {
+                misses.clear();
+            }
+        }
+        misses.put(prefixedAlias, missedAt);
+    }
+
+    private Snapshot load() {
+        ListAliasesResponse listAliasesResponse = null;
+        String marker = null;
+        Map<String, String> aliases = new HashMap<>();
+
+        do {
+            listAliasesResponse = kmsClient.listAliases(ListAliasesRequest.builder().marker(marker).build());
+            for (AliasListEntry entry : listAliasesResponse.aliases()) {
+                if (entry.targetKeyId() != null) {
+                    aliases.put(entry.aliasName(), entry.targetKeyId());
+                }
+            }
+            marker = listAliasesResponse.nextMarker();
+        } while (Boolean.TRUE.equals(listAliasesResponse.truncated()));
+
+        return new Snapshot(Collections.unmodifiableMap(aliases), System.nanoTime());
+    }
+
+    private static Snapshot await(CompletableFuture<Snapshot> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * One refresh runs at a time, so one thread and one queued task are enough; the thread
+     * exits when idle, so caches that are never closed do not keep one.
+     */
+    private static ExecutorService refreshExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1),
+                r -> {
+                    Thread thread = new Thread(r, "kms-alias-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    static String getPrefixedAlias(String alias) {
+        return alias.startsWith("alias/") ? alias : "alias/" + alias;
+    }
+
+    private static class Snapshot {
+        private final Map<String, String> aliases;
+        private final long loadedAt;
+
+        Snapshot(Map<String, String> aliases, long loadedAt) {
+            this.aliases = aliases;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.RuntimeOperatorException;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+
+import java.io.OutputStream;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Locale;
+
+/**
+ * BouncyCastle {@link ContentSigner} that signs with a KMS key through {@link KmsProvider},
+ * for building certificates and CMS structures without exporting the key.
+ * <p>
+ * The signature is obtained from the KMS provider directly rather than through
+ * JcaContentSignerBuilder, which would try to pass PSS parameters to a Signature that
+ * already fixes them.
+ */
+public class KmsContentSigner implements ContentSigner {
+
+    private final AlgorithmIdentifier algorithmIdentifier;
+    private final Signature signature;
+    private final OutputStream outputStream;
+
+    public KmsContentSigner(KmsProvider kmsProvider, PrivateKey privateKey, KmsSigningAlgorithm kmsSigningAlgorithm) throws NoSuchAlgorithmException, InvalidKeyException {
+        this.algorithmIdentifier = new DefaultSignatureAlgorithmIdentifierFinder().find(kmsSigningAlgorithm.getAlgorithm().toUpperCase(Locale.ROOT));
+        this.signature = Signature.getInstance(kmsSigningAlgorithm.getAlgorithm(), kmsProvider);
+        this.signature.initSign(privateKey);
+        this.outputStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                try {
+                    signature.update((byte) b);
+                } catch (SignatureException e) {
+                    throw new RuntimeOperatorException(e.getMessage(), e);
+                }
+            }
+
+            @Override
+            public void write(byte[] bytes, int off, int len) {
+                try {
+                    signature.update(bytes, off, len);
+                } catch (SignatureException e) {
+                    throw new RuntimeOperatorException(e.getMessage(), e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public AlgorithmIdentifier getAlgorithmIdentifier() {
+        return algorithmIdentifier;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public byte[] getSignature() {
+        try {
+            return signature.sign();
+        } catch (SignatureException e) {
+            throw new RuntimeOperatorException("KMS signature failed: " + e.getMessage(), e);
+        }
+    }
+
+}
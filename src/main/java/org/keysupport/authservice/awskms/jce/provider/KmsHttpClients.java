@@ -0,0 +1,63 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+
+import java.time.Duration;
+
+/**
+ * Builds the connection-pooling HTTP client KMS clients share. Passed to
+ * {@code KmsClient.builder().httpClient(...)}, one pool serves every client built with it,
+ * instead of each client opening its own 50 connections, and the SDK leaves closing it to
+ * whoever built it.
+ * <p>
+ * The defaults suit a thread per request: enough connections for the requests the per-key
+ * limits let through, a short wait for a free connection so a saturated pool fails fast, TCP
+ * keep-alive and an idle reaper so pooled connections are not found dead after a lull, and a
+ * time-to-live so connections follow KMS endpoint DNS changes.
+ */
+public final class KmsHttpClients {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 128;
+    public static final Duration DEFAULT_CONNECTION_ACQUISITION_TIMEOUT = Duration.ofSeconds(2);
+    public static final Duration DEFAULT_CONNECTION_TIMEOUT = Duration.ofSeconds(2);
+    public static final Duration DEFAULT_SOCKET_TIMEOUT = Duration.ofSeconds(5);
+    public static final Duration DEFAULT_CONNECTION_MAX_IDLE_TIME = Duration.ofSeconds(60);
+    public static final Duration DEFAULT_CONNECTION_TIME_TO_LIVE = Duration.ofMinutes(5);
+
+    private KmsHttpClients() {
+    }
+
+    /**
+     * @return an HTTP client with the default settings
+     */
+    public static SdkHttpClient create() {
+        return create(DEFAULT_MAX_CONNECTIONS, DEFAULT_CONNECTION_ACQUISITION_TIMEOUT, DEFAULT_CONNECTION_TIMEOUT,
+                DEFAULT_SOCKET_TIMEOUT, DEFAULT_CONNECTION_MAX_IDLE_TIME, DEFAULT_CONNECTION_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param maxConnections connections pooled across all clients sharing the HTTP client
+     * @param connectionAcquisitionTimeout how long a request may wait for a pooled connection
+     * @param connectionTimeout how long opening a connection may take
+     * @param socketTimeout how long a response may take
+     * @param connectionMaxIdleTime how long a connection may sit idle in the pool
+     * @param connectionTimeToLive how long a connection may be reused at all
+     * @return the HTTP client; the caller closes it
+     */
+    public static SdkHttpClient create(int maxConnections, Duration connectionAcquisitionTimeout,
+            Duration connectionTimeout, Duration socketTimeout, Duration connectionMaxIdleTime,
+            Duration connectionTimeToLive) {
+        return ApacheHttpClient.builder()
+                .maxConnections(maxConnections)
+                .connectionAcquisitionTimeout(connectionAcquisitionTimeout)
+                .connectionTimeout(connectionTimeout)
+                .socketTimeout(socketTimeout)
+                .connectionMaxIdleTime(connectionMaxIdleTime)
+                .connectionTimeToLive(connectionTimeToLive)
+                .tcpKeepAlive(true)
+                .useIdleConnectionReaper(true)
+                .build();
+    }
+
+}
@@ -0,0 +1,327 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.KeyUsageType;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+import java.lang.ref.WeakReference;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of KMS key metadata and parsed public keys, keyed by the key id / ARN / alias
+ * the caller used.
+ * <p>
+ * Lookups never lock. Each entry is stamped when it is stored and when it is next used after
+ * another entry was stored, and a store past the maximum size evicts the entry with the oldest
+ * stamp, so eviction is least-recently-used to within the keys used since the latest store.
+ * <p>
+ * One instance is shared per {@link KmsClient} (see {@link #forClient(KmsClient)}), so the
+ * RSA and EC key factories and the KMS KeyStore all hit the same entries. A shared cache
+ * holds its client weakly, so it does not keep a discarded client, or itself, reachable.
+ * <p>
+ * Every entry comes from one GetPublicKey call, which answers the key's spec, usage and
+ * signing algorithms along with the public key. A key is loaded by at most one caller at a
+ * time; concurrent callers, whether after the metadata or the public key, wait for that load.
+ */
+public class KmsKeyCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private static final Map<KmsClient, KmsKeyCache> CACHES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Supplier<KmsClient> kmsClient;
+    private final int maximumSize;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    /** Advanced by two per store; entries used since the latest store are stamped one above it. */
+    private final AtomicLong stamps = new AtomicLong();
+    private final ConcurrentMap<String, CompletableFuture<KeyInfo>> loading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public KmsKeyCache(KmsClient kmsClient) {
+        this(kmsClient, DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public KmsKeyCache(KmsClient kmsClient, int maximumSize) {
+        this(() -> kmsClient, maximumSize);
+    }
+
+    private KmsKeyCache(Supplier<KmsClient> kmsClient, int maximumSize) {
+        this.kmsClient = kmsClient;
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Retrieve the cache shared by every component using the given client.
+     *
+     * @param kmsClient
+     * @return
+     */
+    public static KmsKeyCache forClient(KmsClient kmsClient) {
+        return CACHES.computeIfAbsent(kmsClient,
+                client -> new KmsKeyCache(new WeakReference<>(client)::get, DEFAULT_MAXIMUM_SIZE));
+    }
+
+    /**
+     * Retrieve key metadata, calling GetPublicKey only on a miss.
+     *
+     * @param keyId
+     * @return
+     */
+    public KeyInfo getKeyInfo(String keyId) {
+        KeyInfo keyInfo = get(keyId);
+        if (keyInfo != null) {
+            hits.increment();
+            return keyInfo;
+        }
+        misses.increment();
+        try {
+            return load(keyId);
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Retrieve the real public key, calling GetPublicKey and parsing it only on a miss.
+     *
+     * @param keyId
+     * @return
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeySpecException
+     */
+    public PublicKey getPublicKey(String keyId) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        KeyInfo keyInfo = get(keyId);
+        if (keyInfo != null) {
+            hits.increment();
+            return keyInfo.getPublicKey();
+        }
+        misses.increment();
+        return load(keyId).getPublicKey();
+    }
+
+    /**
+     * Load the public keys, and with them the metadata, of several keys at once, one thread
+     * per key, so startup waits for the slowest key rather than for all of them in turn.
+     *
+     * @param keyIds
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeySpecException
+     */
+    public void preloadPublicKeys(Collection<String> keyIds) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        if (keyIds.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(keyIds.size(), r -> {
+            Thread thread = new Thread(r, "kms-key-preload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<CompletableFuture<KeyInfo>> loads = new ArrayList<>();
+            for (String keyId : keyIds) {
+                loads.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return load(keyId);
+                    } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+            misses.add(loads.size());
+            for (CompletableFuture<KeyInfo> load : loads) {
+                await(load);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void invalidate(String keyId) {
+        entries.remove(keyId);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return lookups answered from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return lookups that went to KMS, or waited on another caller's load
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    private KeyInfo get(String keyId) {
+        Entry entry = entries.get(keyId);
+        if (entry == null) {
+            return null;
+        }
+        // Written once per entry between stores, so hits on a hot key are plain reads.
+        long used = stamps.get() + 1;
+        if (entry.stamp < used) {
+            entry.stamp = used;
+        }
+        return entry.keyInfo;
+    }
+
+    private void store(String keyId, KeyInfo keyInfo) {
+        entries.put(keyId, new Entry(keyInfo, stamps.addAndGet(2)));
+        while (entries.size() > maximumSize) {
+            Map.Entry<String, Entry> eldest = null;
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                if (!candidate.getKey().equals(keyId)
+                        && (eldest == null || candidate.getValue().stamp < eldest.getValue().stamp)) {
+                    eldest = candidate;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            entries.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private KeyInfo load(String keyId) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        CompletableFuture<KeyInfo> future = new CompletableFuture<>();
+        CompletableFuture<KeyInfo> existing = loading.putIfAbsent(keyId, future);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            KeyInfo keyInfo = fetchPublicKey(keyId);
+            store(keyId, keyInfo);
+            future.complete(keyInfo);
+            return keyInfo;
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(keyId, future);
+        }
+    }
+
+    private KeyInfo fetchPublicKey(String keyId) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        KmsClient client = kmsClient.get();
+        if (client == null) {
+            throw new IllegalStateException("The KMS client of this cache has been discarded");
+        }
+        GetPublicKeyRequest getPublicKeyRequest = GetPublicKeyRequest.builder().keyId(keyId).build();
+        GetPublicKeyResponse getPublicKeyResponse = client.getPublicKey(getPublicKeyRequest);
+
+        X509EncodedKeySpec keySpec = new X509EncodedKeySpec(getPublicKeyResponse.publicKey().asByteArray());
+        KeyFactory keyFactory = KeyFactory.getInstance(isRsa(getPublicKeyResponse.keySpec()) ? "RSA" : "EC");
+        return new KeyInfo(getPublicKeyResponse.keyId(),
+                getPublicKeyResponse.keySpec(),
+                getPublicKeyResponse.keyUsage(),
+                getPublicKeyResponse.signingAlgorithms(),
+                keyFactory.generatePublic(keySpec));
+    }
+
+    private static KeyInfo await(CompletableFuture<KeyInfo> future) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof NoSuchAlgorithmException) throw (NoSuchAlgorithmException) cause;
+            if (cause instanceof InvalidKeySpecException) throw (InvalidKeySpecException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw e;
+        }
+    }
+
+    private static boolean isRsa(KeySpec keySpec) {
+        return keySpec != null && keySpec.name().startsWith("RSA");
+    }
+
+    private static final class Entry {
+
+        private final KeyInfo keyInfo;
+        private volatile long stamp;
+
+        Entry(KeyInfo keyInfo, long stamp) {
+            this.keyInfo = keyInfo;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * Immutable view of a KMS asymmetric key: its key ARN, key spec, key usage, supported
+     * signing algorithms and parsed public key.
+     */
+    public static final class KeyInfo {
+
+        private final String keyId;
+        private final KeySpec keySpec;
+        private final KeyUsageType keyUsage;
+        private final Set<SigningAlgorithmSpec> signingAlgorithms;
+        private final PublicKey publicKey;
+
+        KeyInfo(String keyId, KeySpec keySpec, KeyUsageType keyUsage, List<SigningAlgorithmSpec> signingAlgorithms,
+                PublicKey publicKey) {
+            this.keyId = keyId;
+            this.keySpec = keySpec;
+            this.keyUsage = keyUsage;
+            this.signingAlgorithms = signingAlgorithms == null || signingAlgorithms.isEmpty()
+                    ? Collections.emptySet()
+                    : Collections.unmodifiableSet(EnumSet.copyOf(signingAlgorithms));
+            this.publicKey = publicKey;
+        }
+
+        public String getKeyId() {
+            return keyId;
+        }
+
+        public KeySpec getKeySpec() {
+            return keySpec;
+        }
+
+        public KeyUsageType getKeyUsage() {
+            return keyUsage;
+        }
+
+        public Set<SigningAlgorithmSpec> getSigningAlgorithms() {
+            return signingAlgorithms;
+        }
+
+        public PublicKey getPublicKey() {
+            return publicKey;
+        }
+
+        public boolean isRsa() {
+            return KmsKeyCache.isRsa(keySpec);
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.ListAliasesRequest;
+import software.amazon.awssdk.services.kms.model.ListAliasesResponse;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.VerifyRequest;
+import software.amazon.awssdk.services.kms.model.VerifyResponse;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Caps the requests in flight to KMS for each key. With a thread per request, and cheap
+ * virtual threads in particular, nothing else bounds how many callers reach KMS at once, and
+ * a burst on one key would take every pooled connection and the whole quota. Callers over
+ * the cap wait for a permit, for at most {@code maxWait}, and then fail as throttled, which
+ * the signing router answers by moving to another key. Requests naming no key, such as
+ * ListAliases, are not limited. The permits are {@link KmsKeyPermits}, which say how keys are
+ * told apart and which the {@code KmsAsyncSigner} shares.
+ * <p>
+ * Only the operations the provider, key store, key factories and token encryption send are
+ * passed on: Sign, Verify, GetPublicKey, DescribeKey, ListAliases, GenerateDataKey and
+ * Decrypt. Any other operation fails with {@link UnsupportedOperationException}, as it does
+ * on the metering, scheduling and region routing clients this one wraps, so a caller needing
+ * another operation must add it to each of them.
+ */
+public class KmsKeyConcurrencyLimitingClient implements KmsClient {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT_PER_KEY = KmsKeyPermits.DEFAULT_MAX_IN_FLIGHT_PER_KEY;
+
+    private final KmsClient kmsClient;
+    private final KmsKeyPermits permits;
+
+    /**
+     * @param kmsClient
+     * @param aliasCache resolves aliases named in requests to their keys; the provider's, see
+     *            {@link KmsProvider#getAliasCache()}
+     * @param defaultRegion the region requests by key id or alias are sent to, or null for the
+     *            SDK default region
+     * @param maxInFlightPerKey most requests in flight for one key
+     * @param maxWait how long a request may wait for a permit before failing as throttled
+     */
+    public KmsKeyConcurrencyLimitingClient(KmsClient kmsClient, KmsAliasCache aliasCache, String defaultRegion,
+            int maxInFlightPerKey, Duration maxWait) {
+        this(kmsClient, new KmsKeyPermits(aliasCache, defaultRegion, maxInFlightPerKey, maxWait));
+    }
+
+    /**
+     * @param kmsClient
+     * @param permits the permits per key, shared with any other sender to the same keys
+     */
+    public KmsKeyConcurrencyLimitingClient(KmsClient kmsClient, KmsKeyPermits permits) {
+        this.kmsClient = kmsClient;
+        this.permits = permits;
+    }
+
+    /**
+     * @param keyId the key's id, ARN or alias
+     * @return requests in flight for the key
+     */
+    public int getInFlight(String keyId) {
+        return permits.getInFlight(keyId);
+    }
+
+    public KmsKeyPermits getPermits() {
+        return permits;
+    }
+
+    @Override
+    public SignResponse sign(SignRequest signRequest) {
+        return execute(signRequest.keyId(), () -> kmsClient.sign(signRequest));
+    }
+
+    @Override
+    public VerifyResponse verify(VerifyRequest verifyRequest) {
+        return execute(verifyRequest.keyId(), () -> kmsClient.verify(verifyRequest));
+    }
+
+    @Override
+    public GetPublicKeyResponse getPublicKey(GetPublicKeyRequest getPublicKeyRequest) {
+        return execute(getPublicKeyRequest.keyId(), () -> kmsClient.getPublicKey(getPublicKeyRequest));
+    }
+
+    @Override
+    public DescribeKeyResponse describeKey(DescribeKeyRequest describeKeyRequest) {
+        return execute(describeKeyRequest.keyId(), () -> kmsClient.describeKey(describeKeyRequest));
+    }
+
+    @Override
+    public ListAliasesResponse listAliases(ListAliasesRequest listAliasesRequest) {
+        return execute(listAliasesRequest.keyId(), () -> kmsClient.listAliases(listAliasesRequest));
+    }
+
+    @Override
+    public GenerateDataKeyResponse generateDataKey(GenerateDataKeyRequest generateDataKeyRequest) {
+        return execute(generateDataKeyRequest.keyId(), () -> kmsClient.generateDataKey(generateDataKeyRequest));
+    }
+
+    @Override
+    public DecryptResponse decrypt(DecryptRequest decryptRequest) {
+        return execute(decryptRequest.keyId(), () -> kmsClient.decrypt(decryptRequest));
+    }
+
+    @Override
+    public String serviceName() {
+        return kmsClient.serviceName();
+    }
+
+    @Override
+    public void close() {
+        kmsClient.close();
+    }
+
+    private <T> T execute(String keyId, Supplier<T> request) {
+        if (keyId == null) {
+            return request.get();
+        }
+        KmsKeyPermits.Permit permit = permits.acquire(keyId);
+        try {
+            return request.get();
+        } finally {
+            permit.release();
+        }
+    }
+
+}
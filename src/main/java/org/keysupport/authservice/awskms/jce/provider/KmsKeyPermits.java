@@ -0,0 +1,173 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.kms.model.KmsException;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The permits to send a request to KMS for each key, at most {@code maxInFlightPerKey} per key,
+ * shared by the {@link KmsKeyConcurrencyLimitingClient}, which waits for them, and the
+ * {@code KmsAsyncSigner}, which takes them without waiting, so a key's cap counts both.
+ * <p>
+ * A key is limited as one whether a request names it by id, by key ARN or by alias; aliases
+ * are resolved through the {@link KmsAliasCache} the provider uses, so both see an alias
+ * move together and ListAliases is paged once for both. Keys are limited per region: the
+ * replicas of a multi-Region key share their key id but are separate keys, each with its own
+ * quota and connections, so each has its own permits. A request by key id or alias is for the
+ * key in {@code defaultRegion}, where the region routing client sends it. Idle keys' permits
+ * are dropped once more than {@link #MAXIMUM_KEYS} keys have been seen, so the keys named in
+ * requests cannot grow the map without bound.
+ */
+public class KmsKeyPermits {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT_PER_KEY = 32;
+
+    static final int MAXIMUM_KEYS = 256;
+
+    private final KmsAliasCache aliasCache;
+    private final String defaultRegion;
+    private final int maxInFlightPerKey;
+    private final long maxWaitNanos;
+    private final ConcurrentMap<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    /**
+     * @param aliasCache resolves aliases named in requests to their keys; the provider's, see
+     *            {@link KmsProvider#getAliasCache()}
+     * @param defaultRegion the region requests by key id or alias are sent to, or null for the
+     *            SDK default region
+     * @param maxInFlightPerKey most requests in flight for one key
+     * @param maxWait how long a request may wait for a permit before failing as throttled
+     */
+    public KmsKeyPermits(KmsAliasCache aliasCache, String defaultRegion, int maxInFlightPerKey, Duration maxWait) {
+        if (maxInFlightPerKey < 1) {
+            throw new IllegalArgumentException("maxInFlightPerKey must be at least 1");
+        }
+        this.aliasCache = aliasCache;
+        this.defaultRegion = defaultRegion;
+        this.maxInFlightPerKey = maxInFlightPerKey;
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+
+    /**
+     * Wait for a permit to send a request for the key, for at most the maximum wait.
+     *
+     * @param keyId the key's id, ARN or alias
+     * @return the permit, to release once the request completes
+     * @throws KmsException with the ThrottlingException error code if no permit comes free in time
+     */
+    public Permit acquire(String keyId) {
+        Semaphore semaphore = semaphore(resolve(keyId));
+        try {
+            if (!semaphore.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                throw permitTimeout(keyId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted waiting to send a KMS request for " + keyId, e);
+        }
+        return semaphore::release;
+    }
+
+    /**
+     * @param keyId the key's id, ARN or alias
+     * @return a permit to send a request for the key, to release once the request completes,
+     *         or null if every permit of the key is taken
+     */
+    public Permit tryAcquire(String keyId) {
+        Semaphore semaphore = semaphore(resolve(keyId));
+        return semaphore.tryAcquire() ? semaphore::release : null;
+    }
+
+    /**
+     * @param keyId the key's id, ARN or alias
+     * @return requests in flight for the key
+     */
+    public int getInFlight(String keyId) {
+        Semaphore semaphore = permits.get(resolve(keyId));
+        return semaphore == null ? 0 : maxInFlightPerKey - semaphore.availablePermits();
+    }
+
+    public int getMaxInFlightPerKey() {
+        return maxInFlightPerKey;
+    }
+
+    public Duration getMaxWait() {
+        return Duration.ofNanos(maxWaitNanos);
+    }
+
+    /**
+     * @return keys permits are currently held for
+     */
+    int getKeyCount() {
+        return permits.size();
+    }
+
+    /**
+     * @param keyId the key's id, ARN or alias
+     * @return the ThrottlingException a request for the key fails with when it waited too long
+     *         for a permit
+     */
+    public KmsException permitTimeout(String keyId) {
+        String message = "Timed out waiting for one of " + maxInFlightPerKey + " KMS requests in flight for " + keyId;
+        return (KmsException) KmsException.builder()
+                .message(message)
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode("ThrottlingException")
+                        .errorMessage(message)
+                        .serviceName("Kms")
+                        .build())
+                .build();
+    }
+
+    /**
+     * @return the region and key id the key identifier names; an alias that cannot be resolved,
+     *         or an alias ARN, stands for itself
+     */
+    private String resolve(String keyId) {
+        String region = KmsRegionRoutingClient.region(keyId);
+        if (keyId.startsWith("alias/")) {
+            String targetKeyId = aliasCache.getTargetKeyId(keyId);
+            keyId = targetKeyId != null ? targetKeyId : keyId;
+        } else if (region != null) {
+            int key = keyId.indexOf(":key/");
+            if (key < 0) {
+                return keyId;
+            }
+            keyId = keyId.substring(key + ":key/".length());
+        }
+        if (region == null) {
+            region = defaultRegion;
+        }
+        return region != null ? region + "/" + keyId : keyId;
+    }
+
+    private Semaphore semaphore(String keyId) {
+        Semaphore semaphore = permits.get(keyId);
+        if (semaphore == null) {
+            if (permits.size() >= MAXIMUM_KEYS) {
+                // A permit dropped just as a request looked it up lets that key briefly exceed its cap.
+                permits.values().removeIf(idle -> idle.availablePermits() == maxInFlightPerKey);
+            }
+            semaphore = permits.computeIfAbsent(keyId, k -> new Semaphore(maxInFlightPerKey));
+        }
+        return semaphore;
+    }
+
+    /**
+     * A taken permit, released once its request completes.
+     */
+    @FunctionalInterface
+    public interface Permit {
+
+        void release();
+
+    }
+
+}
@@ -3,10 +3,8 @@ package org.keysupport.authservice.awskms.jce.provider;
 import org.keysupport.authservice.awskms.jce.provider.ec.KmsECKeyFactory;
 import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAKeyFactory;
 import software.amazon.awssdk.services.kms.KmsClient;
-import software.amazon.awssdk.services.kms.model.AliasListEntry;
-import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
-import software.amazon.awssdk.services.kms.model.ListAliasesRequest;
-import software.amazon.awssdk.services.kms.model.ListAliasesResponse;
+import software.amazon.awssdk.services.kms.model.KeyUsageType;
+import software.amazon.awssdk.services.kms.model.KmsException;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -15,64 +13,60 @@ import java.security.*;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class KmsKeyStore extends KeyStoreSpi {
 
-    private final KmsClient kmsClient;
+    private final KmsAliasCache aliasCache;
+    private final KmsKeyCache keyCache;
     
     public KmsKeyStore(KmsClient kmsClient) {
-    	this.kmsClient = kmsClient;
+    	this(kmsClient, new KmsAliasCache(kmsClient));
+    }
+
+    public KmsKeyStore(KmsClient kmsClient, KmsAliasCache aliasCache) {
+    	this(aliasCache, KmsKeyCache.forClient(kmsClient));
+    }
+
+    public KmsKeyStore(KmsAliasCache aliasCache, KmsKeyCache keyCache) {
+    	this.aliasCache = aliasCache;
+    	this.keyCache = keyCache;
     }
 
     @Override
     public Enumeration<String> engineAliases() {
-        return Collections.enumeration(getAliases().stream().map(AliasListEntry::aliasName).collect(Collectors.toSet()));
+        return Collections.enumeration(aliasCache.getAliases().keySet());
     }
 
     @Override
     public boolean engineContainsAlias(String alias) {
-        String prefixedAlias = getPrefixedAlias(alias);
-        return getAliases().stream().filter(e -> e.aliasName().equals(prefixedAlias)).findAny().isPresent();
+        return aliasCache.getTargetKeyId(alias) != null;
     }
 
     @Override
     public int engineSize() {
-        return getAliases().size();
+        return aliasCache.getAliases().size();
     }
 
     @Override
     public Key engineGetKey(String alias, char[] chars) throws NoSuchAlgorithmException, UnrecoverableKeyException {
-        String prefixedAlias = getPrefixedAlias(alias);
-        AliasListEntry aliasListEntry = getAliases().stream().filter(e -> e.aliasName().equals(prefixedAlias)).findAny().orElse(null);
-        if (aliasListEntry == null) return null;
-
-        DescribeKeyResponse describeKeyResponse = kmsClient.describeKey(builder -> builder.keyId(aliasListEntry.targetKeyId()));
-        if (!describeKeyResponse.keyMetadata().hasSigningAlgorithms()) {
+        String targetKeyId = aliasCache.getTargetKeyId(alias);
+        if (targetKeyId == null) return null;
+
+        KmsKeyCache.KeyInfo keyInfo;
+        try {
+            keyInfo = keyCache.getKeyInfo(targetKeyId);
+        } catch (KmsException e) {
+            // GetPublicKey refuses symmetric keys.
+            if (e.awsErrorDetails() != null && "UnsupportedOperationException".equals(e.awsErrorDetails().errorCode())) {
+                throw new IllegalStateException("Unsupported Key type. Only signing keys are supported.", e);
+            }
+            throw e;
+        }
+        if (keyInfo.getKeyUsage() != KeyUsageType.SIGN_VERIFY || keyInfo.getSigningAlgorithms().isEmpty()) {
             throw new IllegalStateException("Unsupported Key type. Only signing keys are supported.");
         }
 
-        boolean rsa = describeKeyResponse.keyMetadata().signingAlgorithmsAsStrings().stream().filter(a -> a.startsWith("RSA")).findAny().isPresent();
-        System.out.println(describeKeyResponse);
-        return rsa ? KmsRSAKeyFactory.getPrivateKey(describeKeyResponse.keyMetadata().keyId()) : KmsECKeyFactory.getPrivateKey(describeKeyResponse.keyMetadata().keyId());
-    }
-
-    private String getPrefixedAlias(String alias) {
-        return alias.startsWith("alias/") ? alias : "alias/" + alias;
-    }
-
-    private Set<AliasListEntry> getAliases() {
-        ListAliasesResponse listAliasesResponse = null;
-        String marker = null;
-        Set<AliasListEntry> aliases = new HashSet<>();
-
-        do {
-            listAliasesResponse = kmsClient.listAliases(ListAliasesRequest.builder().marker(marker).build());
-            aliases.addAll(listAliasesResponse.aliases());
-            marker = listAliasesResponse.nextMarker();
-        } while (listAliasesResponse.truncated());
-
-        return aliases;
+        return keyInfo.isRsa() ? KmsRSAKeyFactory.getPrivateKey(keyInfo.getKeyId()) : KmsECKeyFactory.getPrivateKey(keyInfo.getKeyId());
     }
 
     @Override
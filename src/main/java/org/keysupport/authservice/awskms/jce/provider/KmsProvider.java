@@ -1,7 +1,9 @@
 package org.keysupport.authservice.awskms.jce.provider;
 
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsAsyncSigner;
 import org.keysupport.authservice.awskms.jce.provider.signature.KmsSignature;
 import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsVerificationMode;
 import software.amazon.awssdk.services.kms.KmsClient;
 
 import java.security.Provider;
@@ -12,43 +14,113 @@ public class KmsProvider extends Provider {
 
     private static final long serialVersionUID = 1L;
 
+    private final transient KmsAliasCache kmsAliasCache;
+    private final transient KmsAsyncSigner kmsAsyncSigner;
+    private final KmsVerificationMode verificationMode;
+
 	public KmsProvider(KmsClient kmsClient) {
+        this(kmsClient, new KmsAliasCache(kmsClient));
+    }
+
+    /**
+     * Register the provider with an explicitly configured {@link KmsAliasCache}, which is
+     * shared by every KeyStore instance obtained from this provider.
+     *
+     * @param kmsClient
+     * @param kmsAliasCache
+     */
+    public KmsProvider(KmsClient kmsClient, KmsAliasCache kmsAliasCache) {
+        this(kmsClient, kmsAliasCache, KmsVerificationMode.LOCAL_PREFERRED);
+    }
+
+    /**
+     * Register the provider with an explicit {@link KmsVerificationMode}. The default,
+     * {@link KmsVerificationMode#LOCAL_PREFERRED}, verifies locally whenever the public key
+     * material is available and only calls KMS Verify for bare key references.
+     *
+     * @param kmsClient
+     * @param kmsAliasCache
+     * @param verificationMode
+     */
+    public KmsProvider(KmsClient kmsClient, KmsAliasCache kmsAliasCache, KmsVerificationMode verificationMode) {
+        this(kmsClient, kmsAliasCache, verificationMode, null);
+    }
+
+    /**
+     * Register the provider with an optional {@link KmsAsyncSigner}, for callers that can consume
+     * a {@link java.util.concurrent.CompletableFuture} through {@link #getAsyncSigner()}. The JCA
+     * Signature services block until KMS answers whatever the client, so they always sign
+     * through {@code kmsClient}.
+     *
+     * @param kmsClient
+     * @param kmsAliasCache
+     * @param verificationMode
+     * @param kmsAsyncSigner
+     */
+    public KmsProvider(KmsClient kmsClient, KmsAliasCache kmsAliasCache, KmsVerificationMode verificationMode,
+            KmsAsyncSigner kmsAsyncSigner) {
         super("KMS", "software.amazon.awssdk.services.kms.jce", "AWS KMS Provider");
+        this.kmsAliasCache = kmsAliasCache;
+        this.kmsAsyncSigner = kmsAsyncSigner;
+        this.verificationMode = verificationMode;
         registerSignatures(kmsClient);
     }
 
+    public KmsAliasCache getAliasCache() {
+        return kmsAliasCache;
+    }
+
+    /**
+     * @return the non-blocking signer, or null if none was configured
+     */
+    public KmsAsyncSigner getAsyncSigner() {
+        return kmsAsyncSigner;
+    }
+
     private void registerSignatures(final KmsClient kmsClient) {
-        this.putService(new KmsKeyStoreService(this, kmsClient));
-        Stream.of(KmsSigningAlgorithm.values()).forEach(s -> this.putService(new KmsSignatureProviderService(this, kmsClient, s)));
+        this.putService(new KmsKeyStoreService(this, kmsClient, kmsAliasCache));
+        Stream.of(KmsSigningAlgorithm.values()).forEach(s -> this.putService(new KmsSignatureProviderService(this, kmsClient, verificationMode, s, false)));
+        // ECDSA with r || s signatures, for JWS.
+        Stream.of(KmsSigningAlgorithm.values())
+                .filter(s -> s.getP1363Algorithm() != null)
+                .forEach(s -> this.putService(new KmsSignatureProviderService(this, kmsClient, verificationMode, s, true)));
     }
 
     private static class KmsKeyStoreService extends Service {
 
         private final KmsClient kmsClient;
+        private final KmsAliasCache kmsAliasCache;
 
-        public KmsKeyStoreService(Provider provider, KmsClient kmsClient) {
+        public KmsKeyStoreService(Provider provider, KmsClient kmsClient, KmsAliasCache kmsAliasCache) {
             super(provider, "KeyStore", "KMS", KmsKeyStore.class.getName(), Collections.emptyList(), Collections.emptyMap());
             this.kmsClient = kmsClient;
+            this.kmsAliasCache = kmsAliasCache;
         }
 
         public Object newInstance(Object constructorParameter) {
-            return new KmsKeyStore(kmsClient);
+            return new KmsKeyStore(kmsClient, kmsAliasCache);
         }
     }
 
     private static class KmsSignatureProviderService extends Service {
 
         private final KmsClient kmsClient;
+        private final KmsVerificationMode verificationMode;
         private final KmsSigningAlgorithm kmsSigningAlgorithm;
+        private final boolean p1363;
 
-        public KmsSignatureProviderService(Provider provider, KmsClient kmsClient, KmsSigningAlgorithm kmsSigningAlgorithm) {
-            super(provider, "Signature", kmsSigningAlgorithm.getAlgorithm(), KmsSignature.class.getName(), Collections.emptyList(), Collections.emptyMap());
+        public KmsSignatureProviderService(Provider provider, KmsClient kmsClient, KmsVerificationMode verificationMode, KmsSigningAlgorithm kmsSigningAlgorithm,
+                boolean p1363) {
+            super(provider, "Signature", p1363 ? kmsSigningAlgorithm.getP1363Algorithm() : kmsSigningAlgorithm.getAlgorithm(), KmsSignature.class.getName(),
+                    Collections.emptyList(), Collections.emptyMap());
             this.kmsClient = kmsClient;
+            this.verificationMode = verificationMode;
             this.kmsSigningAlgorithm = kmsSigningAlgorithm;
+            this.p1363 = p1363;
         }
 
         public Object newInstance(Object constructorParameter) {
-            return new KmsSignature(kmsClient, kmsSigningAlgorithm);
+            return new KmsSignature(kmsClient, verificationMode, kmsSigningAlgorithm, p1363);
         }
     }
 
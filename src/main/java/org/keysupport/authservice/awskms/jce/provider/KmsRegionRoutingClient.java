@@ -0,0 +1,106 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.ListAliasesRequest;
+import software.amazon.awssdk.services.kms.model.ListAliasesResponse;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.VerifyRequest;
+import software.amazon.awssdk.services.kms.model.VerifyResponse;
+
+import java.util.Map;
+
+/**
+ * Sends each request to the client for the region named in its key ARN, so one provider can
+ * use keys, including multi-Region replicas, in several regions, each region with its own
+ * request quotas. Requests by key id or alias, and those without a key, go to the default
+ * client.
+ */
+public class KmsRegionRoutingClient implements KmsClient {
+
+    private final KmsClient defaultClient;
+    private final Map<String, KmsClient> regionalClients;
+
+    /**
+     * @param defaultClient
+     * @param regionalClients by region name, e.g. "us-west-2"
+     */
+    public KmsRegionRoutingClient(KmsClient defaultClient, Map<String, KmsClient> regionalClients) {
+        this.defaultClient = defaultClient;
+        this.regionalClients = Map.copyOf(regionalClients);
+    }
+
+    /**
+     * @param keyIdentifier
+     * @return the region of a key or alias ARN, or null for a key id or alias name
+     */
+    public static String region(String keyIdentifier) {
+        if (keyIdentifier == null || !keyIdentifier.startsWith("arn:")) {
+            return null;
+        }
+        // arn:partition:kms:region:account:resource
+        String[] fields = keyIdentifier.split(":", 5);
+        return fields.length == 5 && !fields[3].isEmpty() ? fields[3] : null;
+    }
+
+    @Override
+    public SignResponse sign(SignRequest signRequest) {
+        return client(signRequest.keyId()).sign(signRequest);
+    }
+
+    @Override
+    public VerifyResponse verify(VerifyRequest verifyRequest) {
+        return client(verifyRequest.keyId()).verify(verifyRequest);
+    }
+
+    @Override
+    public GetPublicKeyResponse getPublicKey(GetPublicKeyRequest getPublicKeyRequest) {
+        return client(getPublicKeyRequest.keyId()).getPublicKey(getPublicKeyRequest);
+    }
+
+    @Override
+    public DescribeKeyResponse describeKey(DescribeKeyRequest describeKeyRequest) {
+        return client(describeKeyRequest.keyId()).describeKey(describeKeyRequest);
+    }
+
+    @Override
+    public ListAliasesResponse listAliases(ListAliasesRequest listAliasesRequest) {
+        return client(listAliasesRequest.keyId()).listAliases(listAliasesRequest);
+    }
+
+    @Override
+    public GenerateDataKeyResponse generateDataKey(GenerateDataKeyRequest generateDataKeyRequest) {
+        return client(generateDataKeyRequest.keyId()).generateDataKey(generateDataKeyRequest);
+    }
+
+    @Override
+    public DecryptResponse decrypt(DecryptRequest decryptRequest) {
+        return client(decryptRequest.keyId()).decrypt(decryptRequest);
+    }
+
+    @Override
+    public String serviceName() {
+        return defaultClient.serviceName();
+    }
+
+    @Override
+    public void close() {
+        regionalClients.values().forEach(KmsClient::close);
+        defaultClient.close();
+    }
+
+    private KmsClient client(String keyIdentifier) {
+        String region = region(keyIdentifier);
+        KmsClient client = region == null ? null : regionalClients.get(region);
+        return client != null ? client : defaultClient;
+    }
+
+}
@@ -0,0 +1,312 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paces KMS requests to stay just under the account's request quotas, which KMS shares by
+ * quota class rather than by operation: Sign and Verify with RSA keys draw on one quota,
+ * with ECC keys on another, GenerateDataKey and Decrypt on the symmetric quota, and
+ * DescribeKey, GetPublicKey and ListAliases on their own.
+ * <p>
+ * Each class has a token bucket refilled at a target rate, a fraction of the quota. Callers
+ * wait in priority order, so token endpoint signing goes ahead of verification and key
+ * lookups queued on the same quota. The target rate backs off multiplicatively when KMS
+ * throttles, at most once per {@link #DECREASE_INTERVAL} since concurrent throttles report the
+ * same overshoot, and climbs back additively, so callers converge on the quota instead of
+ * all retrying into it together.
+ */
+public class KmsRequestScheduler {
+
+    public static final String RSA = "RSA";
+    public static final String ECC = "ECC";
+    public static final String SYMMETRIC = "SYMMETRIC";
+
+    /**
+     * KMS's default request quotas per second.
+     */
+    public static final Map<String, Integer> DEFAULT_QUOTAS = defaultQuotas();
+
+    public static final double DEFAULT_UTILIZATION = 0.9;
+    public static final Duration DEFAULT_MAX_QUEUE_TIME = Duration.ofSeconds(5);
+
+    static final Duration DECREASE_INTERVAL = Duration.ofSeconds(1);
+    private static final double DECREASE_FACTOR = 0.7;
+    private static final double MINIMUM_RATE_FRACTION = 0.05;
+    /**
+     * Fraction of the target rate regained per second without throttling.
+     */
+    private static final double INCREASE_FRACTION_PER_SECOND = 0.05;
+
+    public enum Priority {
+        /** Sign, on the token endpoint. */
+        SIGN,
+        /** Data keys and decryption for token encryption. */
+        NORMAL,
+        /** Verify and key and alias lookups. */
+        BACKGROUND
+    }
+
+    private final Map<String, Lane> lanes;
+    private final long maxQueueNanos;
+
+    public KmsRequestScheduler() {
+        this(DEFAULT_QUOTAS, DEFAULT_UTILIZATION, DEFAULT_MAX_QUEUE_TIME);
+    }
+
+    /**
+     * @param quotas requests per second by quota class; classes left out are not paced
+     * @param utilization fraction of each quota to aim for
+     * @param maxQueueTime how long a request may wait for its turn before failing as throttled
+     */
+    public KmsRequestScheduler(Map<String, Integer> quotas, double utilization, Duration maxQueueTime) {
+        if (utilization <= 0 || utilization > 1) {
+            throw new IllegalArgumentException("utilization must be in (0, 1]");
+        }
+        Map<String, Lane> lanes = new LinkedHashMap<>();
+        quotas.forEach((name, quota) -> {
+            if (quota != null && quota > 0) {
+                lanes.put(name, new Lane(name, quota * utilization));
+            }
+        });
+        this.lanes = Collections.unmodifiableMap(lanes);
+        this.maxQueueNanos = maxQueueTime.toNanos();
+    }
+
+    /**
+     * @param signingAlgorithm
+     * @return the quota class Sign and Verify requests with the algorithm draw on
+     */
+    public static String quotaClass(SigningAlgorithmSpec signingAlgorithm) {
+        return signingAlgorithm != null && (signingAlgorithm.toString().startsWith("ECDSA") || signingAlgorithm.toString().startsWith("SM2"))
+                ? ECC
+                : RSA;
+    }
+
+    /**
+     * Wait for a request's turn on its quota.
+     *
+     * @param quotaClass
+     * @param priority
+     * @throws KmsException with the ThrottlingException error code if the turn does not come
+     *         within the maximum queue time
+     * @throws InterruptedException
+     */
+    public void acquire(String quotaClass, Priority priority) throws InterruptedException {
+        Lane lane = lanes.get(quotaClass);
+        if (lane != null) {
+            lane.acquire(priority, maxQueueNanos);
+        }
+    }
+
+    /**
+     * Back the quota class off after KMS throttled one of its requests.
+     *
+     * @param quotaClass
+     */
+    public void throttled(String quotaClass) {
+        Lane lane = lanes.get(quotaClass);
+        if (lane != null) {
+            lane.decrease();
+        }
+    }
+
+    /**
+     * @return the quota classes paced
+     */
+    public Iterable<String> getQuotaClasses() {
+        return lanes.keySet();
+    }
+
+    /**
+     * @param quotaClass
+     * @return the current target rate per second, or 0 if the class is not paced
+     */
+    public double getRate(String quotaClass) {
+        Lane lane = lanes.get(quotaClass);
+        return lane == null ? 0 : lane.currentRate();
+    }
+
+    /**
+     * @param quotaClass
+     * @return requests waiting for their turn
+     */
+    public int getQueued(String quotaClass) {
+        Lane lane = lanes.get(quotaClass);
+        return lane == null ? 0 : lane.queued();
+    }
+
+    private static Map<String, Integer> defaultQuotas() {
+        Map<String, Integer> quotas = new LinkedHashMap<>();
+        quotas.put(SYMMETRIC, 5_500);
+        quotas.put(RSA, 500);
+        quotas.put(ECC, 300);
+        quotas.put("GetPublicKey", 2_000);
+        quotas.put("DescribeKey", 2_000);
+        quotas.put("ListAliases", 100);
+        return Collections.unmodifiableMap(quotas);
+    }
+
+    static KmsException queueTimeout(String quotaClass) {
+        String message = "Timed out waiting for the " + quotaClass + " KMS request quota";
+        return (KmsException) KmsException.builder()
+                .message(message)
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode("ThrottlingException")
+                        .errorMessage(message)
+                        .serviceName("Kms")
+                        .build())
+                .build();
+    }
+
+    /**
+     * One quota class: an AIMD-paced token bucket holding up to a second of requests, and
+     * the requests waiting on it. A request that finds no one waiting and a token ready takes
+     * it straight away. Otherwise only the first waiter sleeps until the next token; the rest
+     * each wait on their own condition, and the first waiter to leave wakes only the one that
+     * takes its place, so a grant costs one wakeup however long the queue. Waiting is on a lock
+     * rather than a monitor, so a virtual thread waiting its turn releases its carrier thread.
+     */
+    private static final class Lane {
+
+        private final String name;
+        private final double targetRate;
+        private final double minimumRate;
+        private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private double rate;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private long decreasedAt = refilledAt - DECREASE_INTERVAL.toNanos();
+        private long sequence;
+
+        Lane(String name, double targetRate) {
+            this.name = name;
+            this.targetRate = targetRate;
+            this.minimumRate = Math.max(1, targetRate * MINIMUM_RATE_FRACTION);
+            this.rate = targetRate;
+            this.tokens = targetRate;
+        }
+
+        void acquire(Priority priority, long maxQueueNanos) throws InterruptedException {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                refill(now);
+                if (waiters.isEmpty() && tokens >= 1) {
+                    tokens -= 1;
+                    return;
+                }
+                long deadline = now + maxQueueNanos;
+                Waiter waiter = new Waiter(priority, sequence++, lock.newCondition());
+                waiters.add(waiter);
+                try {
+                    while (true) {
+                        boolean first = waiters.peek() == waiter;
+                        if (first && tokens >= 1) {
+                            tokens -= 1;
+                            return;
+                        }
+                        long remaining = deadline - now;
+                        if (remaining <= 0) {
+                            throw queueTimeout(name);
+                        }
+                        long untilToken = first ? (long) Math.ceil((1 - tokens) / rate * 1e9) : remaining;
+                        waiter.turn.awaitNanos(Math.max(1, Math.min(untilToken, remaining)));
+                        now = System.nanoTime();
+                        refill(now);
+                    }
+                } finally {
+                    if (waiters.peek() == waiter) {
+                        waiters.poll();
+                        Waiter next = waiters.peek();
+                        if (next != null) {
+                            next.turn.signal();
+                        }
+                    } else {
+                        waiters.remove(waiter);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void decrease() {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                refill(now);
+                if (now - decreasedAt < DECREASE_INTERVAL.toNanos()) {
+                    return;
+                }
+                decreasedAt = now;
+                rate = Math.max(minimumRate, rate * DECREASE_FACTOR);
+                // Drop the burst allowance too, or the next second would overshoot again.
+                tokens = Math.min(tokens, rate / 10);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        double currentRate() {
+            lock.lock();
+            try {
+                refill(System.nanoTime());
+                return rate;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int queued() {
+            lock.lock();
+            try {
+                return waiters.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill(long now) {
+            double elapsedSeconds = (now - refilledAt) / 1e9;
+            refilledAt = now;
+            if (rate < targetRate) {
+                rate = Math.min(targetRate, rate + targetRate * INCREASE_FRACTION_PER_SECOND * elapsedSeconds);
+            }
+            tokens = Math.min(rate, tokens + rate * elapsedSeconds);
+        }
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+
+        private final Priority priority;
+        private final long sequence;
+        private final Condition turn;
+
+        Waiter(Priority priority, long sequence, Condition turn) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.turn = turn;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+}
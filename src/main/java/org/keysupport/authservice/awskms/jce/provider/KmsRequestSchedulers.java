@@ -0,0 +1,53 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import java.util.Map;
+
+/**
+ * The {@link KmsRequestScheduler} of each region requests are sent to, since KMS quotas are
+ * per region, chosen by the region in a key ARN as {@link KmsRegionRoutingClient} chooses the
+ * client. The blocking client chain and the {@code KmsAsyncSigner} pace on the same schedulers,
+ * so both draw on one pacing of each quota.
+ */
+public class KmsRequestSchedulers {
+
+    private final KmsRequestScheduler defaultScheduler;
+    private final Map<String, KmsRequestScheduler> regionalSchedulers;
+    private final int maxAttempts;
+
+    /**
+     * @param defaultScheduler for requests by key id or alias, and keys in the default region
+     * @param regionalSchedulers by region name, e.g. "us-west-2"
+     * @param maxAttempts attempts per request, including retries of throttled requests
+     */
+    public KmsRequestSchedulers(KmsRequestScheduler defaultScheduler, Map<String, KmsRequestScheduler> regionalSchedulers,
+            int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.defaultScheduler = defaultScheduler;
+        this.regionalSchedulers = Map.copyOf(regionalSchedulers);
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @param region the region name, or null for the default region
+     * @return the scheduler of the region
+     */
+    public KmsRequestScheduler forRegion(String region) {
+        KmsRequestScheduler scheduler = region == null ? null : regionalSchedulers.get(region);
+        return scheduler != null ? scheduler : defaultScheduler;
+    }
+
+    /**
+     * @param keyIdentifier
+     * @return the scheduler of the region the key identifier's requests are sent to
+     */
+    public KmsRequestScheduler forKey(String keyIdentifier) {
+        return forRegion(KmsRegionRoutingClient.region(keyIdentifier));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+}
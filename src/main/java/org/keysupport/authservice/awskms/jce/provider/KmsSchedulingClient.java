@@ -0,0 +1,138 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsRequestScheduler.Priority;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.ListAliasesRequest;
+import software.amazon.awssdk.services.kms.model.ListAliasesResponse;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.VerifyRequest;
+import software.amazon.awssdk.services.kms.model.VerifyResponse;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Sends every request through a {@link KmsRequestScheduler} before handing it to the
+ * wrapped client, and retries requests KMS throttled, or failed in a way worth retrying, on
+ * their quota's turn. The wrapped client should not retry itself, or its retries would bypass
+ * the scheduler.
+ */
+public class KmsSchedulingClient implements KmsClient {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private static final long RETRY_BASE_DELAY_MILLIS = 25;
+
+    private final KmsClient kmsClient;
+    private final KmsRequestScheduler scheduler;
+    private final int maxAttempts;
+
+    public KmsSchedulingClient(KmsClient kmsClient, KmsRequestScheduler scheduler) {
+        this(kmsClient, scheduler, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public KmsSchedulingClient(KmsClient kmsClient, KmsRequestScheduler scheduler, int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.kmsClient = kmsClient;
+        this.scheduler = scheduler;
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Override
+    public SignResponse sign(SignRequest signRequest) {
+        return execute(KmsRequestScheduler.quotaClass(signRequest.signingAlgorithm()), Priority.SIGN,
+                () -> kmsClient.sign(signRequest));
+    }
+
+    @Override
+    public VerifyResponse verify(VerifyRequest verifyRequest) {
+        return execute(KmsRequestScheduler.quotaClass(verifyRequest.signingAlgorithm()), Priority.BACKGROUND,
+                () -> kmsClient.verify(verifyRequest));
+    }
+
+    @Override
+    public GetPublicKeyResponse getPublicKey(GetPublicKeyRequest getPublicKeyRequest) {
+        return execute("GetPublicKey", Priority.BACKGROUND, () -> kmsClient.getPublicKey(getPublicKeyRequest));
+    }
+
+    @Override
+    public DescribeKeyResponse describeKey(DescribeKeyRequest describeKeyRequest) {
+        return execute("DescribeKey", Priority.BACKGROUND, () -> kmsClient.describeKey(describeKeyRequest));
+    }
+
+    @Override
+    public ListAliasesResponse listAliases(ListAliasesRequest listAliasesRequest) {
+        return execute("ListAliases", Priority.BACKGROUND, () -> kmsClient.listAliases(listAliasesRequest));
+    }
+
+    @Override
+    public GenerateDataKeyResponse generateDataKey(GenerateDataKeyRequest generateDataKeyRequest) {
+        return execute(KmsRequestScheduler.SYMMETRIC, Priority.NORMAL, () -> kmsClient.generateDataKey(generateDataKeyRequest));
+    }
+
+    @Override
+    public DecryptResponse decrypt(DecryptRequest decryptRequest) {
+        return execute(KmsRequestScheduler.SYMMETRIC, Priority.NORMAL, () -> kmsClient.decrypt(decryptRequest));
+    }
+
+    @Override
+    public String serviceName() {
+        return kmsClient.serviceName();
+    }
+
+    @Override
+    public void close() {
+        kmsClient.close();
+    }
+
+    private <T> T execute(String quotaClass, Priority priority, Supplier<T> request) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                scheduler.acquire(quotaClass, priority);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw SdkClientException.create("Interrupted waiting for the " + quotaClass + " KMS request quota", e);
+            }
+            try {
+                return request.get();
+            } catch (SdkException e) {
+                boolean throttled = e instanceof SdkServiceException && ((SdkServiceException) e).isThrottlingException();
+                if (throttled) {
+                    scheduler.throttled(quotaClass);
+                }
+                if (attempt >= maxAttempts || !(throttled || e.retryable())) {
+                    throw e;
+                }
+                if (!throttled) {
+                    backOff(attempt);
+                }
+                // A throttled request waits its turn again, at the reduced rate.
+            }
+        }
+    }
+
+    private static void backOff(int attempt) {
+        long delay = ThreadLocalRandom.current().nextLong(RETRY_BASE_DELAY_MILLIS << (attempt - 1)) + 1;
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
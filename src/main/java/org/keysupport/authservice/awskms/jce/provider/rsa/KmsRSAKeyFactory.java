@@ -1,15 +1,12 @@
 package org.keysupport.authservice.awskms.jce.provider.rsa;
 
+import org.keysupport.authservice.awskms.jce.provider.KmsKeyCache;
 import software.amazon.awssdk.services.kms.KmsClient;
-import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
-import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
 
-import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.X509EncodedKeySpec;
 
 public abstract class KmsRSAKeyFactory {
 
@@ -66,7 +63,7 @@ public abstract class KmsRSAKeyFactory {
 
     /**
      * Retrieve KMS Public Key reference based on the keyId informed.
-     * Also fetch the real Public Key from KMS.
+     * Also fetch the real Public Key from KMS, through the {@link KmsKeyCache} shared by this client.
      * Use only when it is necessary the real Public Key.
      *
      * @param kmsClient
@@ -76,12 +73,21 @@ public abstract class KmsRSAKeyFactory {
      * @throws InvalidKeySpecException 
      */
     public static KmsRSAPublicKey getPublicKey(KmsClient kmsClient, String keyId) throws NoSuchAlgorithmException, InvalidKeySpecException {
-        GetPublicKeyRequest getPublicKeyRequest = GetPublicKeyRequest.builder().keyId(keyId).build();
-        GetPublicKeyResponse getPublicKeyResponse = kmsClient.getPublicKey(getPublicKeyRequest);
+        return getPublicKey(KmsKeyCache.forClient(kmsClient), keyId);
+    }
 
-        X509EncodedKeySpec keySpec = new X509EncodedKeySpec(getPublicKeyResponse.publicKey().asByteArray());
-        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-        return new KmsRSAPublicKey(keyId, (RSAPublicKey) keyFactory.generatePublic(keySpec));
+    /**
+     * Retrieve KMS Public Key reference based on the keyId informed.
+     * The real Public Key is served from the cache, and fetched from KMS only on a miss.
+     *
+     * @param keyCache
+     * @param keyId
+     * @return
+     * @throws NoSuchAlgorithmException 
+     * @throws InvalidKeySpecException 
+     */
+    public static KmsRSAPublicKey getPublicKey(KmsKeyCache keyCache, String keyId) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        return new KmsRSAPublicKey(keyId, (RSAPublicKey) keyCache.getPublicKey(keyId));
     }
 
 }
@@ -0,0 +1,441 @@
+package org.keysupport.authservice.awskms.jce.provider.signature;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsKeyPermits;
+import org.keysupport.authservice.awskms.jce.provider.KmsRegionRoutingClient;
+import org.keysupport.authservice.awskms.jce.provider.KmsRequestScheduler;
+import org.keysupport.authservice.awskms.jce.provider.KmsRequestScheduler.Priority;
+import org.keysupport.authservice.awskms.jce.provider.KmsRequestSchedulers;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.Protocol;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.model.MessageType;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking signing engine built on {@link KmsAsyncClient}.
+ * <p>
+ * Digests submitted by any number of callers are queued per key, and at most
+ * {@code maxInFlightPerKey} Sign requests are outstanding for a key at any time.
+ * Completions drain the queue, so no thread waits on a KMS round trip: the SDK event
+ * loop that delivers a response dispatches the next queued request, which reuses the
+ * pooled, kept-alive connection just released. KMS speaks HTTP/1.1, so each connection
+ * carries one request at a time; a burst is spread over the pool rather than pipelined.
+ * <p>
+ * Identical requests (same key, algorithm and digest) that arrive while one is
+ * already outstanding share its result instead of issuing another KMS call.
+ * <p>
+ * The requests keep within what the blocking {@code KmsClient} chain enforces. Each is sent to
+ * the client for the region in its key ARN, as {@link KmsRegionRoutingClient} does. Given the
+ * {@link KmsKeyPermits} of the blocking chain, each also takes one of its key's permits, so a
+ * key's cap counts both; a request that finds none free is tried again every
+ * {@link #PERMIT_RETRY_INTERVAL} and fails as throttled after the permits' maximum wait. Given
+ * the {@link KmsRequestSchedulers}, each waits its turn on its region's quota at Sign priority
+ * and is retried on its turn when throttled. The turns are waited for on one thread per quota
+ * class, for the pacing delay only, never for KMS.
+ * <p>
+ * Only callers that consume the {@link CompletableFuture} save a thread; {@link KmsSignature}
+ * must return the signature and so signs through the blocking {@code KmsClient}.
+ */
+public class KmsAsyncSigner implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT_PER_KEY = 32;
+
+    static final Duration PERMIT_RETRY_INTERVAL = Duration.ofMillis(5);
+
+    private static final long RETRY_BASE_DELAY_MILLIS = 25;
+    private static final KmsKeyPermits.Permit NO_PERMIT = () -> { };
+
+    private final KmsAsyncClient defaultClient;
+    private final Map<String, KmsAsyncClient> regionalClients;
+    private final KmsRequestSchedulers schedulers;
+    private final KmsKeyPermits permits;
+    private final int maxInFlightPerKey;
+    private final ConcurrentMap<String, KeyLane> lanes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<PendingKey, CompletableFuture<byte[]>> outstanding = new ConcurrentHashMap<>();
+    private final ConcurrentMap<KmsRequestScheduler, ConcurrentMap<String, ExecutorService>> admissions = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor timer = timer();
+
+    public KmsAsyncSigner(KmsAsyncClient kmsAsyncClient) {
+        this(kmsAsyncClient, DEFAULT_MAX_IN_FLIGHT_PER_KEY);
+    }
+
+    public KmsAsyncSigner(KmsAsyncClient kmsAsyncClient, int maxInFlightPerKey) {
+        this(kmsAsyncClient, Map.of(), null, null, maxInFlightPerKey);
+    }
+
+    /**
+     * @param defaultClient for keys named by id or alias, and keys in the default region
+     * @param regionalClients by region name, e.g. "us-west-2"
+     * @param schedulers the blocking chain's schedulers, or null to send without pacing, leaving
+     *            retries to the SDK clients
+     * @param permits the blocking chain's permits per key, or null
+     * @param maxInFlightPerKey most of this signer's Sign requests outstanding for one key
+     */
+    public KmsAsyncSigner(KmsAsyncClient defaultClient, Map<String, KmsAsyncClient> regionalClients,
+            KmsRequestSchedulers schedulers, KmsKeyPermits permits, int maxInFlightPerKey) {
+        if (maxInFlightPerKey < 1) {
+            throw new IllegalArgumentException("maxInFlightPerKey must be at least 1");
+        }
+        this.defaultClient = defaultClient;
+        this.regionalClients = Map.copyOf(regionalClients);
+        this.schedulers = schedulers;
+        this.permits = permits;
+        this.maxInFlightPerKey = maxInFlightPerKey;
+    }
+
+    /**
+     * Build a {@link KmsAsyncClient} whose connection pool is sized for the given
+     * concurrency, so bursts reuse a bounded set of kept-alive connections rather than
+     * opening a connection per request.
+     *
+     * @param maxConcurrency
+     * @return
+     */
+    public static KmsAsyncClient defaultClient(int maxConcurrency) {
+        return defaultClient(null, maxConcurrency, true);
+    }
+
+    /**
+     * @param region null for the SDK default region
+     * @param maxConcurrency
+     * @param sdkRetries false when the signer is given schedulers, which retry on their turn
+     * @return
+     */
+    public static KmsAsyncClient defaultClient(String region, int maxConcurrency, boolean sdkRetries) {
+        KmsAsyncClient.Builder builder = KmsAsyncClient.builder();
+        if (region != null) {
+            builder.region(Region.of(region));
+        }
+        if (!sdkRetries) {
+            builder.overrideConfiguration(ClientOverrideConfiguration.builder().retryPolicy(RetryPolicy.none()).build());
+        }
+        return builder
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .protocol(Protocol.HTTP1_1)
+                        .maxConcurrency(maxConcurrency)
+                        .maxPendingConnectionAcquires(maxConcurrency * 64)
+                        .connectionMaxIdleTime(Duration.ofSeconds(60))
+                        .tcpKeepAlive(true))
+                .build();
+    }
+
+    /**
+     * Sign a precomputed digest with the KMS key identified by keyId.
+     *
+     * @param keyId
+     * @param signingAlgorithmSpec
+     * @param digest
+     * @return a future completed with the raw signature returned by KMS
+     */
+    public CompletableFuture<byte[]> sign(String keyId, SigningAlgorithmSpec signingAlgorithmSpec, byte[] digest) {
+        // Copied, so a caller reusing its buffer cannot change a request, or the key it is shared under.
+        PendingKey pendingKey = new PendingKey(keyId, signingAlgorithmSpec, digest.clone());
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = outstanding.putIfAbsent(pendingKey, future);
+        if (existing != null) {
+            return existing;
+        }
+        future.whenComplete((signature, throwable) -> outstanding.remove(pendingKey, future));
+
+        KeyLane lane = lanes.computeIfAbsent(keyId, k -> new KeyLane());
+        lane.queue.offer(new PendingSign(pendingKey, future, System.nanoTime()));
+        drain(lane);
+        return future;
+    }
+
+    /**
+     * Number of this signer's Sign requests currently outstanding against KMS for the key.
+     *
+     * @param keyId
+     * @return
+     */
+    public int getInFlight(String keyId) {
+        KeyLane lane = lanes.get(keyId);
+        return lane == null ? 0 : lane.inFlight.get();
+    }
+
+    public int getMaxInFlightPerKey() {
+        return maxInFlightPerKey;
+    }
+
+    /**
+     * Dispatch queued requests while the lane has room and the key a permit. One thread drains
+     * a lane at a time; a submission or completion that arrives meanwhile, including one
+     * completing inline from {@link #send}, only marks the lane for another pass, so the stack
+     * never grows with the queue.
+     */
+    private void drain(KeyLane lane) {
+        if (lane.drains.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            while (lane.inFlight.get() < maxInFlightPerKey) {
+                PendingSign pending = lane.queue.peek();
+                if (pending == null) {
+                    break;
+                }
+                KmsKeyPermits.Permit permit = NO_PERMIT;
+                if (permits != null) {
+                    permit = permits.tryAcquire(pending.key.keyId);
+                    if (permit == null) {
+                        if (System.nanoTime() - pending.queuedAt > permits.getMaxWait().toNanos()) {
+                            lane.queue.poll();
+                            pending.future.completeExceptionally(permits.permitTimeout(pending.key.keyId));
+                            continue;
+                        }
+                        // The blocking chain holds the key's permits and does not say when it lets one go.
+                        retryLater(lane);
+                        break;
+                    }
+                }
+                lane.queue.poll();
+                lane.inFlight.incrementAndGet();
+                admit(lane, pending, permit, 1);
+            }
+        } while (lane.drains.decrementAndGet() != 0);
+    }
+
+    private void retryLater(KeyLane lane) {
+        if (!lane.retryScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            timer.schedule(() -> {
+                lane.retryScheduled.set(false);
+                drain(lane);
+            }, PERMIT_RETRY_INTERVAL.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed; the queued requests are failed by close().
+            lane.retryScheduled.set(false);
+        }
+    }
+
+    /**
+     * Send the request once its quota gives it a turn, or straight away without schedulers.
+     */
+    private void admit(KeyLane lane, PendingSign pending, KmsKeyPermits.Permit permit, int attempt) {
+        KmsRequestScheduler scheduler = schedulers == null ? null : schedulers.forKey(pending.key.keyId);
+        if (scheduler == null) {
+            send(lane, pending, permit, null, attempt);
+            return;
+        }
+        String quotaClass = KmsRequestScheduler.quotaClass(pending.key.signingAlgorithmSpec);
+        try {
+            admission(scheduler, quotaClass).execute(() -> {
+                try {
+                    scheduler.acquire(quotaClass, Priority.SIGN);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    complete(lane, pending, permit, null,
+                            SdkClientException.create("Interrupted waiting for the " + quotaClass + " KMS request quota", e));
+                    return;
+                } catch (RuntimeException e) {
+                    complete(lane, pending, permit, null, e);
+                    return;
+                }
+                send(lane, pending, permit, scheduler, attempt);
+            });
+        } catch (RejectedExecutionException e) {
+            complete(lane, pending, permit, null, e);
+        }
+    }
+
+    private void send(KeyLane lane, PendingSign pending, KmsKeyPermits.Permit permit, KmsRequestScheduler scheduler,
+            int attempt) {
+        SignRequest signRequest = SignRequest.builder()
+                .keyId(pending.key.keyId)
+                .messageType(MessageType.DIGEST)
+                .signingAlgorithm(pending.key.signingAlgorithmSpec)
+                .message(SdkBytes.fromByteArray(pending.key.digest))
+                .build();
+        CompletableFuture<SignResponse> call;
+        try {
+            call = client(pending.key.keyId).sign(signRequest);
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((response, throwable) -> {
+            if (throwable == null) {
+                complete(lane, pending, permit, response.signature().asByteArray(), null);
+                return;
+            }
+            Throwable failure = throwable instanceof CompletionException && throwable.getCause() != null
+                    ? throwable.getCause()
+                    : throwable;
+            if (scheduler != null && failure instanceof SdkException) {
+                String quotaClass = KmsRequestScheduler.quotaClass(pending.key.signingAlgorithmSpec);
+                boolean throttled = failure instanceof SdkServiceException && ((SdkServiceException) failure).isThrottlingException();
+                if (throttled) {
+                    scheduler.throttled(quotaClass);
+                }
+                if (attempt < schedulers.getMaxAttempts() && (throttled || ((SdkException) failure).retryable())) {
+                    // A throttled request waits its turn again, at the reduced rate.
+                    retry(lane, pending, permit, attempt, throttled ? 0 : backOff(attempt), failure);
+                    return;
+                }
+            }
+            complete(lane, pending, permit, null, failure);
+        });
+    }
+
+    private void retry(KeyLane lane, PendingSign pending, KmsKeyPermits.Permit permit, int attempt, long delayMillis,
+            Throwable failure) {
+        try {
+            timer.schedule(() -> admit(lane, pending, permit, attempt + 1), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            complete(lane, pending, permit, null, failure);
+        }
+    }
+
+    private void complete(KeyLane lane, PendingSign pending, KmsKeyPermits.Permit permit, byte[] signature,
+            Throwable failure) {
+        permit.release();
+        lane.inFlight.decrementAndGet();
+        if (failure != null) {
+            pending.future.completeExceptionally(failure);
+        } else {
+            pending.future.complete(signature);
+        }
+        drain(lane);
+    }
+
+    private KmsAsyncClient client(String keyIdentifier) {
+        String region = KmsRegionRoutingClient.region(keyIdentifier);
+        KmsAsyncClient client = region == null ? null : regionalClients.get(region);
+        return client != null ? client : defaultClient;
+    }
+
+    private ExecutorService admission(KmsRequestScheduler scheduler, String quotaClass) {
+        return admissions.computeIfAbsent(scheduler, s -> new ConcurrentHashMap<>())
+                .computeIfAbsent(quotaClass, KmsAsyncSigner::admissionExecutor);
+    }
+
+    private static long backOff(int attempt) {
+        return ThreadLocalRandom.current().nextLong(RETRY_BASE_DELAY_MILLIS << (attempt - 1)) + 1;
+    }
+
+    /**
+     * Closes the clients and stops the signer's threads; requests still queued for a permit or
+     * a turn fail.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        admissions.values().forEach(byClass -> byClass.values().forEach(ExecutorService::shutdownNow));
+        for (KeyLane lane : lanes.values()) {
+            PendingSign pending;
+            while ((pending = lane.queue.poll()) != null) {
+                pending.future.completeExceptionally(new RejectedExecutionException("KmsAsyncSigner closed"));
+            }
+        }
+        regionalClients.values().forEach(KmsAsyncClient::close);
+        defaultClient.close();
+    }
+
+    /**
+     * Waits the turns of one quota class in order. The thread exits when idle, so signers
+     * that are never closed do not keep one.
+     */
+    private static ExecutorService admissionExecutor(String quotaClass) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, "kms-async-admission-" + quotaClass);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Runs the permit polls and the retry back-offs.
+     */
+    private static ScheduledThreadPoolExecutor timer() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "kms-async-signer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class KeyLane {
+        private final Queue<PendingSign> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger drains = new AtomicInteger();
+        private final AtomicBoolean retryScheduled = new AtomicBoolean();
+    }
+
+    private static class PendingSign {
+        private final PendingKey key;
+        private final CompletableFuture<byte[]> future;
+        private final long queuedAt;
+
+        PendingSign(PendingKey key, CompletableFuture<byte[]> future, long queuedAt) {
+            this.key = key;
+            this.future = future;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private static class PendingKey {
+        private final String keyId;
+        private final SigningAlgorithmSpec signingAlgorithmSpec;
+        private final byte[] digest;
+        private final int hash;
+
+        PendingKey(String keyId, SigningAlgorithmSpec signingAlgorithmSpec, byte[] digest) {
+            this.keyId = keyId;
+            this.signingAlgorithmSpec = signingAlgorithmSpec;
+            this.digest = digest;
+            this.hash = 31 * (31 * keyId.hashCode() + signingAlgorithmSpec.hashCode()) + Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PendingKey)) return false;
+            PendingKey other = (PendingKey) o;
+            return hash == other.hash
+                    && signingAlgorithmSpec == other.signingAlgorithmSpec
+                    && keyId.equals(other.keyId)
+                    && Arrays.equals(digest, other.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package org.keysupport.authservice.awskms.jce.provider.signature;
+
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+import java.security.SignatureException;
+
+/**
+ * Converts ECDSA signatures between the DER {@code SEQUENCE { INTEGER r, INTEGER s }} KMS
+ * returns and the fixed-length big-endian {@code r || s} concatenation of IEEE P1363, which
+ * JWS requires (RFC 7518, section 3.4). Both directions work on the byte arrays directly,
+ * allocating only the result, instead of going through {@link java.math.BigInteger} or an
+ * ASN.1 object tree.
+ */
+public final class KmsEcdsaEncoding {
+
+    private static final byte SEQUENCE = 0x30;
+    private static final byte INTEGER = 0x02;
+    private static final int LONG_FORM_ONE_BYTE = 0x81;
+
+    private KmsEcdsaEncoding() {
+    }
+
+    /**
+     * @param signingAlgorithmSpec
+     * @return the length of an {@code r || s} signature with the algorithm, twice the size of
+     *         the only curve KMS pairs it with, or 0 if it is not ECDSA
+     */
+    public static int concatLength(SigningAlgorithmSpec signingAlgorithmSpec) {
+        switch (signingAlgorithmSpec) {
+            case ECDSA_SHA_256:
+                // P-256, and secp256k1
+                return 64;
+            case ECDSA_SHA_384:
+                return 96;
+            case ECDSA_SHA_512:
+                // P-521
+                return 132;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param der a DER-encoded ECDSA signature
+     * @param length the length of the result, twice the curve's field size in bytes
+     * @return {@code r || s}, each left-padded with zeros to half the length
+     * @throws SignatureException if the signature is not well formed or too long for the length
+     */
+    public static byte[] derToConcat(byte[] der, int length) throws SignatureException {
+        int half = length / 2;
+        if (der.length < 8 || der[0] != SEQUENCE) {
+            throw new SignatureException("Invalid DER ECDSA signature");
+        }
+        int offset = 1;
+        int sequenceLength = der[offset++] & 0xff;
+        if (sequenceLength == LONG_FORM_ONE_BYTE) {
+            sequenceLength = der[offset++] & 0xff;
+        } else if (sequenceLength > 0x7f) {
+            throw new SignatureException("Invalid DER ECDSA signature");
+        }
+        if (offset + sequenceLength != der.length) {
+            throw new SignatureException("Invalid DER ECDSA signature");
+        }
+        byte[] concat = new byte[length];
+        offset = copyInteger(der, offset, concat, 0, half);
+        offset = copyInteger(der, offset, concat, half, half);
+        if (offset != der.length) {
+            throw new SignatureException("Invalid DER ECDSA signature");
+        }
+        return concat;
+    }
+
+    /**
+     * @param concat an {@code r || s} ECDSA signature
+     * @return the signature DER-encoded
+     * @throws SignatureException if the signature is empty or of odd length
+     */
+    public static byte[] concatToDer(byte[] concat) throws SignatureException {
+        if (concat.length == 0 || concat.length % 2 != 0) {
+            throw new SignatureException("Invalid P1363 ECDSA signature length: " + concat.length);
+        }
+        int half = concat.length / 2;
+        int rStart = significant(concat, 0, half);
+        int sStart = significant(concat, half, concat.length);
+        int rLength = half - rStart + ((concat[rStart] & 0x80) != 0 ? 1 : 0);
+        int sLength = concat.length - sStart + ((concat[sStart] & 0x80) != 0 ? 1 : 0);
+        int sequenceLength = 2 + rLength + 2 + sLength;
+
+        byte[] der = new byte[(sequenceLength > 0x7f ? 3 : 2) + sequenceLength];
+        int offset = 0;
+        der[offset++] = SEQUENCE;
+        if (sequenceLength > 0x7f) {
+            der[offset++] = (byte) LONG_FORM_ONE_BYTE;
+        }
+        der[offset++] = (byte) sequenceLength;
+        offset = writeInteger(concat, rStart, half, rLength, der, offset);
+        writeInteger(concat, sStart, concat.length, sLength, der, offset);
+        return der;
+    }
+
+    private static int copyInteger(byte[] der, int offset, byte[] concat, int to, int half) throws SignatureException {
+        if (offset + 2 > der.length || der[offset] != INTEGER) {
+            throw new SignatureException("Invalid DER ECDSA signature");
+        }
+        int length = der[offset + 1] & 0xff;
+        int start = offset + 2;
+        if (length == 0 || length > 0x7f || start + length > der.length) {
+            throw new SignatureException("Invalid DER ECDSA signature");
+        }
+        int end = start + length;
+        // Drop the zero that keeps a high bit from reading as a sign, and any other leading zeros.
+        while (length > half && der[start] == 0) {
+            start++;
+            length--;
+        }
+        if (length > half) {
+            throw new SignatureException("DER ECDSA signature is too long for " + half * 2 + " bytes");
+        }
+        System.arraycopy(der, start, concat, to + half - length, length);
+        return end;
+    }
+
+    /**
+     * @return the offset of the first non-zero byte of the integer in [from, to), keeping at
+     *         least its last byte
+     */
+    private static int significant(byte[] concat, int from, int to) {
+        while (from < to - 1 && concat[from] == 0) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int writeInteger(byte[] concat, int start, int end, int length, byte[] der, int offset) {
+        der[offset++] = INTEGER;
+        der[offset++] = (byte) length;
+        int magnitude = end - start;
+        // The zero a positive integer needs when its high bit is set is already in place.
+        System.arraycopy(concat, start, der, offset + length - magnitude, magnitude);
+        return offset + length;
+    }
+
+}
@@ -0,0 +1,106 @@
+package org.keysupport.authservice.awskms.jce.provider.signature;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.NullDigest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.engines.RSAEngine;
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.params.RSAKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.PSSSigner;
+import org.bouncycastle.crypto.signers.RSADigestSigner;
+import org.bouncycastle.crypto.signers.StandardDSAEncoding;
+import org.bouncycastle.jcajce.provider.asymmetric.util.ECUtil;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+
+/**
+ * Verifies KMS signatures over a precomputed digest with the BouncyCastle lightweight
+ * engines, matching the KMS algorithm definitions (PSS uses MGF1 with the same digest and
+ * a salt as long as the digest). Also used by the KMS simulator to answer Verify.
+ */
+public final class KmsLocalVerifier {
+
+    private KmsLocalVerifier() {
+    }
+
+    /**
+     * Convert a JCA public key to the engine parameters used by {@link #verify}.
+     *
+     * @param publicKey
+     * @return
+     * @throws InvalidKeyException
+     */
+    public static AsymmetricKeyParameter toKeyParameter(PublicKey publicKey) throws InvalidKeyException {
+        if (publicKey instanceof RSAPublicKey) {
+            RSAPublicKey rsaPublicKey = (RSAPublicKey) publicKey;
+            return new RSAKeyParameters(false, rsaPublicKey.getModulus(), rsaPublicKey.getPublicExponent());
+        }
+        if (publicKey instanceof ECPublicKey) {
+            return ECUtil.generatePublicKeyParameter(publicKey);
+        }
+        throw new InvalidKeyException("Unsupported public key type: " + publicKey.getAlgorithm());
+    }
+
+    public static boolean verify(SigningAlgorithmSpec signingAlgorithmSpec, AsymmetricKeyParameter key, byte[] digest, byte[] signature) {
+        switch (signingAlgorithmSpec) {
+            case RSASSA_PKCS1_V1_5_SHA_256:
+                return verifyPkcs1(key, NISTObjectIdentifiers.id_sha256, digest, signature);
+            case RSASSA_PKCS1_V1_5_SHA_384:
+                return verifyPkcs1(key, NISTObjectIdentifiers.id_sha384, digest, signature);
+            case RSASSA_PKCS1_V1_5_SHA_512:
+                return verifyPkcs1(key, NISTObjectIdentifiers.id_sha512, digest, signature);
+            case RSASSA_PSS_SHA_256:
+                return verifyPss(key, new SHA256Digest(), new SHA256Digest(), digest, signature);
+            case RSASSA_PSS_SHA_384:
+                return verifyPss(key, new SHA384Digest(), new SHA384Digest(), digest, signature);
+            case RSASSA_PSS_SHA_512:
+                return verifyPss(key, new SHA512Digest(), new SHA512Digest(), digest, signature);
+            case ECDSA_SHA_256:
+            case ECDSA_SHA_384:
+            case ECDSA_SHA_512:
+                return verifyEcdsa(key, digest, signature);
+            default:
+                throw new IllegalArgumentException("Unsupported signing algorithm: " + signingAlgorithmSpec);
+        }
+    }
+
+    private static boolean verifyPkcs1(AsymmetricKeyParameter key, ASN1ObjectIdentifier digestOid, byte[] digest, byte[] signature) {
+        RSADigestSigner signer = new RSADigestSigner(new NullDigest(), digestOid);
+        signer.init(false, key);
+        signer.update(digest, 0, digest.length);
+        return signer.verifySignature(signature);
+    }
+
+    private static boolean verifyPss(AsymmetricKeyParameter key, Digest contentDigest, Digest mgfDigest, byte[] digest, byte[] signature) {
+        PSSSigner signer = PSSSigner.createRawSigner(new RSAEngine(), contentDigest, mgfDigest, contentDigest.getDigestSize(), PSSSigner.TRAILER_IMPLICIT);
+        signer.init(false, key);
+        signer.update(digest, 0, digest.length);
+        return signer.verifySignature(signature);
+    }
+
+    private static boolean verifyEcdsa(AsymmetricKeyParameter key, byte[] digest, byte[] signature) {
+        ECPublicKeyParameters ecKey = (ECPublicKeyParameters) key;
+        BigInteger[] rs;
+        try {
+            rs = StandardDSAEncoding.INSTANCE.decode(ecKey.getParameters().getN(), signature);
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+        ECDSASigner signer = new ECDSASigner();
+        signer.init(false, ecKey);
+        return signer.verifySignature(digest, rs[0], rs[1]);
+    }
+
+}
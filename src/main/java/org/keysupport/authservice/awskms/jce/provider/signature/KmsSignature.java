@@ -1,8 +1,12 @@
 package org.keysupport.authservice.awskms.jce.provider.signature;
 
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.keysupport.authservice.awskms.jce.provider.KmsKey;
+import org.keysupport.authservice.awskms.jce.provider.KmsPublicKey;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.KmsInvalidSignatureException;
 import software.amazon.awssdk.services.kms.model.MessageType;
 import software.amazon.awssdk.services.kms.model.SignRequest;
 import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
@@ -13,28 +17,67 @@ import java.security.*;
 public class KmsSignature extends SignatureSpi {
 
     private final KmsClient kmsClient;
+    private final KmsVerificationMode verificationMode;
+    private final int p1363Length;
 
     private SigningAlgorithmSpec signingAlgorithmSpec;
     private MessageDigest messageDigest;
     private boolean digestReset;
 
     private KmsKey key;
+    private AsymmetricKeyParameter localVerifyKey;
 
     public KmsSignature(KmsClient kmsClient, KmsSigningAlgorithm kmsSigningAlgorithm) {
+        this(kmsClient, KmsVerificationMode.LOCAL_PREFERRED, kmsSigningAlgorithm);
+    }
+
+    /**
+     * Signing always goes through {@code kmsClient}: {@link SignatureSpi#engineSign} has to
+     * return the signature, so a request thread waits for KMS either way, and the client chain
+     * carries the quota pacing, per-key limits, metrics and region routing.
+     *
+     * @param kmsClient
+     * @param verificationMode whether engineVerify may check signatures locally when the public key material is available
+     * @param kmsSigningAlgorithm
+     */
+    public KmsSignature(KmsClient kmsClient, KmsVerificationMode verificationMode, KmsSigningAlgorithm kmsSigningAlgorithm) {
+        this(kmsClient, verificationMode, kmsSigningAlgorithm, false);
+    }
+
+    /**
+     * @param kmsClient
+     * @param verificationMode
+     * @param kmsSigningAlgorithm
+     * @param p1363 for ECDSA, produce and accept {@code r || s} signatures rather than DER
+     */
+    public KmsSignature(KmsClient kmsClient, KmsVerificationMode verificationMode, KmsSigningAlgorithm kmsSigningAlgorithm,
+            boolean p1363) {
         this.kmsClient = kmsClient;
+        this.verificationMode = verificationMode;
+        this.p1363Length = p1363 ? KmsEcdsaEncoding.concatLength(kmsSigningAlgorithm.getSigningAlgorithmSpec()) : 0;
         this.signingAlgorithmSpec = kmsSigningAlgorithm.getSigningAlgorithmSpec();
         initMessageDigest(kmsSigningAlgorithm.getDigestAlgorithm());
     }
 
     @Override
-    protected void engineInitVerify(PublicKey publicKey) {
-        this.key = (KmsKey) publicKey;
+    protected void engineInitVerify(PublicKey publicKey) throws InvalidKeyException {
+        PublicKey material = publicKey instanceof KmsPublicKey ? ((KmsPublicKey) publicKey).getPublicKey() : publicKey;
+        this.key = publicKey instanceof KmsKey ? (KmsKey) publicKey : null;
+        this.localVerifyKey = null;
+        if (material != null && (verificationMode == KmsVerificationMode.LOCAL_PREFERRED || this.key == null)) {
+            this.localVerifyKey = KmsLocalVerifier.toKeyParameter(material);
+        }
         this.resetDigest();
     }
 
     @Override
-    protected void engineInitSign(PrivateKey privateKey) {
+    protected void engineInitSign(PrivateKey privateKey) throws InvalidKeyException {
+        // The provider is registered globally, so JCA may offer it keys that are not KMS keys.
+        if (!(privateKey instanceof KmsKey)) {
+            throw new InvalidKeyException("Not a KMS key: " + (privateKey == null ? null : privateKey.getClass().getName()));
+        }
         this.key = (KmsKey) privateKey;
+        this.localVerifyKey = null;
         this.resetDigest();
     }
 
@@ -51,7 +94,11 @@ public class KmsSignature extends SignatureSpi {
     }
 
     @Override
-    protected byte[] engineSign() {
+    protected byte[] engineSign() throws SignatureException {
+        return p1363Length > 0 ? KmsEcdsaEncoding.derToConcat(sign(), p1363Length) : sign();
+    }
+
+    private byte[] sign() throws SignatureException {
         SignRequest signRequest = SignRequest.builder()
                 .keyId(key.getId())
                 .messageType(MessageType.DIGEST)
@@ -63,6 +110,21 @@ public class KmsSignature extends SignatureSpi {
 
     @Override
     protected boolean engineVerify(byte[] signature) throws SignatureException {
+        if (p1363Length > 0) {
+            if (signature.length != p1363Length) {
+                this.resetDigest();
+                return false;
+            }
+            signature = KmsEcdsaEncoding.concatToDer(signature);
+        }
+        if (localVerifyKey != null) {
+            try {
+                return KmsLocalVerifier.verify(signingAlgorithmSpec, localVerifyKey, this.getDigestValue(), signature);
+            } catch (ClassCastException | IllegalArgumentException | DataLengthException e) {
+                // Some BouncyCastle releases let a signature too long for the RSA modulus escape the PSS engine.
+                throw new SignatureException(e);
+            }
+        }
         VerifyRequest verifyRequest = VerifyRequest.builder()
                 .keyId(key.getId())
                 .messageType(MessageType.DIGEST)
@@ -70,7 +132,12 @@ public class KmsSignature extends SignatureSpi {
                 .message(SdkBytes.fromByteArray(this.getDigestValue()))
                 .signature(SdkBytes.fromByteArray(signature))
                 .build();
-        return kmsClient.verify(verifyRequest).signatureValid();
+        try {
+            return kmsClient.verify(verifyRequest).signatureValid();
+        } catch (KmsInvalidSignatureException e) {
+            // KMS reports an invalid signature as an error rather than signatureValid=false.
+            return false;
+        }
     }
 
     @Override
@@ -35,6 +35,14 @@ public enum KmsSigningAlgorithm {
 	public SigningAlgorithmSpec getSigningAlgorithmSpec() {
 		return signingAlgorithmSpec;
 	}
+
+    /**
+     * @return the JCA name of the algorithm with {@code r || s} signatures, as JWS uses, or
+     *         null if it is not ECDSA
+     */
+    public String getP1363Algorithm() {
+        return KmsEcdsaEncoding.concatLength(signingAlgorithmSpec) > 0 ? algorithm + "inP1363Format" : null;
+    }
     
     
 }
\ No newline at end of file
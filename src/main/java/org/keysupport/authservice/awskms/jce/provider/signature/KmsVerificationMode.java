@@ -0,0 +1,20 @@
+package org.keysupport.authservice.awskms.jce.provider.signature;
+
+/**
+ * How {@link KmsSignature#engineVerify(byte[])} checks a signature.
+ */
+public enum KmsVerificationMode {
+
+    /**
+     * Verify locally when the public key material is available (a fetched
+     * {@link org.keysupport.authservice.awskms.jce.provider.KmsPublicKey} or any plain
+     * {@link java.security.PublicKey}), and call KMS Verify only when it is not.
+     */
+    LOCAL_PREFERRED,
+
+    /**
+     * Always call KMS Verify.
+     */
+    KMS_ONLY
+
+}
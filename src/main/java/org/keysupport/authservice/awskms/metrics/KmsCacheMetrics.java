@@ -0,0 +1,57 @@
+package org.keysupport.authservice.awskms.metrics;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsAliasCache;
+import org.keysupport.authservice.awskms.jce.provider.KmsKeyCache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Publishes the hit and miss counts of the provider's key and alias caches under Micrometer's
+ * usual cache meter names, {@code cache.gets} tagged by {@code result} and {@code cache.size},
+ * so their hit ratio is {@code hit / (hit + miss)}. The counts are read only when scraped.
+ */
+public class KmsCacheMetrics implements MeterBinder {
+
+	public static final String KEY_CACHE = "kms.keys";
+	public static final String ALIAS_CACHE = "kms.aliases";
+
+	private final KmsKeyCache keyCache;
+	private final KmsAliasCache aliasCache;
+
+	public KmsCacheMetrics(KmsKeyCache keyCache, KmsAliasCache aliasCache) {
+		this.keyCache = keyCache;
+		this.aliasCache = aliasCache;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("cache.gets", keyCache, KmsKeyCache::getHitCount)
+				.tag("cache", KEY_CACHE).tag("result", "hit")
+				.description("KMS key metadata and public key lookups answered from the cache")
+				.register(registry);
+		FunctionCounter.builder("cache.gets", keyCache, KmsKeyCache::getMissCount)
+				.tag("cache", KEY_CACHE).tag("result", "miss")
+				.description("KMS key metadata and public key lookups that called DescribeKey or GetPublicKey")
+				.register(registry);
+		Gauge.builder("cache.size", keyCache, KmsKeyCache::size)
+				.tag("cache", KEY_CACHE)
+				.register(registry);
+		if (aliasCache != null) {
+			FunctionCounter.builder("cache.gets", aliasCache, KmsAliasCache::getHitCount)
+					.tag("cache", ALIAS_CACHE).tag("result", "hit")
+					.description("KMS alias lookups answered from the alias snapshot")
+					.register(registry);
+			FunctionCounter.builder("cache.gets", aliasCache, KmsAliasCache::getMissCount)
+					.tag("cache", ALIAS_CACHE).tag("result", "miss")
+					.description("KMS alias lookups that paged ListAliases again")
+					.register(registry);
+			Gauge.builder("cache.size", aliasCache, KmsAliasCache::size)
+					.tag("cache", ALIAS_CACHE)
+					.register(registry);
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+package org.keysupport.authservice.awskms.metrics;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsRequestScheduler;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Publishes, per quota class, the rate {@link KmsRequestScheduler} is currently pacing to and
+ * how many requests are waiting their turn; a rate below the target shows it backing off.
+ * Quotas are per region, so each region's scheduler is tagged with its region.
+ */
+public class KmsSchedulerMetrics implements MeterBinder {
+
+	private final KmsRequestScheduler scheduler;
+	private final String region;
+
+	public KmsSchedulerMetrics(KmsRequestScheduler scheduler) {
+		this(scheduler, MeteredKmsClient.DEFAULT_REGION);
+	}
+
+	/**
+	 * @param scheduler
+	 * @param region the region whose quotas the scheduler paces, for the region tag
+	 */
+	public KmsSchedulerMetrics(KmsRequestScheduler scheduler, String region) {
+		this.scheduler = scheduler;
+		this.region = region;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		for (String quotaClass : scheduler.getQuotaClasses()) {
+			Gauge.builder("kms.scheduler.rate", scheduler, s -> s.getRate(quotaClass))
+					.description("Requests per second the KMS scheduler is pacing to")
+					.tag("quota", quotaClass)
+					.tag("region", region)
+					.register(registry);
+			Gauge.builder("kms.scheduler.queued", scheduler, s -> s.getQueued(quotaClass))
+					.description("KMS requests waiting for their quota's turn")
+					.tag("quota", quotaClass)
+					.tag("region", region)
+					.register(registry);
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package org.keysupport.authservice.awskms.metrics;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+/**
+ * Times the Sign requests of the asynchronous signer in the same {@code kms.requests} timers,
+ * and counts its throttled and failed requests in the same counters, as {@link MeteredKmsClient}
+ * does for the blocking client, so a dashboard sees one stream of Sign requests whichever way
+ * they were sent. The signer caps its own requests in flight per key, so no in-flight gauge is
+ * registered here; the blocking client's gauge keeps its meaning.
+ * <p>
+ * Only Sign is supported, the one operation the signer sends.
+ */
+public class MeteredKmsAsyncClient implements KmsAsyncClient {
+
+	private static final String OPERATION = "Sign";
+
+	private final KmsAsyncClient kmsAsyncClient;
+	private final MeterRegistry registry;
+	private final String region;
+	private final ConcurrentMap<String, ConcurrentMap<SigningAlgorithmSpec, Timer>> timers = new ConcurrentHashMap<>();
+
+	/**
+	 * @param kmsAsyncClient
+	 * @param registry
+	 * @param region the region the client sends requests to, for the region tag
+	 */
+	public MeteredKmsAsyncClient(KmsAsyncClient kmsAsyncClient, MeterRegistry registry, String region) {
+		this.kmsAsyncClient = kmsAsyncClient;
+		this.registry = registry;
+		this.region = region;
+	}
+
+	@Override
+	public CompletableFuture<SignResponse> sign(SignRequest signRequest) {
+		String keyId = signRequest.keyId();
+		SigningAlgorithmSpec algorithm = signRequest.signingAlgorithm();
+		long started = System.nanoTime();
+		CompletableFuture<SignResponse> response;
+		try {
+			response = kmsAsyncClient.sign(signRequest);
+		} catch (RuntimeException e) {
+			response = CompletableFuture.failedFuture(e);
+		}
+		return response.whenComplete((signResponse, failure) -> {
+			timer(keyId, algorithm).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+			if (failure != null) {
+				count(keyId, failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+			}
+		});
+	}
+
+	@Override
+	public String serviceName() {
+		return kmsAsyncClient.serviceName();
+	}
+
+	@Override
+	public void close() {
+		kmsAsyncClient.close();
+	}
+
+	private void count(String keyId, Throwable failure) {
+		boolean throttled = false;
+		String errorCode = failure.getClass().getSimpleName();
+		if (failure instanceof AwsServiceException) {
+			AwsServiceException e = (AwsServiceException) failure;
+			throttled = e.isThrottlingException();
+			if (e.awsErrorDetails() != null && e.awsErrorDetails().errorCode() != null) {
+				errorCode = e.awsErrorDetails().errorCode();
+			}
+		}
+		registry.counter(throttled ? MeteredKmsClient.THROTTLED : MeteredKmsClient.ERRORS,
+				"operation", OPERATION, "region", region, "key.id", keyId, "error.code", errorCode).increment();
+	}
+
+	private Timer timer(String keyId, SigningAlgorithmSpec algorithm) {
+		// Registered with the blocking client's tags, so both record into one timer.
+		return timers.computeIfAbsent(keyId, k -> new ConcurrentHashMap<>())
+				.computeIfAbsent(algorithm, a -> Timer.builder(MeteredKmsClient.REQUESTS)
+						.description("KMS request latency")
+						.tag("operation", OPERATION)
+						.tag("region", region)
+						.tag("key.id", keyId)
+						.tag("signing.algorithm", algorithm.toString())
+						.publishPercentileHistogram()
+						.minimumExpectedValue(Duration.ofMillis(1))
+						.maximumExpectedValue(Duration.ofSeconds(10))
+						.register(registry));
+	}
+
+}
@@ -0,0 +1,210 @@
+package org.keysupport.authservice.awskms.metrics;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.KmsInvalidSignatureException;
+import software.amazon.awssdk.services.kms.model.ListAliasesRequest;
+import software.amazon.awssdk.services.kms.model.ListAliasesResponse;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+import software.amazon.awssdk.services.kms.model.VerifyRequest;
+import software.amazon.awssdk.services.kms.model.VerifyResponse;
+
+/**
+ * Times every request the KMS provider, key store, key factories and token encryption make,
+ * by wrapping the {@link KmsClient} they share. Each request is recorded in a
+ * {@code kms.requests} timer tagged by operation, key id and signing algorithm, with a
+ * percentile histogram; throttled and failed requests are also counted, by error code, and
+ * requests outstanding are gauged per operation. Every meter is also tagged with the region
+ * the client serves, so the clients for several regions can share a registry.
+ * <p>
+ * The timers are resolved once per operation, key and algorithm and then found without
+ * allocating, so a request costs two {@link System#nanoTime()} calls and a few map reads
+ * beyond the KMS call itself.
+ */
+public class MeteredKmsClient implements KmsClient {
+
+	public static final String REQUESTS = "kms.requests";
+	public static final String IN_FLIGHT = "kms.requests.in.flight";
+	public static final String THROTTLED = "kms.requests.throttled";
+	public static final String ERRORS = "kms.requests.errors";
+
+	private static final String NO_KEY = "none";
+	private static final String NO_ALGORITHM = "none";
+	private static final SigningAlgorithmSpec[] SIGNING_ALGORITHMS = SigningAlgorithmSpec.values();
+
+	/**
+	 * The region tag of a client built for the SDK's default region.
+	 */
+	public static final String DEFAULT_REGION = "default";
+
+	private final KmsClient kmsClient;
+	private final MeterRegistry registry;
+	private final String region;
+	private final Operation sign;
+	private final Operation verify;
+	private final Operation getPublicKey;
+	private final Operation describeKey;
+	private final Operation listAliases;
+	private final Operation generateDataKey;
+	private final Operation decrypt;
+
+	public MeteredKmsClient(KmsClient kmsClient, MeterRegistry registry) {
+		this(kmsClient, registry, DEFAULT_REGION);
+	}
+
+	/**
+	 * @param kmsClient
+	 * @param registry
+	 * @param region the region the client sends requests to, for the region tag
+	 */
+	public MeteredKmsClient(KmsClient kmsClient, MeterRegistry registry, String region) {
+		this.kmsClient = kmsClient;
+		this.registry = registry;
+		this.region = region;
+		this.sign = new Operation("Sign");
+		this.verify = new Operation("Verify");
+		this.getPublicKey = new Operation("GetPublicKey");
+		this.describeKey = new Operation("DescribeKey");
+		this.listAliases = new Operation("ListAliases");
+		this.generateDataKey = new Operation("GenerateDataKey");
+		this.decrypt = new Operation("Decrypt");
+	}
+
+	@Override
+	public SignResponse sign(SignRequest signRequest) {
+		return sign.record(signRequest.keyId(), signRequest.signingAlgorithm(), () -> kmsClient.sign(signRequest));
+	}
+
+	@Override
+	public VerifyResponse verify(VerifyRequest verifyRequest) {
+		return verify.record(verifyRequest.keyId(), verifyRequest.signingAlgorithm(), () -> kmsClient.verify(verifyRequest));
+	}
+
+	@Override
+	public GetPublicKeyResponse getPublicKey(GetPublicKeyRequest getPublicKeyRequest) {
+		return getPublicKey.record(getPublicKeyRequest.keyId(), null, () -> kmsClient.getPublicKey(getPublicKeyRequest));
+	}
+
+	@Override
+	public DescribeKeyResponse describeKey(DescribeKeyRequest describeKeyRequest) {
+		return describeKey.record(describeKeyRequest.keyId(), null, () -> kmsClient.describeKey(describeKeyRequest));
+	}
+
+	@Override
+	public ListAliasesResponse listAliases(ListAliasesRequest listAliasesRequest) {
+		return listAliases.record(listAliasesRequest.keyId(), null, () -> kmsClient.listAliases(listAliasesRequest));
+	}
+
+	@Override
+	public GenerateDataKeyResponse generateDataKey(GenerateDataKeyRequest generateDataKeyRequest) {
+		return generateDataKey.record(generateDataKeyRequest.keyId(), null, () -> kmsClient.generateDataKey(generateDataKeyRequest));
+	}
+
+	@Override
+	public DecryptResponse decrypt(DecryptRequest decryptRequest) {
+		return decrypt.record(decryptRequest.keyId(), null, () -> kmsClient.decrypt(decryptRequest));
+	}
+
+	@Override
+	public String serviceName() {
+		return kmsClient.serviceName();
+	}
+
+	@Override
+	public void close() {
+		kmsClient.close();
+	}
+
+	/**
+	 * One operation's in-flight gauge and its timers, by key id and then by signing
+	 * algorithm ordinal, the last slot standing for none.
+	 */
+	private final class Operation {
+
+		private final String name;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final ConcurrentMap<String, Timer[]> timers = new ConcurrentHashMap<>();
+
+		Operation(String name) {
+			this.name = name;
+			Gauge.builder(IN_FLIGHT, inFlight, AtomicInteger::get)
+					.description("KMS requests awaiting a response")
+					.tag("operation", name)
+					.tag("region", region)
+					.register(registry);
+		}
+
+		<T> T record(String keyId, SigningAlgorithmSpec algorithm, Supplier<T> request) {
+			inFlight.incrementAndGet();
+			long started = System.nanoTime();
+			try {
+				return request.get();
+			} catch (KmsInvalidSignatureException e) {
+				// A signature that does not verify is an answer, not a failure.
+				throw e;
+			} catch (AwsServiceException e) {
+				String errorCode = e.awsErrorDetails() != null && e.awsErrorDetails().errorCode() != null
+						? e.awsErrorDetails().errorCode()
+						: e.getClass().getSimpleName();
+				registry.counter(e.isThrottlingException() ? THROTTLED : ERRORS,
+						"operation", name, "region", region, "key.id", keyId == null ? NO_KEY : keyId, "error.code", errorCode).increment();
+				throw e;
+			} catch (RuntimeException e) {
+				registry.counter(ERRORS,
+						"operation", name, "region", region, "key.id", keyId == null ? NO_KEY : keyId,
+						"error.code", e.getClass().getSimpleName()).increment();
+				throw e;
+			} finally {
+				timer(keyId == null ? NO_KEY : keyId, algorithm).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+				inFlight.decrementAndGet();
+			}
+		}
+
+		private Timer timer(String keyId, SigningAlgorithmSpec algorithm) {
+			Timer[] byAlgorithm = timers.get(keyId);
+			if (byAlgorithm == null) {
+				byAlgorithm = timers.computeIfAbsent(keyId, k -> new Timer[SIGNING_ALGORITHMS.length + 1]);
+			}
+			int slot = algorithm == null || algorithm == SigningAlgorithmSpec.UNKNOWN_TO_SDK_VERSION
+					? SIGNING_ALGORITHMS.length
+					: algorithm.ordinal();
+			Timer timer = byAlgorithm[slot];
+			if (timer == null) {
+				// Racing threads get the same timer back from the registry.
+				timer = Timer.builder(REQUESTS)
+						.description("KMS request latency")
+						.tag("operation", name)
+						.tag("region", region)
+						.tag("key.id", keyId)
+						.tag("signing.algorithm", slot == SIGNING_ALGORITHMS.length ? NO_ALGORITHM : algorithm.toString())
+						.publishPercentileHistogram()
+						.minimumExpectedValue(Duration.ofMillis(1))
+						.maximumExpectedValue(Duration.ofSeconds(10))
+						.register(registry);
+				byAlgorithm[slot] = timer;
+			}
+			return timer;
+		}
+	}
+
+}
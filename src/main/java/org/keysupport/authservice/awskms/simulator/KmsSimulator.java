@@ -0,0 +1,826 @@
+package org.keysupport.authservice.awskms.simulator;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.crypto.CryptoException;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.NullDigest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.engines.RSAEngine;
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ParametersWithRandom;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.PSSSigner;
+import org.bouncycastle.crypto.signers.RSADigestSigner;
+import org.bouncycastle.crypto.signers.StandardDSAEncoding;
+import org.bouncycastle.crypto.util.PrivateKeyFactory;
+import org.keysupport.authservice.awskms.jce.provider.KmsRequestScheduler;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsLocalVerifier;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.AliasListEntry;
+import software.amazon.awssdk.services.kms.model.DataKeySpec;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.IncorrectKeyException;
+import software.amazon.awssdk.services.kms.model.InvalidCiphertextException;
+import software.amazon.awssdk.services.kms.model.InvalidKeyUsageException;
+import software.amazon.awssdk.services.kms.model.KeyMetadata;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.KeyState;
+import software.amazon.awssdk.services.kms.model.KeyUsageType;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.kms.model.KmsInvalidSignatureException;
+import software.amazon.awssdk.services.kms.model.ListAliasesRequest;
+import software.amazon.awssdk.services.kms.model.ListAliasesResponse;
+import software.amazon.awssdk.services.kms.model.MessageType;
+import software.amazon.awssdk.services.kms.model.NotFoundException;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+import software.amazon.awssdk.services.kms.model.VerifyRequest;
+import software.amazon.awssdk.services.kms.model.VerifyResponse;
+
+/**
+ * An in-process stand-in for AWS KMS, for driving the KMS-dependent paths to saturation
+ * without an AWS account. It holds real RSA, EC and symmetric keys and answers Sign,
+ * Verify, GetPublicKey, DescribeKey, ListAliases (paged), GenerateDataKey and Decrypt as
+ * KMS does, through {@link #client()} and {@link #asyncClient()}.
+ * <p>
+ * Each request is charged to a request quota as KMS charges it: Sign and Verify to the
+ * {@code RSA} or {@code ECC} quota by key type, GenerateDataKey and Decrypt to
+ * {@code SYMMETRIC}, and the other operations to a quota named after the operation. A
+ * request over its quota fails with a {@code ThrottlingException} error, as KMS's does.
+ * Unlike the SDK's clients, the simulator's clients never retry. Each answer, throttled or
+ * not, takes a latency drawn from a log-normal distribution set per operation, optionally per
+ * key spec, e.g. {@code Sign:RSA_4096}.
+ * <p>
+ * Keys live only as long as the simulator, so nodes sharing tokens need the real service.
+ */
+public class KmsSimulator implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(KmsSimulator.class);
+
+	public static final String DEFAULT_REGION = "us-east-1";
+	public static final String DEFAULT_ACCOUNT = "111122223333";
+
+	/**
+	 * Rough KMS latencies from within the region, to give load tests a realistic shape.
+	 */
+	public static final Map<String, Latency> DEFAULT_LATENCIES = defaultLatencies();
+
+	private static final int DEFAULT_ALIAS_PAGE_SIZE = 50;
+	private static final int MAXIMUM_ALIAS_PAGE_SIZE = 100;
+	private static final int CIPHERTEXT_VERSION = 1;
+	private static final int GCM_IV_LENGTH = 12;
+	private static final int GCM_TAG_BITS = 128;
+
+	private final String region;
+	private final String account;
+	private final Map<String, RequestQuota> quotas = new ConcurrentHashMap<>();
+	private final Map<String, Latency> latencies;
+	private final Map<String, SimulatedKey> keys = new ConcurrentHashMap<>();
+	private final NavigableMap<String, String> aliases = new ConcurrentSkipListMap<>();
+	private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> throttles = new ConcurrentHashMap<>();
+	private final SecureRandom random = new SecureRandom();
+	private final SimulatedKmsClient client = new SimulatedKmsClient(this);
+	private volatile SimulatedKmsAsyncClient asyncClient;
+
+	public KmsSimulator() {
+		this(DEFAULT_REGION, DEFAULT_ACCOUNT, KmsRequestScheduler.DEFAULT_QUOTAS, DEFAULT_LATENCIES);
+	}
+
+	/**
+	 * @param region used in key and alias ARNs
+	 * @param account used in key and alias ARNs
+	 * @param quotas requests per second by quota name; quotas left out are unlimited
+	 * @param latencies by operation, or by operation and key spec as "Sign:RSA_4096";
+	 *            operations left out answer immediately
+	 */
+	public KmsSimulator(String region, String account, Map<String, Integer> quotas, Map<String, Latency> latencies) {
+		this.region = region;
+		this.account = account;
+		quotas.forEach((name, requestsPerSecond) -> {
+			if (requestsPerSecond != null && requestsPerSecond > 0) {
+				this.quotas.put(name, new RequestQuota(requestsPerSecond));
+			}
+		});
+		this.latencies = Map.copyOf(latencies);
+	}
+
+	/**
+	 * @return a synchronous client, which waits out each request's latency on the calling
+	 *         thread
+	 */
+	public KmsClient client() {
+		return client;
+	}
+
+	/**
+	 * @return an asynchronous client, which completes each request after its latency without
+	 *         holding a thread meanwhile
+	 */
+	public KmsAsyncClient asyncClient() {
+		SimulatedKmsAsyncClient current = asyncClient;
+		if (current == null) {
+			synchronized (this) {
+				if (asyncClient == null) {
+					asyncClient = new SimulatedKmsAsyncClient(this);
+				}
+				current = asyncClient;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Create a key with a random key id.
+	 *
+	 * @param keySpec
+	 * @return the key id
+	 */
+	public String createKey(KeySpec keySpec) {
+		return createKey(UUID.randomUUID().toString(), keySpec);
+	}
+
+	/**
+	 * Create a key reachable by the given identifier, so configuration written for the real
+	 * service works unchanged. Symmetric keys are for encryption, the others for signing.
+	 *
+	 * @param keyIdentifier a key id, key ARN, alias name or alias ARN; for an alias the key
+	 *            gets a random id and the alias is created for it
+	 * @param keySpec
+	 * @return the key id
+	 */
+	public String createKey(String keyIdentifier, KeySpec keySpec) {
+		String alias = aliasName(keyIdentifier);
+		String keyId = alias != null ? UUID.randomUUID().toString() : keyId(keyIdentifier);
+		String arn = keyIdentifier.startsWith("arn:") && alias == null
+				? keyIdentifier
+				: "arn:aws:kms:" + region + ":" + account + ":key/" + keyId;
+		SimulatedKey key = new SimulatedKey(keyId, arn, keySpec, generate(keySpec));
+		if (keys.putIfAbsent(keyId, key) != null) {
+			throw new IllegalArgumentException("Key " + keyId + " already exists");
+		}
+		if (alias != null) {
+			createAlias(alias, keyId);
+		}
+		log.info("Simulating KMS key {} ({})", keyIdentifier, keySpec);
+		return keyId;
+	}
+
+	/**
+	 * @param aliasName with or without the "alias/" prefix
+	 * @param keyIdentifier the target key's id or ARN
+	 */
+	public void createAlias(String aliasName, String keyIdentifier) {
+		SimulatedKey key = keys.get(keyId(keyIdentifier));
+		if (key == null) {
+			throw new IllegalArgumentException("Key " + keyIdentifier + " does not exist");
+		}
+		aliases.put(aliasName.startsWith("alias/") ? aliasName : "alias/" + aliasName, key.keyId);
+	}
+
+	/**
+	 * @param operation e.g. "Sign"
+	 * @return requests answered so far, throttled ones included
+	 */
+	public long getRequests(String operation) {
+		LongAdder count = requests.get(operation);
+		return count == null ? 0 : count.sum();
+	}
+
+	/**
+	 * @param operation e.g. "Sign"
+	 * @return requests throttled so far
+	 */
+	public long getThrottles(String operation) {
+		LongAdder count = throttles.get(operation);
+		return count == null ? 0 : count.sum();
+	}
+
+	/**
+	 * The key spec KMS uses for a signing algorithm: for RSA the largest, whose signing
+	 * quota is shared with the smaller ones anyway.
+	 *
+	 * @param signingAlgorithm
+	 * @return
+	 */
+	public static KeySpec keySpecFor(KmsSigningAlgorithm signingAlgorithm) {
+		switch (signingAlgorithm) {
+			case ECDSA_SHA_256:
+				return KeySpec.ECC_NIST_P256;
+			case ECDSA_SHA_384:
+				return KeySpec.ECC_NIST_P384;
+			case ECDSA_SHA_512:
+				return KeySpec.ECC_NIST_P521;
+			default:
+				return KeySpec.RSA_4096;
+		}
+	}
+
+	Outcome<SignResponse> sign(SignRequest request) {
+		return execute("Sign", request.keyId(), key -> {
+			SigningAlgorithmSpec algorithm = request.signingAlgorithm();
+			key.requireSigningAlgorithm(algorithm);
+			byte[] digest = digest(algorithm, request.messageType(), request.message().asByteArray());
+			return SignResponse.builder()
+					.keyId(key.arn)
+					.signingAlgorithm(algorithm)
+					.signature(SdkBytes.fromByteArray(key.sign(algorithm, digest, random)))
+					.build();
+		});
+	}
+
+	Outcome<VerifyResponse> verify(VerifyRequest request) {
+		return execute("Verify", request.keyId(), key -> {
+			SigningAlgorithmSpec algorithm = request.signingAlgorithm();
+			key.requireSigningAlgorithm(algorithm);
+			byte[] digest = digest(algorithm, request.messageType(), request.message().asByteArray());
+			boolean valid;
+			try {
+				valid = KmsLocalVerifier.verify(algorithm, KmsLocalVerifier.toKeyParameter(key.keyPair.getPublic()), digest,
+						request.signature().asByteArray());
+			} catch (InvalidKeyException | RuntimeException e) {
+				valid = false;
+			}
+			if (!valid) {
+				// KMS answers an invalid signature with an error, never signatureValid=false.
+				throw error(KmsInvalidSignatureException.builder(), "KMSInvalidSignatureException", null);
+			}
+			return VerifyResponse.builder()
+					.keyId(key.arn)
+					.signingAlgorithm(algorithm)
+					.signatureValid(true)
+					.build();
+		});
+	}
+
+	Outcome<GetPublicKeyResponse> getPublicKey(GetPublicKeyRequest request) {
+		return execute("GetPublicKey", request.keyId(), key -> {
+			if (key.keyPair == null) {
+				throw error(KmsException.builder(), "UnsupportedOperationException",
+						"GetPublicKey is not supported for symmetric keys");
+			}
+			return GetPublicKeyResponse.builder()
+					.keyId(key.arn)
+					.keySpec(key.keySpec)
+					.keyUsage(key.keyUsage)
+					.signingAlgorithms(key.signingAlgorithms)
+					.publicKey(SdkBytes.fromByteArray(key.keyPair.getPublic().getEncoded()))
+					.build();
+		});
+	}
+
+	Outcome<DescribeKeyResponse> describeKey(DescribeKeyRequest request) {
+		return execute("DescribeKey", request.keyId(), key -> DescribeKeyResponse.builder()
+				.keyMetadata(KeyMetadata.builder()
+						.keyId(key.keyId)
+						.arn(key.arn)
+						.enabled(true)
+						.keyState(KeyState.ENABLED)
+						.keySpec(key.keySpec)
+						.keyUsage(key.keyUsage)
+						.signingAlgorithms(key.signingAlgorithms)
+						.creationDate(key.created)
+						.multiRegion(false)
+						.build())
+				.build());
+	}
+
+	Outcome<ListAliasesResponse> listAliases(ListAliasesRequest request) {
+		return execute("ListAliases", null, none -> {
+			int limit = request.limit() == null ? DEFAULT_ALIAS_PAGE_SIZE : request.limit();
+			if (limit < 1 || limit > MAXIMUM_ALIAS_PAGE_SIZE) {
+				throw error(KmsException.builder(), "ValidationException", "Limit must be between 1 and 100");
+			}
+			String targetKeyId = request.keyId() == null ? null : keyId(request.keyId());
+			Map<String, String> page = request.marker() == null
+					? aliases
+					: aliases.tailMap(new String(Base64.getUrlDecoder().decode(request.marker()), StandardCharsets.UTF_8), true);
+			List<AliasListEntry> entries = new ArrayList<>();
+			String next = null;
+			for (Map.Entry<String, String> alias : page.entrySet()) {
+				if (targetKeyId != null && !targetKeyId.equals(alias.getValue())) {
+					continue;
+				}
+				if (entries.size() == limit) {
+					next = alias.getKey();
+					break;
+				}
+				entries.add(AliasListEntry.builder()
+						.aliasName(alias.getKey())
+						.aliasArn("arn:aws:kms:" + region + ":" + account + ":" + alias.getKey())
+						.targetKeyId(alias.getValue())
+						.build());
+			}
+			return ListAliasesResponse.builder()
+					.aliases(entries)
+					.truncated(next != null)
+					.nextMarker(next == null ? null : Base64.getUrlEncoder().encodeToString(next.getBytes(StandardCharsets.UTF_8)))
+					.build();
+		});
+	}
+
+	Outcome<GenerateDataKeyResponse> generateDataKey(GenerateDataKeyRequest request) {
+		return execute("GenerateDataKey", request.keyId(), key -> {
+			key.requireSymmetric();
+			int length;
+			if ((request.keySpec() == null) == (request.numberOfBytes() == null)) {
+				throw error(KmsException.builder(), "ValidationException", "Specify either KeySpec or NumberOfBytes");
+			} else if (request.numberOfBytes() != null) {
+				length = request.numberOfBytes();
+			} else {
+				length = request.keySpec() == DataKeySpec.AES_128 ? 16 : 32;
+			}
+			if (length < 1 || length > 1024) {
+				throw error(KmsException.builder(), "ValidationException", "NumberOfBytes must be between 1 and 1024");
+			}
+			byte[] plaintext = new byte[length];
+			random.nextBytes(plaintext);
+			return GenerateDataKeyResponse.builder()
+					.keyId(key.arn)
+					.plaintext(SdkBytes.fromByteArray(plaintext))
+					.ciphertextBlob(SdkBytes.fromByteArray(key.encrypt(plaintext, request.encryptionContext(), random)))
+					.build();
+		});
+	}
+
+	Outcome<DecryptResponse> decrypt(DecryptRequest request) {
+		byte[] ciphertext = request.ciphertextBlob().asByteArray();
+		String keyId = SimulatedKey.keyIdOf(ciphertext);
+		return execute("Decrypt", keyId == null ? "" : keyId, key -> {
+			if (request.keyId() != null && !key.keyId.equals(resolve(request.keyId()).keyId)) {
+				throw error(IncorrectKeyException.builder(), "IncorrectKeyException",
+						"The key ID in the request does not identify the key used to encrypt the ciphertext");
+			}
+			return DecryptResponse.builder()
+					.keyId(key.arn)
+					.plaintext(SdkBytes.fromByteArray(key.decrypt(ciphertext, request.encryptionContext())))
+					.build();
+		});
+	}
+
+	/**
+	 * Charge the request to its quota and answer it, or fail it, along with the latency it
+	 * should take.
+	 */
+	private <T> Outcome<T> execute(String operation, String keyIdentifier, Function<SimulatedKey, T> handler) {
+		requests.computeIfAbsent(operation, o -> new LongAdder()).increment();
+		SimulatedKey key = null;
+		try {
+			key = keyIdentifier == null ? null : resolve(keyIdentifier);
+			RequestQuota quota = quotas.get(quotaName(operation, key));
+			if (quota != null && !quota.tryAcquire()) {
+				throttles.computeIfAbsent(operation, o -> new LongAdder()).increment();
+				throw error(KmsException.builder(), "ThrottlingException", "Rate exceeded");
+			}
+			return new Outcome<>(handler.apply(key), null, latency(operation, key));
+		} catch (KmsException e) {
+			return new Outcome<>(null, e, latency(operation, key));
+		}
+	}
+
+	private SimulatedKey resolve(String keyIdentifier) {
+		String alias = aliasName(keyIdentifier);
+		String keyId = alias != null ? aliases.get(alias) : keyId(keyIdentifier);
+		SimulatedKey key = keyId == null ? null : keys.get(keyId);
+		if (key == null) {
+			throw error(NotFoundException.builder(), "NotFoundException", "Key '" + keyIdentifier + "' does not exist");
+		}
+		return key;
+	}
+
+	private long latency(String operation, SimulatedKey key) {
+		Latency latency = key == null ? null : latencies.get(operation + ":" + key.keySpec);
+		if (latency == null) {
+			latency = latencies.get(operation);
+		}
+		return latency == null ? 0 : latency.sampleNanos();
+	}
+
+	private static String quotaName(String operation, SimulatedKey key) {
+		switch (operation) {
+			case "Sign":
+			case "Verify":
+				return key.keySpec.name().startsWith("RSA") ? KmsRequestScheduler.RSA : KmsRequestScheduler.ECC;
+			case "GenerateDataKey":
+			case "Decrypt":
+				return KmsRequestScheduler.SYMMETRIC;
+			default:
+				return operation;
+		}
+	}
+
+	private static String aliasName(String keyIdentifier) {
+		if (keyIdentifier.startsWith("alias/")) {
+			return keyIdentifier;
+		}
+		int alias = keyIdentifier.startsWith("arn:") ? keyIdentifier.indexOf(":alias/") : -1;
+		return alias < 0 ? null : keyIdentifier.substring(alias + 1);
+	}
+
+	private static String keyId(String keyIdentifier) {
+		int key = keyIdentifier.startsWith("arn:") ? keyIdentifier.indexOf(":key/") : -1;
+		return key < 0 ? keyIdentifier : keyIdentifier.substring(key + 5);
+	}
+
+	private static byte[] digest(SigningAlgorithmSpec algorithm, MessageType messageType, byte[] message) {
+		String digestAlgorithm = "SHA-" + algorithm.name().substring(algorithm.name().length() - 3);
+		if (messageType == MessageType.DIGEST) {
+			if (message.length != digestLength(digestAlgorithm)) {
+				throw error(KmsException.builder(), "ValidationException",
+						"Digest is not the length of a " + digestAlgorithm + " digest");
+			}
+			return message;
+		}
+		if (message.length > 4096) {
+			throw error(KmsException.builder(), "ValidationException", "Message is longer than 4096 bytes");
+		}
+		try {
+			return MessageDigest.getInstance(digestAlgorithm).digest(message);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static int digestLength(String digestAlgorithm) {
+		return Integer.parseInt(digestAlgorithm.substring(4)) / 8;
+	}
+
+	private static Object generate(KeySpec keySpec) {
+		try {
+			switch (keySpec) {
+				case RSA_2048:
+				case RSA_3072:
+				case RSA_4096: {
+					KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+					generator.initialize(Integer.parseInt(keySpec.name().substring(4)));
+					return generator.generateKeyPair();
+				}
+				case ECC_NIST_P256:
+				case ECC_NIST_P384:
+				case ECC_NIST_P521: {
+					KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+					generator.initialize(new ECGenParameterSpec("secp" + keySpec.name().substring(10) + "r1"));
+					return generator.generateKeyPair();
+				}
+				case SYMMETRIC_DEFAULT: {
+					byte[] key = new byte[32];
+					new SecureRandom().nextBytes(key);
+					return new SecretKeySpec(key, "AES");
+				}
+				default:
+					throw new IllegalArgumentException("Key spec " + keySpec + " is not simulated");
+			}
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static KmsException error(KmsException.Builder builder, String errorCode, String message) {
+		return (KmsException) builder
+				.message(message)
+				.statusCode(400)
+				.awsErrorDetails(AwsErrorDetails.builder()
+						.errorCode(errorCode)
+						.errorMessage(message)
+						.serviceName("Kms")
+						.build())
+				.build();
+	}
+
+	private static Map<String, Latency> defaultLatencies() {
+		Map<String, Latency> latencies = new LinkedHashMap<>();
+		latencies.put("Sign", Latency.of(Duration.ofMillis(8), Duration.ofMillis(30)));
+		latencies.put("Sign:RSA_3072", Latency.of(Duration.ofMillis(15), Duration.ofMillis(50)));
+		latencies.put("Sign:RSA_4096", Latency.of(Duration.ofMillis(30), Duration.ofMillis(90)));
+		latencies.put("Verify", Latency.of(Duration.ofMillis(6), Duration.ofMillis(25)));
+		latencies.put("GetPublicKey", Latency.of(Duration.ofMillis(6), Duration.ofMillis(25)));
+		latencies.put("DescribeKey", Latency.of(Duration.ofMillis(5), Duration.ofMillis(20)));
+		latencies.put("ListAliases", Latency.of(Duration.ofMillis(10), Duration.ofMillis(40)));
+		latencies.put("GenerateDataKey", Latency.of(Duration.ofMillis(5), Duration.ofMillis(20)));
+		latencies.put("Decrypt", Latency.of(Duration.ofMillis(5), Duration.ofMillis(20)));
+		return Collections.unmodifiableMap(latencies);
+	}
+
+	@Override
+	public void close() {
+		SimulatedKmsAsyncClient current = asyncClient;
+		if (current != null) {
+			current.shutdown();
+		}
+	}
+
+	/**
+	 * A log-normal latency distribution, given by its median and 99th percentile.
+	 */
+	public static final class Latency {
+
+		private static final double Z_99 = 2.3263;
+
+		private final long medianNanos;
+		private final double sigma;
+		private final long maximumNanos;
+
+		private Latency(Duration median, Duration p99) {
+			if (p99.compareTo(median) < 0) {
+				throw new IllegalArgumentException("The 99th percentile latency is below the median");
+			}
+			this.medianNanos = median.toNanos();
+			this.sigma = medianNanos == 0 ? 0 : Math.log((double) p99.toNanos() / medianNanos) / Z_99;
+			// Cut the tail off well past p99, so one sample cannot stall a load test.
+			this.maximumNanos = p99.toNanos() * 10;
+		}
+
+		public static Latency of(Duration median, Duration p99) {
+			return new Latency(median, p99);
+		}
+
+		public static Latency fixed(Duration latency) {
+			return new Latency(latency, latency);
+		}
+
+		long sampleNanos() {
+			if (medianNanos == 0) {
+				return 0;
+			}
+			double sample = medianNanos * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian());
+			return Math.min(maximumNanos, (long) sample);
+		}
+	}
+
+	/**
+	 * A token bucket refilled at the quota's rate and holding up to one second of requests.
+	 */
+	private static final class RequestQuota {
+
+		private final double perNano;
+		private final double capacity;
+		private double tokens;
+		private long refilledAt = System.nanoTime();
+
+		RequestQuota(int requestsPerSecond) {
+			this.perNano = requestsPerSecond / 1e9;
+			this.capacity = requestsPerSecond;
+			this.tokens = requestsPerSecond;
+		}
+
+		synchronized boolean tryAcquire() {
+			long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - refilledAt) * perNano);
+			refilledAt = now;
+			if (tokens < 1) {
+				return false;
+			}
+			tokens -= 1;
+			return true;
+		}
+	}
+
+	/**
+	 * A request's response or error, and how long the simulated service takes to give it.
+	 */
+	static final class Outcome<T> {
+
+		final T response;
+		final KmsException failure;
+		final long latencyNanos;
+
+		Outcome(T response, KmsException failure, long latencyNanos) {
+			this.response = response;
+			this.failure = failure;
+			this.latencyNanos = latencyNanos;
+		}
+	}
+
+	private static final class SimulatedKey {
+
+		private static final List<SigningAlgorithmSpec> RSA_SIGNING_ALGORITHMS = List.of(
+				SigningAlgorithmSpec.RSASSA_PSS_SHA_256, SigningAlgorithmSpec.RSASSA_PSS_SHA_384,
+				SigningAlgorithmSpec.RSASSA_PSS_SHA_512, SigningAlgorithmSpec.RSASSA_PKCS1_V1_5_SHA_256,
+				SigningAlgorithmSpec.RSASSA_PKCS1_V1_5_SHA_384, SigningAlgorithmSpec.RSASSA_PKCS1_V1_5_SHA_512);
+
+		private final String keyId;
+		private final String arn;
+		private final KeySpec keySpec;
+		private final KeyUsageType keyUsage;
+		private final List<SigningAlgorithmSpec> signingAlgorithms;
+		private final Instant created = Instant.now();
+		private final KeyPair keyPair;
+		private final AsymmetricKeyParameter privateKey;
+		private final SecretKey secretKey;
+
+		SimulatedKey(String keyId, String arn, KeySpec keySpec, Object material) {
+			this.keyId = keyId;
+			this.arn = arn;
+			this.keySpec = keySpec;
+			if (material instanceof SecretKey) {
+				this.keyUsage = KeyUsageType.ENCRYPT_DECRYPT;
+				this.signingAlgorithms = List.of();
+				this.keyPair = null;
+				this.privateKey = null;
+				this.secretKey = (SecretKey) material;
+				return;
+			}
+			this.keyUsage = KeyUsageType.SIGN_VERIFY;
+			this.keyPair = (KeyPair) material;
+			this.secretKey = null;
+			switch (keySpec) {
+				case ECC_NIST_P256:
+					this.signingAlgorithms = List.of(SigningAlgorithmSpec.ECDSA_SHA_256);
+					break;
+				case ECC_NIST_P384:
+					this.signingAlgorithms = List.of(SigningAlgorithmSpec.ECDSA_SHA_384);
+					break;
+				case ECC_NIST_P521:
+					this.signingAlgorithms = List.of(SigningAlgorithmSpec.ECDSA_SHA_512);
+					break;
+				default:
+					this.signingAlgorithms = RSA_SIGNING_ALGORITHMS;
+			}
+			try {
+				this.privateKey = PrivateKeyFactory.createKey(keyPair.getPrivate().getEncoded());
+			} catch (java.io.IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		void requireSigningAlgorithm(SigningAlgorithmSpec algorithm) {
+			if (keyUsage != KeyUsageType.SIGN_VERIFY || !signingAlgorithms.contains(algorithm)) {
+				throw error(InvalidKeyUsageException.builder(), "InvalidKeyUsageException",
+						"Key " + arn + " does not support " + algorithm);
+			}
+		}
+
+		void requireSymmetric() {
+			if (keyUsage != KeyUsageType.ENCRYPT_DECRYPT) {
+				throw error(InvalidKeyUsageException.builder(), "InvalidKeyUsageException",
+						"Key " + arn + " is not a symmetric encryption key");
+			}
+		}
+
+		byte[] sign(SigningAlgorithmSpec algorithm, byte[] digest, SecureRandom random) {
+			try {
+				switch (algorithm) {
+					case RSASSA_PKCS1_V1_5_SHA_256:
+						return signPkcs1(NISTObjectIdentifiers.id_sha256, digest);
+					case RSASSA_PKCS1_V1_5_SHA_384:
+						return signPkcs1(NISTObjectIdentifiers.id_sha384, digest);
+					case RSASSA_PKCS1_V1_5_SHA_512:
+						return signPkcs1(NISTObjectIdentifiers.id_sha512, digest);
+					case RSASSA_PSS_SHA_256:
+						return signPss(new SHA256Digest(), new SHA256Digest(), digest, random);
+					case RSASSA_PSS_SHA_384:
+						return signPss(new SHA384Digest(), new SHA384Digest(), digest, random);
+					case RSASSA_PSS_SHA_512:
+						return signPss(new SHA512Digest(), new SHA512Digest(), digest, random);
+					default:
+						return signEcdsa(digest, random);
+				}
+			} catch (CryptoException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private byte[] signPkcs1(ASN1ObjectIdentifier digestOid, byte[] digest) throws CryptoException {
+			RSADigestSigner signer = new RSADigestSigner(new NullDigest(), digestOid);
+			signer.init(true, privateKey);
+			signer.update(digest, 0, digest.length);
+			return signer.generateSignature();
+		}
+
+		private byte[] signPss(Digest contentDigest, Digest mgfDigest, byte[] digest, SecureRandom random) throws CryptoException {
+			PSSSigner signer = PSSSigner.createRawSigner(new RSAEngine(), contentDigest, mgfDigest,
+					contentDigest.getDigestSize(), PSSSigner.TRAILER_IMPLICIT);
+			signer.init(true, new ParametersWithRandom(privateKey, random));
+			signer.update(digest, 0, digest.length);
+			return signer.generateSignature();
+		}
+
+		private byte[] signEcdsa(byte[] digest, SecureRandom random) {
+			ECDSASigner signer = new ECDSASigner();
+			signer.init(true, new ParametersWithRandom(privateKey, random));
+			BigInteger[] rs = signer.generateSignature(digest);
+			try {
+				return StandardDSAEncoding.INSTANCE.encode(((ECPrivateKeyParameters) privateKey).getParameters().getN(),
+						rs[0], rs[1]);
+			} catch (java.io.IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * A version byte, the key id, which Decrypt finds the key by as KMS does, the IV and
+		 * the AES-GCM ciphertext, authenticated together with the encryption context.
+		 */
+		byte[] encrypt(byte[] plaintext, Map<String, String> encryptionContext, SecureRandom random) {
+			byte[] id = keyId.getBytes(StandardCharsets.US_ASCII);
+			byte[] iv = new byte[GCM_IV_LENGTH];
+			random.nextBytes(iv);
+			try {
+				Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+				cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_BITS, iv));
+				cipher.updateAAD(aad(id, encryptionContext));
+				byte[] sealed = cipher.doFinal(plaintext);
+				return ByteBuffer.allocate(2 + id.length + iv.length + sealed.length)
+						.put((byte) CIPHERTEXT_VERSION)
+						.put((byte) id.length)
+						.put(id)
+						.put(iv)
+						.put(sealed)
+						.array();
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		byte[] decrypt(byte[] ciphertext, Map<String, String> encryptionContext) {
+			requireSymmetric();
+			int idLength = ciphertext[1] & 0xff;
+			byte[] id = new byte[idLength];
+			System.arraycopy(ciphertext, 2, id, 0, idLength);
+			int offset = 2 + idLength;
+			if (ciphertext.length < offset + GCM_IV_LENGTH + GCM_TAG_BITS / 8) {
+				throw error(InvalidCiphertextException.builder(), "InvalidCiphertextException", null);
+			}
+			try {
+				Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+				cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_BITS, ciphertext, offset, GCM_IV_LENGTH));
+				cipher.updateAAD(aad(id, encryptionContext));
+				return cipher.doFinal(ciphertext, offset + GCM_IV_LENGTH, ciphertext.length - offset - GCM_IV_LENGTH);
+			} catch (GeneralSecurityException e) {
+				// Including a different encryption context.
+				throw error(InvalidCiphertextException.builder(), "InvalidCiphertextException", null);
+			}
+		}
+
+		/**
+		 * @return the key id a ciphertext from {@link #encrypt} names, or null if it is not
+		 *         one
+		 */
+		static String keyIdOf(byte[] ciphertext) {
+			if (ciphertext.length < 2 || ciphertext[0] != CIPHERTEXT_VERSION || ciphertext.length < 2 + (ciphertext[1] & 0xff)) {
+				return null;
+			}
+			return new String(ciphertext, 2, ciphertext[1] & 0xff, StandardCharsets.US_ASCII);
+		}
+
+		private static byte[] aad(byte[] keyId, Map<String, String> encryptionContext) {
+			Map<String, String> sorted = encryptionContext == null ? Map.of() : new TreeMap<>(encryptionContext);
+			byte[] context = sorted.toString().getBytes(StandardCharsets.UTF_8);
+			return ByteBuffer.allocate(keyId.length + context.length).put(keyId).put(context).array();
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.keysupport.authservice.awskms.simulator;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.authservice.awskms.simulator.KmsSimulator.Outcome;
+
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.ListAliasesRequest;
+import software.amazon.awssdk.services.kms.model.ListAliasesResponse;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.VerifyRequest;
+import software.amazon.awssdk.services.kms.model.VerifyResponse;
+
+/**
+ * {@link KmsSimulator}'s non-blocking client. Requests are answered on the calling thread,
+ * and their futures completed after the latency from a single timer thread, so any number may
+ * be in flight, as with the SDK's Netty client.
+ */
+final class SimulatedKmsAsyncClient implements KmsAsyncClient {
+
+	private final KmsSimulator simulator;
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "kms-simulator");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	SimulatedKmsAsyncClient(KmsSimulator simulator) {
+		this.simulator = simulator;
+	}
+
+	@Override
+	public CompletableFuture<SignResponse> sign(SignRequest signRequest) {
+		return complete(simulator.sign(signRequest));
+	}
+
+	@Override
+	public CompletableFuture<VerifyResponse> verify(VerifyRequest verifyRequest) {
+		return complete(simulator.verify(verifyRequest));
+	}
+
+	@Override
+	public CompletableFuture<GetPublicKeyResponse> getPublicKey(GetPublicKeyRequest getPublicKeyRequest) {
+		return complete(simulator.getPublicKey(getPublicKeyRequest));
+	}
+
+	@Override
+	public CompletableFuture<DescribeKeyResponse> describeKey(DescribeKeyRequest describeKeyRequest) {
+		return complete(simulator.describeKey(describeKeyRequest));
+	}
+
+	@Override
+	public CompletableFuture<ListAliasesResponse> listAliases(ListAliasesRequest listAliasesRequest) {
+		return complete(simulator.listAliases(listAliasesRequest));
+	}
+
+	@Override
+	public CompletableFuture<GenerateDataKeyResponse> generateDataKey(GenerateDataKeyRequest generateDataKeyRequest) {
+		return complete(simulator.generateDataKey(generateDataKeyRequest));
+	}
+
+	@Override
+	public CompletableFuture<DecryptResponse> decrypt(DecryptRequest decryptRequest) {
+		return complete(simulator.decrypt(decryptRequest));
+	}
+
+	@Override
+	public String serviceName() {
+		return KmsAsyncClient.SERVICE_NAME;
+	}
+
+	@Override
+	public void close() {
+		// The simulator owns the timer; it outlives its clients.
+	}
+
+	void shutdown() {
+		timer.shutdownNow();
+	}
+
+	private <T> CompletableFuture<T> complete(Outcome<T> outcome) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		Runnable completion = () -> {
+			if (outcome.failure != null) {
+				future.completeExceptionally(outcome.failure);
+			} else {
+				future.complete(outcome.response);
+			}
+		};
+		if (outcome.latencyNanos > 0) {
+			timer.schedule(completion, outcome.latencyNanos, TimeUnit.NANOSECONDS);
+		} else {
+			completion.run();
+		}
+		return future;
+	}
+
+}
@@ -0,0 +1,94 @@
+package org.keysupport.authservice.awskms.simulator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.authservice.awskms.simulator.KmsSimulator.Outcome;
+
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.ListAliasesRequest;
+import software.amazon.awssdk.services.kms.model.ListAliasesResponse;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.VerifyRequest;
+import software.amazon.awssdk.services.kms.model.VerifyResponse;
+
+/**
+ * {@link KmsSimulator}'s blocking client: the calling thread sleeps out each request's
+ * latency, as it would wait on the service's response.
+ */
+final class SimulatedKmsClient implements KmsClient {
+
+	private final KmsSimulator simulator;
+
+	SimulatedKmsClient(KmsSimulator simulator) {
+		this.simulator = simulator;
+	}
+
+	@Override
+	public SignResponse sign(SignRequest signRequest) {
+		return complete(simulator.sign(signRequest));
+	}
+
+	@Override
+	public VerifyResponse verify(VerifyRequest verifyRequest) {
+		return complete(simulator.verify(verifyRequest));
+	}
+
+	@Override
+	public GetPublicKeyResponse getPublicKey(GetPublicKeyRequest getPublicKeyRequest) {
+		return complete(simulator.getPublicKey(getPublicKeyRequest));
+	}
+
+	@Override
+	public DescribeKeyResponse describeKey(DescribeKeyRequest describeKeyRequest) {
+		return complete(simulator.describeKey(describeKeyRequest));
+	}
+
+	@Override
+	public ListAliasesResponse listAliases(ListAliasesRequest listAliasesRequest) {
+		return complete(simulator.listAliases(listAliasesRequest));
+	}
+
+	@Override
+	public GenerateDataKeyResponse generateDataKey(GenerateDataKeyRequest generateDataKeyRequest) {
+		return complete(simulator.generateDataKey(generateDataKeyRequest));
+	}
+
+	@Override
+	public DecryptResponse decrypt(DecryptRequest decryptRequest) {
+		return complete(simulator.decrypt(decryptRequest));
+	}
+
+	@Override
+	public String serviceName() {
+		return KmsClient.SERVICE_NAME;
+	}
+
+	@Override
+	public void close() {
+		// The simulator owns the keys; it outlives its clients.
+	}
+
+	private static <T> T complete(Outcome<T> outcome) {
+		if (outcome.latencyNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(outcome.latencyNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (outcome.failure != null) {
+			throw outcome.failure;
+		}
+		return outcome.response;
+	}
+
+}
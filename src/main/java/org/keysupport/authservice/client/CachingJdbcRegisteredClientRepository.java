@@ -0,0 +1,280 @@
+package org.keysupport.authservice.client;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.keysupport.authservice.mtls.CertificateBoundClientRepository;
+import org.keysupport.authservice.mtls.MtlsClientSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.security.oauth2.server.authorization.client.JdbcRegisteredClientRepository;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Registered clients in a database, with a bounded near-cache in front, so a token request
+ * from a client seen recently does not touch the database.
+ * <p>
+ * Clients are stored in the authorization server's {@code oauth2_registered_client} table by
+ * its {@link JdbcRegisteredClientRepository}, and indexed in
+ * {@code oauth2_registered_client_index} by the certificate identity they are bound to, the
+ * {@code tls_client_auth} subject DN and the {@code self_signed_tls_client_auth}
+ * {@code x5t#S256}, along with a version bumped on every save. Cached clients do not expire:
+ * a background poll reads the versions saved recently, by this node or any other, and evicts
+ * the clients whose cached version differs. Each poll rereads a window of recent changes, so
+ * a change committed late, or a lookup that cached a client just before it changed, is still
+ * caught by a later poll.
+ * <p>
+ * Clients must be saved through this repository, or their version bumped with the same SQL,
+ * for other nodes to see the change.
+ *
+ * <pre>
+ * classpath:org/keysupport/authservice/client/registered-client-schema.sql
+ * </pre>
+ */
+public class CachingJdbcRegisteredClientRepository implements CertificateBoundClientRepository, AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(CachingJdbcRegisteredClientRepository.class);
+
+	public static final int DEFAULT_CACHE_MAXIMUM_SIZE = 10_000;
+	public static final Duration DEFAULT_POLL_INTERVAL = Duration.ofSeconds(1);
+	public static final Duration DEFAULT_CHANGE_WINDOW = Duration.ofMinutes(1);
+
+	private static final String SELECT = "SELECT c.*, i.version FROM oauth2_registered_client c"
+			+ " LEFT JOIN oauth2_registered_client_index i ON i.id = c.id WHERE ";
+	private static final String UPDATE_INDEX = "UPDATE oauth2_registered_client_index"
+			+ " SET version = version + 1, updated_at = CURRENT_TIMESTAMP, subject_dn = ?, x5t_s256 = ? WHERE id = ?";
+	private static final String INSERT_INDEX = "INSERT INTO oauth2_registered_client_index"
+			+ " (id, version, updated_at, subject_dn, x5t_s256) VALUES (?, 1, CURRENT_TIMESTAMP, ?, ?)";
+	private static final String SELECT_CHANGES = "SELECT id, version, updated_at FROM oauth2_registered_client_index"
+			+ " WHERE updated_at > ?";
+	private static final String SELECT_LAST_CHANGE = "SELECT MAX(updated_at) FROM oauth2_registered_client_index";
+
+	private static final String CLIENT_ID = "client_id:";
+	private static final String SUBJECT_DN = "subject_dn:";
+	private static final String X5T_S256 = "x5t#S256:";
+
+	private final JdbcOperations jdbcOperations;
+	private final TransactionOperations transactionOperations;
+	private final JdbcRegisteredClientRepository repository;
+	private final RowMapper<CacheEntry> rowMapper;
+
+	private Duration pollInterval = DEFAULT_POLL_INTERVAL;
+	private Duration changeWindow = DEFAULT_CHANGE_WINDOW;
+	private Map<String, CacheEntry> clients;
+	private Map<String, String> ids;
+
+	private ScheduledExecutorService scheduler;
+
+	// Touched only on the scheduler thread.
+	private Timestamp lastChange;
+
+	/**
+	 * @param jdbcOperations
+	 * @param transactionOperations runs each save, of the client and its index row, as one
+	 *            transaction
+	 */
+	public CachingJdbcRegisteredClientRepository(JdbcOperations jdbcOperations,
+			TransactionOperations transactionOperations) {
+		this.jdbcOperations = jdbcOperations;
+		this.transactionOperations = transactionOperations;
+		this.repository = new JdbcRegisteredClientRepository(jdbcOperations);
+		RowMapper<RegisteredClient> clientMapper = new JdbcRegisteredClientRepository.RegisteredClientRowMapper();
+		this.rowMapper = (rs, rowNum) -> new CacheEntry(clientMapper.mapRow(rs, rowNum), rs.getLong("version"));
+		setCacheMaximumSize(DEFAULT_CACHE_MAXIMUM_SIZE);
+	}
+
+	/**
+	 * Start polling for clients changed by any node.
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		lastChange = jdbcOperations.queryForObject(SELECT_LAST_CHANGE, Timestamp.class);
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "registered-client-poll");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long poll = Math.max(1, pollInterval.toMillis());
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				poll();
+			} catch (RuntimeException e) {
+				log.warn("Polling for changed registered clients failed", e);
+			}
+		}, poll, poll, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void save(RegisteredClient registeredClient) {
+		String subjectDn = canonical(MtlsClientSettings.getSubjectDn(registeredClient));
+		String x5tS256 = MtlsClientSettings.getX5tS256(registeredClient);
+		transactionOperations.executeWithoutResult(status -> {
+			repository.save(registeredClient);
+			if (jdbcOperations.update(UPDATE_INDEX, subjectDn, x5tS256, registeredClient.getId()) == 0) {
+				jdbcOperations.update(INSERT_INDEX, registeredClient.getId(), subjectDn, x5tS256);
+			}
+		});
+		clients.remove(registeredClient.getId());
+	}
+
+	@Override
+	public RegisteredClient findById(String id) {
+		CacheEntry entry = clients.get(id);
+		if (entry != null) {
+			return entry.client;
+		}
+		return load("c.id = ?", id);
+	}
+
+	@Override
+	public RegisteredClient findByClientId(String clientId) {
+		RegisteredClient cached = cached(CLIENT_ID + clientId);
+		if (cached != null && cached.getClientId().equals(clientId)) {
+			return cached;
+		}
+		return load("c.client_id = ?", clientId);
+	}
+
+	@Override
+	public RegisteredClient findBySubjectDn(String subjectDn) {
+		String canonical = canonical(subjectDn);
+		RegisteredClient cached = cached(SUBJECT_DN + canonical);
+		if (cached != null && canonical.equals(canonical(MtlsClientSettings.getSubjectDn(cached)))) {
+			return cached;
+		}
+		return load("i.subject_dn = ?", canonical);
+	}
+
+	@Override
+	public RegisteredClient findByX5tS256(String x5tS256) {
+		RegisteredClient cached = cached(X5T_S256 + x5tS256);
+		if (cached != null && x5tS256.equals(MtlsClientSettings.getX5tS256(cached))) {
+			return cached;
+		}
+		return load("i.x5t_s256 = ?", x5tS256);
+	}
+
+	/**
+	 * Evict the cached clients saved with another version since the last poll, less the
+	 * change window.
+	 */
+	void poll() {
+		Timestamp since = lastChange == null ? new Timestamp(0)
+				: new Timestamp(lastChange.getTime() - changeWindow.toMillis());
+		jdbcOperations.query(SELECT_CHANGES, (RowCallbackHandler) rs -> {
+			String id = rs.getString("id");
+			CacheEntry entry = clients.get(id);
+			if (entry != null && entry.version != rs.getLong("version")) {
+				clients.remove(id);
+				log.debug("Registered client {} changed, evicted from the cache", id);
+			}
+			Timestamp updatedAt = rs.getTimestamp("updated_at");
+			if (lastChange == null || updatedAt.after(lastChange)) {
+				lastChange = updatedAt;
+			}
+		}, since);
+	}
+
+	/**
+	 * @param maximumSize clients held in the near-cache
+	 */
+	public void setCacheMaximumSize(int maximumSize) {
+		this.clients = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > maximumSize;
+			}
+		});
+		// Up to three keys lead to each client.
+		this.ids = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > maximumSize * 3;
+			}
+		});
+	}
+
+	/**
+	 * @param pollInterval how often changes are looked for, and so how long another node's
+	 *            change may go unseen
+	 */
+	public void setPollInterval(Duration pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * @param changeWindow how far back each poll rereads changes, longer than any save's
+	 *            transaction takes to commit
+	 */
+	public void setChangeWindow(Duration changeWindow) {
+		this.changeWindow = changeWindow;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	private RegisteredClient cached(String key) {
+		String id = ids.get(key);
+		if (id == null) {
+			return null;
+		}
+		CacheEntry entry = clients.get(id);
+		return entry == null ? null : entry.client;
+	}
+
+	private RegisteredClient load(String condition, String value) {
+		List<CacheEntry> entries = jdbcOperations.query(SELECT + condition, rowMapper, value);
+		if (entries.isEmpty()) {
+			return null;
+		}
+		CacheEntry entry = entries.get(0);
+		RegisteredClient client = entry.client;
+		clients.put(client.getId(), entry);
+		ids.put(CLIENT_ID + client.getClientId(), client.getId());
+		String subjectDn = MtlsClientSettings.getSubjectDn(client);
+		if (subjectDn != null) {
+			ids.put(SUBJECT_DN + canonical(subjectDn), client.getId());
+		}
+		String x5tS256 = MtlsClientSettings.getX5tS256(client);
+		if (x5tS256 != null) {
+			ids.put(X5T_S256 + x5tS256, client.getId());
+		}
+		return client;
+	}
+
+	private static String canonical(String subjectDn) {
+		return subjectDn == null ? null : new X500Principal(subjectDn).getName(X500Principal.CANONICAL);
+	}
+
+	private static final class CacheEntry {
+
+		private final RegisteredClient client;
+		private final long version;
+
+		CacheEntry(RegisteredClient client, long version) {
+			this.client = client;
+			this.version = version;
+		}
+	}
+
+}
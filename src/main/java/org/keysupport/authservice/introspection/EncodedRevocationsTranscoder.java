@@ -0,0 +1,40 @@
+package org.keysupport.authservice.introspection;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Stores the replicator's already encoded deltas, snapshot buckets and manifests as the raw
+ * item data, tagged with their own flag so anything else under the same keys reads as absent.
+ */
+final class EncodedRevocationsTranscoder implements Transcoder<byte[]> {
+
+	/**
+	 * "K" in the type byte, as for encoded authorizations, with its own low byte; kept short
+	 * for spymemcached's text protocol store command line.
+	 */
+	static final int FLAGS = 0x4b01;
+
+	static final EncodedRevocationsTranscoder INSTANCE = new EncodedRevocationsTranscoder();
+
+	@Override
+	public boolean asyncDecode(CachedData data) {
+		return false;
+	}
+
+	@Override
+	public CachedData encode(byte[] value) {
+		return new CachedData(FLAGS, value, getMaxSize());
+	}
+
+	@Override
+	public byte[] decode(CachedData data) {
+		return data.getFlags() == FLAGS ? data.getData() : null;
+	}
+
+	@Override
+	public int getMaxSize() {
+		return CachedData.MAX_SIZE;
+	}
+
+}
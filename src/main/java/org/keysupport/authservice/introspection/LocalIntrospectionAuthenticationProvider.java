@@ -0,0 +1,47 @@
+package org.keysupport.authservice.introspection;
+
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenIntrospection;
+import org.springframework.security.oauth2.server.authorization.authentication.OAuth2ClientAuthenticationToken;
+import org.springframework.security.oauth2.server.authorization.authentication.OAuth2TokenIntrospectionAuthenticationToken;
+import org.springframework.security.oauth2.server.authorization.context.AuthorizationServerContext;
+import org.springframework.security.oauth2.server.authorization.context.AuthorizationServerContextHolder;
+
+/**
+ * Answers token introspection requests from the {@link LocalTokenIntrospector}, ahead of the
+ * authorization server's provider, which it defers to for tokens it cannot decide locally.
+ */
+public class LocalIntrospectionAuthenticationProvider implements AuthenticationProvider {
+
+	private final LocalTokenIntrospector introspector;
+
+	public LocalIntrospectionAuthenticationProvider(LocalTokenIntrospector introspector) {
+		this.introspector = introspector;
+	}
+
+	@Override
+	public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+		OAuth2TokenIntrospectionAuthenticationToken request = (OAuth2TokenIntrospectionAuthenticationToken) authentication;
+		Object principal = request.getPrincipal();
+		if (!(principal instanceof OAuth2ClientAuthenticationToken) || !((Authentication) principal).isAuthenticated()) {
+			throw new OAuth2AuthenticationException(OAuth2ErrorCodes.INVALID_CLIENT);
+		}
+		AuthorizationServerContext context = AuthorizationServerContextHolder.getContext();
+		OAuth2TokenIntrospection claims = introspector.introspect(request.getToken(),
+				context == null ? null : context.getIssuer());
+		if (claims == null) {
+			return null;
+		}
+		return new OAuth2TokenIntrospectionAuthenticationToken(request.getToken(), (Authentication) principal, claims);
+	}
+
+	@Override
+	public boolean supports(Class<?> authentication) {
+		return OAuth2TokenIntrospectionAuthenticationToken.class.isAssignableFrom(authentication);
+	}
+
+}
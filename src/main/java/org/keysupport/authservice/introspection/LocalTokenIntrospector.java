@@ -0,0 +1,211 @@
+package org.keysupport.authservice.introspection;
+
+import java.text.ParseException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.keysupport.authservice.jose.KmsJwkSet;
+import org.keysupport.authservice.jose.TokenEncryptionKeyManager;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2TokenIntrospectionClaimNames;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenIntrospection;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jose.jwk.AsymmetricJWK;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * Introspects the access tokens this server issues without looking them up: signed tokens
+ * are verified against the published keys and encrypted tokens decrypted with the cached
+ * data keys, then their claims checked in memory, including against the
+ * {@link RevocationFilter}.
+ * <p>
+ * Anything it cannot decide locally, such as refresh tokens, tokens without an id, or
+ * tokens under a key that is not published, is left to the authorization store. Unlike a
+ * store lookup, an access token replaced by a refresh stays active until it expires, as it
+ * does for any resource server validating it itself; revoking it still takes effect.
+ */
+public class LocalTokenIntrospector {
+
+	private static final DefaultJWSVerifierFactory VERIFIER_FACTORY = new DefaultJWSVerifierFactory();
+	private static final OAuth2TokenIntrospection INACTIVE = OAuth2TokenIntrospection.builder().build();
+
+	private final KmsJwkSet jwkSet;
+	private final TokenEncryptionKeyManager tokenEncryptionKeyManager;
+	private final RevocationFilter revocationFilter;
+	private final Clock clock;
+
+	private volatile Verifiers verifiers;
+
+	/**
+	 * @param jwkSet the published signing keys
+	 * @param tokenEncryptionKeyManager optional, may be null
+	 * @param revocationFilter
+	 * @param clock
+	 */
+	public LocalTokenIntrospector(KmsJwkSet jwkSet, TokenEncryptionKeyManager tokenEncryptionKeyManager,
+			RevocationFilter revocationFilter, Clock clock) {
+		this.jwkSet = jwkSet;
+		this.tokenEncryptionKeyManager = tokenEncryptionKeyManager;
+		this.revocationFilter = revocationFilter;
+		this.clock = clock;
+	}
+
+	public RevocationFilter getRevocationFilter() {
+		return revocationFilter;
+	}
+
+	/**
+	 * @param token
+	 * @param issuer the expected issuer, or null not to check it
+	 * @return the introspection response, or null if the token has to be looked up
+	 */
+	public OAuth2TokenIntrospection introspect(String token, String issuer) {
+		JWTClaimsSet claims;
+		int parts = countParts(token);
+		if (parts == 3) {
+			SignedJWT jwt;
+			try {
+				jwt = SignedJWT.parse(token);
+			} catch (ParseException e) {
+				return null;
+			}
+			try {
+				JWSVerifier verifier = verifier(jwt.getHeader());
+				if (verifier == null) {
+					return null;
+				}
+				if (!jwt.verify(verifier)) {
+					return INACTIVE;
+				}
+				claims = jwt.getJWTClaimsSet();
+			} catch (JOSEException | ParseException e) {
+				return INACTIVE;
+			}
+		} else if (parts == 5 && tokenEncryptionKeyManager != null) {
+			try {
+				claims = tokenEncryptionKeyManager.decrypt(token);
+			} catch (JOSEException e) {
+				return null;
+			}
+		} else {
+			return null;
+		}
+		if (claims.getJWTID() == null) {
+			return null;
+		}
+		return introspect(claims, issuer);
+	}
+
+	private OAuth2TokenIntrospection introspect(JWTClaimsSet claims, String issuer) {
+		Instant now = clock.instant();
+		Date expiresAt = claims.getExpirationTime();
+		Date notBefore = claims.getNotBeforeTime();
+		if (expiresAt == null || !expiresAt.toInstant().isAfter(now)
+				|| (notBefore != null && notBefore.toInstant().isAfter(now))
+				|| (issuer != null && !issuer.equals(claims.getIssuer()))
+				|| revocationFilter.isRevoked(claims.getJWTID())) {
+			return INACTIVE;
+		}
+		Map<String, Object> introspectionClaims = new LinkedHashMap<>();
+		claims.getClaims().forEach((name, value) -> introspectionClaims.put(name, convert(name, value)));
+		OAuth2TokenIntrospection.Builder builder = OAuth2TokenIntrospection.withClaims(introspectionClaims)
+				.active(true)
+				.tokenType(OAuth2AccessToken.TokenType.BEARER.getValue());
+		if (!introspectionClaims.containsKey(OAuth2TokenIntrospectionClaimNames.CLIENT_ID) && claims.getAudience().size() == 1) {
+			// The authorization server issues access tokens with the client as the audience.
+			builder.clientId(claims.getAudience().get(0));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Dates as instants and scope and audience as lists, the types introspection responses
+	 * are built from.
+	 */
+	private static Object convert(String name, Object value) {
+		if (value instanceof Date) {
+			return ((Date) value).toInstant();
+		}
+		if (OAuth2TokenIntrospectionClaimNames.SCOPE.equals(name) || OAuth2TokenIntrospectionClaimNames.AUD.equals(name)) {
+			if (value instanceof String) {
+				return OAuth2TokenIntrospectionClaimNames.SCOPE.equals(name)
+						? Arrays.asList(((String) value).split(" "))
+						: List.of(value);
+			}
+			if (value instanceof Collection) {
+				List<String> values = new ArrayList<>();
+				((Collection<?>) value).forEach(v -> values.add(String.valueOf(v)));
+				return values;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * A verifier per published key, kept until the published set changes.
+	 *
+	 * @return null if the key is not published
+	 * @throws JOSEException if the token's algorithm is not the key's
+	 */
+	private JWSVerifier verifier(JWSHeader header) throws JOSEException {
+		if (header.getKeyID() == null) {
+			return null;
+		}
+		JWKSet current = jwkSet.getJwkSet();
+		Verifiers cached = verifiers;
+		if (cached == null || cached.jwkSet != current) {
+			cached = new Verifiers(current);
+			verifiers = cached;
+		}
+		JWK jwk = current.getKeyByKeyId(header.getKeyID());
+		if (!(jwk instanceof AsymmetricJWK)) {
+			return null;
+		}
+		if (jwk.getAlgorithm() != null && !jwk.getAlgorithm().equals(header.getAlgorithm())) {
+			throw new JOSEException("Token algorithm " + header.getAlgorithm() + " does not match key " + jwk.getKeyID());
+		}
+		// Verifiers take the algorithm from the header they verify, so one per key serves all of the key's algorithms.
+		JWSVerifier verifier = cached.verifiers.get(jwk.getKeyID());
+		if (verifier == null) {
+			verifier = VERIFIER_FACTORY.createJWSVerifier(header, ((AsymmetricJWK) jwk).toPublicKey());
+			cached.verifiers.putIfAbsent(jwk.getKeyID(), verifier);
+		}
+		return verifier;
+	}
+
+	private static int countParts(String token) {
+		int parts = 1;
+		for (int i = 0; i < token.length(); i++) {
+			if (token.charAt(i) == '.') {
+				parts++;
+			}
+		}
+		return parts;
+	}
+
+	private static final class Verifiers {
+
+		private final JWKSet jwkSet;
+		private final Map<String, JWSVerifier> verifiers = new ConcurrentHashMap<>();
+
+		Verifiers(JWKSet jwkSet) {
+			this.jwkSet = jwkSet;
+		}
+	}
+
+}
@@ -0,0 +1,475 @@
+package org.keysupport.authservice.introspection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.spy.memcached.MemcachedClient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replicates a {@link RevocationFilter} between nodes through memcached, so a token revoked
+ * on one node is inactive on all of them.
+ * <p>
+ * Each revocation made on this node is published as a delta: a number from a shared counter
+ * and an item under that number holding the token id and expiry. Every node polls the counter
+ * and fetches the deltas it has not yet seen in one multi-get. Deltas are kept for
+ * {@code deltaTtl}; to cover longer, one node per snapshot interval, elected by adding a lock
+ * item, writes a compact snapshot: an item per expiry bucket holding its ids, which memcached
+ * drops whole when the bucket expires, and a manifest naming those items and the last delta
+ * they include. A node loads the snapshot, then the deltas after it, when it starts, when it
+ * has fallen behind further than deltas are kept, or when it finds the counter reset.
+ * <p>
+ * Lookups never touch memcached: everything here runs on one background thread, which also
+ * holds revocations until memcached has stored them.
+ */
+public class MemcachedRevocationReplicator implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(MemcachedRevocationReplicator.class);
+
+	public static final Duration DEFAULT_POLL_INTERVAL = Duration.ofSeconds(1);
+	public static final Duration DEFAULT_SNAPSHOT_INTERVAL = Duration.ofMinutes(1);
+	public static final Duration DEFAULT_DELTA_TTL = Duration.ofMinutes(10);
+
+	private static final int VERSION = 1;
+	private static final int MAXIMUM_DELTAS_PER_GET = 1_000;
+	private static final int SNAPSHOT_CHUNK_SIZE = 512 * 1024;
+	/**
+	 * How long a delta that was counted but not yet written is waited for before it is
+	 * skipped, e.g. because its writer failed in between.
+	 */
+	private static final Duration GAP_TIMEOUT = Duration.ofSeconds(10);
+	/**
+	 * Snapshot items outlive their bucket by this much, for clock skew between nodes.
+	 */
+	private static final long EXPIRATION_MARGIN_SECONDS = 60;
+
+	private final MemcachedClient client;
+	private final RevocationFilter revocationFilter;
+	private final String keyPrefix;
+	private final Clock clock;
+	private final String nodeId = UUID.randomUUID().toString();
+
+	private Duration pollInterval = DEFAULT_POLL_INTERVAL;
+	private Duration snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+	private Duration deltaTtl = DEFAULT_DELTA_TTL;
+
+	private ScheduledExecutorService scheduler;
+
+	// Touched only on the scheduler thread.
+	private final Deque<Delta> unpublished = new ArrayDeque<>();
+	private long lastSeen;
+	private boolean reload = true;
+	private Instant lastSynced = Instant.EPOCH;
+	private Instant gapSince;
+
+	/**
+	 * @param client
+	 * @param revocationFilter
+	 * @param keyPrefix prefix of every key written, shared by all nodes
+	 * @param clock
+	 */
+	public MemcachedRevocationReplicator(MemcachedClient client, RevocationFilter revocationFilter, String keyPrefix,
+			Clock clock) {
+		this.client = client;
+		this.revocationFilter = revocationFilter;
+		this.keyPrefix = keyPrefix;
+		this.clock = clock;
+	}
+
+	/**
+	 * Load the current snapshot and deltas, waiting for memcached up to its operation timeout,
+	 * then publish local revocations and poll for others' in the background.
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "revocation-replication");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Future<?> initialLoad = scheduler.submit(() -> run(this::poll, "Loading revocations"));
+		try {
+			initialLoad.get();
+		} catch (ExecutionException e) {
+			// Logged by run(); the next poll retries.
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		revocationFilter.addListener(this::revoked);
+		long poll = Math.max(1, pollInterval.toMillis());
+		scheduler.scheduleWithFixedDelay(() -> run(this::poll, "Polling revocations"), poll, poll, TimeUnit.MILLISECONDS);
+		long snapshot = Math.max(1, snapshotInterval.toMillis());
+		scheduler.scheduleWithFixedDelay(() -> run(this::snapshot, "Writing the revocation snapshot"),
+				snapshot, snapshot, TimeUnit.MILLISECONDS);
+	}
+
+	private void revoked(String tokenId, Instant expiresAt) {
+		try {
+			scheduler.execute(() -> {
+				unpublished.add(new Delta(tokenId, expiresAt));
+				run(this::publish, "Publishing revocations");
+			});
+		} catch (RejectedExecutionException e) {
+			log.warn("Revocation of {} not replicated: the replicator has stopped", tokenId);
+		}
+	}
+
+	private void run(Runnable task, String description) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			log.warn("{} failed, will retry", description, e);
+		}
+	}
+
+	/**
+	 * Publish queued revocations in order. A delta leaves the queue only once memcached has
+	 * stored it; one that fails keeps its number and is written again on the next poll, so
+	 * other nodes see a short gap rather than a lost revocation. If it has been failing for
+	 * longer than they wait on a gap, it is numbered again.
+	 */
+	void publish() {
+		while (!unpublished.isEmpty()) {
+			Delta delta = unpublished.peek();
+			Instant now = clock.instant();
+			if (delta.sequence == 0 || !now.isBefore(delta.numberedAt.plus(GAP_TIMEOUT))) {
+				long sequence = client.incr(sequenceKey(), 1, 1, 0);
+				if (sequence < 0) {
+					throw new IllegalStateException("Could not increment the revocation counter");
+				}
+				delta.sequence = sequence;
+				delta.numberedAt = now;
+			}
+			if (!await(client.set(deltaKey(delta.sequence), (int) deltaTtl.toSeconds(), encodeDelta(delta),
+					EncodedRevocationsTranscoder.INSTANCE))) {
+				throw new IllegalStateException("Writing revocation delta " + delta.sequence + " failed");
+			}
+			unpublished.remove();
+		}
+	}
+
+	void poll() {
+		Instant now = clock.instant();
+		if (!unpublished.isEmpty()) {
+			publish();
+		}
+		if (reload || now.isAfter(lastSynced.plus(deltaTtl.dividedBy(2)))) {
+			loadSnapshot();
+		}
+		long current = counter();
+		if (current < lastSeen) {
+			log.info("Revocation counter went back from {} to {}; reloading the snapshot", lastSeen, current);
+			loadSnapshot();
+			current = counter();
+		}
+		boolean skip = gapSince != null && !now.isBefore(gapSince.plus(GAP_TIMEOUT));
+		while (lastSeen < current) {
+			long last = Math.min(current, lastSeen + MAXIMUM_DELTAS_PER_GET);
+			List<String> keys = new ArrayList<>();
+			for (long sequence = lastSeen + 1; sequence <= last; sequence++) {
+				keys.add(deltaKey(sequence));
+			}
+			Map<String, byte[]> deltas = client.getBulk(keys, EncodedRevocationsTranscoder.INSTANCE);
+			for (long sequence = lastSeen + 1; sequence <= last; sequence++) {
+				byte[] delta = deltas.get(deltaKey(sequence));
+				if (delta != null) {
+					apply(delta);
+				} else if (skip) {
+					log.warn("Skipping revocation delta {}, which was never written or has expired", sequence);
+				} else {
+					if (gapSince == null) {
+						gapSince = now;
+					}
+					lastSynced = now;
+					return;
+				}
+				lastSeen = sequence;
+			}
+		}
+		gapSince = null;
+		lastSynced = now;
+	}
+
+	/**
+	 * Write the snapshot, unless another node has written it this interval.
+	 */
+	void snapshot() {
+		if (reload) {
+			return;
+		}
+		int lockExpiration = (int) Math.max(1, snapshotInterval.toSeconds() - 1);
+		if (!await(client.add(lockKey(), lockExpiration, nodeId.getBytes(), EncodedRevocationsTranscoder.INSTANCE))) {
+			return;
+		}
+		long includes = lastSeen;
+		long manifestExpiration = clock.instant().getEpochSecond() + deltaTtl.toSeconds();
+		List<long[]> entries = new ArrayList<>();
+		List<Future<Boolean>> writes = new ArrayList<>();
+		int ids = 0;
+		for (RevocationFilter.Bucket bucket : revocationFilter.getBuckets()) {
+			List<byte[]> chunks = encodeBucket(bucket);
+			int expiration = (int) (bucket.getEnd() + EXPIRATION_MARGIN_SECONDS);
+			for (int chunk = 0; chunk < chunks.size(); chunk++) {
+				writes.add(client.set(bucketKey(bucket.getEnd(), chunk), expiration, chunks.get(chunk),
+						EncodedRevocationsTranscoder.INSTANCE));
+			}
+			entries.add(new long[] { bucket.getEnd(), chunks.size() });
+			manifestExpiration = Math.max(manifestExpiration, expiration);
+			ids += bucket.getIds().size();
+		}
+		for (Future<Boolean> write : writes) {
+			if (!await(write)) {
+				throw new IllegalStateException("Writing a revocation snapshot bucket failed");
+			}
+		}
+		if (!await(client.set(manifestKey(), (int) manifestExpiration, encodeManifest(includes, entries),
+				EncodedRevocationsTranscoder.INSTANCE))) {
+			throw new IllegalStateException("Writing the revocation snapshot manifest failed");
+		}
+		log.debug("Wrote revocation snapshot of {} ids in {} buckets, through delta {}", ids, entries.size(), includes);
+	}
+
+	private void loadSnapshot() {
+		long current = counter();
+		byte[] manifest = client.get(manifestKey(), EncodedRevocationsTranscoder.INSTANCE);
+		long includes;
+		if (manifest == null) {
+			// No snapshot yet: start from the most recent deltas.
+			includes = Math.max(0, current - MAXIMUM_DELTAS_PER_GET);
+		} else {
+			try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(manifest))) {
+				if (in.readUnsignedByte() != VERSION) {
+					throw new IOException("Unknown revocation manifest version");
+				}
+				includes = in.readLong();
+				int count = in.readInt();
+				List<String> keys = new ArrayList<>();
+				for (int i = 0; i < count; i++) {
+					long end = in.readLong();
+					int chunks = in.readInt();
+					for (int chunk = 0; chunk < chunks; chunk++) {
+						keys.add(bucketKey(end, chunk));
+					}
+				}
+				int loaded = 0;
+				for (byte[] chunk : client.getBulk(keys, EncodedRevocationsTranscoder.INSTANCE).values()) {
+					loaded += applyBucket(chunk);
+				}
+				log.info("Loaded {} revocations from the snapshot through delta {}", loaded, includes);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Undecodable revocation snapshot manifest", e);
+			}
+			if (includes > current) {
+				// The counter was reset after the snapshot, so its numbers start over.
+				includes = 0;
+			}
+		}
+		lastSeen = includes;
+		reload = false;
+		lastSynced = clock.instant();
+	}
+
+	private long counter() {
+		Object value = client.get(sequenceKey());
+		return value == null ? 0 : Long.parseLong(value.toString().trim());
+	}
+
+	private boolean await(Future<Boolean> future) {
+		try {
+			return Boolean.TRUE.equals(future.get(client.getOperationTimeout(), TimeUnit.MILLISECONDS));
+		} catch (TimeoutException e) {
+			future.cancel(false);
+			return false;
+		} catch (ExecutionException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void apply(byte[] delta) {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta))) {
+			if (in.readUnsignedByte() != VERSION) {
+				log.warn("Ignoring revocation delta of unknown version");
+				return;
+			}
+			String tokenId = in.readUTF();
+			revocationFilter.add(tokenId, Instant.ofEpochSecond(in.readLong()));
+		} catch (IOException e) {
+			log.warn("Ignoring undecodable revocation delta", e);
+		}
+	}
+
+	private int applyBucket(byte[] chunk) {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(chunk))) {
+			if (in.readUnsignedByte() != VERSION) {
+				log.warn("Ignoring revocation snapshot bucket of unknown version");
+				return 0;
+			}
+			Instant expiresAt = Instant.ofEpochSecond(in.readLong());
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				revocationFilter.add(in.readUTF(), expiresAt);
+			}
+			return count;
+		} catch (IOException e) {
+			log.warn("Ignoring undecodable revocation snapshot bucket", e);
+			return 0;
+		}
+	}
+
+	private static byte[] encodeDelta(Delta delta) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(VERSION);
+			out.writeUTF(delta.tokenId);
+			out.writeLong(delta.expiresAt.getEpochSecond() + (delta.expiresAt.getNano() > 0 ? 1 : 0));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * The bucket's ids, split into items that fit comfortably within memcached's item size.
+	 */
+	private static List<byte[]> encodeBucket(RevocationFilter.Bucket bucket) {
+		List<byte[]> chunks = new ArrayList<>();
+		List<String> ids = new ArrayList<>(bucket.getIds());
+		int next = 0;
+		do {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			int count = 0;
+			try (DataOutputStream out = new DataOutputStream(body)) {
+				while (next < ids.size() && body.size() < SNAPSHOT_CHUNK_SIZE) {
+					out.writeUTF(ids.get(next++));
+					count++;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			ByteArrayOutputStream chunk = new ByteArrayOutputStream(body.size() + 13);
+			try (DataOutputStream out = new DataOutputStream(chunk)) {
+				out.writeByte(VERSION);
+				out.writeLong(bucket.getEnd());
+				out.writeInt(count);
+				body.writeTo(out);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			chunks.add(chunk.toByteArray());
+		} while (next < ids.size());
+		return chunks;
+	}
+
+	private static byte[] encodeManifest(long includes, List<long[]> entries) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(13 + entries.size() * 12);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(VERSION);
+			out.writeLong(includes);
+			out.writeInt(entries.size());
+			for (long[] entry : entries) {
+				out.writeLong(entry[0]);
+				out.writeInt((int) entry[1]);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private String sequenceKey() {
+		return keyPrefix + "rv:seq";
+	}
+
+	private String deltaKey(long sequence) {
+		return keyPrefix + "rv:d:" + sequence;
+	}
+
+	private String bucketKey(long end, int chunk) {
+		return keyPrefix + "rv:b:" + end + ':' + chunk;
+	}
+
+	private String manifestKey() {
+		return keyPrefix + "rv:snapshot";
+	}
+
+	private String lockKey() {
+		return keyPrefix + "rv:snapshot-lock";
+	}
+
+	/**
+	 * @param pollInterval how often the counter is checked for other nodes' revocations
+	 */
+	public void setPollInterval(Duration pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * @param snapshotInterval how often one of the nodes writes the snapshot
+	 */
+	public void setSnapshotInterval(Duration snapshotInterval) {
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * @param deltaTtl how long deltas are kept; a node that has not synchronized for half of
+	 *            this reloads the snapshot
+	 */
+	public void setDeltaTtl(Duration deltaTtl) {
+		this.deltaTtl = deltaTtl;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+			try {
+				// Give revocations still being published a chance to get out.
+				scheduler.awaitTermination(client.getOperationTimeout() * 2, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			scheduler = null;
+		}
+	}
+
+	private static final class Delta {
+
+		private final String tokenId;
+		private final Instant expiresAt;
+		private long sequence;
+		private Instant numberedAt;
+
+		Delta(String tokenId, Instant expiresAt) {
+			this.tokenId = tokenId;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+}
@@ -0,0 +1,354 @@
+package org.keysupport.authservice.introspection;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ids ({@code jti}) of revoked tokens that have not yet expired.
+ * <p>
+ * Ids are held in buckets by expiry time, each bucket covering {@code bucketWidth}, so once
+ * the last token in a bucket has expired the whole bucket is dropped without looking at its
+ * ids. A Bloom filter over all buckets sits in front, so the common case, a token that was
+ * never revoked, is answered from a few bit tests; a filter hit is confirmed against the
+ * buckets, so false positives cost a few lookups, never a wrong answer.
+ * <p>
+ * Lookups never lock. Changes are rare and serialized: an id is in its bucket, and a new
+ * bucket published, before the id's bits are set, so a reader that sees the bits also sees
+ * the id. Dropped ids leave their bits set, which only costs confirmations; the filter is
+ * rebuilt from the live buckets once those stale bits outnumber the live ones, or when
+ * revocations outgrow it.
+ * <p>
+ * Revocations made through {@link #revoke} are passed to the listeners, e.g. to replicate
+ * them to other nodes; ids replicated from elsewhere are added without notifying them.
+ */
+public class RevocationFilter implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(RevocationFilter.class);
+
+	public static final int DEFAULT_EXPECTED_REVOCATIONS = 100_000;
+	public static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.001;
+	public static final Duration DEFAULT_BUCKET_WIDTH = Duration.ofMinutes(5);
+
+	private final int expectedRevocations;
+	private final double falsePositiveProbability;
+	private final long bucketSeconds;
+	private final Clock clock;
+	private final List<RevocationListener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Live buckets in expiry order, replaced (never modified) when buckets come and go.
+	 */
+	private volatile Bucket[] buckets = new Bucket[0];
+	private volatile BloomFilter filter;
+	/** Ids put into the current filter, including those since dropped; guarded by this. */
+	private int filtered;
+	private ScheduledExecutorService scheduler;
+
+	public RevocationFilter() {
+		this(DEFAULT_EXPECTED_REVOCATIONS, DEFAULT_FALSE_POSITIVE_PROBABILITY, DEFAULT_BUCKET_WIDTH, Clock.systemUTC());
+	}
+
+	/**
+	 * @param expectedRevocations how many unexpired revocations the filter is first sized for
+	 * @param falsePositiveProbability target rate at which unrevoked ids fall through to the buckets
+	 * @param bucketWidth the span of expiry times sharing a bucket; ids are kept up to this
+	 *            long after their tokens expire
+	 * @param clock
+	 */
+	public RevocationFilter(int expectedRevocations, double falsePositiveProbability, Duration bucketWidth, Clock clock) {
+		if (expectedRevocations < 1 || !(falsePositiveProbability > 0 && falsePositiveProbability < 1)) {
+			throw new IllegalArgumentException("Expected revocations must be positive and the false positive probability in (0, 1)");
+		}
+		if (bucketWidth.getSeconds() < 1) {
+			throw new IllegalArgumentException("The bucket width must be at least a second");
+		}
+		this.expectedRevocations = expectedRevocations;
+		this.falsePositiveProbability = falsePositiveProbability;
+		this.bucketSeconds = bucketWidth.getSeconds();
+		this.clock = clock;
+		this.filter = new BloomFilter(expectedRevocations, falsePositiveProbability);
+	}
+
+	/**
+	 * Drop expired buckets every interval, on a daemon thread.
+	 *
+	 * @param purgeInterval
+	 */
+	public synchronized void start(Duration purgeInterval) {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "revocation-filter-purge");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1, purgeInterval.toMillis());
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				purgeExpired();
+			} catch (RuntimeException e) {
+				log.warn("Purging expired revocations failed", e);
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	public void addListener(RevocationListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Record a revoked token until it would have expired anyway, and tell the listeners.
+	 *
+	 * @param tokenId
+	 * @param expiresAt
+	 */
+	public void revoke(String tokenId, Instant expiresAt) {
+		if (add(tokenId, expiresAt)) {
+			for (RevocationListener listener : listeners) {
+				listener.revoked(tokenId, expiresAt);
+			}
+		}
+	}
+
+	/**
+	 * Record a revocation without telling the listeners, e.g. one replicated from another node.
+	 *
+	 * @param tokenId
+	 * @param expiresAt
+	 * @return false if the token has expired or was already recorded
+	 */
+	public synchronized boolean add(String tokenId, Instant expiresAt) {
+		if (!expiresAt.isAfter(clock.instant())) {
+			return false;
+		}
+		long end = bucketEnd(expiresAt);
+		Bucket bucket = null;
+		for (Bucket candidate : buckets) {
+			if (candidate.end == end) {
+				bucket = candidate;
+				break;
+			}
+		}
+		if (bucket == null) {
+			bucket = new Bucket(end);
+			Bucket[] updated = Arrays.copyOf(buckets, buckets.length + 1);
+			updated[updated.length - 1] = bucket;
+			Arrays.sort(updated, Comparator.comparingLong(b -> b.end));
+			buckets = updated;
+		}
+		if (!bucket.ids.add(tokenId)) {
+			return false;
+		}
+		if (++filtered > filter.capacity) {
+			filter = rebuild();
+		} else {
+			filter.put(tokenId);
+		}
+		return true;
+	}
+
+	/**
+	 * @param tokenId
+	 * @return whether the token was revoked; expiry is left to the caller
+	 */
+	public boolean isRevoked(String tokenId) {
+		if (!filter.mightContain(tokenId)) {
+			return false;
+		}
+		for (Bucket bucket : buckets) {
+			if (bucket.ids.contains(tokenId)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Drop the buckets whose tokens have all expired.
+	 *
+	 * @return how many ids were dropped
+	 */
+	public synchronized int purgeExpired() {
+		long now = clock.instant().getEpochSecond();
+		Bucket[] current = buckets;
+		int expired = 0;
+		int purged = 0;
+		while (expired < current.length && current[expired].end <= now) {
+			purged += current[expired].ids.size();
+			expired++;
+		}
+		if (expired == 0) {
+			return 0;
+		}
+		buckets = Arrays.copyOfRange(current, expired, current.length);
+		int live = size();
+		if (filtered - live > live) {
+			filter = rebuild();
+		}
+		return purged;
+	}
+
+	/**
+	 * @return how many unexpired revocations are held
+	 */
+	public int size() {
+		int size = 0;
+		for (Bucket bucket : buckets) {
+			size += bucket.ids.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the live buckets, in expiry order
+	 */
+	public List<Bucket> getBuckets() {
+		return List.of(buckets);
+	}
+
+	private long bucketEnd(Instant expiresAt) {
+		long seconds = expiresAt.getEpochSecond() + (expiresAt.getNano() > 0 ? 1 : 0);
+		return Math.floorDiv(seconds + bucketSeconds - 1, bucketSeconds) * bucketSeconds;
+	}
+
+	private BloomFilter rebuild() {
+		int live = size();
+		BloomFilter rebuilt = new BloomFilter(Math.max(expectedRevocations, live * 2), falsePositiveProbability);
+		for (Bucket bucket : buckets) {
+			bucket.ids.forEach(rebuilt::put);
+		}
+		filtered = live;
+		log.debug("Rebuilt revocation filter for {} ids with {} bits", live, rebuilt.bitCount);
+		return rebuilt;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Told of each revocation made on this node.
+	 */
+	@FunctionalInterface
+	public interface RevocationListener {
+
+		void revoked(String tokenId, Instant expiresAt);
+
+	}
+
+	/**
+	 * The revoked ids of tokens expiring up to {@link #getEnd()}.
+	 */
+	public static final class Bucket {
+
+		private final long end;
+		private final Set<String> ids = ConcurrentHashMap.newKeySet();
+
+		Bucket(long end) {
+			this.end = end;
+		}
+
+		/**
+		 * @return the epoch second by which every token in the bucket has expired
+		 */
+		public long getEnd() {
+			return end;
+		}
+
+		/**
+		 * @return a live view of the ids
+		 */
+		public Set<String> getIds() {
+			return Collections.unmodifiableSet(ids);
+		}
+	}
+
+	/**
+	 * A standard Bloom filter with double hashing. Only one thread sets bits at a time, so
+	 * plain reads and writes of the atomic words are enough.
+	 */
+	static final class BloomFilter {
+
+		final int capacity;
+		final long bitCount;
+		private final int hashCount;
+		private final AtomicLongArray words;
+
+		BloomFilter(int capacity, double falsePositiveProbability) {
+			this.capacity = capacity;
+			long bits = (long) Math.ceil(-capacity * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+			this.words = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) >>> 6));
+			this.bitCount = (long) words.length() << 6;
+			this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+		}
+
+		void put(String value) {
+			long hash = hash(value);
+			long h1 = mix(hash);
+			long h2 = mix(hash ^ 0x9e3779b97f4a7c15L) | 1;
+			for (int i = 0; i < hashCount; i++) {
+				long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+				int word = (int) (bit >>> 6);
+				words.set(word, words.get(word) | (1L << bit));
+			}
+		}
+
+		boolean mightContain(String value) {
+			long hash = hash(value);
+			long h1 = mix(hash);
+			long h2 = mix(hash ^ 0x9e3779b97f4a7c15L) | 1;
+			for (int i = 0; i < hashCount; i++) {
+				long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+				if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * 64-bit FNV-1a over the chars, without encoding the string first.
+		 */
+		private static long hash(String value) {
+			long hash = 0xcbf29ce484222325L;
+			for (int i = 0; i < value.length(); i++) {
+				hash ^= value.charAt(i);
+				hash *= 0x100000001b3L;
+			}
+			return hash;
+		}
+
+		/**
+		 * The MurmurHash3 finalizer, so both probe hashes use every input bit.
+		 */
+		private static long mix(long h) {
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+			return h;
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package org.keysupport.authservice.introspection;
+
+import java.time.Instant;
+
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.jwt.JwtClaimNames;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationService;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+
+/**
+ * Records access tokens in the {@link RevocationFilter} whenever the authorization server
+ * invalidates them (revocation, a revoked refresh token, a replayed authorization code) or
+ * removes their authorization, so local introspection sees what a lookup would.
+ */
+public class RevocationRecordingAuthorizationService implements OAuth2AuthorizationService {
+
+	private final OAuth2AuthorizationService delegate;
+	private final RevocationFilter revocationFilter;
+
+	public RevocationRecordingAuthorizationService(OAuth2AuthorizationService delegate, RevocationFilter revocationFilter) {
+		this.delegate = delegate;
+		this.revocationFilter = revocationFilter;
+	}
+
+	@Override
+	public void save(OAuth2Authorization authorization) {
+		delegate.save(authorization);
+		OAuth2Authorization.Token<OAuth2AccessToken> accessToken = authorization.getAccessToken();
+		if (accessToken != null && accessToken.isInvalidated()) {
+			record(accessToken);
+		}
+	}
+
+	@Override
+	public void remove(OAuth2Authorization authorization) {
+		delegate.remove(authorization);
+		OAuth2Authorization.Token<OAuth2AccessToken> accessToken = authorization.getAccessToken();
+		if (accessToken != null) {
+			record(accessToken);
+		}
+	}
+
+	@Override
+	public OAuth2Authorization findById(String id) {
+		return delegate.findById(id);
+	}
+
+	@Override
+	public OAuth2Authorization findByToken(String token, OAuth2TokenType tokenType) {
+		return delegate.findByToken(token, tokenType);
+	}
+
+	private void record(OAuth2Authorization.Token<OAuth2AccessToken> accessToken) {
+		Object tokenId = accessToken.getClaims() == null ? null : accessToken.getClaims().get(JwtClaimNames.JTI);
+		Instant expiresAt = accessToken.getToken().getExpiresAt();
+		if (tokenId != null && expiresAt != null) {
+			revocationFilter.revoke(tokenId.toString(), expiresAt);
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package org.keysupport.authservice.jose;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.util.Base64;
+
+/**
+ * An in-memory P-256 signing key whose certificate was issued once by the KMS root key.
+ * <p>
+ * The JWS header (alg, kid and the x5c delegation chain) and the signer are built when the
+ * key is created, so signing a token is a single local ECDSA operation.
+ */
+public final class DelegatedSigningKey {
+
+	private final ECKey jwk;
+	private final List<X509Certificate> certificateChain;
+	private final Instant activatesAt;
+	private final Instant expiresAt;
+	private final JWSHeader header;
+	private final JWSSigner signer;
+
+	DelegatedSigningKey(ECKey privateJwk, List<X509Certificate> certificateChain, Instant activatesAt)
+			throws JOSEException, CertificateEncodingException {
+		List<Base64> x5c = new ArrayList<>(certificateChain.size());
+		for (X509Certificate certificate : certificateChain) {
+			x5c.add(Base64.encode(certificate.getEncoded()));
+		}
+		this.jwk = new ECKey.Builder(privateJwk)
+				.keyUse(KeyUse.SIGNATURE)
+				.algorithm(JWSAlgorithm.ES256)
+				.x509CertChain(x5c)
+				.build();
+		this.certificateChain = Collections.unmodifiableList(new ArrayList<>(certificateChain));
+		this.activatesAt = activatesAt;
+		this.expiresAt = certificateChain.get(0).getNotAfter().toInstant();
+		this.header = new JWSHeader.Builder(JWSAlgorithm.ES256)
+				.keyID(jwk.getKeyID())
+				.x509CertChain(x5c)
+				.build();
+		this.signer = new ECDSASigner(privateJwk);
+	}
+
+	public String getKeyId() {
+		return jwk.getKeyID();
+	}
+
+	/**
+	 * @return the public JWK, including its x5c delegation chain
+	 */
+	public ECKey getPublicJwk() {
+		return jwk.toPublicJWK();
+	}
+
+	public List<X509Certificate> getCertificateChain() {
+		return certificateChain;
+	}
+
+	public Instant getActivatesAt() {
+		return activatesAt;
+	}
+
+	public Instant getExpiresAt() {
+		return expiresAt;
+	}
+
+	public JWSHeader getHeader() {
+		return header;
+	}
+
+	public JWSSigner getSigner() {
+		return signer;
+	}
+
+}
@@ -0,0 +1,268 @@
+package org.keysupport.authservice.jose;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.keysupport.authservice.awskms.jce.provider.KmsContentSigner;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * Issues short-lived, in-memory ES256 signing keys, each certified once by the KMS root key.
+ * <p>
+ * Every rotation interval a new key becomes active. The next key is generated and certified
+ * ahead of time on a background thread, and a key stays published until every token it could
+ * have signed has expired, so tokens are signed locally and no request ever waits on KMS.
+ * <p>
+ * Tokens carry the delegated key's kid and an x5c chain of [delegated certificate, KMS root
+ * certificate]; the root certificate is self-issued by the KMS key once at start-up.
+ */
+public class DelegatedSigningKeyManager implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(DelegatedSigningKeyManager.class);
+
+	private final KmsProvider kmsProvider;
+	private final PrivateKey rootPrivateKey;
+	private final PublicKey rootPublicKey;
+	private final String rootKeyId;
+	private final KmsSigningAlgorithm rootSigningAlgorithm;
+	private final Duration rotationInterval;
+	private final Duration maxTokenLifetime;
+	private final Duration rootCertificateLifetime = Duration.ofDays(365);
+	private final SecureRandom random = new SecureRandom();
+	private final List<DelegatedSigningKey> keys = new CopyOnWriteArrayList<>();
+	private final List<Runnable> keySetListeners = new CopyOnWriteArrayList<>();
+
+	private volatile X509Certificate rootCertificate;
+	private ScheduledExecutorService scheduler;
+
+	public DelegatedSigningKeyManager(KmsProvider kmsProvider, PrivateKey rootPrivateKey, PublicKey rootPublicKey,
+			String rootKeyId, KmsSigningAlgorithm rootSigningAlgorithm, Duration rotationInterval,
+			Duration maxTokenLifetime) {
+		this.kmsProvider = kmsProvider;
+		this.rootPrivateKey = rootPrivateKey;
+		this.rootPublicKey = rootPublicKey;
+		this.rootKeyId = rootKeyId;
+		this.rootSigningAlgorithm = rootSigningAlgorithm;
+		this.rotationInterval = rotationInterval;
+		this.maxTokenLifetime = maxTokenLifetime;
+	}
+
+	/**
+	 * Certify the root, the current and the next delegated key, then schedule rotation.
+	 * This is the only point where a caller waits on KMS.
+	 *
+	 * @throws GeneralSecurityException
+	 * @throws JOSEException
+	 */
+	public synchronized void start() throws GeneralSecurityException, JOSEException {
+		if (scheduler != null) {
+			return;
+		}
+		this.rootCertificate = issueRootCertificate();
+		Instant now = Instant.now();
+		keys.add(issueKey(now));
+		keys.add(issueKey(now.plus(rotationInterval)));
+		fireKeySetChanged();
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "delegated-key-rotation");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1, rotationInterval.toMillis() / 4);
+		scheduler.scheduleAtFixedRate(this::rotate, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the newest key that is already active; never blocks
+	 */
+	public DelegatedSigningKey current() {
+		Instant now = Instant.now();
+		DelegatedSigningKey current = null;
+		for (DelegatedSigningKey key : keys) {
+			if (!key.getActivatesAt().isAfter(now)
+					&& (current == null || key.getActivatesAt().isAfter(current.getActivatesAt()))) {
+				current = key;
+			}
+		}
+		if (current == null) {
+			throw new IllegalStateException("No delegated signing key is active; has start() been called?");
+		}
+		return current;
+	}
+
+	/**
+	 * @return every key that is, was or will shortly be used to sign unexpired tokens
+	 */
+	public List<DelegatedSigningKey> getPublishedKeys() {
+		return new ArrayList<>(keys);
+	}
+
+	public X509Certificate getRootCertificate() {
+		return rootCertificate;
+	}
+
+	public String getRootKeyId() {
+		return rootKeyId;
+	}
+
+	public PublicKey getRootPublicKey() {
+		return rootPublicKey;
+	}
+
+	public Duration getRotationInterval() {
+		return rotationInterval;
+	}
+
+	/**
+	 * Register a callback invoked whenever a key is added to or removed from the published set.
+	 *
+	 * @param listener
+	 */
+	public void addKeySetListener(Runnable listener) {
+		keySetListeners.add(listener);
+	}
+
+	/**
+	 * Sign the claims with the current delegated key.
+	 *
+	 * @param claims
+	 * @return
+	 * @throws JOSEException
+	 */
+	public SignedJWT sign(JWTClaimsSet claims) throws JOSEException {
+		DelegatedSigningKey key = current();
+		SignedJWT jwt = new SignedJWT(key.getHeader(), claims);
+		jwt.sign(key.getSigner());
+		return jwt;
+	}
+
+	void rotate() {
+		try {
+			Instant now = Instant.now();
+			if (rootCertificate.getNotAfter().toInstant().isBefore(now.plus(rootCertificateLifetime.dividedBy(12)))) {
+				// Keys issued from here on chain to the new root; existing keys keep their own chain.
+				rootCertificate = issueRootCertificate();
+			}
+			boolean changed = keys.removeIf(k -> k.getExpiresAt().isBefore(now));
+			Instant latest = keys.stream()
+					.map(DelegatedSigningKey::getActivatesAt)
+					.max(Comparator.naturalOrder())
+					.orElse(now);
+			if (!latest.isAfter(now)) {
+				Instant next = latest.plus(rotationInterval);
+				keys.add(issueKey(next.isAfter(now) ? next : now));
+				changed = true;
+			}
+			if (changed) {
+				fireKeySetChanged();
+			}
+		} catch (GeneralSecurityException | JOSEException | RuntimeException e) {
+			// The current key stays usable for another rotation interval, so retry on the next tick.
+			log.warn("Delegated signing key rotation failed, will retry", e);
+		}
+	}
+
+	private void fireKeySetChanged() {
+		for (Runnable listener : keySetListeners) {
+			try {
+				listener.run();
+			} catch (RuntimeException e) {
+				log.warn("Key set listener failed", e);
+			}
+		}
+	}
+
+	private DelegatedSigningKey issueKey(Instant activatesAt) throws GeneralSecurityException, JOSEException {
+		ECKey ecKey = new ECKeyGenerator(Curve.P_256).keyIDFromThumbprint(true).generate();
+		/*
+		 * The key signs for one rotation interval; allow one more interval of slack for a late
+		 * rotation, plus the lifetime of the last token it signs.
+		 */
+		Instant notAfter = activatesAt.plus(rotationInterval.multipliedBy(2)).plus(maxTokenLifetime);
+		X500Name subject = new X500Name("CN=" + ecKey.getKeyID());
+		X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+				X500Name.getInstance(rootCertificate.getSubjectX500Principal().getEncoded()),
+				new BigInteger(128, random),
+				Date.from(Instant.now().minus(Duration.ofMinutes(1))),
+				Date.from(notAfter),
+				subject,
+				ecKey.toECPublicKey());
+		JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+		try {
+			builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(false))
+					.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature))
+					.addExtension(Extension.subjectKeyIdentifier, false, extensionUtils.createSubjectKeyIdentifier(ecKey.toECPublicKey()))
+					.addExtension(Extension.authorityKeyIdentifier, false, extensionUtils.createAuthorityKeyIdentifier(rootCertificate));
+		} catch (java.io.IOException e) {
+			throw new GeneralSecurityException(e);
+		}
+		X509Certificate certificate = new JcaX509CertificateConverter()
+				.getCertificate(builder.build(new KmsContentSigner(kmsProvider, rootPrivateKey, rootSigningAlgorithm)));
+		log.info("Issued delegated signing key {} active from {} until {}", ecKey.getKeyID(), activatesAt, notAfter);
+		return new DelegatedSigningKey(ecKey, List.of(certificate, rootCertificate), activatesAt);
+	}
+
+	private X509Certificate issueRootCertificate() throws GeneralSecurityException {
+		X500Name name = new X500Name("CN=" + rootKeyId);
+		Instant now = Instant.now();
+		X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+				name,
+				new BigInteger(128, random),
+				Date.from(now.minus(Duration.ofMinutes(1))),
+				Date.from(now.plus(rootCertificateLifetime)),
+				name,
+				rootPublicKey);
+		JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+		try {
+			builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(0))
+					.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.digitalSignature))
+					.addExtension(Extension.subjectKeyIdentifier, false, extensionUtils.createSubjectKeyIdentifier(rootPublicKey));
+		} catch (java.io.IOException e) {
+			throw new GeneralSecurityException(e);
+		}
+		return new JcaX509CertificateConverter()
+				.getCertificate(builder.build(new KmsContentSigner(kmsProvider, rootPrivateKey, rootSigningAlgorithm)));
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+package org.keysupport.authservice.jose;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.springframework.security.oauth2.core.ClaimAccessor;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.settings.OAuth2TokenFormat;
+import org.springframework.security.oauth2.server.authorization.token.JwtEncodingContext;
+import org.springframework.security.oauth2.server.authorization.token.OAuth2TokenContext;
+import org.springframework.security.oauth2.server.authorization.token.OAuth2TokenCustomizer;
+import org.springframework.security.oauth2.server.authorization.token.OAuth2TokenGenerator;
+import org.springframework.util.StringUtils;
+
+import com.nimbusds.jose.JOSEException;
+
+/**
+ * Issues opaque access tokens, for clients whose access token format is
+ * {@link OAuth2TokenFormat#REFERENCE reference}, as claims encrypted with the current
+ * {@link TokenEncryptionKeyManager} data key rather than random strings, so they can be
+ * introspected without a store lookup or a KMS call.
+ * <p>
+ * The claims are those of a self-contained access token, and the same
+ * {@code OAuth2TokenCustomizer<JwtEncodingContext>} is applied to them, so customizers such
+ * as the certificate binding work for both formats; the JWS header it is also given is
+ * discarded. Token lifetimes are capped at the key manager's maximum token lifetime, beyond
+ * which the key would no longer be kept.
+ */
+public final class EncryptedAccessTokenGenerator implements OAuth2TokenGenerator<OAuth2AccessToken> {
+
+	private final TokenEncryptionKeyManager keyManager;
+	private final Clock clock;
+
+	private OAuth2TokenCustomizer<JwtEncodingContext> accessTokenCustomizer;
+
+	/**
+	 * Times tokens by the key manager's clock, so their lifetimes agree with the keys'.
+	 *
+	 * @param keyManager
+	 */
+	public EncryptedAccessTokenGenerator(TokenEncryptionKeyManager keyManager) {
+		this(keyManager, keyManager.getClock());
+	}
+
+	/**
+	 * @param keyManager
+	 * @param clock
+	 */
+	public EncryptedAccessTokenGenerator(TokenEncryptionKeyManager keyManager, Clock clock) {
+		this.keyManager = keyManager;
+		this.clock = clock;
+	}
+
+	public void setAccessTokenCustomizer(OAuth2TokenCustomizer<JwtEncodingContext> accessTokenCustomizer) {
+		this.accessTokenCustomizer = accessTokenCustomizer;
+	}
+
+	@Override
+	public OAuth2AccessToken generate(OAuth2TokenContext context) {
+		RegisteredClient registeredClient = context.getRegisteredClient();
+		if (!OAuth2TokenType.ACCESS_TOKEN.equals(context.getTokenType())
+				|| !OAuth2TokenFormat.REFERENCE.equals(registeredClient.getTokenSettings().getAccessTokenFormat())) {
+			return null;
+		}
+		String issuer = context.getAuthorizationServerContext() == null ? null
+				: context.getAuthorizationServerContext().getIssuer();
+		Instant issuedAt = clock.instant();
+		Duration timeToLive = registeredClient.getTokenSettings().getAccessTokenTimeToLive();
+		if (timeToLive.compareTo(keyManager.getMaxTokenLifetime()) > 0) {
+			timeToLive = keyManager.getMaxTokenLifetime();
+		}
+		Instant expiresAt = issuedAt.plus(timeToLive);
+
+		JwtClaimsSet.Builder claims = JwtClaimsSet.builder();
+		if (StringUtils.hasText(issuer)) {
+			claims.issuer(issuer);
+		}
+		claims.subject(context.getPrincipal().getName())
+				.audience(Collections.singletonList(registeredClient.getClientId()))
+				.issuedAt(issuedAt)
+				.expiresAt(expiresAt)
+				.notBefore(issuedAt)
+				.id(UUID.randomUUID().toString());
+		if (!context.getAuthorizedScopes().isEmpty()) {
+			claims.claim(OAuth2ParameterNames.SCOPE, context.getAuthorizedScopes());
+		}
+		if (accessTokenCustomizer != null) {
+			JwtEncodingContext.Builder encodingContext = JwtEncodingContext.with(JwsHeader.with(SignatureAlgorithm.RS256), claims)
+					.registeredClient(registeredClient)
+					.principal(context.getPrincipal())
+					.authorizationServerContext(context.getAuthorizationServerContext())
+					.authorizedScopes(context.getAuthorizedScopes())
+					.tokenType(context.getTokenType())
+					.authorizationGrantType(context.getAuthorizationGrantType());
+			if (context.getAuthorization() != null) {
+				encodingContext.authorization(context.getAuthorization());
+			}
+			if (context.getAuthorizationGrant() != null) {
+				encodingContext.authorizationGrant(context.getAuthorizationGrant());
+			}
+			accessTokenCustomizer.customize(encodingContext.build());
+		}
+		JwtClaimsSet claimsSet = claims.build();
+		String tokenValue;
+		try {
+			tokenValue = keyManager.encrypt(KmsJwtEncoder.toJwtClaimsSet(claimsSet));
+		} catch (JOSEException e) {
+			throw new IllegalStateException("Access token encryption failed", e);
+		}
+		return new EncryptedAccessToken(tokenValue, claimsSet.getIssuedAt(), claimsSet.getExpiresAt(),
+				context.getAuthorizedScopes(), claimsSet.getClaims());
+	}
+
+	/**
+	 * Exposes the claims, so the authorization server records them with the authorization for
+	 * introspection, as it does for self-contained tokens.
+	 */
+	private static final class EncryptedAccessToken extends OAuth2AccessToken implements ClaimAccessor {
+
+		private final Map<String, Object> claims;
+
+		EncryptedAccessToken(String tokenValue, Instant issuedAt, Instant expiresAt, Set<String> scopes,
+				Map<String, Object> claims) {
+			super(TokenType.BEARER, tokenValue, issuedAt, expiresAt, scopes);
+			this.claims = claims;
+		}
+
+		@Override
+		public Map<String, Object> getClaims() {
+			return claims;
+		}
+	}
+
+}
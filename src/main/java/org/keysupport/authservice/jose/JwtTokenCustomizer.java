@@ -0,0 +1,16 @@
+package org.keysupport.authservice.jose;
+
+import org.springframework.security.oauth2.server.authorization.token.JwtEncodingContext;
+
+/**
+ * Contributes to the headers and claims of issued JWTs.
+ * <p>
+ * Spring Authorization Server accepts a single {@code OAuth2TokenCustomizer} bean; every
+ * bean of this type is applied, in order, by the one it is given.
+ */
+@FunctionalInterface
+public interface JwtTokenCustomizer {
+
+	void customize(JwtEncodingContext context);
+
+}
@@ -0,0 +1,61 @@
+package org.keysupport.authservice.jose;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Signature;
+import java.util.Set;
+
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.impl.BaseJWSProvider;
+import com.nimbusds.jose.util.Base64URL;
+
+/**
+ * Signs ES256, ES384 and ES512 JWS objects with a KMS ECC key. Nimbus's
+ * {@link com.nimbusds.jose.crypto.ECDSASigner} needs the private key material, so this
+ * signer asks the JCA provider for the {@code r || s} ("inP1363Format") variant of the
+ * algorithm instead; the KMS provider transcodes the DER signature KMS returns.
+ */
+public class KmsECDSASigner extends BaseJWSProvider implements JWSSigner {
+
+	private final PrivateKey privateKey;
+	private final String jcaAlgorithm;
+
+	/**
+	 * @param privateKey the KMS private key handle
+	 * @param kmsSigningAlgorithm the key's ECDSA algorithm; KMS pairs each curve with one
+	 */
+	public KmsECDSASigner(PrivateKey privateKey, KmsSigningAlgorithm kmsSigningAlgorithm) {
+		super(Set.of(KmsJwsAlgorithms.of(kmsSigningAlgorithm)));
+		if (kmsSigningAlgorithm.getP1363Algorithm() == null) {
+			throw new IllegalArgumentException("Not an ECDSA signing algorithm: " + kmsSigningAlgorithm);
+		}
+		this.privateKey = privateKey;
+		this.jcaAlgorithm = kmsSigningAlgorithm.getP1363Algorithm();
+	}
+
+	@Override
+	public Base64URL sign(JWSHeader header, byte[] signingInput) throws JOSEException {
+		JWSAlgorithm algorithm = header.getAlgorithm();
+		if (!supportedJWSAlgorithms().contains(algorithm)) {
+			throw new JOSEException("Unsupported JWS algorithm " + algorithm + ", must be " + supportedJWSAlgorithms());
+		}
+		Provider provider = getJCAContext().getProvider();
+		try {
+			Signature signature = provider != null
+					? Signature.getInstance(jcaAlgorithm, provider)
+					: Signature.getInstance(jcaAlgorithm);
+			signature.initSign(privateKey);
+			signature.update(signingInput);
+			return Base64URL.encode(signature.sign());
+		} catch (GeneralSecurityException e) {
+			throw new JOSEException(e.getMessage(), e);
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+package org.keysupport.authservice.jose;
+
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsPublicKey;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.keysupport.authservice.web.CachedDocument;
+
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+
+/**
+ * The published JWK set: every active KMS signing key plus, in delegated mode, every
+ * published delegated key.
+ * <p>
+ * The set and its JSON serialization are rebuilt only when the key set changes, so the
+ * JWKS endpoint serves the same byte array (and strong ETag) until then.
+ */
+public class KmsJwkSet implements JWKSource<SecurityContext> {
+
+	private final List<JWK> kmsKeys;
+	private final DelegatedSigningKeyManager delegatedSigningKeyManager;
+	private final Duration maxAge;
+
+	private volatile JWKSet jwkSet;
+	private volatile CachedDocument document;
+
+	/**
+	 * @param kmsKeys public JWKs of the KMS keys
+	 * @param delegatedSigningKeyManager optional, may be null
+	 * @param maxAge upper bound for the Cache-Control max-age of the JWKS document
+	 */
+	public KmsJwkSet(List<JWK> kmsKeys, DelegatedSigningKeyManager delegatedSigningKeyManager, Duration maxAge) {
+		this(kmsKeys, delegatedSigningKeyManager, maxAge, null);
+	}
+
+	/**
+	 * @param kmsKeys public JWKs of the KMS keys
+	 * @param delegatedSigningKeyManager optional, may be null
+	 * @param maxAge upper bound for the Cache-Control max-age of the JWKS document
+	 * @param keyRotationLeadTime how long a new KMS key is published before tokens are signed
+	 *            with it, or null if the KMS keys are not rotated
+	 */
+	public KmsJwkSet(List<JWK> kmsKeys, DelegatedSigningKeyManager delegatedSigningKeyManager, Duration maxAge,
+			Duration keyRotationLeadTime) {
+		this.kmsKeys = List.copyOf(kmsKeys);
+		this.delegatedSigningKeyManager = delegatedSigningKeyManager;
+		/*
+		 * A new key is published well before it is first used, but clients must re-fetch
+		 * within that lead time, so never let them cache for longer than half of it: half a
+		 * rotation interval for delegated keys, half the configured lead time for KMS keys.
+		 */
+		Duration bounded = keyRotationLeadTime == null ? maxAge : min(maxAge, keyRotationLeadTime.dividedBy(2));
+		this.maxAge = delegatedSigningKeyManager == null
+				? bounded
+				: min(bounded, delegatedSigningKeyManager.getRotationInterval().dividedBy(2));
+		refresh();
+		if (delegatedSigningKeyManager != null) {
+			delegatedSigningKeyManager.addKeySetListener(this::refresh);
+		}
+	}
+
+	/**
+	 * Build the public JWK for a KMS key whose public key material has been fetched.
+	 *
+	 * @param publicKey
+	 * @param keyId
+	 * @param kmsSigningAlgorithm
+	 * @return
+	 */
+	public static JWK toJwk(KmsPublicKey publicKey, String keyId, KmsSigningAlgorithm kmsSigningAlgorithm) {
+		if (publicKey.getPublicKey() instanceof RSAPublicKey) {
+			return new RSAKey.Builder((RSAPublicKey) publicKey.getPublicKey())
+					.keyID(keyId)
+					.keyUse(KeyUse.SIGNATURE)
+					.algorithm(KmsJwsAlgorithms.of(kmsSigningAlgorithm))
+					.build();
+		}
+		if (publicKey.getPublicKey() instanceof ECPublicKey) {
+			ECPublicKey ecPublicKey = (ECPublicKey) publicKey.getPublicKey();
+			return new ECKey.Builder(Curve.forECParameterSpec(ecPublicKey.getParams()), ecPublicKey)
+					.keyID(keyId)
+					.keyUse(KeyUse.SIGNATURE)
+					.algorithm(KmsJwsAlgorithms.of(kmsSigningAlgorithm))
+					.build();
+		}
+		throw new IllegalArgumentException("The public key material for " + publicKey.getId() + " has not been fetched");
+	}
+
+	public synchronized void refresh() {
+		List<JWK> keys = new ArrayList<>(kmsKeys);
+		if (delegatedSigningKeyManager != null) {
+			for (DelegatedSigningKey delegatedSigningKey : delegatedSigningKeyManager.getPublishedKeys()) {
+				keys.add(delegatedSigningKey.getPublicJwk());
+			}
+		}
+		JWKSet updated = new JWKSet(keys);
+		this.document = CachedDocument.ofJson(updated.toString(true), maxAge);
+		this.jwkSet = updated;
+	}
+
+	public JWKSet getJwkSet() {
+		return jwkSet;
+	}
+
+	public CachedDocument getDocument() {
+		return document;
+	}
+
+	@Override
+	public List<JWK> get(JWKSelector jwkSelector, SecurityContext context) {
+		return jwkSelector.select(jwkSet);
+	}
+
+	private static Duration min(Duration a, Duration b) {
+		return a.compareTo(b) <= 0 ? a : b;
+	}
+
+}
@@ -0,0 +1,40 @@
+package org.keysupport.authservice.jose;
+
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+
+import com.nimbusds.jose.JWSAlgorithm;
+
+/**
+ * Maps KMS signing algorithms to their JWS "alg" names (RFC 7518, section 3.1).
+ */
+public final class KmsJwsAlgorithms {
+
+	private KmsJwsAlgorithms() {
+	}
+
+	public static JWSAlgorithm of(KmsSigningAlgorithm kmsSigningAlgorithm) {
+		switch (kmsSigningAlgorithm) {
+			case RSASSA_PSS_SHA_256:
+				return JWSAlgorithm.PS256;
+			case RSASSA_PSS_SHA_384:
+				return JWSAlgorithm.PS384;
+			case RSASSA_PSS_SHA_512:
+				return JWSAlgorithm.PS512;
+			case RSASSA_PKCS1_V1_5_SHA_256:
+				return JWSAlgorithm.RS256;
+			case RSASSA_PKCS1_V1_5_SHA_384:
+				return JWSAlgorithm.RS384;
+			case RSASSA_PKCS1_V1_5_SHA_512:
+				return JWSAlgorithm.RS512;
+			case ECDSA_SHA_256:
+				return JWSAlgorithm.ES256;
+			case ECDSA_SHA_384:
+				return JWSAlgorithm.ES384;
+			case ECDSA_SHA_512:
+				return JWSAlgorithm.ES512;
+			default:
+				throw new IllegalArgumentException("Unsupported signing algorithm: " + kmsSigningAlgorithm);
+		}
+	}
+
+}
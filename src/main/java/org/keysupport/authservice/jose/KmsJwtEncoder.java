@@ -0,0 +1,226 @@
+package org.keysupport.authservice.jose;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.interfaces.ECPrivateKey;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.keysupport.authservice.jose.KmsSigningRouter.SigningKey;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoder;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+import org.springframework.security.oauth2.jwt.JwtEncodingException;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+
+/**
+ * {@link JwtEncoder} that signs authorization server tokens with a KMS key through
+ * {@link KmsProvider}, or with the current delegated key when a
+ * {@link DelegatedSigningKeyManager} is configured. With several KMS keys, a
+ * {@link KmsSigningRouter} picks the key for each token, and a token whose key is throttled
+ * is signed again with another.
+ * <p>
+ * Every token is signed with the algorithm published in the keys' JWKs, whatever its header
+ * requested, so a verifier that selects the key by "kid" and "alg" finds it. The authorization
+ * server requests RS256 for ID tokens unless told otherwise.
+ * <p>
+ * A signing context is kept per kid: the JOSE header is serialized and
+ * base64url-encoded once, and the JWS signer, with its JCA context pinned to the KMS provider,
+ * is reused. Per token the work is claims serialization plus one sign call. Headers carrying
+ * anything besides "alg" and "kid" take the general path and are serialized per token.
+ */
+public class KmsJwtEncoder implements JwtEncoder {
+
+	private static final Set<String> CACHEABLE_HEADERS = Set.of("alg", "kid");
+
+	private final KmsProvider kmsProvider;
+	private final KmsSigningRouter router;
+	private final KmsSigningAlgorithm defaultSigningAlgorithm;
+	private final DelegatedSigningKeyManager delegatedSigningKeyManager;
+	private final ConcurrentMap<SigningKey, SigningContext> contexts = new ConcurrentHashMap<>();
+	private final ConcurrentMap<DelegatedSigningKey, SigningContext> delegatedContexts = new ConcurrentHashMap<>();
+
+	/**
+	 * @param kmsProvider
+	 * @param privateKey the KMS private key handle
+	 * @param keyId the kid published for the KMS key
+	 * @param defaultSigningAlgorithm the algorithm published for the key, which every token is signed with
+	 * @param delegatedSigningKeyManager optional; when set, every token is signed by the current delegated key
+	 */
+	public KmsJwtEncoder(KmsProvider kmsProvider, PrivateKey privateKey, String keyId,
+			KmsSigningAlgorithm defaultSigningAlgorithm, DelegatedSigningKeyManager delegatedSigningKeyManager) {
+		this(kmsProvider, new KmsSigningRouter(List.of(new SigningKey(keyId, privateKey))), defaultSigningAlgorithm,
+				delegatedSigningKeyManager);
+	}
+
+	/**
+	 * @param kmsProvider
+	 * @param router the KMS keys to sign with, all of one key type
+	 * @param defaultSigningAlgorithm the algorithm published for the keys, which every token is signed with
+	 * @param delegatedSigningKeyManager optional; when set, every token is signed by the current delegated key
+	 */
+	public KmsJwtEncoder(KmsProvider kmsProvider, KmsSigningRouter router, KmsSigningAlgorithm defaultSigningAlgorithm,
+			DelegatedSigningKeyManager delegatedSigningKeyManager) {
+		this.kmsProvider = kmsProvider;
+		this.router = router;
+		this.defaultSigningAlgorithm = defaultSigningAlgorithm;
+		this.delegatedSigningKeyManager = delegatedSigningKeyManager;
+	}
+
+	@Override
+	public Jwt encode(JwtEncoderParameters parameters) throws JwtEncodingException {
+		JwsHeader requestedHeader = parameters.getJwsHeader();
+		JwtClaimsSet claims = parameters.getClaims();
+		Base64URL encodedClaims = Base64URL.encode(toJwtClaimsSet(claims).toString().getBytes(StandardCharsets.UTF_8));
+
+		if (delegatedSigningKeyManager != null) {
+			return sign(selectDelegatedContext(), requestedHeader, encodedClaims, claims);
+		}
+		SigningKey excluded = null;
+		for (int attempt = 1; ; attempt++) {
+			SigningKey key = router.select(excluded);
+			long started = System.nanoTime();
+			try {
+				Jwt jwt = sign(selectContext(key), requestedHeader, encodedClaims, claims);
+				router.completed(key, System.nanoTime() - started, null);
+				return jwt;
+			} catch (RuntimeException e) {
+				router.completed(key, System.nanoTime() - started, e);
+				if (attempt >= router.getKeys().size() || !KmsSigningRouter.isThrottling(e)) {
+					throw e instanceof JwtEncodingException ? e
+							: new JwtEncodingException("An error occurred while signing the JWT: " + e.getMessage(), e);
+				}
+				excluded = key;
+			}
+		}
+	}
+
+	private Jwt sign(SigningContext context, JwsHeader requestedHeader, Base64URL encodedClaims, JwtClaimsSet claims) {
+		JWSHeader header = context.header;
+		Base64URL encodedHeader = context.encodedHeader;
+		Map<String, Object> headers = context.headers;
+		if (requestedHeader != null && !CACHEABLE_HEADERS.containsAll(requestedHeader.getHeaders().keySet())) {
+			header = mergeHeader(context.header, requestedHeader);
+			encodedHeader = header.toBase64URL();
+			headers = header.toJSONObject();
+		}
+
+		String signingInput = encodedHeader.toString() + '.' + encodedClaims.toString();
+		Base64URL signature;
+		try {
+			signature = context.signer.sign(header, signingInput.getBytes(StandardCharsets.US_ASCII));
+		} catch (JOSEException e) {
+			throw new JwtEncodingException("An error occurred while signing the JWT: " + e.getMessage(), e);
+		}
+
+		Map<String, Object> jwtHeaders = headers;
+		return Jwt.withTokenValue(signingInput + '.' + signature.toString())
+				.headers(h -> h.putAll(jwtHeaders))
+				.claims(c -> c.putAll(claims.getClaims()))
+				.build();
+	}
+
+	private SigningContext selectDelegatedContext() {
+		DelegatedSigningKey key = delegatedSigningKeyManager.current();
+		SigningContext context = delegatedContexts.get(key);
+		if (context == null) {
+			// Only the published keys are ever looked up, so the map stays small.
+			delegatedContexts.keySet().retainAll(delegatedSigningKeyManager.getPublishedKeys());
+			context = delegatedContexts.computeIfAbsent(key, k -> new SigningContext(k.getHeader(), k.getSigner()));
+		}
+		return context;
+	}
+
+	private SigningContext selectContext(SigningKey key) {
+		// The router's keys are fixed, so the map holds one context per key.
+		return contexts.computeIfAbsent(key, k -> createContext(k, KmsJwsAlgorithms.of(defaultSigningAlgorithm)));
+	}
+
+	private SigningContext createContext(SigningKey key, JWSAlgorithm algorithm) {
+		JWSHeader header = new JWSHeader.Builder(algorithm).keyID(key.getKid()).build();
+		return new SigningContext(header, createSigner(key.getPrivateKey()));
+	}
+
+	private JWSSigner createSigner(PrivateKey privateKey) {
+		if (privateKey instanceof ECPrivateKey) {
+			if (defaultSigningAlgorithm.getP1363Algorithm() == null) {
+				throw new JwtEncodingException("KMS ECC keys sign with ECDSA, not " + defaultSigningAlgorithm);
+			}
+			KmsECDSASigner signer = new KmsECDSASigner(privateKey, defaultSigningAlgorithm);
+			signer.getJCAContext().setProvider(kmsProvider);
+			return signer;
+		}
+		RSASSASigner signer = new RSASSASigner(privateKey, true);
+		signer.getJCAContext().setProvider(kmsProvider);
+		return signer;
+	}
+
+	private static JWSHeader mergeHeader(JWSHeader base, JwsHeader requested) {
+		Map<String, Object> json = new HashMap<>(requested.getHeaders());
+		json.replaceAll((name, value) -> toJsonValue(value));
+		json.putAll(base.toJSONObject());
+		try {
+			return JWSHeader.parse(json);
+		} catch (ParseException e) {
+			throw new JwtEncodingException("Invalid JWS header: " + e.getMessage(), e);
+		}
+	}
+
+	static JWTClaimsSet toJwtClaimsSet(JwtClaimsSet claims) {
+		JWTClaimsSet.Builder builder = new JWTClaimsSet.Builder();
+		for (Map.Entry<String, Object> claim : claims.getClaims().entrySet()) {
+			builder.claim(claim.getKey(), toJsonValue(claim.getValue()));
+		}
+		return builder.build();
+	}
+
+	private static Object toJsonValue(Object value) {
+		if (value instanceof Instant) {
+			return Date.from((Instant) value);
+		}
+		if (value instanceof URL) {
+			return value.toString();
+		}
+		if (value instanceof Collection && !(value instanceof List)) {
+			return new ArrayList<>((Collection<?>) value);
+		}
+		return value;
+	}
+
+	private static final class SigningContext {
+
+		private final JWSHeader header;
+		private final Base64URL encodedHeader;
+		private final Map<String, Object> headers;
+		private final JWSSigner signer;
+
+		SigningContext(JWSHeader header, JWSSigner signer) {
+			this.header = header;
+			this.encodedHeader = header.toBase64URL();
+			this.headers = Map.copyOf(header.toJSONObject());
+			this.signer = signer;
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+package org.keysupport.authservice.jose;
+
+import java.security.PrivateKey;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+/**
+ * Spreads token signing over a set of KMS keys, each published under its own kid. KMS request
+ * quotas are per account and region, so keys in different regions, such as multi-Region
+ * replicas, add signing throughput; keys in the same region share it.
+ * <p>
+ * Each token goes to the better of two keys picked at random, scored by the key's requests
+ * in flight times its recent latency, inflated by its recent throttle rate. A key that fails
+ * or is throttled is taken out of rotation for a back-off that doubles while it keeps
+ * failing; when every key is out, the one due back soonest is used.
+ */
+public class KmsSigningRouter {
+
+	private static final Logger log = LoggerFactory.getLogger(KmsSigningRouter.class);
+
+	static final Duration INITIAL_BENCH = Duration.ofMillis(500);
+	static final Duration MAXIMUM_BENCH = Duration.ofSeconds(30);
+	private static final double EWMA_WEIGHT = 0.1;
+	private static final double INITIAL_LATENCY_NANOS = Duration.ofMillis(10).toNanos();
+
+	private final SigningKey[] keys;
+
+	public KmsSigningRouter(List<SigningKey> keys) {
+		if (keys.isEmpty()) {
+			throw new IllegalArgumentException("At least one signing key is required");
+		}
+		this.keys = keys.toArray(new SigningKey[0]);
+	}
+
+	public List<SigningKey> getKeys() {
+		return List.of(keys);
+	}
+
+	/**
+	 * Pick the key for the next signature; report its outcome with {@link #completed}.
+	 *
+	 * @return
+	 */
+	public SigningKey select() {
+		return select(null);
+	}
+
+	/**
+	 * @param excluded a key to avoid, such as one that just throttled this token, or null
+	 * @return
+	 */
+	public SigningKey select(SigningKey excluded) {
+		long now = System.nanoTime();
+		SigningKey selected;
+		if (keys.length == 1) {
+			selected = keys[0];
+		} else {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			int first = random.nextInt(keys.length);
+			int second = random.nextInt(keys.length - 1);
+			if (second >= first) {
+				second++;
+			}
+			selected = better(keys[first], keys[second], excluded, now);
+			if (selected == excluded || !selected.isAvailable(now)) {
+				selected = scan(excluded, now);
+			}
+		}
+		selected.inFlight.incrementAndGet();
+		return selected;
+	}
+
+	/**
+	 * @param key the key {@link #select} returned
+	 * @param elapsedNanos how long signing took
+	 * @param failure what signing threw, or null
+	 */
+	public void completed(SigningKey key, long elapsedNanos, Throwable failure) {
+		key.inFlight.decrementAndGet();
+		boolean throttled = isThrottling(failure);
+		synchronized (key) {
+			key.throttleRate += EWMA_WEIGHT * ((throttled ? 1 : 0) - key.throttleRate);
+			if (failure == null) {
+				key.latencyNanos += EWMA_WEIGHT * (elapsedNanos - key.latencyNanos);
+				key.failures = 0;
+				return;
+			}
+			long bench = Math.min(MAXIMUM_BENCH.toNanos(), INITIAL_BENCH.toNanos() << Math.min(16, key.failures));
+			key.failures++;
+			key.benchedUntil = System.nanoTime() + bench;
+		}
+		log.warn("Taking KMS signing key {} out of rotation for {} ms after {}", key.getKid(), bench(key),
+				throttled ? "throttling" : failure.toString());
+	}
+
+	/**
+	 * @param failure
+	 * @return whether KMS throttled the request, anywhere in the cause chain
+	 */
+	public static boolean isThrottling(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SdkServiceException && ((SdkServiceException) cause).isThrottlingException()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long bench(SigningKey key) {
+		return Math.max(0, (key.benchedUntil - System.nanoTime()) / 1_000_000);
+	}
+
+	private static SigningKey better(SigningKey a, SigningKey b, SigningKey excluded, long now) {
+		boolean aUsable = a != excluded && a.isAvailable(now);
+		boolean bUsable = b != excluded && b.isAvailable(now);
+		if (aUsable != bUsable) {
+			return aUsable ? a : b;
+		}
+		return a.score() <= b.score() ? a : b;
+	}
+
+	private SigningKey scan(SigningKey excluded, long now) {
+		SigningKey best = null;
+		SigningKey soonest = null;
+		for (SigningKey key : keys) {
+			if (key != excluded && key.isAvailable(now)) {
+				if (best == null || key.score() < best.score()) {
+					best = key;
+				}
+			} else if (soonest == null || key.benchedUntil - soonest.benchedUntil < 0 || soonest == excluded) {
+				soonest = key;
+			}
+		}
+		return best != null ? best : soonest;
+	}
+
+	/**
+	 * A KMS signing key, its private key handle, the kid it is published under, and what the
+	 * router has observed of it.
+	 */
+	public static final class SigningKey {
+
+		private final String kid;
+		private final PrivateKey privateKey;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private double latencyNanos = INITIAL_LATENCY_NANOS;
+		private double throttleRate;
+		private int failures;
+		private volatile long benchedUntil = System.nanoTime();
+
+		/**
+		 * @param kid
+		 * @param privateKey the KMS private key handle
+		 */
+		public SigningKey(String kid, PrivateKey privateKey) {
+			this.kid = kid;
+			this.privateKey = privateKey;
+		}
+
+		public String getKid() {
+			return kid;
+		}
+
+		public PrivateKey getPrivateKey() {
+			return privateKey;
+		}
+
+		public int getInFlight() {
+			return inFlight.get();
+		}
+
+		public boolean isAvailable() {
+			return isAvailable(System.nanoTime());
+		}
+
+		private boolean isAvailable(long now) {
+			return now - benchedUntil >= 0;
+		}
+
+		private synchronized double score() {
+			return (inFlight.get() + 1) * latencyNanos / (1 - Math.min(0.9, throttleRate));
+		}
+	}
+
+}
@@ -0,0 +1,281 @@
+package org.keysupport.authservice.jose;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsKey;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsEcdsaEncoding;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.keysupport.authservice.jose.KmsSigningRouter.SigningKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoder;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.SignedJWT;
+
+import software.amazon.awssdk.services.kms.KmsClient;
+
+/**
+ * Takes the cost of the first token off the first request after a deploy or scale-out.
+ * Spring Boot only reports the application ready, and its readiness probe only comes up,
+ * once every {@link ApplicationRunner} has returned, so this runs before traffic arrives:
+ * <ol>
+ * <li>Opens pooled connections to KMS in every region the signing keys are in, with
+ * concurrent DescribeKey requests for each key, so the TLS handshakes are done.</li>
+ * <li>Signs a few tokens per key through the application's {@link JwtEncoder}, so the
+ * router, its retry and the per-key signing contexts run against the real client, and
+ * verifies each against its published JWK.</li>
+ * <li>Loops over the parts of signing and verifying that stay in process, until the JIT has
+ * compiled them or the time budget runs out: claims serialization, JWS parsing and
+ * verification against the JWK, ECDSA DER and {@code r || s} conversion, and local
+ * verification through the KMS provider.</li>
+ * </ol>
+ * KMS is only called a bounded number of times, whatever the iteration count. The keys
+ * themselves are already resolved, in parallel, when the beans using them are created. A
+ * failure is logged and warm-up moves on, since the router takes a failing key out of
+ * rotation anyway.
+ */
+public class KmsSigningWarmup implements ApplicationRunner {
+
+	private static final Logger log = LoggerFactory.getLogger(KmsSigningWarmup.class);
+
+	private static final DefaultJWSVerifierFactory VERIFIER_FACTORY = new DefaultJWSVerifierFactory();
+
+	private final KmsClient kmsClient;
+	private final JwtEncoder jwtEncoder;
+	private final KmsProvider kmsProvider;
+	private final KmsSigningRouter router;
+	private final KmsJwkSet jwkSet;
+	private final KmsSigningAlgorithm signingAlgorithm;
+	private final int connections;
+	private final int signsPerKey;
+	private final int iterations;
+	private final Duration maxDuration;
+
+	/**
+	 * @param kmsClient
+	 * @param jwtEncoder the encoder tokens are issued with
+	 * @param kmsProvider verifies locally, as its Signature services do for callers holding the public key
+	 * @param router the KMS signing keys
+	 * @param jwkSet publishes each key's JWK under its kid
+	 * @param signingAlgorithm
+	 * @param connections connections to open per key
+	 * @param signsPerKey tokens to sign through KMS per key
+	 * @param iterations passes over the in-process signing and verification work
+	 * @param maxDuration longest those passes may take
+	 */
+	public KmsSigningWarmup(KmsClient kmsClient, JwtEncoder jwtEncoder, KmsProvider kmsProvider, KmsSigningRouter router,
+			KmsJwkSet jwkSet, KmsSigningAlgorithm signingAlgorithm, int connections, int signsPerKey, int iterations,
+			Duration maxDuration) {
+		this.kmsClient = kmsClient;
+		this.jwtEncoder = jwtEncoder;
+		this.kmsProvider = kmsProvider;
+		this.router = router;
+		this.jwkSet = jwkSet;
+		this.signingAlgorithm = signingAlgorithm;
+		this.connections = connections;
+		this.signsPerKey = signsPerKey;
+		this.iterations = iterations;
+		this.maxDuration = maxDuration;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		warmUp();
+	}
+
+	/**
+	 * @return the passes made over the in-process work
+	 */
+	public int warmUp() {
+		long started = System.nanoTime();
+		primeConnections();
+		List<SignedToken> tokens = signAndVerify();
+		int passes = exercise(tokens);
+		log.info("Warmed up KMS signing in {} ms: {} keys, {} connections each, {} tokens signed, {} in-process passes",
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), router.getKeys().size(), connections,
+				tokens.size(), passes);
+		return passes;
+	}
+
+	private void primeConnections() {
+		if (connections < 1) {
+			return;
+		}
+		List<SigningKey> keys = router.getKeys();
+		ExecutorService executor = Executors.newFixedThreadPool(keys.size() * connections, r -> {
+			Thread thread = new Thread(r, "kms-warmup");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			// Released together, so each request needs a connection of its own.
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<?>> requests = new ArrayList<>();
+			for (SigningKey key : keys) {
+				String keyId = ((KmsKey) key.getPrivateKey()).getId();
+				for (int i = 0; i < connections; i++) {
+					requests.add(executor.submit(() -> {
+						start.await();
+						return kmsClient.describeKey(request -> request.keyId(keyId));
+					}));
+				}
+			}
+			start.countDown();
+			for (Future<?> request : requests) {
+				request.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			log.warn("Could not open connections to KMS during warm-up", e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * The router spreads the tokens over the keys much as it spreads real traffic, so each key
+	 * signs about {@code signsPerKey} of them.
+	 */
+	private List<SignedToken> signAndVerify() {
+		List<SignedToken> tokens = new ArrayList<>();
+		for (int i = 0; i < router.getKeys().size() * signsPerKey; i++) {
+			try {
+				SignedToken token = new SignedToken(jwtEncoder.encode(parameters()));
+				if (token.verify()) {
+					tokens.add(token);
+				} else {
+					log.warn("Warm-up token signed with key {} did not verify against its published JWK", token.kid);
+				}
+			} catch (RuntimeException | JOSEException | ParseException e) {
+				log.warn("Could not sign a warm-up token", e);
+			}
+		}
+		return tokens;
+	}
+
+	private int exercise(List<SignedToken> tokens) {
+		if (tokens.isEmpty()) {
+			return 0;
+		}
+		long deadline = System.nanoTime() + maxDuration.toNanos();
+		int passes = 0;
+		try {
+			while (passes < iterations && System.nanoTime() - deadline < 0) {
+				SignedToken token = tokens.get(passes % tokens.size());
+				Base64URL.encode(KmsJwtEncoder.toJwtClaimsSet(parameters().getClaims()).toString().getBytes(StandardCharsets.UTF_8));
+				if (!token.verify() || !token.verifyLocally()) {
+					log.warn("Warm-up token signed with key {} stopped verifying after {} passes", token.kid, passes);
+					break;
+				}
+				passes++;
+			}
+		} catch (RuntimeException | GeneralSecurityException | JOSEException | ParseException e) {
+			log.warn("Stopped the in-process warm-up after {} passes", passes, e);
+		}
+		return passes;
+	}
+
+	private JwtEncoderParameters parameters() {
+		SignatureAlgorithm algorithm = SignatureAlgorithm.from(KmsJwsAlgorithms.of(signingAlgorithm).getName());
+		Instant now = Instant.now();
+		JwtClaimsSet claims = JwtClaimsSet.builder()
+				.issuer("https://warmup.invalid")
+				.subject("warmup")
+				.audience(List.of("warmup"))
+				.issuedAt(now)
+				.notBefore(now)
+				.expiresAt(now.plusSeconds(300))
+				.id(UUID.randomUUID().toString())
+				.claim("scope", List.of("openid", "profile"))
+				.build();
+		return JwtEncoderParameters.from(JwsHeader.with(algorithm).build(), claims);
+	}
+
+	private static PublicKey toPublicKey(JWK jwk) throws JOSEException {
+		if (jwk instanceof RSAKey) {
+			return ((RSAKey) jwk).toPublicKey();
+		}
+		if (jwk instanceof ECKey) {
+			return ((ECKey) jwk).toPublicKey();
+		}
+		return null;
+	}
+
+	/**
+	 * A token signed during warm-up, with the public key its kid is published under.
+	 */
+	private final class SignedToken {
+
+		private final String tokenValue;
+		private final String kid;
+		private final PublicKey publicKey;
+		private final boolean kmsKey;
+
+		SignedToken(Jwt jwt) throws JOSEException {
+			this.tokenValue = jwt.getTokenValue();
+			this.kid = (String) jwt.getHeaders().get("kid");
+			JWK jwk = kid == null ? null : jwkSet.getJwkSet().getKeyByKeyId(kid);
+			this.publicKey = jwk == null ? null : toPublicKey(jwk);
+			// In delegated mode the token is signed locally, with a key the router does not know.
+			this.kmsKey = router.getKeys().stream().anyMatch(key -> key.getKid().equals(kid));
+		}
+
+		boolean verify() throws JOSEException, ParseException {
+			if (publicKey == null) {
+				return false;
+			}
+			SignedJWT signed = SignedJWT.parse(tokenValue);
+			JWSVerifier verifier = VERIFIER_FACTORY.createJWSVerifier(signed.getHeader(), publicKey);
+			return signed.verify(verifier);
+		}
+
+		boolean verifyLocally() throws GeneralSecurityException {
+			if (!kmsKey) {
+				return true;
+			}
+			int dot = tokenValue.lastIndexOf('.');
+			byte[] signature = new Base64URL(tokenValue.substring(dot + 1)).decode();
+			String algorithm = signingAlgorithm.getAlgorithm();
+			if (signingAlgorithm.getP1363Algorithm() != null) {
+				algorithm = signingAlgorithm.getP1363Algorithm();
+				// The conversion KMS signatures go through on their way into a JWS.
+				signature = KmsEcdsaEncoding.derToConcat(KmsEcdsaEncoding.concatToDer(signature), signature.length);
+			}
+			Signature verifier = Signature.getInstance(algorithm, kmsProvider);
+			verifier.initVerify(publicKey);
+			verifier.update(tokenValue.substring(0, dot).getBytes(StandardCharsets.US_ASCII));
+			return verifier.verify(signature);
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package org.keysupport.authservice.jose;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import javax.crypto.SecretKey;
+
+import com.nimbusds.jose.EncryptionMethod;
+import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.util.Base64URL;
+
+/**
+ * An AES-256 data key generated by KMS, held in memory to encrypt and decrypt access tokens
+ * locally.
+ * <p>
+ * The JWE header ({@code alg} "dir", {@code enc} A256GCM, the kid and the KMS-encrypted copy
+ * of the key) is built and encoded when the key is created, since it is also the additional
+ * authenticated data of every token the key encrypts.
+ */
+public final class TokenEncryptionKey {
+
+	/**
+	 * JWE header parameter carrying the data key as encrypted by KMS, base64url encoded, so a
+	 * node that did not generate the key can recover it with one KMS Decrypt.
+	 */
+	public static final String ENCRYPTED_KEY_HEADER = "edk";
+
+	private final String keyId;
+	private final SecretKey secretKey;
+	private final byte[] encryptedKey;
+	private final Instant activatesAt;
+	private final Instant expiresAt;
+	private final JWEHeader header;
+	private final String encodedHeader;
+	private final byte[] additionalAuthenticatedData;
+
+	TokenEncryptionKey(String keyId, SecretKey secretKey, byte[] encryptedKey, Instant activatesAt, Instant expiresAt) {
+		this.keyId = keyId;
+		this.secretKey = secretKey;
+		this.encryptedKey = encryptedKey.clone();
+		this.activatesAt = activatesAt;
+		this.expiresAt = expiresAt;
+		this.header = new JWEHeader.Builder(JWEAlgorithm.DIR, EncryptionMethod.A256GCM)
+				.keyID(keyId)
+				.customParam(ENCRYPTED_KEY_HEADER, Base64URL.encode(encryptedKey).toString())
+				.build();
+		this.encodedHeader = header.toBase64URL().toString();
+		this.additionalAuthenticatedData = encodedHeader.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	public String getKeyId() {
+		return keyId;
+	}
+
+	SecretKey getSecretKey() {
+		return secretKey;
+	}
+
+	/**
+	 * @return the KMS ciphertext blob of the data key
+	 */
+	public byte[] getEncryptedKey() {
+		return encryptedKey.clone();
+	}
+
+	/**
+	 * @return when the key starts encrypting new tokens; null for a key generated by another node
+	 */
+	public Instant getActivatesAt() {
+		return activatesAt;
+	}
+
+	/**
+	 * @return when the last token the key could have encrypted expires
+	 */
+	public Instant getExpiresAt() {
+		return expiresAt;
+	}
+
+	public JWEHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return the base64url encoded header, the first part of every token the key encrypts
+	 */
+	public String getEncodedHeader() {
+		return encodedHeader;
+	}
+
+	byte[] getAdditionalAuthenticatedData() {
+		return additionalAuthenticatedData;
+	}
+
+}
@@ -0,0 +1,445 @@
+package org.keysupport.authservice.jose;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.text.ParseException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nimbusds.jose.EncryptionMethod;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DataKeySpec;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+
+/**
+ * Encrypts access tokens as compact JWEs ({@code dir}, A256GCM) under AES data keys generated
+ * by KMS, one per rotation interval.
+ * <p>
+ * Rotation mirrors {@link DelegatedSigningKeyManager}: the next data key is generated ahead of
+ * time on a background thread, and a key is kept until every token it could have encrypted
+ * has expired. Issuing or decrypting a token is a local AES-GCM operation; KMS is only called
+ * by rotation.
+ * <p>
+ * Every node generates its own data keys, so each token's header also carries the data key
+ * as encrypted by KMS ({@link TokenEncryptionKey#ENCRYPTED_KEY_HEADER}). A node that meets a
+ * key it did not generate recovers it with one KMS Decrypt, bound to the configured key and
+ * encryption context, and keeps it as long as its own keys. The kid is a hash of that
+ * ciphertext, checked before KMS is called, and each kid is sent to KMS at most once per
+ * rotation interval. Recovered keys and failed decrypts are limited per interval separately,
+ * so tokens with made-up keys cannot run up KMS requests, and cannot use up the allowance
+ * that genuine keys from other nodes are recovered under. Once made-up keys have used up the
+ * failure allowance, unknown keys are still tried through a small reserve, which a decrypt
+ * gives back when KMS recovers the key; genuine keys keep being recovered until made-up keys
+ * have used up the reserve as well.
+ */
+public class TokenEncryptionKeyManager implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(TokenEncryptionKeyManager.class);
+
+	/**
+	 * KMS encryption context of every data key, so a ciphertext generated for anything else
+	 * under the same KMS key is never accepted as a token key.
+	 */
+	public static final Map<String, String> ENCRYPTION_CONTEXT = Map.of("purpose", "keysupport-access-token");
+
+	public static final int DEFAULT_MAXIMUM_REMOTE_KEY_DECRYPTS = 32;
+
+	public static final int DEFAULT_MAXIMUM_FAILED_REMOTE_KEY_DECRYPTS = 32;
+
+	public static final int DEFAULT_MAXIMUM_RESERVED_REMOTE_KEY_DECRYPTS = 4;
+
+	private static final int IV_LENGTH = 12;
+	private static final int TAG_LENGTH = 16;
+	private static final int KEY_ID_LENGTH = 16;
+
+	private final KmsClient kmsClient;
+	private final String keyArn;
+	private final Duration rotationInterval;
+	private final Duration maxTokenLifetime;
+	private final Clock clock;
+	private final SecureRandom random = new SecureRandom();
+	private final List<TokenEncryptionKey> keys = new CopyOnWriteArrayList<>();
+	private final ConcurrentMap<String, CompletableFuture<TokenEncryptionKey>> remoteKeys = new ConcurrentHashMap<>();
+	private final AtomicInteger remoteKeyDecrypts = new AtomicInteger();
+	private final AtomicInteger failedRemoteKeyDecrypts = new AtomicInteger();
+	private final AtomicInteger reservedRemoteKeyDecrypts = new AtomicInteger();
+
+	private int maximumRemoteKeyDecrypts = DEFAULT_MAXIMUM_REMOTE_KEY_DECRYPTS;
+	private int maximumFailedRemoteKeyDecrypts = DEFAULT_MAXIMUM_FAILED_REMOTE_KEY_DECRYPTS;
+	private int maximumReservedRemoteKeyDecrypts = DEFAULT_MAXIMUM_RESERVED_REMOTE_KEY_DECRYPTS;
+	private ScheduledExecutorService scheduler;
+	// Start of the rotation interval the remote key limits count; moved only by rotate().
+	private Instant limitsStartedAt;
+
+	/**
+	 * @param kmsClient
+	 * @param keyArn the symmetric KMS key that generates and protects the data keys
+	 * @param rotationInterval how long each data key encrypts new tokens
+	 * @param maxTokenLifetime longest lifetime of an encrypted token
+	 * @param clock
+	 */
+	public TokenEncryptionKeyManager(KmsClient kmsClient, String keyArn, Duration rotationInterval,
+			Duration maxTokenLifetime, Clock clock) {
+		this.kmsClient = kmsClient;
+		this.keyArn = keyArn;
+		this.rotationInterval = rotationInterval;
+		this.maxTokenLifetime = maxTokenLifetime;
+		this.clock = clock;
+	}
+
+	/**
+	 * Generate the current and the next data key, then schedule rotation. This is the only
+	 * point where a caller waits on KMS.
+	 */
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+		Instant now = clock.instant();
+		keys.add(generateKey(now));
+		keys.add(generateKey(now.plus(rotationInterval)));
+		limitsStartedAt = now;
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "token-key-rotation");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1, rotationInterval.toMillis() / 4);
+		scheduler.scheduleAtFixedRate(this::rotate, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the newest key that is already active; never blocks
+	 */
+	public TokenEncryptionKey current() {
+		Instant now = clock.instant();
+		TokenEncryptionKey current = null;
+		for (TokenEncryptionKey key : keys) {
+			if (!key.getActivatesAt().isAfter(now)
+					&& (current == null || key.getActivatesAt().isAfter(current.getActivatesAt()))) {
+				current = key;
+			}
+		}
+		if (current == null) {
+			throw new IllegalStateException("No token encryption key is active; has start() been called?");
+		}
+		return current;
+	}
+
+	/**
+	 * @return the keys this node generated that are, were or will shortly be in use
+	 */
+	public List<TokenEncryptionKey> getKeys() {
+		return new ArrayList<>(keys);
+	}
+
+	public Duration getMaxTokenLifetime() {
+		return maxTokenLifetime;
+	}
+
+	/**
+	 * @return the clock keys are created and retired by
+	 */
+	public Clock getClock() {
+		return clock;
+	}
+
+	/**
+	 * @param maximumRemoteKeyDecrypts how many keys generated by other nodes may be recovered
+	 *            through KMS per rotation interval
+	 */
+	public void setMaximumRemoteKeyDecrypts(int maximumRemoteKeyDecrypts) {
+		this.maximumRemoteKeyDecrypts = maximumRemoteKeyDecrypts;
+	}
+
+	/**
+	 * @param maximumFailedRemoteKeyDecrypts how many KMS Decrypts of unknown keys may fail, or
+	 *            be in flight, per rotation interval before further unknown keys are refused
+	 */
+	public void setMaximumFailedRemoteKeyDecrypts(int maximumFailedRemoteKeyDecrypts) {
+		this.maximumFailedRemoteKeyDecrypts = maximumFailedRemoteKeyDecrypts;
+	}
+
+	/**
+	 * @param maximumReservedRemoteKeyDecrypts how many KMS Decrypts of unknown keys may fail, or
+	 *            be in flight, per rotation interval once the failure allowance is used up; a
+	 *            decrypt that recovers its key gives its place back
+	 */
+	public void setMaximumReservedRemoteKeyDecrypts(int maximumReservedRemoteKeyDecrypts) {
+		this.maximumReservedRemoteKeyDecrypts = maximumReservedRemoteKeyDecrypts;
+	}
+
+	/**
+	 * Encrypt the claims with the current key.
+	 *
+	 * @param claims
+	 * @return the compact serialization of the JWE
+	 * @throws JOSEException
+	 */
+	public String encrypt(JWTClaimsSet claims) throws JOSEException {
+		TokenEncryptionKey key = current();
+		byte[] iv = new byte[IV_LENGTH];
+		random.nextBytes(iv);
+		byte[] sealed;
+		try {
+			Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+			cipher.init(Cipher.ENCRYPT_MODE, key.getSecretKey(), new GCMParameterSpec(TAG_LENGTH * 8, iv));
+			cipher.updateAAD(key.getAdditionalAuthenticatedData());
+			sealed = cipher.doFinal(claims.toString().getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException e) {
+			throw new JOSEException("Token encryption failed: " + e.getMessage(), e);
+		}
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+		int ciphertextLength = sealed.length - TAG_LENGTH;
+		return key.getEncodedHeader() + ".." + encoder.encodeToString(iv) + '.'
+				+ encoder.encodeToString(Arrays.copyOf(sealed, ciphertextLength)) + '.'
+				+ encoder.encodeToString(Arrays.copyOfRange(sealed, ciphertextLength, sealed.length));
+	}
+
+	/**
+	 * Decrypt a token encrypted by any node sharing the KMS key. Expiry and the other claims
+	 * are left to the caller.
+	 *
+	 * @param token
+	 * @return the token's claims
+	 * @throws JOSEException if the token is malformed, its key unknown or it fails to decrypt
+	 */
+	public JWTClaimsSet decrypt(String token) throws JOSEException {
+		String[] parts = token.split("\\.", -1);
+		if (parts.length != 5 || !parts[1].isEmpty()) {
+			throw new JOSEException("Not a compact JWE with direct encryption");
+		}
+		TokenEncryptionKey key = findKey(parts[0]);
+		byte[] plaintext;
+		try {
+			Base64.Decoder decoder = Base64.getUrlDecoder();
+			byte[] iv = decoder.decode(parts[2]);
+			byte[] ciphertext = decoder.decode(parts[3]);
+			byte[] tag = decoder.decode(parts[4]);
+			if (iv.length != IV_LENGTH || tag.length != TAG_LENGTH) {
+				throw new JOSEException("Invalid A256GCM initialization vector or tag length");
+			}
+			Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+			cipher.init(Cipher.DECRYPT_MODE, key.getSecretKey(), new GCMParameterSpec(TAG_LENGTH * 8, iv));
+			cipher.updateAAD(parts[0].getBytes(StandardCharsets.US_ASCII));
+			cipher.update(ciphertext);
+			plaintext = cipher.doFinal(tag);
+		} catch (IllegalArgumentException | GeneralSecurityException e) {
+			throw new JOSEException("Token decryption failed", e);
+		}
+		try {
+			return JWTClaimsSet.parse(new String(plaintext, StandardCharsets.UTF_8));
+		} catch (ParseException e) {
+			throw new JOSEException("Decrypted token is not a JWT claims set", e);
+		}
+	}
+
+	private TokenEncryptionKey findKey(String encodedHeader) throws JOSEException {
+		for (TokenEncryptionKey key : keys) {
+			if (key.getEncodedHeader().equals(encodedHeader)) {
+				return key;
+			}
+		}
+		JWEHeader header;
+		try {
+			header = JWEHeader.parse(new Base64URL(encodedHeader));
+		} catch (ParseException e) {
+			throw new JOSEException("Invalid JWE header", e);
+		}
+		if (!JWEAlgorithm.DIR.equals(header.getAlgorithm()) || !EncryptionMethod.A256GCM.equals(header.getEncryptionMethod())
+				|| header.getKeyID() == null) {
+			throw new JOSEException("Unsupported JWE header; expected alg dir, enc A256GCM and a kid");
+		}
+		for (TokenEncryptionKey key : keys) {
+			if (key.getKeyId().equals(header.getKeyID())) {
+				return key;
+			}
+		}
+		return remoteKey(header);
+	}
+
+	/**
+	 * Recover a key generated by another node from the ciphertext in the token header, once per
+	 * key; concurrent requests for the same key wait for the one KMS call. Each call is charged
+	 * to the failure allowance, or once that is used up to the reserve, while in flight, and
+	 * moved to the recovered-key allowance only once KMS has decrypted it.
+	 */
+	private TokenEncryptionKey remoteKey(JWEHeader header) throws JOSEException {
+		Object encoded = header.getCustomParam(TokenEncryptionKey.ENCRYPTED_KEY_HEADER);
+		if (!(encoded instanceof String)) {
+			throw new JOSEException("Unknown token encryption key " + header.getKeyID());
+		}
+		byte[] encryptedKey = new Base64URL((String) encoded).decode();
+		String keyId = keyId(encryptedKey);
+		if (!keyId.equals(header.getKeyID())) {
+			throw new JOSEException("Token encryption key id does not match its encrypted key");
+		}
+		CompletableFuture<TokenEncryptionKey> created = new CompletableFuture<>();
+		CompletableFuture<TokenEncryptionKey> existing = remoteKeys.putIfAbsent(keyId, created);
+		if (existing == null) {
+			AtomicInteger charged = null;
+			if (remoteKeyDecrypts.get() < maximumRemoteKeyDecrypts) {
+				if (tryCharge(failedRemoteKeyDecrypts, maximumFailedRemoteKeyDecrypts)) {
+					charged = failedRemoteKeyDecrypts;
+				} else if (tryCharge(reservedRemoteKeyDecrypts, maximumReservedRemoteKeyDecrypts)) {
+					charged = reservedRemoteKeyDecrypts;
+				}
+			}
+			if (charged == null) {
+				remoteKeys.remove(keyId, created);
+				created.completeExceptionally(new JOSEException("Too many unknown token encryption keys; try again later"));
+			} else {
+				try {
+					created.complete(decryptKey(keyId, encryptedKey));
+					charged.decrementAndGet();
+					remoteKeyDecrypts.incrementAndGet();
+				} catch (RuntimeException e) {
+					// Kept, failed, until the next rotation, so a bad key is not retried per request.
+					created.completeExceptionally(e);
+				}
+			}
+			existing = created;
+		}
+		try {
+			return existing.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof JOSEException
+					? (JOSEException) cause
+					: new JOSEException("Recovering token encryption key " + keyId + " failed", cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JOSEException("Interrupted recovering token encryption key", e);
+		}
+	}
+
+	private static boolean tryCharge(AtomicInteger charges, int maximum) {
+		if (charges.incrementAndGet() > maximum) {
+			charges.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	private TokenEncryptionKey decryptKey(String keyId, byte[] encryptedKey) {
+		DecryptResponse response = kmsClient.decrypt(request -> request
+				.keyId(keyArn)
+				.ciphertextBlob(SdkBytes.fromByteArray(encryptedKey))
+				.encryptionContext(ENCRYPTION_CONTEXT));
+		byte[] plaintext = response.plaintext().asByteArray();
+		try {
+			log.info("Recovered token encryption key {} generated by another node", keyId);
+			return new TokenEncryptionKey(keyId, new SecretKeySpec(plaintext, "AES"), encryptedKey, null,
+					clock.instant().plus(retention()));
+		} finally {
+			Arrays.fill(plaintext, (byte) 0);
+		}
+	}
+
+	void rotate() {
+		try {
+			Instant now = clock.instant();
+			// Rotation runs four times per interval; the remote key limits are per interval.
+			boolean limitsExpired = !now.isBefore(limitsStartedAt.plus(rotationInterval));
+			keys.removeIf(k -> k.getExpiresAt().isBefore(now));
+			remoteKeys.values().removeIf(future -> {
+				if (future.isCompletedExceptionally()) {
+					return limitsExpired;
+				}
+				TokenEncryptionKey key = future.getNow(null);
+				return key != null && key.getExpiresAt().isBefore(now);
+			});
+			if (limitsExpired) {
+				limitsStartedAt = now;
+				remoteKeyDecrypts.set(0);
+				failedRemoteKeyDecrypts.set(0);
+				reservedRemoteKeyDecrypts.set(0);
+			}
+			Instant latest = keys.stream()
+					.map(TokenEncryptionKey::getActivatesAt)
+					.max(Comparator.naturalOrder())
+					.orElse(now);
+			if (!latest.isAfter(now)) {
+				Instant next = latest.plus(rotationInterval);
+				keys.add(generateKey(next.isAfter(now) ? next : now));
+			}
+		} catch (RuntimeException e) {
+			// The current key stays usable for another rotation interval, so retry on the next tick.
+			log.warn("Token encryption key rotation failed, will retry", e);
+		}
+	}
+
+	private TokenEncryptionKey generateKey(Instant activatesAt) {
+		GenerateDataKeyResponse response = kmsClient.generateDataKey(request -> request
+				.keyId(keyArn)
+				.keySpec(DataKeySpec.AES_256)
+				.encryptionContext(ENCRYPTION_CONTEXT));
+		byte[] plaintext = response.plaintext().asByteArray();
+		byte[] encryptedKey = response.ciphertextBlob().asByteArray();
+		try {
+			String keyId = keyId(encryptedKey);
+			// Encrypts for one rotation interval, plus one more for a late rotation, plus the last token's lifetime.
+			Instant expiresAt = activatesAt.plus(retention());
+			log.info("Generated token encryption key {} active from {} until {}", keyId, activatesAt, expiresAt);
+			return new TokenEncryptionKey(keyId, new SecretKeySpec(plaintext, "AES"), encryptedKey, activatesAt, expiresAt);
+		} finally {
+			Arrays.fill(plaintext, (byte) 0);
+		}
+	}
+
+	private Duration retention() {
+		return rotationInterval.multipliedBy(2).plus(maxTokenLifetime);
+	}
+
+	private static String keyId(byte[] encryptedKey) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(encryptedKey);
+			return Base64URL.encode(Arrays.copyOf(digest, KEY_ID_LENGTH)).toString();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+}
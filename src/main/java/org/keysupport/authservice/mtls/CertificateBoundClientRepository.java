@@ -0,0 +1,26 @@
+package org.keysupport.authservice.mtls;
+
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClientRepository;
+
+/**
+ * A {@link RegisteredClientRepository} that also finds clients by the certificate identity
+ * they are bound to, each of which belongs to at most one client. When the repository is one,
+ * {@link X509ClientAuthenticationProvider} looks a client up by its certificate rather than
+ * by the client id it claims.
+ */
+public interface CertificateBoundClientRepository extends RegisteredClientRepository {
+
+	/**
+	 * @param subjectDn a {@code tls_client_auth} subject DN, in any form RFC 4514 allows
+	 * @return the client bound to the subject, or null
+	 */
+	RegisteredClient findBySubjectDn(String subjectDn);
+
+	/**
+	 * @param x5tS256 a {@code self_signed_tls_client_auth} certificate thumbprint
+	 * @return the client bound to the certificate, or null
+	 */
+	RegisteredClient findByX5tS256(String x5tS256);
+
+}
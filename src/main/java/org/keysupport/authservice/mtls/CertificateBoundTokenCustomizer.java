@@ -0,0 +1,34 @@
+package org.keysupport.authservice.mtls;
+
+import java.util.Map;
+
+import org.keysupport.authservice.jose.JwtTokenCustomizer;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.security.oauth2.server.authorization.authentication.OAuth2ClientAuthenticationToken;
+import org.springframework.security.oauth2.server.authorization.token.JwtEncodingContext;
+
+/**
+ * Binds access tokens issued to mutual TLS authenticated clients to the client certificate,
+ * with the RFC 8705 {@code cnf} claim.
+ */
+public class CertificateBoundTokenCustomizer implements JwtTokenCustomizer {
+
+	public static final String CONFIRMATION_CLAIM = "cnf";
+	public static final String X5T_S256 = "x5t#S256";
+
+	@Override
+	public void customize(JwtEncodingContext context) {
+		if (!OAuth2TokenType.ACCESS_TOKEN.equals(context.getTokenType())) {
+			return;
+		}
+		Authentication grant = context.getAuthorizationGrant();
+		Object principal = grant == null ? null : grant.getPrincipal();
+		if (principal instanceof OAuth2ClientAuthenticationToken
+				&& ((OAuth2ClientAuthenticationToken) principal).getCredentials() instanceof ClientCertificateIdentity) {
+			ClientCertificateIdentity identity = (ClientCertificateIdentity) ((OAuth2ClientAuthenticationToken) principal).getCredentials();
+			context.getClaims().claim(CONFIRMATION_CLAIM, Map.of(X5T_S256, identity.getX5tS256()));
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package org.keysupport.authservice.mtls;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.keysupport.authservice.validation.CertificateThumbprints;
+import org.keysupport.authservice.validation.CertificateValidator;
+import org.keysupport.authservice.validation.ValidationResult;
+
+/**
+ * What the authorization server needs from a TLS client certificate, derived once: the
+ * RFC 8705 {@code x5t#S256} thumbprint, the subject DN and whether it is self-signed.
+ */
+public final class ClientCertificateIdentity {
+
+	private final X509Certificate certificate;
+	private final List<X509Certificate> chain;
+	private final String x5tS256;
+	private final X500Principal subject;
+	private final boolean selfSigned;
+
+	private ClientCertificateIdentity(X509Certificate[] chain) {
+		this.certificate = chain[0];
+		this.chain = List.of(chain);
+		this.x5tS256 = CertificateThumbprints.x5tS256(certificate);
+		this.subject = certificate.getSubjectX500Principal();
+		this.selfSigned = subject.equals(certificate.getIssuerX500Principal());
+	}
+
+	/**
+	 * @param chain the peer certificate chain, client certificate first
+	 * @return
+	 */
+	public static ClientCertificateIdentity of(X509Certificate[] chain) {
+		if (chain == null || chain.length == 0) {
+			throw new IllegalArgumentException("No client certificate");
+		}
+		return new ClientCertificateIdentity(chain.clone());
+	}
+
+	public X509Certificate getCertificate() {
+		return certificate;
+	}
+
+	public List<X509Certificate> getChain() {
+		return chain;
+	}
+
+	public String getX5tS256() {
+		return x5tS256;
+	}
+
+	public X500Principal getSubject() {
+		return subject;
+	}
+
+	public boolean isSelfSigned() {
+		return selfSigned;
+	}
+
+	/**
+	 * Validate the certificate, reusing the thumbprint computed for this identity.
+	 *
+	 * @param validator
+	 * @param validationPolicyId
+	 * @return
+	 */
+	public ValidationResult validate(CertificateValidator validator, String validationPolicyId) {
+		return validator.validate(certificate, x5tS256, validationPolicyId);
+	}
+
+	@Override
+	public String toString() {
+		return "ClientCertificateIdentity[subject=" + subject.getName() + ", x5t#S256=" + x5tS256 + "]";
+	}
+
+}
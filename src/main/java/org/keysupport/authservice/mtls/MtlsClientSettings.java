@@ -0,0 +1,53 @@
+package org.keysupport.authservice.mtls;
+
+import org.springframework.security.oauth2.core.ClientAuthenticationMethod;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+
+/**
+ * RFC 8705 client authentication methods and the {@code ClientSettings} entries that bind a
+ * registered client to its certificate.
+ */
+public final class MtlsClientSettings {
+
+	/**
+	 * PKI mutual TLS: the certificate must validate and carry the registered subject DN.
+	 */
+	public static final ClientAuthenticationMethod TLS_CLIENT_AUTH = new ClientAuthenticationMethod("tls_client_auth");
+
+	/**
+	 * Self-signed certificate mutual TLS: the certificate must be the registered one.
+	 */
+	public static final ClientAuthenticationMethod SELF_SIGNED_TLS_CLIENT_AUTH = new ClientAuthenticationMethod(
+			"self_signed_tls_client_auth");
+
+	/**
+	 * Expected subject DN for {@code tls_client_auth} (RFC 8705 {@code tls_client_auth_subject_dn}).
+	 */
+	public static final String SUBJECT_DN = "settings.client.tls-client-auth-subject-dn";
+
+	/**
+	 * Expected {@code x5t#S256} of the certificate for {@code self_signed_tls_client_auth}.
+	 */
+	public static final String X5T_S256 = "settings.client.tls-client-auth-x5t-s256";
+
+	/**
+	 * Validation policy for the client's certificate; the configured default when absent.
+	 */
+	public static final String VALIDATION_POLICY_ID = "settings.client.validation-policy-id";
+
+	private MtlsClientSettings() {
+	}
+
+	public static String getSubjectDn(RegisteredClient registeredClient) {
+		return registeredClient.getClientSettings().getSetting(SUBJECT_DN);
+	}
+
+	public static String getX5tS256(RegisteredClient registeredClient) {
+		return registeredClient.getClientSettings().getSetting(X5T_S256);
+	}
+
+	public static String getValidationPolicyId(RegisteredClient registeredClient) {
+		return registeredClient.getClientSettings().getSetting(VALIDATION_POLICY_ID);
+	}
+
+}
@@ -0,0 +1,109 @@
+package org.keysupport.authservice.mtls;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Resolves the {@link ClientCertificateIdentity} of a mutual TLS request, computing it once
+ * per TLS session.
+ * <p>
+ * The Servlet API exposes the TLS session id but not the {@code SSLSession} itself, so
+ * identities are held in a bounded map keyed by session id. A hit is only used when the
+ * request presents the same certificate the identity was derived from (normally the very
+ * same instance, as the container hands out the session's peer certificates), so a resumed
+ * or recycled session id can never carry another client's identity. Entries are dropped
+ * after {@code maxAge} even if the session lives on.
+ */
+public class TlsSessionIdentityCache {
+
+	public static final String X509_CERTIFICATE_ATTRIBUTE = "jakarta.servlet.request.X509Certificate";
+	public static final String SSL_SESSION_ID_ATTRIBUTE = "jakarta.servlet.request.ssl_session_id";
+
+	public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+	public static final Duration DEFAULT_MAX_AGE = Duration.ofHours(1);
+
+	private static final String IDENTITY_ATTRIBUTE = ClientCertificateIdentity.class.getName();
+
+	private final Map<String, Entry> sessions;
+	private final long maxAgeNanos;
+	private final AtomicLong derivations = new AtomicLong();
+
+	public TlsSessionIdentityCache() {
+		this(DEFAULT_MAXIMUM_SIZE, DEFAULT_MAX_AGE);
+	}
+
+	public TlsSessionIdentityCache(int maximumSize, Duration maxAge) {
+		this.maxAgeNanos = maxAge.toNanos();
+		this.sessions = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maximumSize;
+			}
+		});
+	}
+
+	/**
+	 * @param request
+	 * @return the identity of the presented client certificate, or null if there is none
+	 */
+	public ClientCertificateIdentity resolve(HttpServletRequest request) {
+		Object resolved = request.getAttribute(IDENTITY_ATTRIBUTE);
+		if (resolved instanceof ClientCertificateIdentity) {
+			return (ClientCertificateIdentity) resolved;
+		}
+		X509Certificate[] chain = (X509Certificate[]) request.getAttribute(X509_CERTIFICATE_ATTRIBUTE);
+		if (chain == null || chain.length == 0) {
+			return null;
+		}
+
+		String sessionId = (String) request.getAttribute(SSL_SESSION_ID_ATTRIBUTE);
+		long now = System.nanoTime();
+		Entry entry = sessionId == null ? null : sessions.get(sessionId);
+		ClientCertificateIdentity identity;
+		if (entry != null && now - entry.createdAt < maxAgeNanos && sameCertificate(entry.identity, chain[0])) {
+			identity = entry.identity;
+		} else {
+			identity = ClientCertificateIdentity.of(chain);
+			derivations.incrementAndGet();
+			if (sessionId != null) {
+				sessions.put(sessionId, new Entry(identity, now));
+			}
+		}
+		request.setAttribute(IDENTITY_ATTRIBUTE, identity);
+		return identity;
+	}
+
+	/**
+	 * @return how many identities have been derived, i.e. cache misses
+	 */
+	public long getDerivations() {
+		return derivations.get();
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+
+	private static boolean sameCertificate(ClientCertificateIdentity identity, X509Certificate certificate) {
+		return identity.getCertificate() == certificate || identity.getCertificate().equals(certificate);
+	}
+
+	private static final class Entry {
+		private final ClientCertificateIdentity identity;
+		private final long createdAt;
+
+		Entry(ClientCertificateIdentity identity, long createdAt) {
+			this.identity = identity;
+			this.createdAt = createdAt;
+		}
+	}
+
+}
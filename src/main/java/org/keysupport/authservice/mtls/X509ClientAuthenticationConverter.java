@@ -0,0 +1,67 @@
+package org.keysupport.authservice.mtls;
+
+import java.util.Collections;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.core.ClientAuthenticationMethod;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.server.authorization.authentication.OAuth2ClientAuthenticationToken;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClientRepository;
+import org.springframework.security.web.authentication.AuthenticationConverter;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Recognizes RFC 8705 client authentication: a request carrying a TLS client certificate and
+ * a {@code client_id}, with no other client credentials.
+ * <p>
+ * The method is chosen from the certificate: {@code self_signed_tls_client_auth} for a
+ * self-signed certificate, {@code tls_client_auth} otherwise. The certificate identity comes
+ * from the {@link TlsSessionIdentityCache}, so nothing is hashed or parsed per request.
+ * <p>
+ * Only requests from clients registered for that method are claimed; a public client, or one
+ * using another method, that happens to present a certificate is left to the other converters.
+ */
+public final class X509ClientAuthenticationConverter implements AuthenticationConverter {
+
+	private final TlsSessionIdentityCache identityCache;
+	private final RegisteredClientRepository registeredClientRepository;
+
+	public X509ClientAuthenticationConverter(TlsSessionIdentityCache identityCache,
+			RegisteredClientRepository registeredClientRepository) {
+		this.identityCache = identityCache;
+		this.registeredClientRepository = registeredClientRepository;
+	}
+
+	@Override
+	public Authentication convert(HttpServletRequest request) {
+		if (request.getHeader(HttpHeaders.AUTHORIZATION) != null
+				|| request.getParameter(OAuth2ParameterNames.CLIENT_SECRET) != null
+				|| request.getParameter(OAuth2ParameterNames.CLIENT_ASSERTION) != null) {
+			return null;
+		}
+		String[] clientIds = request.getParameterValues(OAuth2ParameterNames.CLIENT_ID);
+		if (clientIds == null) {
+			return null;
+		}
+		ClientCertificateIdentity identity = identityCache.resolve(request);
+		if (identity == null) {
+			return null;
+		}
+		if (clientIds.length != 1 || clientIds[0].isEmpty()) {
+			throw new OAuth2AuthenticationException(OAuth2ErrorCodes.INVALID_REQUEST);
+		}
+		ClientAuthenticationMethod method = identity.isSelfSigned()
+				? MtlsClientSettings.SELF_SIGNED_TLS_CLIENT_AUTH : MtlsClientSettings.TLS_CLIENT_AUTH;
+		RegisteredClient registeredClient = registeredClientRepository.findByClientId(clientIds[0]);
+		if (registeredClient == null || !registeredClient.getClientAuthenticationMethods().contains(method)) {
+			return null;
+		}
+		return new OAuth2ClientAuthenticationToken(clientIds[0], method, identity, Collections.emptyMap());
+	}
+
+}
@@ -0,0 +1,124 @@
+package org.keysupport.authservice.mtls;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.keysupport.authservice.validation.CertificateValidator;
+import org.keysupport.authservice.validation.ValidationResult;
+import org.keysupport.authservice.validation.ValidationServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.oauth2.core.ClientAuthenticationMethod;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.server.authorization.authentication.OAuth2ClientAuthenticationToken;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClientRepository;
+
+/**
+ * Authenticates clients using RFC 8705 mutual TLS.
+ * <p>
+ * {@code tls_client_auth} requires the certificate to validate under the client's validation
+ * policy and to carry the registered subject DN; {@code self_signed_tls_client_auth}
+ * requires its {@code x5t#S256} to equal the registered one. The authenticated token keeps
+ * the {@link ClientCertificateIdentity} as its credentials, for binding issued tokens.
+ * <p>
+ * With a {@link CertificateBoundClientRepository} the client is found through its certificate,
+ * by the indexed subject DN or {@code x5t#S256}, and must be the client it claims to be; a
+ * client id presented with another client's certificate is rejected without loading the
+ * client it names.
+ * <p>
+ * A client not registered for the method is not rejected here but left to the other
+ * providers, so a public client that presents a certificate still authenticates as one.
+ */
+public final class X509ClientAuthenticationProvider implements AuthenticationProvider {
+
+	private static final Logger log = LoggerFactory.getLogger(X509ClientAuthenticationProvider.class);
+
+	private static final String ERROR_URI = "https://datatracker.ietf.org/doc/html/rfc6749#section-3.2.1";
+
+	private final RegisteredClientRepository registeredClientRepository;
+	private final CertificateValidator certificateValidator;
+	private final String defaultValidationPolicyId;
+
+	public X509ClientAuthenticationProvider(RegisteredClientRepository registeredClientRepository,
+			CertificateValidator certificateValidator, String defaultValidationPolicyId) {
+		this.registeredClientRepository = registeredClientRepository;
+		this.certificateValidator = certificateValidator;
+		this.defaultValidationPolicyId = defaultValidationPolicyId;
+	}
+
+	@Override
+	public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+		OAuth2ClientAuthenticationToken clientAuthentication = (OAuth2ClientAuthenticationToken) authentication;
+		ClientAuthenticationMethod method = clientAuthentication.getClientAuthenticationMethod();
+		if (!MtlsClientSettings.TLS_CLIENT_AUTH.equals(method)
+				&& !MtlsClientSettings.SELF_SIGNED_TLS_CLIENT_AUTH.equals(method)) {
+			return null;
+		}
+		if (!(clientAuthentication.getCredentials() instanceof ClientCertificateIdentity)) {
+			return null;
+		}
+		ClientCertificateIdentity identity = (ClientCertificateIdentity) clientAuthentication.getCredentials();
+
+		String clientId = clientAuthentication.getPrincipal().toString();
+		RegisteredClient registeredClient = findClient(clientId, method, identity);
+		if (registeredClient == null || !registeredClient.getClientId().equals(clientId)) {
+			throw invalidClient(OAuth2ParameterNames.CLIENT_ID);
+		}
+		if (!registeredClient.getClientAuthenticationMethods().contains(method)) {
+			// Not a mutual TLS client: another provider may authenticate it, e.g. as a public client.
+			return null;
+		}
+
+		if (MtlsClientSettings.TLS_CLIENT_AUTH.equals(method)) {
+			String subjectDn = MtlsClientSettings.getSubjectDn(registeredClient);
+			if (subjectDn == null || !new X500Principal(subjectDn).equals(identity.getSubject())) {
+				throw invalidClient("tls_client_auth_subject_dn");
+			}
+			String policyId = MtlsClientSettings.getValidationPolicyId(registeredClient);
+			ValidationResult result;
+			try {
+				result = identity.validate(certificateValidator, policyId != null ? policyId : defaultValidationPolicyId);
+			} catch (ValidationServiceException e) {
+				log.warn("Unable to validate the certificate of client {}", clientId, e);
+				throw invalidClient("certificate_validation");
+			}
+			if (!result.isValid()) {
+				throw invalidClient("certificate_validation");
+			}
+		} else {
+			String x5tS256 = MtlsClientSettings.getX5tS256(registeredClient);
+			if (x5tS256 == null || !x5tS256.equals(identity.getX5tS256())) {
+				throw invalidClient("x5t#S256");
+			}
+		}
+		return new OAuth2ClientAuthenticationToken(registeredClient, method, identity);
+	}
+
+	@Override
+	public boolean supports(Class<?> authentication) {
+		return OAuth2ClientAuthenticationToken.class.isAssignableFrom(authentication);
+	}
+
+	private RegisteredClient findClient(String clientId, ClientAuthenticationMethod method,
+			ClientCertificateIdentity identity) {
+		if (!(registeredClientRepository instanceof CertificateBoundClientRepository)) {
+			return registeredClientRepository.findByClientId(clientId);
+		}
+		CertificateBoundClientRepository repository = (CertificateBoundClientRepository) registeredClientRepository;
+		return MtlsClientSettings.TLS_CLIENT_AUTH.equals(method)
+				? repository.findBySubjectDn(identity.getSubject().getName())
+				: repository.findByX5tS256(identity.getX5tS256());
+	}
+
+	private static OAuth2AuthenticationException invalidClient(String parameterName) {
+		return new OAuth2AuthenticationException(new OAuth2Error(OAuth2ErrorCodes.INVALID_CLIENT,
+				"Client authentication failed: " + parameterName, ERROR_URI));
+	}
+
+}
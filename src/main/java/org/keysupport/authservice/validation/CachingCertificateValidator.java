@@ -0,0 +1,306 @@
+package org.keysupport.authservice.validation;
+
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches validation results from another {@link CertificateValidator}, such as the
+ * {@link VssClient} or a {@link LocalCertificateValidator}, keyed by {@code x5t#S256} and
+ * validation policy id.
+ * <p>
+ * A result is reused for the policy's {@code validCacheLifetime} (or
+ * {@code inValidCacheLifetime} for a failed validation), and never past the
+ * {@code nextUpdate} the service returned. Concurrent validations of the same certificate
+ * share one remote call. Once an entry is within the last {@code refreshAhead} fraction of
+ * its lifetime, the next read still returns it but starts a background revalidation, so
+ * clients that keep presenting the certificate never wait on the service. Background
+ * revalidations run on a few daemon threads of the validator's own, with a bounded queue;
+ * one that cannot be queued is dropped and the next read tries again.
+ * <p>
+ * Once more than {@code maximumSize} results are cached, expired results are dropped first
+ * and then the least recently read, down to nine tenths of the maximum, so the clients
+ * presenting certificates most often keep their cached verdicts.
+ * <p>
+ * Service failures are not cached.
+ */
+public class CachingCertificateValidator implements CertificateValidator, AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(CachingCertificateValidator.class);
+
+	public static final double DEFAULT_REFRESH_AHEAD = 0.2;
+	public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+	static final int REFRESH_THREADS = 4;
+	static final int REFRESH_QUEUE_CAPACITY = 1_000;
+
+	private final CertificateValidator delegate;
+	private final double refreshAhead;
+	private final int maximumSize;
+	private final Executor refreshExecutor;
+	private final ExecutorService ownedExecutor;
+	private final Clock clock;
+	private final ConcurrentMap<CacheKey, Entry> entries = new ConcurrentHashMap<>();
+	private final ConcurrentMap<CacheKey, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+	private final AtomicBoolean evicting = new AtomicBoolean();
+
+	public CachingCertificateValidator(CertificateValidator delegate) {
+		this(delegate, DEFAULT_REFRESH_AHEAD, DEFAULT_MAXIMUM_SIZE, Clock.systemUTC());
+	}
+
+	/**
+	 * Revalidates in the background on the validator's own threads, stopped by {@link #close()}.
+	 *
+	 * @param delegate
+	 * @param refreshAhead fraction of an entry's lifetime, at its end, during which reads trigger a refresh
+	 * @param maximumSize
+	 * @param clock
+	 */
+	public CachingCertificateValidator(CertificateValidator delegate, double refreshAhead, int maximumSize, Clock clock) {
+		this(delegate, refreshAhead, maximumSize, null, refreshExecutor(), clock);
+	}
+
+	/**
+	 * @param delegate
+	 * @param refreshAhead fraction of an entry's lifetime, at its end, during which reads trigger a refresh
+	 * @param maximumSize
+	 * @param refreshExecutor runs background refreshes; not shut down by {@link #close()}
+	 * @param clock
+	 */
+	public CachingCertificateValidator(CertificateValidator delegate, double refreshAhead, int maximumSize,
+			Executor refreshExecutor, Clock clock) {
+		this(delegate, refreshAhead, maximumSize, refreshExecutor, null, clock);
+	}
+
+	private CachingCertificateValidator(CertificateValidator delegate, double refreshAhead, int maximumSize,
+			Executor refreshExecutor, ExecutorService ownedExecutor, Clock clock) {
+		if (refreshAhead < 0 || refreshAhead >= 1) {
+			throw new IllegalArgumentException("refreshAhead must be in [0, 1)");
+		}
+		this.delegate = delegate;
+		this.refreshAhead = refreshAhead;
+		this.maximumSize = maximumSize;
+		this.refreshExecutor = refreshExecutor != null ? refreshExecutor : ownedExecutor;
+		this.ownedExecutor = ownedExecutor;
+		this.clock = clock;
+	}
+
+	@Override
+	public ValidationResult validate(X509Certificate certificate, String validationPolicyId) {
+		return validate(certificate, CertificateThumbprints.x5tS256(certificate), validationPolicyId);
+	}
+
+	@Override
+	public ValidationResult validate(X509Certificate certificate, String x5tS256, String validationPolicyId) {
+		CacheKey key = new CacheKey(x5tS256, validationPolicyId);
+		Instant now = clock.instant();
+		Entry entry = entries.get(key);
+		if (entry != null && now.isBefore(entry.expiresAt)) {
+			entry.readAt = System.nanoTime();
+			if (!now.isBefore(entry.refreshAt)) {
+				load(key, certificate, true);
+			}
+			return entry.result;
+		}
+		return await(load(key, certificate, false)).result;
+	}
+
+	@Override
+	public ValidationPolicy getPolicy(String validationPolicyId) {
+		return delegate.getPolicy(validationPolicyId);
+	}
+
+	/**
+	 * Drop every cached result for the certificate thumbprint, e.g. after a revocation notice.
+	 *
+	 * @param x5tS256
+	 */
+	public void invalidate(String x5tS256) {
+		entries.keySet().removeIf(key -> key.x5tS256.equals(x5tS256));
+	}
+
+	/**
+	 * Drop every cached result, e.g. after new revocation information is loaded.
+	 */
+	public void invalidateAll() {
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Stop the validator's own revalidation threads; cached results are still served.
+	 */
+	@Override
+	public void close() {
+		if (ownedExecutor != null) {
+			ownedExecutor.shutdownNow();
+		}
+	}
+
+	private CompletableFuture<Entry> load(CacheKey key, X509Certificate certificate, boolean background) {
+		CompletableFuture<Entry> future = new CompletableFuture<>();
+		CompletableFuture<Entry> existing = inFlight.putIfAbsent(key, future);
+		if (existing != null) {
+			return existing;
+		}
+		Runnable task = () -> {
+			try {
+				Entry entry = fetch(key, certificate);
+				store(key, entry);
+				future.complete(entry);
+			} catch (RuntimeException e) {
+				if (background) {
+					logger.warn("Background revalidation of {} failed; serving the cached result until it expires", key, e);
+				}
+				future.completeExceptionally(e);
+			} finally {
+				inFlight.remove(key, future);
+			}
+		};
+		if (background) {
+			try {
+				refreshExecutor.execute(task);
+			} catch (RejectedExecutionException e) {
+				// The cached result is served until a later read queues the revalidation.
+				inFlight.remove(key, future);
+				future.completeExceptionally(e);
+			}
+		} else {
+			task.run();
+		}
+		return future;
+	}
+
+	private Entry fetch(CacheKey key, X509Certificate certificate) {
+		ValidationResult result = delegate.validate(certificate, key.validationPolicyId);
+		ValidationPolicy policy = delegate.getPolicy(key.validationPolicyId);
+		Duration lifetime = Duration.ofSeconds(result.isValid() ? policy.getValidCacheLifetime() : policy.getInValidCacheLifetime());
+
+		Instant now = clock.instant();
+		Instant expiresAt = now.plus(lifetime);
+		if (result.getNextUpdate() != null && result.getNextUpdate().isBefore(expiresAt)) {
+			expiresAt = result.getNextUpdate();
+		}
+		long remainingMillis = Math.max(0, Duration.between(now, expiresAt).toMillis());
+		Instant refreshAt = expiresAt.minusMillis((long) (remainingMillis * refreshAhead));
+		return new Entry(result, refreshAt, expiresAt);
+	}
+
+	private void store(CacheKey key, Entry entry) {
+		if (!entry.expiresAt.isAfter(clock.instant())) {
+			return;
+		}
+		entries.put(key, entry);
+		if (entries.size() > maximumSize) {
+			evict();
+		}
+	}
+
+	private void evict() {
+		if (!evicting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			Instant now = clock.instant();
+			entries.values().removeIf(e -> !now.isBefore(e.expiresAt));
+			// Down to nine tenths, so the sort is paid once per tenth of the cache rather than per insert.
+			int excess = entries.size() - (maximumSize - maximumSize / 10);
+			if (excess <= 0) {
+				return;
+			}
+			List<Map.Entry<CacheKey, Entry>> byRecency = new ArrayList<>(entries.entrySet());
+			byRecency.sort(Comparator.comparingLong(e -> e.getValue().readAt));
+			for (Map.Entry<CacheKey, Entry> leastRecent : byRecency.subList(0, Math.min(excess, byRecency.size()))) {
+				entries.remove(leastRecent.getKey(), leastRecent.getValue());
+			}
+		} finally {
+			evicting.set(false);
+		}
+	}
+
+	private static ExecutorService refreshExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(REFRESH_QUEUE_CAPACITY), r -> {
+					Thread thread = new Thread(r, "certificate-revalidation");
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private static Entry await(CompletableFuture<Entry> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private static final class Entry {
+		private final ValidationResult result;
+		private final Instant refreshAt;
+		private final Instant expiresAt;
+		private volatile long readAt = System.nanoTime();
+
+		Entry(ValidationResult result, Instant refreshAt, Instant expiresAt) {
+			this.result = result;
+			this.refreshAt = refreshAt;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private static final class CacheKey {
+		private final String x5tS256;
+		private final String validationPolicyId;
+
+		CacheKey(String x5tS256, String validationPolicyId) {
+			this.x5tS256 = x5tS256;
+			this.validationPolicyId = validationPolicyId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof CacheKey)) return false;
+			CacheKey other = (CacheKey) o;
+			return x5tS256.equals(other.x5tS256) && validationPolicyId.equals(other.validationPolicyId);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * x5tS256.hashCode() + validationPolicyId.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return x5tS256 + "/" + validationPolicyId;
+		}
+	}
+
+}
@@ -0,0 +1,47 @@
+package org.keysupport.authservice.validation;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+
+/**
+ * Certificate thumbprints in the forms used by RFC 8705 and the validation service.
+ */
+public final class CertificateThumbprints {
+
+	private CertificateThumbprints() {
+	}
+
+	/**
+	 * @param certificate
+	 * @return the SHA-256 hash of the DER encoding
+	 */
+	public static byte[] sha256(X509Certificate certificate) {
+		try {
+			return sha256(certificate.getEncoded());
+		} catch (CertificateEncodingException e) {
+			throw new IllegalArgumentException("Unable to encode certificate", e);
+		}
+	}
+
+	public static byte[] sha256(byte[] der) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(der);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The {@code x5t#S256} confirmation value of RFC 8705: base64url without padding.
+	 *
+	 * @param certificate
+	 * @return
+	 */
+	public static String x5tS256(X509Certificate certificate) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(sha256(certificate));
+	}
+
+}
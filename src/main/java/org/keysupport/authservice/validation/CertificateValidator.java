@@ -0,0 +1,38 @@
+package org.keysupport.authservice.validation;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * Validates an end-entity certificate against a named validation policy.
+ */
+public interface CertificateValidator {
+
+	/**
+	 * @param certificate
+	 * @param validationPolicyId
+	 * @return the validation outcome; an invalid certificate is a result, not an exception
+	 * @throws ValidationServiceException if no verdict could be obtained
+	 */
+	ValidationResult validate(X509Certificate certificate, String validationPolicyId);
+
+	/**
+	 * As {@link #validate(X509Certificate, String)}, for callers that already hold the
+	 * certificate's thumbprint.
+	 *
+	 * @param certificate
+	 * @param x5tS256 the RFC 8705 thumbprint of the certificate
+	 * @param validationPolicyId
+	 * @return
+	 */
+	default ValidationResult validate(X509Certificate certificate, String x5tS256, String validationPolicyId) {
+		return validate(certificate, validationPolicyId);
+	}
+
+	/**
+	 * @param validationPolicyId
+	 * @return the policy, including its result cache lifetimes
+	 * @throws ValidationServiceException if the policy is unknown or cannot be retrieved
+	 */
+	ValidationPolicy getPolicy(String validationPolicyId);
+
+}
@@ -0,0 +1,136 @@
+package org.keysupport.authservice.validation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedData;
+
+/**
+ * Reads certificates from CMS (PKCS #7) "certs-only" bundles, the format of the
+ * {@code cmsIntermediateHintListUri} documents referenced by validation policies.
+ * <p>
+ * Files are memory-mapped and parsed straight from the mapping, so a bundle of hundreds of
+ * certificates is never copied into a heap buffer first. Both DER and PEM
+ * ({@code -----BEGIN PKCS7-----}) encodings are accepted; PEM is base64-decoded as it is
+ * read from the mapping.
+ */
+public final class CmsCertificateBundles {
+
+	private CmsCertificateBundles() {
+	}
+
+	/**
+	 * @param bundle path to a .p7b/.p7c file
+	 * @return the certificates, in bundle order
+	 * @throws IOException if the file cannot be read or is not a CMS bundle
+	 */
+	public static List<X509Certificate> read(Path bundle) throws IOException {
+		try (FileChannel channel = FileChannel.open(bundle, StandardOpenOption.READ)) {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return parse(mapped);
+		}
+	}
+
+	/**
+	 * @param bundle DER or PEM encoded CMS bundle
+	 * @return the certificates, in bundle order
+	 * @throws IOException if the content is not a CMS bundle
+	 */
+	public static List<X509Certificate> parse(ByteBuffer bundle) throws IOException {
+		InputStream der = isPem(bundle) ? pemBody(bundle) : new ByteBufferInputStream(bundle);
+		CMSSignedData signedData;
+		try {
+			signedData = new CMSSignedData(der);
+		} catch (CMSException e) {
+			throw new IOException("Not a CMS certificate bundle", e);
+		}
+		List<X509Certificate> certificates = new ArrayList<>();
+		CertificateFactory certificateFactory;
+		try {
+			certificateFactory = CertificateFactory.getInstance("X.509");
+		} catch (CertificateException e) {
+			throw new IllegalStateException(e);
+		}
+		for (X509CertificateHolder holder : signedData.getCertificates().getMatches(null)) {
+			try {
+				certificates.add((X509Certificate) certificateFactory.generateCertificate(
+						new ByteArrayInputStream(holder.getEncoded())));
+			} catch (CertificateException e) {
+				throw new IOException("Invalid certificate in bundle: " + holder.getSubject(), e);
+			}
+		}
+		return certificates;
+	}
+
+	private static boolean isPem(ByteBuffer bundle) {
+		return bundle.remaining() > 0 && bundle.get(bundle.position()) == '-';
+	}
+
+	/**
+	 * @return the DER content between the BEGIN and END lines, decoded as it is read
+	 */
+	private static InputStream pemBody(ByteBuffer bundle) throws IOException {
+		int bodyStart = indexOf(bundle, '\n', bundle.position()) + 1;
+		// '-' is not in the base64 alphabet, so the first one after the BEGIN line starts the END line.
+		int bodyEnd = bodyStart == 0 ? -1 : indexOf(bundle, '-', bodyStart);
+		if (bodyEnd < 0) {
+			throw new IOException("Invalid PEM bundle");
+		}
+		ByteBuffer body = bundle.duplicate();
+		body.position(bodyStart).limit(bodyEnd);
+		return Base64.getMimeDecoder().wrap(new ByteBufferInputStream(body));
+	}
+
+	private static int indexOf(ByteBuffer buffer, char c, int from) {
+		for (int i = from; i < buffer.limit(); i++) {
+			if (buffer.get(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static final class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer.duplicate();
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+}
@@ -0,0 +1,375 @@
+package org.keysupport.authservice.validation;
+
+import java.io.ByteArrayInputStream;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.cert.CertPath;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * A {@link ValidationPolicy} turned into ready-to-use PKIX state: parsed trust anchors, an
+ * {@link IntermediateIndex} with the policy's excluded intermediates already removed, and a
+ * {@link PKIXParameters} template carrying the user policy set and policy flags.
+ * <p>
+ * Paths are built by walking issuer links through the index, from the end entity towards a
+ * trust anchor. Each link is checked once as the path grows (signature, issuer validity and CA
+ * flag), so a branch is dropped at its first bad link rather than after a full validation, and
+ * an issuer already found to lead nowhere is not walked again. Only complete, linked paths are
+ * checked by the JDK PKIX validator with a copy of the template, and the number of candidates
+ * per issuer and of full validations per search are capped.
+ * <p>
+ * Clients present the same few chains again and again, so what a search verifies is kept for
+ * later ones: issuer signatures that verified, and paths the PKIX validator accepted with the
+ * period all their certificates are valid in. A repeat chain is then linked without
+ * verifying a signature and, within that period, accepted without running the PKIX validator
+ * again; only validity dates and CA flags are checked per search. Both memos are bounded and
+ * start over once full. The policy, anchors and intermediates are immutable, and instances
+ * are safe for concurrent use.
+ */
+public final class CompiledPolicy {
+
+	/**
+	 * Longest path, in certificates below the trust anchor, that will be built.
+	 */
+	public static final int MAXIMUM_PATH_LENGTH = 8;
+
+	/**
+	 * Most issuer candidates tried for any one certificate.
+	 */
+	public static final int MAXIMUM_ISSUER_CANDIDATES = 8;
+
+	/**
+	 * Most complete paths handed to the PKIX validator in one search.
+	 */
+	public static final int MAXIMUM_PATH_CHECKS = 16;
+
+	/**
+	 * Most issuer links followed in one search, so a mesh of cross-certificates cannot turn
+	 * one validation into a walk of every path through it.
+	 */
+	public static final int MAXIMUM_LINKS_FOLLOWED = 256;
+
+	/**
+	 * Most verified issuer signatures kept between searches.
+	 */
+	static final int MAXIMUM_VERIFIED_LINKS = 4096;
+
+	/**
+	 * Most accepted paths kept between searches.
+	 */
+	static final int MAXIMUM_VALIDATED_PATHS = 1024;
+
+	private final ValidationPolicy policy;
+	private final IntermediateIndex intermediates;
+	private final Map<X500Principal, List<Anchor>> anchorsBySubject;
+	private final PKIXParameters template;
+	private final Map<List<X509Certificate>, Boolean> verifiedLinks = new ConcurrentHashMap<>();
+	private final Map<List<X509Certificate>, ValidityPeriod> validatedPaths = new ConcurrentHashMap<>();
+
+	private CompiledPolicy(ValidationPolicy policy, IntermediateIndex intermediates,
+			Map<X500Principal, List<Anchor>> anchorsBySubject, PKIXParameters template) {
+		this.policy = policy;
+		this.intermediates = intermediates;
+		this.anchorsBySubject = anchorsBySubject;
+		this.template = template;
+	}
+
+	/**
+	 * @param policy
+	 * @param intermediates CA certificates available for path building, e.g. from the policy's CMS hint lists
+	 * @return
+	 * @throws GeneralSecurityException if a trust anchor cannot be parsed, or the policy has none
+	 */
+	public static CompiledPolicy compile(ValidationPolicy policy, Collection<X509Certificate> intermediates)
+			throws GeneralSecurityException {
+		CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+		Set<TrustAnchor> anchors = new LinkedHashSet<>();
+		Map<X500Principal, List<Anchor>> anchorsBySubject = new HashMap<>();
+		for (ValidationPolicy.TrustAnchor trustAnchor : policy.getTrustAnchors()) {
+			X509Certificate certificate = (X509Certificate) certificateFactory.generateCertificate(
+					new ByteArrayInputStream(Base64.getMimeDecoder().decode(trustAnchor.getX509Certificate())));
+			TrustAnchor anchor = new TrustAnchor(certificate, null);
+			anchors.add(anchor);
+			anchorsBySubject.computeIfAbsent(certificate.getSubjectX500Principal(), k -> new ArrayList<>(1))
+					.add(new Anchor(anchor, KeyIdentifiers.subjectKeyIdentifier(certificate)));
+		}
+		if (anchors.isEmpty()) {
+			throw new InvalidAlgorithmParameterException("Policy " + policy.getValidationPolicyId() + " has no trust anchors");
+		}
+
+		Set<String> excluded = new HashSet<>();
+		for (ValidationPolicy.ExcludedIntermediate exclude : policy.getExcludeIntermediates()) {
+			excluded.add(exclude.getX5tS256());
+		}
+		List<X509Certificate> included = new ArrayList<>(intermediates.size());
+		for (X509Certificate certificate : intermediates) {
+			if (!excluded.contains(Base64.getEncoder().encodeToString(CertificateThumbprints.sha256(certificate)))) {
+				included.add(certificate);
+			}
+		}
+
+		PKIXParameters template = new PKIXParameters(anchors);
+		template.setInitialPolicies(new HashSet<>(policy.getUserPolicySet()));
+		template.setExplicitPolicyRequired(policy.isRequireExplicitPolicy());
+		template.setAnyPolicyInhibited(policy.isInhibitAnyPolicy());
+		template.setPolicyMappingInhibited(policy.isInhibitPolicyMapping());
+		// Revocation status is checked separately from path validation.
+		template.setRevocationEnabled(false);
+
+		anchorsBySubject.replaceAll((k, v) -> List.copyOf(v));
+		return new CompiledPolicy(policy, new IntermediateIndex(included), anchorsBySubject, template);
+	}
+
+	public ValidationPolicy getPolicy() {
+		return policy;
+	}
+
+	public IntermediateIndex getIntermediates() {
+		return intermediates;
+	}
+
+	/**
+	 * @param subject
+	 * @return the trust anchors and intermediates with the subject, e.g. to verify the CRLs it signs
+	 */
+	public List<X509Certificate> getCertificatesBySubject(X500Principal subject) {
+		List<Anchor> anchors = anchorsBySubject.getOrDefault(subject, Collections.emptyList());
+		List<X509Certificate> certificates = new ArrayList<>(intermediates.getBySubject(subject));
+		for (Anchor anchor : anchors) {
+			certificates.add(anchor.trustAnchor.getTrustedCert());
+		}
+		return certificates;
+	}
+
+	/**
+	 * Build and validate a path from the certificate to one of the policy's trust anchors.
+	 *
+	 * @param certificate the end-entity certificate
+	 * @param date the validation time
+	 * @return the validated path, end entity first and excluding the trust anchor
+	 * @throws CertPathValidatorException if no path validates, or the search gives up; carries the failure of the
+	 *         last path tried
+	 */
+	public List<X509Certificate> validate(X509Certificate certificate, Date date) throws CertPathValidatorException {
+		PathSearch search = new PathSearch(date);
+		List<X509Certificate> path = new ArrayList<>(MAXIMUM_PATH_LENGTH);
+		path.add(certificate);
+		if (search.extend(path)) {
+			return Collections.unmodifiableList(path);
+		}
+		if (search.lastFailure != null) {
+			throw search.lastFailure;
+		}
+		throw new CertPathValidatorException("No path to a trust anchor of policy " + policy.getValidationPolicyId());
+	}
+
+	/**
+	 * @return issuer signatures verified and kept for later searches
+	 */
+	int getVerifiedLinkCount() {
+		return verifiedLinks.size();
+	}
+
+	/**
+	 * @return paths accepted and kept for later searches
+	 */
+	int getValidatedPathCount() {
+		return validatedPaths.size();
+	}
+
+	private List<TrustAnchor> anchorsFor(X509Certificate certificate) {
+		List<Anchor> anchors = anchorsBySubject.getOrDefault(certificate.getIssuerX500Principal(), Collections.emptyList());
+		if (anchors.isEmpty()) {
+			return Collections.emptyList();
+		}
+		byte[] aki = KeyIdentifiers.authorityKeyIdentifier(certificate);
+		List<TrustAnchor> matching = new ArrayList<>(anchors.size());
+		for (Anchor anchor : anchors) {
+			if (aki == null || anchor.subjectKeyIdentifier == null || Arrays.equals(anchor.subjectKeyIdentifier, aki)) {
+				matching.add(anchor.trustAnchor);
+			}
+		}
+		return matching;
+	}
+
+	/**
+	 * Add to a memo, emptying it first once it holds {@code maximumSize} entries.
+	 */
+	private static <V> void remember(Map<List<X509Certificate>, V> memo, List<X509Certificate> key, V value,
+			int maximumSize) {
+		if (memo.size() >= maximumSize) {
+			memo.clear();
+		}
+		memo.put(key, value);
+	}
+
+	private static final class ValidityPeriod {
+		private final long notBefore;
+		private final long notAfter;
+
+		ValidityPeriod(List<X509Certificate> path) {
+			long notBefore = Long.MIN_VALUE;
+			long notAfter = Long.MAX_VALUE;
+			for (X509Certificate certificate : path) {
+				notBefore = Math.max(notBefore, certificate.getNotBefore().getTime());
+				notAfter = Math.min(notAfter, certificate.getNotAfter().getTime());
+			}
+			this.notBefore = notBefore;
+			this.notAfter = notAfter;
+		}
+
+		boolean contains(Date date) {
+			return date.getTime() >= notBefore && date.getTime() <= notAfter;
+		}
+	}
+
+	private static final class Anchor {
+		private final TrustAnchor trustAnchor;
+		private final byte[] subjectKeyIdentifier;
+
+		Anchor(TrustAnchor trustAnchor, byte[] subjectKeyIdentifier) {
+			this.trustAnchor = trustAnchor;
+			this.subjectKeyIdentifier = subjectKeyIdentifier;
+		}
+	}
+
+	private final class PathSearch {
+
+		private final Date date;
+		private final Set<X509Certificate> deadEnds = new HashSet<>();
+		private final Map<List<X509Certificate>, Boolean> links = new HashMap<>();
+		private int checks;
+		private int cutoffs;
+		private int linksFollowed;
+		private CertPathValidatorException lastFailure;
+
+		PathSearch(Date date) {
+			this.date = date;
+		}
+
+		boolean extend(List<X509Certificate> path) throws CertPathValidatorException {
+			X509Certificate last = path.get(path.size() - 1);
+			for (TrustAnchor anchor : anchorsFor(last)) {
+				if (issued(last, anchor.getTrustedCert()) && check(path, anchor)) {
+					return true;
+				}
+			}
+			if (path.size() >= MAXIMUM_PATH_LENGTH) {
+				cutoffs++;
+				return false;
+			}
+			int tried = 0;
+			for (X509Certificate issuer : intermediates.getIssuerCandidates(last)) {
+				if (path.contains(issuer)) {
+					cutoffs++;
+					continue;
+				}
+				if (deadEnds.contains(issuer) || !issued(last, issuer)) {
+					continue;
+				}
+				if (tried++ == MAXIMUM_ISSUER_CANDIDATES) {
+					cutoffs++;
+					break;
+				}
+				if (linksFollowed++ == MAXIMUM_LINKS_FOLLOWED) {
+					throw gaveUp(MAXIMUM_LINKS_FOLLOWED + " issuer links");
+				}
+				int checksBefore = checks;
+				int cutoffsBefore = cutoffs;
+				path.add(issuer);
+				if (extend(path)) {
+					return true;
+				}
+				path.remove(path.size() - 1);
+				if (checks == checksBefore && cutoffs == cutoffsBefore) {
+					// Everything above the issuer was searched and no anchor was reached, so no
+					// other path through it can do better.
+					deadEnds.add(issuer);
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return whether the issuer could have signed the certificate at the validation time
+		 */
+		private boolean issued(X509Certificate certificate, X509Certificate issuer) {
+			// A link met again under another prefix is not verified again.
+			return links.computeIfAbsent(List.of(certificate, issuer), k -> verifyLink(certificate, issuer));
+		}
+
+		private boolean verifyLink(X509Certificate certificate, X509Certificate issuer) {
+			if (issuer.getBasicConstraints() < 0) {
+				return false;
+			}
+			try {
+				issuer.checkValidity(date);
+				List<X509Certificate> link = List.of(certificate, issuer);
+				if (!verifiedLinks.containsKey(link)) {
+					certificate.verify(issuer.getPublicKey());
+					remember(verifiedLinks, link, Boolean.TRUE, MAXIMUM_VERIFIED_LINKS);
+				}
+				return true;
+			} catch (GeneralSecurityException | IllegalArgumentException e) {
+				lastFailure = new CertPathValidatorException("Certificate " + certificate.getSubjectX500Principal()
+						+ " is not validly issued by " + issuer.getSubjectX500Principal() + ": " + e.getMessage(), e);
+				return false;
+			}
+		}
+
+		private boolean check(List<X509Certificate> path, TrustAnchor anchor) throws CertPathValidatorException {
+			List<X509Certificate> anchored = new ArrayList<>(path.size() + 1);
+			anchored.addAll(path);
+			anchored.add(anchor.getTrustedCert());
+			ValidityPeriod validated = validatedPaths.get(anchored);
+			if (validated != null && validated.contains(date)) {
+				return true;
+			}
+			if (checks++ == MAXIMUM_PATH_CHECKS) {
+				throw gaveUp(MAXIMUM_PATH_CHECKS + " candidate paths");
+			}
+			try {
+				CertPath certPath = CertificateFactory.getInstance("X.509").generateCertPath(path);
+				PKIXParameters parameters = (PKIXParameters) template.clone();
+				parameters.setTrustAnchors(Set.of(anchor));
+				parameters.setDate(date);
+				CertPathValidator.getInstance("PKIX").validate(certPath, parameters);
+				// Only certificate validity depends on the date; the anchor's own is not checked.
+				remember(validatedPaths, List.copyOf(anchored), new ValidityPeriod(path), MAXIMUM_VALIDATED_PATHS);
+				return true;
+			} catch (CertPathValidatorException e) {
+				lastFailure = e;
+				return false;
+			} catch (GeneralSecurityException e) {
+				lastFailure = new CertPathValidatorException(e);
+				return false;
+			}
+		}
+
+		private CertPathValidatorException gaveUp(String after) {
+			return new CertPathValidatorException(
+					"Gave up building a path for policy " + policy.getValidationPolicyId() + " after " + after, lastFailure);
+		}
+	}
+
+}
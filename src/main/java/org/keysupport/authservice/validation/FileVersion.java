@@ -0,0 +1,39 @@
+package org.keysupport.authservice.validation;
+
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A file's size and modification time, by which the stores that reload files from disk, the
+ * {@link IntermediateStore} and the CRL store, tell whether a file changed since it was read.
+ */
+public final class FileVersion {
+
+	private final long size;
+	private final long lastModified;
+
+	private FileVersion(long size, long lastModified) {
+		this.size = size;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * The version of the file the given attributes were read from.
+	 */
+	public static FileVersion of(BasicFileAttributes attributes) {
+		return new FileVersion(attributes.size(), attributes.lastModifiedTime().toMillis());
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof FileVersion)) return false;
+		FileVersion other = (FileVersion) o;
+		return size == other.size && lastModified == other.lastModified;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Long.hashCode(size) + Long.hashCode(lastModified);
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.keysupport.authservice.validation;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.cert.CRL;
+import java.security.cert.CRLSelector;
+import java.security.cert.CertSelector;
+import java.security.cert.CertStore;
+import java.security.cert.CertStoreParameters;
+import java.security.cert.CertStoreSpi;
+import java.security.cert.Certificate;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.bouncycastle.asn1.ASN1OctetString;
+
+/**
+ * {@link CertStore} view of an {@link IntermediateIndex}, for JCA path builders.
+ * <p>
+ * {@link X509CertSelector}s naming a subject, a subject key identifier or an exact
+ * certificate are answered from the index; other selectors fall back to a scan. The index
+ * is read through a supplier on every query, so a store handed out once keeps following
+ * reloads.
+ */
+public final class IndexedCertStore {
+
+	public static final String TYPE = "Indexed";
+
+	private IndexedCertStore() {
+	}
+
+	/**
+	 * @param index supplies the current index
+	 * @return a store with no associated provider
+	 */
+	public static CertStore create(Supplier<IntermediateIndex> index) {
+		Parameters parameters = new Parameters(index);
+		try {
+			return new CertStore(new Spi(parameters), null, TYPE, parameters) {
+			};
+		} catch (InvalidAlgorithmParameterException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static final class Parameters implements CertStoreParameters {
+
+		private final Supplier<IntermediateIndex> index;
+
+		Parameters(Supplier<IntermediateIndex> index) {
+			this.index = index;
+		}
+
+		@Override
+		public Object clone() {
+			return this;
+		}
+	}
+
+	static final class Spi extends CertStoreSpi {
+
+		private final Supplier<IntermediateIndex> index;
+
+		Spi(CertStoreParameters parameters) throws InvalidAlgorithmParameterException {
+			super(parameters);
+			if (!(parameters instanceof Parameters)) {
+				throw new InvalidAlgorithmParameterException("Expected IndexedCertStore parameters");
+			}
+			this.index = ((Parameters) parameters).index;
+		}
+
+		@Override
+		public Collection<? extends Certificate> engineGetCertificates(CertSelector selector) {
+			IntermediateIndex current = index.get();
+			Collection<X509Certificate> candidates = current.getCertificates();
+			if (selector instanceof X509CertSelector) {
+				X509CertSelector x509Selector = (X509CertSelector) selector;
+				if (x509Selector.getCertificate() != null) {
+					X509Certificate match = current.getByX5tS256(CertificateThumbprints.x5tS256(x509Selector.getCertificate()));
+					candidates = match == null ? Collections.emptyList() : List.of(match);
+				} else if (x509Selector.getSubject() != null) {
+					candidates = current.getBySubject(x509Selector.getSubject());
+				} else if (x509Selector.getSubjectKeyIdentifier() != null) {
+					candidates = current.getBySubjectKeyIdentifier(
+							ASN1OctetString.getInstance(x509Selector.getSubjectKeyIdentifier()).getOctets());
+				}
+			}
+			if (selector == null) {
+				return candidates;
+			}
+			List<X509Certificate> matches = new ArrayList<>();
+			for (X509Certificate candidate : candidates) {
+				if (selector.match(candidate)) {
+					matches.add(candidate);
+				}
+			}
+			return matches;
+		}
+
+		@Override
+		public Collection<? extends CRL> engineGetCRLs(CRLSelector selector) {
+			return Collections.emptyList();
+		}
+	}
+
+}
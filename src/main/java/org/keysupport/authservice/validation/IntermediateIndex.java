@@ -0,0 +1,110 @@
+package org.keysupport.authservice.validation;
+
+import java.nio.ByteBuffer;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Immutable lookup of CA certificates by subject DN, subject key identifier and
+ * {@code x5t#S256}.
+ * <p>
+ * Issuer candidates for a certificate are found with one hash lookup: by its authority key
+ * identifier when present, otherwise by its issuer DN.
+ */
+public final class IntermediateIndex {
+
+	private static final IntermediateIndex EMPTY = new IntermediateIndex(List.of());
+
+	private final List<X509Certificate> certificates;
+	private final Map<X500Principal, List<X509Certificate>> bySubject;
+	private final Map<ByteBuffer, List<X509Certificate>> bySubjectKeyIdentifier;
+	private final Map<String, X509Certificate> byX5tS256;
+
+	public IntermediateIndex(Collection<X509Certificate> certificates) {
+		Map<X500Principal, List<X509Certificate>> bySubject = new HashMap<>();
+		Map<ByteBuffer, List<X509Certificate>> bySki = new HashMap<>();
+		Map<String, X509Certificate> byX5tS256 = new HashMap<>();
+		List<X509Certificate> unique = new ArrayList<>(certificates.size());
+		for (X509Certificate certificate : certificates) {
+			if (byX5tS256.putIfAbsent(CertificateThumbprints.x5tS256(certificate), certificate) != null) {
+				// Hint lists overlap; keep the first copy only.
+				continue;
+			}
+			unique.add(certificate);
+			bySubject.computeIfAbsent(certificate.getSubjectX500Principal(), k -> new ArrayList<>(1)).add(certificate);
+			byte[] ski = KeyIdentifiers.subjectKeyIdentifier(certificate);
+			if (ski != null) {
+				bySki.computeIfAbsent(ByteBuffer.wrap(ski), k -> new ArrayList<>(1)).add(certificate);
+			}
+		}
+		bySubject.replaceAll((k, v) -> List.copyOf(v));
+		bySki.replaceAll((k, v) -> List.copyOf(v));
+		this.certificates = List.copyOf(unique);
+		this.bySubject = bySubject;
+		this.bySubjectKeyIdentifier = bySki;
+		this.byX5tS256 = byX5tS256;
+	}
+
+	public static IntermediateIndex empty() {
+		return EMPTY;
+	}
+
+	public List<X509Certificate> getCertificates() {
+		return certificates;
+	}
+
+	public List<X509Certificate> getBySubject(X500Principal subject) {
+		return bySubject.getOrDefault(subject, Collections.emptyList());
+	}
+
+	public List<X509Certificate> getBySubjectKeyIdentifier(byte[] subjectKeyIdentifier) {
+		return bySubjectKeyIdentifier.getOrDefault(ByteBuffer.wrap(subjectKeyIdentifier), Collections.emptyList());
+	}
+
+	/**
+	 * @param x5tS256 base64url SHA-256 thumbprint, as in RFC 8705
+	 * @return the certificate, or null
+	 */
+	public X509Certificate getByX5tS256(String x5tS256) {
+		return byX5tS256.get(x5tS256);
+	}
+
+	/**
+	 * Certificates that may have issued the given certificate: matched by authority key
+	 * identifier and issuer DN, or by issuer DN alone when the certificate has no AKI.
+	 *
+	 * @param certificate
+	 * @return
+	 */
+	public List<X509Certificate> getIssuerCandidates(X509Certificate certificate) {
+		X500Principal issuer = certificate.getIssuerX500Principal();
+		byte[] aki = KeyIdentifiers.authorityKeyIdentifier(certificate);
+		if (aki == null) {
+			return getBySubject(issuer);
+		}
+		List<X509Certificate> candidates = getBySubjectKeyIdentifier(aki);
+		if (candidates.isEmpty()) {
+			// Issuers without an SKI extension can only be matched by name.
+			return getBySubject(issuer);
+		}
+		List<X509Certificate> matching = new ArrayList<>(candidates.size());
+		for (X509Certificate candidate : candidates) {
+			if (candidate.getSubjectX500Principal().equals(issuer)) {
+				matching.add(candidate);
+			}
+		}
+		return matching;
+	}
+
+	public int size() {
+		return certificates.size();
+	}
+
+}
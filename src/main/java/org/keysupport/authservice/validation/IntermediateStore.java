@@ -0,0 +1,148 @@
+package org.keysupport.authservice.validation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.cert.CertStore;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Intermediate certificates loaded from local CMS hint list bundles, kept current as the
+ * files change.
+ * <p>
+ * The bundles are polled for a new size or modification time. A changed set is parsed on
+ * the reload thread into a new {@link IntermediateIndex}, which then replaces the old one
+ * with a single volatile write: readers never block, and always see one complete index. A
+ * bundle that fails to parse leaves the previous index in place.
+ */
+public class IntermediateStore implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(IntermediateStore.class);
+
+	private final List<Path> bundles;
+	private final Duration pollInterval;
+	private final List<Consumer<IntermediateIndex>> listeners = new CopyOnWriteArrayList<>();
+	private final CertStore certStore = IndexedCertStore.create(this::current);
+
+	private volatile IntermediateIndex index = IntermediateIndex.empty();
+	private List<FileVersion> loadedVersions = List.of();
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param bundles .p7b files to load
+	 * @param pollInterval how often to check the files for changes
+	 */
+	public IntermediateStore(List<Path> bundles, Duration pollInterval) {
+		this.bundles = List.copyOf(bundles);
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * Load the bundles, then start watching them for changes.
+	 *
+	 * @throws IOException if a bundle cannot be read on the initial load
+	 */
+	public synchronized void start() throws IOException {
+		if (scheduler != null) {
+			return;
+		}
+		load();
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "intermediate-reload");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1, pollInterval.toMillis());
+		scheduler.scheduleWithFixedDelay(this::reloadIfChanged, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the current index; never blocks
+	 */
+	public IntermediateIndex current() {
+		return index;
+	}
+
+	/**
+	 * @return a store that always reflects the current index
+	 */
+	public CertStore getCertStore() {
+		return certStore;
+	}
+
+	/**
+	 * Called with each newly loaded index, on the thread that loaded it.
+	 *
+	 * @param listener
+	 */
+	public void addListener(Consumer<IntermediateIndex> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Reload now if any bundle changed since the last load.
+	 *
+	 * @return true if a new index was swapped in
+	 */
+	public synchronized boolean reloadIfChanged() {
+		try {
+			if (versions().equals(loadedVersions)) {
+				return false;
+			}
+			load();
+			return true;
+		} catch (IOException | RuntimeException e) {
+			log.warn("Reloading intermediate bundles failed; keeping the previous {} certificates", index.size(), e);
+			return false;
+		}
+	}
+
+	private void load() throws IOException {
+		List<FileVersion> versions = versions();
+		List<X509Certificate> certificates = new ArrayList<>();
+		for (Path bundle : bundles) {
+			certificates.addAll(CmsCertificateBundles.read(bundle));
+		}
+		IntermediateIndex loaded = new IntermediateIndex(certificates);
+		this.index = loaded;
+		this.loadedVersions = versions;
+		log.info("Loaded {} intermediate certificates from {} bundles", loaded.size(), bundles.size());
+		for (Consumer<IntermediateIndex> listener : listeners) {
+			try {
+				listener.accept(loaded);
+			} catch (RuntimeException e) {
+				log.warn("Intermediate store listener failed", e);
+			}
+		}
+	}
+
+	private List<FileVersion> versions() throws IOException {
+		List<FileVersion> versions = new ArrayList<>(bundles.size());
+		for (Path bundle : bundles) {
+			BasicFileAttributes attributes = Files.readAttributes(bundle, BasicFileAttributes.class);
+			versions.add(FileVersion.of(attributes));
+		}
+		return versions;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+}
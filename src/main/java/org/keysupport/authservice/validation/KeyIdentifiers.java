@@ -0,0 +1,52 @@
+package org.keysupport.authservice.validation;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+
+/**
+ * Subject and authority key identifiers of a certificate, used to link issuers without
+ * comparing public keys.
+ */
+final class KeyIdentifiers {
+
+	private KeyIdentifiers() {
+	}
+
+	/**
+	 * @param certificate
+	 * @return the subject key identifier, or null if the extension is absent
+	 */
+	static byte[] subjectKeyIdentifier(X509Certificate certificate) {
+		byte[] extension = certificate.getExtensionValue(Extension.subjectKeyIdentifier.getId());
+		if (extension == null) {
+			return null;
+		}
+		try {
+			return SubjectKeyIdentifier.getInstance(JcaX509ExtensionUtils.parseExtensionValue(extension)).getKeyIdentifier();
+		} catch (IOException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param certificate
+	 * @return the key identifier of the authority key identifier, or null if absent
+	 */
+	static byte[] authorityKeyIdentifier(X509Certificate certificate) {
+		byte[] extension = certificate.getExtensionValue(Extension.authorityKeyIdentifier.getId());
+		if (extension == null) {
+			return null;
+		}
+		try {
+			return AuthorityKeyIdentifier.getInstance(JcaX509ExtensionUtils.parseExtensionValue(extension)).getKeyIdentifier();
+		} catch (IOException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,134 @@
+package org.keysupport.authservice.validation;
+
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.keysupport.authservice.validation.revocation.IssuerRevocation;
+import org.keysupport.authservice.validation.revocation.RevocationStatus;
+import org.keysupport.authservice.validation.revocation.RevocationStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Validates certificates in-process against {@link CompiledPolicy compiled} validation
+ * policies, with no call to the validation service.
+ * <p>
+ * Results mirror those of the validation service: "SUCCESS" or "FAIL", with
+ * {@code nextUpdate} set to the earliest expiry in the validated path. Wrap it in a
+ * {@link CachingCertificateValidator} so repeat clients skip path validation entirely.
+ * <p>
+ * With a {@link RevocationStore}, every certificate in the validated path must also be
+ * known good to its issuer's current CRLs; a revoked certificate, or one whose issuer has
+ * no current CRL, fails. The result's {@code nextUpdate} is then also bounded by the CRLs'.
+ */
+public class LocalCertificateValidator implements CertificateValidator {
+
+	private static final Logger logger = LoggerFactory.getLogger(LocalCertificateValidator.class);
+
+	private final ConcurrentMap<String, CompiledPolicy> policies = new ConcurrentHashMap<>();
+	private final Clock clock;
+	private volatile RevocationStore revocationStore;
+
+	public LocalCertificateValidator() {
+		this(Clock.systemUTC());
+	}
+
+	public LocalCertificateValidator(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Add a policy, or atomically replace the one with the same id.
+	 *
+	 * @param compiledPolicy
+	 */
+	public void register(CompiledPolicy compiledPolicy) {
+		policies.put(compiledPolicy.getPolicy().getValidationPolicyId(), compiledPolicy);
+	}
+
+	/**
+	 * Check the revocation status of validated paths against the store's CRLs.
+	 *
+	 * @param revocationStore
+	 */
+	public void setRevocationStore(RevocationStore revocationStore) {
+		this.revocationStore = revocationStore;
+	}
+
+	/**
+	 * @param subject
+	 * @return the trust anchors and intermediates with the subject, across all registered policies
+	 */
+	public List<X509Certificate> findCertificatesBySubject(X500Principal subject) {
+		List<X509Certificate> certificates = new ArrayList<>();
+		for (CompiledPolicy compiledPolicy : policies.values()) {
+			for (X509Certificate certificate : compiledPolicy.getCertificatesBySubject(subject)) {
+				if (!certificates.contains(certificate)) {
+					certificates.add(certificate);
+				}
+			}
+		}
+		return certificates;
+	}
+
+	public CompiledPolicy getCompiledPolicy(String validationPolicyId) {
+		CompiledPolicy compiledPolicy = policies.get(validationPolicyId);
+		if (compiledPolicy == null) {
+			throw new ValidationServiceException("Unknown validation policy " + validationPolicyId);
+		}
+		return compiledPolicy;
+	}
+
+	@Override
+	public ValidationPolicy getPolicy(String validationPolicyId) {
+		return getCompiledPolicy(validationPolicyId).getPolicy();
+	}
+
+	@Override
+	public ValidationResult validate(X509Certificate certificate, String validationPolicyId) {
+		CompiledPolicy compiledPolicy = getCompiledPolicy(validationPolicyId);
+		Instant now = clock.instant();
+		String x5tS256 = CertificateThumbprints.x5tS256(certificate);
+		String subjectName = certificate.getSubjectX500Principal().getName();
+		try {
+			List<X509Certificate> path = compiledPolicy.validate(certificate, Date.from(now));
+			Instant nextUpdate = null;
+			for (X509Certificate pathCertificate : path) {
+				nextUpdate = earliest(nextUpdate, pathCertificate.getNotAfter().toInstant());
+			}
+			RevocationStore revocationStore = this.revocationStore;
+			if (revocationStore != null) {
+				for (X509Certificate pathCertificate : path) {
+					IssuerRevocation revocation = revocationStore.get(pathCertificate.getIssuerX500Principal());
+					RevocationStatus status = revocation == null
+							? RevocationStatus.UNKNOWN
+							: revocation.getStatus(pathCertificate.getSerialNumber().toByteArray(), now);
+					if (status != RevocationStatus.GOOD) {
+						logger.debug("Validation of {} under policy {} failed: revocation status of {} is {}", subjectName,
+								validationPolicyId, pathCertificate.getSubjectX500Principal().getName(), status);
+						return new ValidationResult(validationPolicyId, x5tS256, subjectName, false, "FAIL", now, null);
+					}
+					nextUpdate = earliest(nextUpdate, revocation.getNextUpdate());
+				}
+			}
+			return new ValidationResult(validationPolicyId, x5tS256, subjectName, true, "SUCCESS", now, nextUpdate);
+		} catch (CertPathValidatorException e) {
+			logger.debug("Validation of {} under policy {} failed: {}", subjectName, validationPolicyId, e.getMessage());
+			return new ValidationResult(validationPolicyId, x5tS256, subjectName, false, "FAIL", now, null);
+		}
+	}
+
+	private static Instant earliest(Instant current, Instant candidate) {
+		return current == null || (candidate != null && candidate.isBefore(current)) ? candidate : current;
+	}
+
+}
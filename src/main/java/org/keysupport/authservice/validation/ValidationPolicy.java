@@ -0,0 +1,216 @@
+package org.keysupport.authservice.validation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A validation policy as published by the validation service
+ * ({@code GET /vss/v2/policies/{validationPolicyId}}), see {@code AwsKmsRfc8705}.
+ * <p>
+ * Thumbprints in this document are standard base64 (with padding), as served by the
+ * validation service.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ValidationPolicy {
+
+	private String validationPolicyId;
+	private String validationPolicyName;
+	private String validationPolicyDescription;
+	private List<TrustAnchor> trustAnchors = new ArrayList<>();
+	private List<String> userPolicySet = new ArrayList<>();
+	private boolean inhibitPolicyMapping;
+	private boolean requireExplicitPolicy;
+	private boolean inhibitAnyPolicy;
+	private long validCacheLifetime;
+	private long inValidCacheLifetime;
+	private List<String> cmsIntermediateHintListUri = new ArrayList<>();
+	private List<ExcludedIntermediate> excludeIntermediates = new ArrayList<>();
+
+	public String getValidationPolicyId() {
+		return validationPolicyId;
+	}
+
+	public void setValidationPolicyId(String validationPolicyId) {
+		this.validationPolicyId = validationPolicyId;
+	}
+
+	public String getValidationPolicyName() {
+		return validationPolicyName;
+	}
+
+	public void setValidationPolicyName(String validationPolicyName) {
+		this.validationPolicyName = validationPolicyName;
+	}
+
+	public String getValidationPolicyDescription() {
+		return validationPolicyDescription;
+	}
+
+	public void setValidationPolicyDescription(String validationPolicyDescription) {
+		this.validationPolicyDescription = validationPolicyDescription;
+	}
+
+	public List<TrustAnchor> getTrustAnchors() {
+		return trustAnchors;
+	}
+
+	public void setTrustAnchors(List<TrustAnchor> trustAnchors) {
+		this.trustAnchors = trustAnchors;
+	}
+
+	public List<String> getUserPolicySet() {
+		return userPolicySet;
+	}
+
+	public void setUserPolicySet(List<String> userPolicySet) {
+		this.userPolicySet = userPolicySet;
+	}
+
+	public boolean isInhibitPolicyMapping() {
+		return inhibitPolicyMapping;
+	}
+
+	public void setInhibitPolicyMapping(boolean inhibitPolicyMapping) {
+		this.inhibitPolicyMapping = inhibitPolicyMapping;
+	}
+
+	public boolean isRequireExplicitPolicy() {
+		return requireExplicitPolicy;
+	}
+
+	public void setRequireExplicitPolicy(boolean requireExplicitPolicy) {
+		this.requireExplicitPolicy = requireExplicitPolicy;
+	}
+
+	public boolean isInhibitAnyPolicy() {
+		return inhibitAnyPolicy;
+	}
+
+	public void setInhibitAnyPolicy(boolean inhibitAnyPolicy) {
+		this.inhibitAnyPolicy = inhibitAnyPolicy;
+	}
+
+	/**
+	 * @return seconds a successful validation may be reused
+	 */
+	public long getValidCacheLifetime() {
+		return validCacheLifetime;
+	}
+
+	public void setValidCacheLifetime(long validCacheLifetime) {
+		this.validCacheLifetime = validCacheLifetime;
+	}
+
+	/**
+	 * @return seconds a failed validation may be reused
+	 */
+	public long getInValidCacheLifetime() {
+		return inValidCacheLifetime;
+	}
+
+	public void setInValidCacheLifetime(long inValidCacheLifetime) {
+		this.inValidCacheLifetime = inValidCacheLifetime;
+	}
+
+	public List<String> getCmsIntermediateHintListUri() {
+		return cmsIntermediateHintListUri;
+	}
+
+	public void setCmsIntermediateHintListUri(List<String> cmsIntermediateHintListUri) {
+		this.cmsIntermediateHintListUri = cmsIntermediateHintListUri;
+	}
+
+	public List<ExcludedIntermediate> getExcludeIntermediates() {
+		return excludeIntermediates;
+	}
+
+	public void setExcludeIntermediates(List<ExcludedIntermediate> excludeIntermediates) {
+		this.excludeIntermediates = excludeIntermediates;
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class TrustAnchor {
+
+		@JsonProperty("x5t#S256")
+		private String x5tS256;
+
+		private String x509Certificate;
+
+		@JsonProperty("X509SubjectName")
+		private String x509SubjectName;
+
+		public String getX5tS256() {
+			return x5tS256;
+		}
+
+		public void setX5tS256(String x5tS256) {
+			this.x5tS256 = x5tS256;
+		}
+
+		/**
+		 * @return the base64 DER certificate
+		 */
+		public String getX509Certificate() {
+			return x509Certificate;
+		}
+
+		public void setX509Certificate(String x509Certificate) {
+			this.x509Certificate = x509Certificate;
+		}
+
+		public String getX509SubjectName() {
+			return x509SubjectName;
+		}
+
+		public void setX509SubjectName(String x509SubjectName) {
+			this.x509SubjectName = x509SubjectName;
+		}
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class ExcludedIntermediate {
+
+		@JsonProperty("x5t#S256")
+		private String x5tS256;
+
+		private String x509SubjectName;
+		private String x509IssuerName;
+		private String excludeReason;
+
+		public String getX5tS256() {
+			return x5tS256;
+		}
+
+		public void setX5tS256(String x5tS256) {
+			this.x5tS256 = x5tS256;
+		}
+
+		public String getX509SubjectName() {
+			return x509SubjectName;
+		}
+
+		public void setX509SubjectName(String x509SubjectName) {
+			this.x509SubjectName = x509SubjectName;
+		}
+
+		public String getX509IssuerName() {
+			return x509IssuerName;
+		}
+
+		public void setX509IssuerName(String x509IssuerName) {
+			this.x509IssuerName = x509IssuerName;
+		}
+
+		public String getExcludeReason() {
+			return excludeReason;
+		}
+
+		public void setExcludeReason(String excludeReason) {
+			this.excludeReason = excludeReason;
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+package org.keysupport.authservice.validation;
+
+import java.time.Instant;
+
+/**
+ * Outcome of validating a certificate against a validation policy.
+ */
+public final class ValidationResult {
+
+	private final String validationPolicyId;
+	private final String x5tS256;
+	private final String subjectName;
+	private final boolean valid;
+	private final String result;
+	private final Instant validationTime;
+	private final Instant nextUpdate;
+
+	/**
+	 * @param validationPolicyId
+	 * @param x5tS256 RFC 8705 thumbprint of the validated certificate
+	 * @param subjectName
+	 * @param valid
+	 * @param result the result reported by the validator, e.g. "SUCCESS"
+	 * @param validationTime
+	 * @param nextUpdate time after which the result must not be reused; may be null
+	 */
+	public ValidationResult(String validationPolicyId, String x5tS256, String subjectName, boolean valid,
+			String result, Instant validationTime, Instant nextUpdate) {
+		this.validationPolicyId = validationPolicyId;
+		this.x5tS256 = x5tS256;
+		this.subjectName = subjectName;
+		this.valid = valid;
+		this.result = result;
+		this.validationTime = validationTime;
+		this.nextUpdate = nextUpdate;
+	}
+
+	public String getValidationPolicyId() {
+		return validationPolicyId;
+	}
+
+	public String getX5tS256() {
+		return x5tS256;
+	}
+
+	public String getSubjectName() {
+		return subjectName;
+	}
+
+	public boolean isValid() {
+		return valid;
+	}
+
+	public String getResult() {
+		return result;
+	}
+
+	public Instant getValidationTime() {
+		return validationTime;
+	}
+
+	public Instant getNextUpdate() {
+		return nextUpdate;
+	}
+
+	@Override
+	public String toString() {
+		return "ValidationResult[policy=" + validationPolicyId + ", x5t#S256=" + x5tS256 + ", result=" + result + "]";
+	}
+
+}
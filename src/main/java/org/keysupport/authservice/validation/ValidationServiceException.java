@@ -0,0 +1,19 @@
+package org.keysupport.authservice.validation;
+
+/**
+ * Raised when a certificate could not be validated at all, e.g. the validation service is
+ * unreachable or the policy is unknown.
+ */
+public class ValidationServiceException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ValidationServiceException(String message) {
+		super(message);
+	}
+
+	public ValidationServiceException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
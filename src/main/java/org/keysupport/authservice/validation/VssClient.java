@@ -0,0 +1,193 @@
+package org.keysupport.authservice.validation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Client for the reference validation service (VSS) documented in {@code AwsKmsRfc8705}.
+ * <p>
+ * Every {@link #validate(X509Certificate, String)} is a remote call; wrap it in a
+ * {@link CachingCertificateValidator} on the request path. Policies change rarely and are
+ * fetched once per id.
+ */
+public class VssClient implements CertificateValidator {
+
+	public static final URI DEFAULT_BASE_URI = URI.create("https://api.keysupport.org/vss/v2/");
+
+	private static final String SUCCESS = "SUCCESS";
+	private static final DateTimeFormatter VSS_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+	private final HttpClient httpClient;
+	private final URI baseUri;
+	private final Duration timeout;
+	private final ObjectMapper objectMapper = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+	private final ConcurrentMap<String, ValidationPolicy> policies = new ConcurrentHashMap<>();
+
+	public VssClient(URI baseUri, Duration timeout) {
+		this(HttpClient.newBuilder().connectTimeout(timeout).build(), baseUri, timeout);
+	}
+
+	public VssClient(HttpClient httpClient, URI baseUri, Duration timeout) {
+		this.httpClient = httpClient;
+		this.baseUri = baseUri.toString().endsWith("/") ? baseUri : URI.create(baseUri + "/");
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Retrieve a validation policy, fetching it from the service on first use.
+	 *
+	 * @param validationPolicyId
+	 * @return
+	 */
+	@Override
+	public ValidationPolicy getPolicy(String validationPolicyId) {
+		ValidationPolicy policy = policies.get(validationPolicyId);
+		if (policy == null) {
+			// Fetched outside the map, so the request does not hold up updates for other ids.
+			policy = fetchPolicy(validationPolicyId);
+			ValidationPolicy existing = policies.putIfAbsent(validationPolicyId, policy);
+			if (existing != null) {
+				policy = existing;
+			}
+		}
+		return policy;
+	}
+
+	/**
+	 * Retrieve the intermediate CA certificates the service uses for a policy.
+	 *
+	 * @param validationPolicyId
+	 * @return
+	 */
+	public List<X509Certificate> getIntermediates(String validationPolicyId) {
+		JsonNode response = send(HttpRequest.newBuilder(baseUri.resolve("intermediates/" + validationPolicyId))
+				.timeout(timeout)
+				.header("Accept", "application/json")
+				.GET()
+				.build());
+		List<X509Certificate> intermediates = new ArrayList<>(response.size());
+		try {
+			CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+			for (JsonNode entry : response) {
+				intermediates.add((X509Certificate) certificateFactory.generateCertificate(
+						new ByteArrayInputStream(Base64.getMimeDecoder().decode(entry.path("x509Certificate").asText()))));
+			}
+		} catch (CertificateException | IllegalArgumentException e) {
+			throw new ValidationServiceException("Invalid intermediates for " + validationPolicyId, e);
+		}
+		return intermediates;
+	}
+
+	/**
+	 * Drop cached policies so the next lookup fetches them again.
+	 */
+	public void refreshPolicies() {
+		policies.clear();
+	}
+
+	@Override
+	public ValidationResult validate(X509Certificate certificate, String validationPolicyId) {
+		ObjectNode request = objectMapper.createObjectNode();
+		request.put("validationPolicyId", validationPolicyId);
+		try {
+			request.put("x509Certificate", Base64.getEncoder().encodeToString(certificate.getEncoded()));
+		} catch (CertificateEncodingException e) {
+			throw new ValidationServiceException("Unable to encode certificate", e);
+		}
+		URI uri = baseUri.resolve("validate");
+		JsonNode response = send(HttpRequest.newBuilder(uri)
+				.timeout(timeout)
+				.header("Accept", "application/json")
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(request.toString()))
+				.build());
+
+		String result = response.path("validationResult").path("result").asText(null);
+		return new ValidationResult(validationPolicyId,
+				CertificateThumbprints.x5tS256(certificate),
+				response.path("x509SubjectName").asText(certificate.getSubjectX500Principal().getName()),
+				SUCCESS.equals(result),
+				result,
+				parseTime(uri, response.path("validationTime").asText(null)),
+				parseTime(uri, response.path("nextUpdate").asText(null)));
+	}
+
+	private ValidationPolicy fetchPolicy(String validationPolicyId) {
+		JsonNode response = send(HttpRequest.newBuilder(baseUri.resolve("policies/" + validationPolicyId))
+				.timeout(timeout)
+				.header("Accept", "application/json")
+				.GET()
+				.build());
+		try {
+			return objectMapper.treeToValue(response, ValidationPolicy.class);
+		} catch (IOException e) {
+			throw new ValidationServiceException("Invalid policy document for " + validationPolicyId, e);
+		}
+	}
+
+	private JsonNode send(HttpRequest request) {
+		HttpResponse<byte[]> response;
+		try {
+			response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+		} catch (IOException e) {
+			throw new ValidationServiceException("Validation service request failed: " + request.uri(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ValidationServiceException("Interrupted calling " + request.uri(), e);
+		}
+		if (response.statusCode() != 200) {
+			throw new ValidationServiceException("Validation service returned " + response.statusCode() + " for " + request.uri());
+		}
+		try {
+			return objectMapper.readTree(response.body());
+		} catch (IOException e) {
+			throw new ValidationServiceException("Invalid response from " + request.uri(), e);
+		}
+	}
+
+	/**
+	 * @param uri the request the time was returned for, to report a malformed time against
+	 * @param value the time in the VSS format, or in ISO-8601
+	 * @return the time, or null if there is none
+	 * @throws ValidationServiceException if the time is in neither format
+	 */
+	static Instant parseTime(URI uri, String value) {
+		if (value == null || value.isEmpty()) {
+			return null;
+		}
+		try {
+			return VSS_TIME.parse(value, Instant::from);
+		} catch (DateTimeParseException e) {
+			try {
+				return Instant.parse(value);
+			} catch (DateTimeParseException iso) {
+				iso.addSuppressed(e);
+				throw new ValidationServiceException("Invalid response from " + uri, iso);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,372 @@
+package org.keysupport.authservice.validation.revocation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.cert.X509Certificate;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+
+/**
+ * A DER encoded X.509 CRL, scanned in place.
+ * <p>
+ * Only the header fields and CRL extensions are decoded up front; the revoked certificate
+ * list is skipped over by its length and walked on demand by {@link #forEachEntry}, so a CRL
+ * of hundreds of thousands of entries is never materialized as objects the way
+ * {@link java.security.cert.X509CRL} does.
+ * <p>
+ * Indirect CRLs and CRLs scoped by an issuing distribution point (to some reasons or to
+ * user, CA or attribute certificates only) are rejected: their absence of an entry does not
+ * mean a certificate is not revoked.
+ */
+final class CrlFile {
+
+	private static final int CRL_NUMBER = 20;
+	private static final int REASON_CODE = 21;
+	private static final int DELTA_CRL_INDICATOR = 27;
+	private static final int ISSUING_DISTRIBUTION_POINT = 28;
+	private static final int CERTIFICATE_ISSUER = 29;
+
+	private static final int REMOVE_FROM_CRL = 8;
+
+	/**
+	 * Twenty octets of magnitude, plus a leading zero when the top bit is set.
+	 */
+	static final int MAXIMUM_CRL_NUMBER_LENGTH = 21;
+
+	private final DerReader der;
+	private final int tbsOffset;
+	private final int tbsEnd;
+	private final byte[] signatureAlgorithm;
+	private final int signatureOffset;
+	private final int signatureEnd;
+	private final byte[] issuer;
+	private final Instant thisUpdate;
+	private final Instant nextUpdate;
+	private final int entriesOffset;
+	private final BigInteger crlNumber;
+	private final BigInteger baseCrlNumber;
+
+	private CrlFile(DerReader der, int tbsOffset, int tbsEnd, byte[] signatureAlgorithm, int signatureOffset,
+			int signatureEnd, byte[] issuer, Instant thisUpdate, Instant nextUpdate, int entriesOffset,
+			BigInteger crlNumber, BigInteger baseCrlNumber) {
+		this.der = der;
+		this.tbsOffset = tbsOffset;
+		this.tbsEnd = tbsEnd;
+		this.signatureAlgorithm = signatureAlgorithm;
+		this.signatureOffset = signatureOffset;
+		this.signatureEnd = signatureEnd;
+		this.issuer = issuer;
+		this.thisUpdate = thisUpdate;
+		this.nextUpdate = nextUpdate;
+		this.entriesOffset = entriesOffset;
+		this.crlNumber = crlNumber;
+		this.baseCrlNumber = baseCrlNumber;
+	}
+
+	/**
+	 * @param crl a DER encoded CRL file
+	 * @return the CRL, backed by a read-only mapping of the file
+	 * @throws IOException if the file cannot be read or is not a supported CRL
+	 */
+	static CrlFile read(Path crl) throws IOException {
+		try (FileChannel channel = FileChannel.open(crl, StandardOpenOption.READ)) {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return parse(mapped);
+		}
+	}
+
+	/**
+	 * @param crl a DER encoded CRL
+	 * @return
+	 * @throws IOException if the content is not a supported CRL
+	 */
+	static CrlFile parse(ByteBuffer crl) throws IOException {
+		DerReader der = new DerReader(crl.slice());
+		der.expect(0, DerReader.SEQUENCE);
+		int tbs = der.contentOffset(0);
+		int tbsEnd = der.end(tbs);
+		int p = der.expect(tbs, DerReader.SEQUENCE);
+
+		if (der.tag(p) == DerReader.INTEGER) {
+			p = der.end(p);
+		}
+		der.expect(p, DerReader.SEQUENCE);
+		byte[] innerSignatureAlgorithm = der.copy(p, der.end(p));
+		p = der.end(p);
+		der.expect(p, DerReader.SEQUENCE);
+		byte[] issuer = der.copy(p, der.end(p));
+		p = der.end(p);
+		Instant thisUpdate = time(der, p);
+		p = der.end(p);
+		Instant nextUpdate = null;
+		if (p < tbsEnd && (der.tag(p) == DerReader.UTC_TIME || der.tag(p) == DerReader.GENERALIZED_TIME)) {
+			nextUpdate = time(der, p);
+			p = der.end(p);
+		}
+		int entries = -1;
+		if (p < tbsEnd && der.tag(p) == DerReader.SEQUENCE) {
+			entries = p;
+			p = der.end(p);
+		}
+		BigInteger crlNumber = null;
+		BigInteger baseCrlNumber = null;
+		if (p < tbsEnd && der.tag(p) == 0xa0) {
+			int extensions = der.expect(p, 0xa0);
+			int extensionsEnd = der.end(extensions);
+			for (int extension = der.expect(extensions, DerReader.SEQUENCE); extension < extensionsEnd; extension = der.end(extension)) {
+				int oid = der.expect(extension, DerReader.SEQUENCE);
+				int value = extensionValue(der, oid);
+				if (der.isIdCe(oid, CRL_NUMBER)) {
+					crlNumber = integer(der, value);
+				} else if (der.isIdCe(oid, DELTA_CRL_INDICATOR)) {
+					baseCrlNumber = integer(der, value);
+				} else if (der.isIdCe(oid, ISSUING_DISTRIBUTION_POINT)) {
+					checkIssuingDistributionPoint(der, value);
+				} else if (isCritical(der, oid)) {
+					throw new IOException("Unsupported critical CRL extension");
+				}
+			}
+		}
+
+		int signatureAlgorithmOffset = tbsEnd;
+		der.expect(signatureAlgorithmOffset, DerReader.SEQUENCE);
+		byte[] signatureAlgorithm = der.copy(signatureAlgorithmOffset, der.end(signatureAlgorithmOffset));
+		if (!Arrays.equals(signatureAlgorithm, innerSignatureAlgorithm)) {
+			throw new IOException("CRL signature algorithm does not match the signed one");
+		}
+		int signature = der.end(signatureAlgorithmOffset);
+		int signatureContent = der.expect(signature, DerReader.BIT_STRING);
+
+		return new CrlFile(der, tbs, tbsEnd, signatureAlgorithm, signatureContent + 1, der.end(signature), issuer,
+				thisUpdate, nextUpdate, entries, crlNumber, baseCrlNumber);
+	}
+
+	X500Principal getIssuer() {
+		return new X500Principal(issuer);
+	}
+
+	byte[] getEncodedIssuer() {
+		return issuer.clone();
+	}
+
+	Instant getThisUpdate() {
+		return thisUpdate;
+	}
+
+	/**
+	 * @return the next update, or null if the CRL has none
+	 */
+	Instant getNextUpdate() {
+		return nextUpdate;
+	}
+
+	/**
+	 * @return the CRL number, or null if absent
+	 */
+	BigInteger getCrlNumber() {
+		return crlNumber;
+	}
+
+	boolean isDelta() {
+		return baseCrlNumber != null;
+	}
+
+	/**
+	 * @return the delta CRL indicator's base CRL number, or null for a complete CRL
+	 */
+	BigInteger getBaseCrlNumber() {
+		return baseCrlNumber;
+	}
+
+	/**
+	 * Check the CRL signature against a candidate issuer. The signed portion is streamed
+	 * from the mapping into the verifier.
+	 *
+	 * @param issuerCertificate
+	 * @return true if the issuer may sign CRLs and its key verifies the signature
+	 */
+	boolean verify(X509Certificate issuerCertificate) {
+		boolean[] keyUsage = issuerCertificate.getKeyUsage();
+		if (keyUsage != null && (keyUsage.length < 7 || !keyUsage[6])) {
+			return false;
+		}
+		try {
+			ContentVerifier verifier = new JcaContentVerifierProviderBuilder().build(issuerCertificate)
+					.get(AlgorithmIdentifier.getInstance(signatureAlgorithm));
+			ByteBuffer tbs = der.buffer().duplicate();
+			tbs.limit(tbsEnd).position(tbsOffset);
+			byte[] chunk = new byte[8192];
+			try (OutputStream out = verifier.getOutputStream()) {
+				while (tbs.hasRemaining()) {
+					int n = Math.min(chunk.length, tbs.remaining());
+					tbs.get(chunk, 0, n);
+					out.write(chunk, 0, n);
+				}
+			}
+			return verifier.verify(der.copy(signatureOffset, signatureEnd));
+		} catch (OperatorCreationException | IOException | IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Visit each revoked certificate entry, in CRL order. Entries are only checked as they
+	 * are visited, so an indirect CRL or an unknown critical entry extension fails here.
+	 *
+	 * @param visitor
+	 * @throws IOException if an entry is malformed or unsupported
+	 */
+	void forEachEntry(EntryVisitor visitor) throws IOException {
+		if (entriesOffset < 0) {
+			return;
+		}
+		ByteBuffer buffer = der.buffer();
+		int entriesEnd = der.end(entriesOffset);
+		for (int entry = der.contentOffset(entriesOffset); entry < entriesEnd; entry = der.end(entry)) {
+			int serial = der.expect(entry, DerReader.SEQUENCE);
+			int serialContent = der.expect(serial, DerReader.INTEGER);
+			int serialLength = der.contentLength(serial);
+			if (serialLength == 0) {
+				throw new IOException("Empty serial number in CRL entry");
+			}
+			// Tolerate non-minimal encodings: the index holds the minimal two's complement form.
+			while (serialLength > 1 && isRedundant(buffer.get(serialContent), buffer.get(serialContent + 1))) {
+				serialContent++;
+				serialLength--;
+			}
+			int revocationDate = der.end(serial);
+			int p = der.end(revocationDate);
+			boolean removed = false;
+			if (p < der.end(entry)) {
+				int extensionsEnd = der.end(p);
+				for (int extension = der.expect(p, DerReader.SEQUENCE); extension < extensionsEnd; extension = der.end(extension)) {
+					int oid = der.expect(extension, DerReader.SEQUENCE);
+					int value = extensionValue(der, oid);
+					if (der.isIdCe(oid, REASON_CODE)) {
+						int reason = der.expect(value, DerReader.ENUMERATED);
+						removed = der.contentLength(value) == 1 && buffer.get(reason) == REMOVE_FROM_CRL;
+					} else if (der.isIdCe(oid, CERTIFICATE_ISSUER)) {
+						throw new IOException("Indirect CRLs are not supported");
+					} else if (isCritical(der, oid)) {
+						throw new IOException("Unsupported critical CRL entry extension");
+					}
+				}
+			}
+			visitor.visit(buffer, serialContent, serialLength, removed);
+		}
+	}
+
+	private static boolean isRedundant(byte first, byte second) {
+		return (first == 0 && second >= 0) || (first == -1 && second < 0);
+	}
+
+	/**
+	 * @return offset of the extnValue OCTET STRING's contents, for the extension whose extnID is at oid
+	 */
+	private static int extensionValue(DerReader der, int oid) throws IOException {
+		der.expect(oid, DerReader.OBJECT_IDENTIFIER);
+		int p = der.end(oid);
+		if (der.tag(p) == DerReader.BOOLEAN) {
+			p = der.end(p);
+		}
+		return der.expect(p, DerReader.OCTET_STRING);
+	}
+
+	private static boolean isCritical(DerReader der, int oid) throws IOException {
+		int p = der.end(oid);
+		return der.tag(p) == DerReader.BOOLEAN && der.buffer().get(der.contentOffset(p)) != 0;
+	}
+
+	/**
+	 * An issuing distribution point that only names the distribution point leaves the CRL
+	 * complete for its issuer; any scoping field makes it partial.
+	 */
+	private static void checkIssuingDistributionPoint(DerReader der, int value) throws IOException {
+		int end = der.end(value);
+		for (int field = der.expect(value, DerReader.SEQUENCE); field < end; field = der.end(field)) {
+			if (der.tag(field) != 0xa0) {
+				throw new IOException("Partitioned or indirect CRLs are not supported");
+			}
+		}
+	}
+
+	/**
+	 * CRL numbers are non-negative and at most 20 octets long (RFC 5280, section 5.2.3).
+	 */
+	private static BigInteger integer(DerReader der, int offset) throws IOException {
+		int content = der.expect(offset, DerReader.INTEGER);
+		int length = der.contentLength(offset);
+		if (length == 0 || length > MAXIMUM_CRL_NUMBER_LENGTH) {
+			throw new IOException("Invalid CRL number");
+		}
+		BigInteger value = new BigInteger(der.copy(content, content + length));
+		if (value.signum() < 0) {
+			throw new IOException("Invalid CRL number");
+		}
+		return value;
+	}
+
+	private static Instant time(DerReader der, int offset) throws IOException {
+		int tag = der.tag(offset);
+		if (tag != DerReader.UTC_TIME && tag != DerReader.GENERALIZED_TIME) {
+			throw new IOException("Expected a time at offset " + offset);
+		}
+		int content = der.contentOffset(offset);
+		int length = der.contentLength(offset);
+		ByteBuffer buffer = der.buffer();
+		int yearDigits = tag == DerReader.UTC_TIME ? 2 : 4;
+		if (length != yearDigits + 11 || buffer.get(content + length - 1) != 'Z') {
+			throw new IOException("Unsupported time encoding at offset " + offset);
+		}
+		int year = digits(buffer, content, yearDigits);
+		if (tag == DerReader.UTC_TIME) {
+			year += year >= 50 ? 1900 : 2000;
+		}
+		int p = content + yearDigits;
+		try {
+			return LocalDateTime.of(year, digits(buffer, p, 2), digits(buffer, p + 2, 2), digits(buffer, p + 4, 2),
+					digits(buffer, p + 6, 2), digits(buffer, p + 8, 2)).toInstant(ZoneOffset.UTC);
+		} catch (DateTimeException e) {
+			throw new IOException("Invalid time at offset " + offset, e);
+		}
+	}
+
+	private static int digits(ByteBuffer buffer, int offset, int count) throws IOException {
+		int value = 0;
+		for (int i = 0; i < count; i++) {
+			int digit = buffer.get(offset + i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new IOException("Invalid digit in time at offset " + (offset + i));
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Receives the minimal two's complement content octets of each revoked serial number,
+	 * in place in the CRL buffer.
+	 */
+	interface EntryVisitor {
+
+		void visit(ByteBuffer buffer, int offset, int length, boolean removeFromCrl) throws IOException;
+
+	}
+
+}
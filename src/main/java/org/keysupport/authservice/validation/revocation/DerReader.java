@@ -0,0 +1,126 @@
+package org.keysupport.authservice.validation.revocation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Minimal DER walker over a buffer, addressed by absolute offsets so a large structure can be
+ * traversed in place, without copying or building an object tree.
+ * <p>
+ * Only definite lengths of up to four octets and single-octet tags are supported, which
+ * covers everything in an X.509 CRL.
+ */
+final class DerReader {
+
+	static final int BOOLEAN = 0x01;
+	static final int INTEGER = 0x02;
+	static final int BIT_STRING = 0x03;
+	static final int OCTET_STRING = 0x04;
+	static final int OBJECT_IDENTIFIER = 0x06;
+	static final int ENUMERATED = 0x0a;
+	static final int UTC_TIME = 0x17;
+	static final int GENERALIZED_TIME = 0x18;
+	static final int SEQUENCE = 0x30;
+
+	private final ByteBuffer buffer;
+	private final int limit;
+
+	DerReader(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.limit = buffer.limit();
+	}
+
+	ByteBuffer buffer() {
+		return buffer;
+	}
+
+	int tag(int offset) {
+		return buffer.get(offset) & 0xff;
+	}
+
+	/**
+	 * @param offset start of a TLV
+	 * @return start of its contents
+	 */
+	int contentOffset(int offset) throws IOException {
+		int first = lengthOctet(offset);
+		return first < 0x80 ? offset + 2 : offset + 2 + (first & 0x7f);
+	}
+
+	int contentLength(int offset) throws IOException {
+		int first = lengthOctet(offset);
+		if (first < 0x80) {
+			return checked(offset + 2, first);
+		}
+		int octets = first & 0x7f;
+		if (octets == 0 || octets > 4) {
+			throw new IOException("Unsupported DER length at offset " + offset);
+		}
+		if (offset + 2 + octets > limit) {
+			throw new IOException("Truncated DER length at offset " + offset);
+		}
+		long length = 0;
+		for (int i = 0; i < octets; i++) {
+			length = (length << 8) | (buffer.get(offset + 2 + i) & 0xff);
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("DER length too large at offset " + offset);
+		}
+		return checked(offset + 2 + octets, (int) length);
+	}
+
+	/**
+	 * @param offset start of a TLV
+	 * @return offset just past it
+	 */
+	int end(int offset) throws IOException {
+		return contentOffset(offset) + contentLength(offset);
+	}
+
+	/**
+	 * @param offset start of a TLV
+	 * @param tag the expected tag
+	 * @return offset of its contents
+	 * @throws IOException if the TLV has a different tag
+	 */
+	int expect(int offset, int tag) throws IOException {
+		if (offset >= limit || tag(offset) != tag) {
+			throw new IOException(String.format("Expected DER tag 0x%02x at offset %d", tag, offset));
+		}
+		return contentOffset(offset);
+	}
+
+	/**
+	 * @param offset start of an OBJECT IDENTIFIER
+	 * @param arc last arc of an {@code id-ce} (2.5.29) identifier
+	 * @return true if the identifier is {@code id-ce.arc}
+	 */
+	boolean isIdCe(int offset, int arc) throws IOException {
+		int content = contentOffset(offset);
+		return contentLength(offset) == 3
+				&& buffer.get(content) == 0x55
+				&& buffer.get(content + 1) == 0x1d
+				&& (buffer.get(content + 2) & 0xff) == arc;
+	}
+
+	byte[] copy(int from, int to) {
+		byte[] bytes = new byte[to - from];
+		buffer.get(from, bytes);
+		return bytes;
+	}
+
+	private int lengthOctet(int offset) throws IOException {
+		if (offset + 2 > limit) {
+			throw new IOException("Truncated DER at offset " + offset);
+		}
+		return buffer.get(offset + 1) & 0xff;
+	}
+
+	private int checked(int content, int length) throws IOException {
+		if (content + length > limit || content + length < content) {
+			throw new IOException("DER value at offset " + content + " overruns the buffer");
+		}
+		return length;
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.keysupport.authservice.validation.revocation;
+
+import java.time.Instant;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * The revocation information held for one issuer: the index of its latest complete CRL and,
+ * when one applies to it, the index of its latest delta CRL.
+ * <p>
+ * Deltas are cumulative since their base, so applying one is a matter of consulting it
+ * first: an entry there (revoked, or removed from the CRL) overrides the complete CRL. A new
+ * delta replaces the old one without touching the complete CRL's index. Instances are
+ * immutable.
+ */
+public final class IssuerRevocation {
+
+	private final X500Principal issuer;
+	private final SerialIndex complete;
+	private final SerialIndex delta;
+
+	IssuerRevocation(X500Principal issuer, SerialIndex complete, SerialIndex delta) {
+		this.issuer = issuer;
+		this.complete = complete;
+		this.delta = delta;
+	}
+
+	public X500Principal getIssuer() {
+		return issuer;
+	}
+
+	/**
+	 * @return the complete CRL index, or null if only a delta has been loaded
+	 */
+	public SerialIndex getComplete() {
+		return complete;
+	}
+
+	/**
+	 * @return the delta CRL index, or null
+	 */
+	public SerialIndex getDelta() {
+		return delta;
+	}
+
+	/**
+	 * @param serial minimal two's complement octets of the serial number
+	 * @param now
+	 * @return the status; {@link RevocationStatus#UNKNOWN} without a complete CRL, or once a
+	 *         CRL in use is past its next update
+	 */
+	public RevocationStatus getStatus(byte[] serial, Instant now) {
+		if (!isCurrent(now)) {
+			return RevocationStatus.UNKNOWN;
+		}
+		int status = isDeltaApplicable() ? delta.find(serial) : SerialIndex.NOT_FOUND;
+		if (status == SerialIndex.NOT_FOUND) {
+			status = complete.find(serial);
+		}
+		return status == SerialIndex.REVOKED ? RevocationStatus.REVOKED : RevocationStatus.GOOD;
+	}
+
+	/**
+	 * @param now
+	 * @return true if a complete CRL is loaded and neither it nor an applicable delta is past its next update
+	 */
+	public boolean isCurrent(Instant now) {
+		Instant nextUpdate = getNextUpdate();
+		return complete != null && (nextUpdate == null || now.isBefore(nextUpdate));
+	}
+
+	/**
+	 * @return the earliest next update of the CRLs in use, or null if they have none
+	 */
+	public Instant getNextUpdate() {
+		Instant nextUpdate = complete == null ? null : complete.getNextUpdate();
+		if (isDeltaApplicable() && delta.getNextUpdate() != null
+				&& (nextUpdate == null || delta.getNextUpdate().isBefore(nextUpdate))) {
+			nextUpdate = delta.getNextUpdate();
+		}
+		return nextUpdate;
+	}
+
+	/**
+	 * A delta applies to a complete CRL at least as new as its base, and only while it is
+	 * newer than that complete CRL (RFC 5280, section 5.2.4).
+	 */
+	boolean isDeltaApplicable() {
+		return complete != null && delta != null
+				&& complete.getCrlNumber() != null && delta.getCrlNumber() != null
+				&& complete.getCrlNumber().compareTo(delta.getBaseCrlNumber()) >= 0
+				&& delta.getCrlNumber().compareTo(complete.getCrlNumber()) > 0;
+	}
+
+	IssuerRevocation withComplete(SerialIndex complete) {
+		return new IssuerRevocation(issuer, complete, delta);
+	}
+
+	IssuerRevocation withDelta(SerialIndex delta) {
+		return new IssuerRevocation(issuer, complete, delta);
+	}
+
+	@Override
+	public String toString() {
+		return "IssuerRevocation [issuer=" + issuer.getName()
+				+ ", crlNumber=" + (complete == null ? null : complete.getCrlNumber())
+				+ ", deltaCrlNumber=" + (isDeltaApplicable() ? delta.getCrlNumber() : null) + "]";
+	}
+
+}
@@ -0,0 +1,17 @@
+package org.keysupport.authservice.validation.revocation;
+
+/**
+ * Revocation status of a certificate according to its issuer's CRLs.
+ */
+public enum RevocationStatus {
+
+	GOOD,
+
+	REVOKED,
+
+	/**
+	 * No current CRL is available for the issuer.
+	 */
+	UNKNOWN
+
+}
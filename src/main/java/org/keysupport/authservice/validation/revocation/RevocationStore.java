@@ -0,0 +1,253 @@
+package org.keysupport.authservice.validation.revocation;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.keysupport.authservice.validation.CertificateThumbprints;
+import org.keysupport.authservice.validation.FileVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Revocation information for every issuer with a CRL in a local directory, kept current as
+ * the CRL files change.
+ * <p>
+ * Each complete or delta CRL is verified against its issuer's certificate and indexed once
+ * into a {@link SerialIndex} file in the index directory. On start, the existing index files
+ * are mapped straight away, so revocation checking is available after a restart without
+ * reparsing any CRL; a CRL file is only reindexed when it is newer (by CRL number, else
+ * thisUpdate) than the index held for its issuer. Readers never block: each issuer's
+ * {@link IssuerRevocation} is replaced whole, and a CRL that fails to load or verify leaves
+ * the previous one in place.
+ */
+public class RevocationStore implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(RevocationStore.class);
+
+	private static final String COMPLETE_SUFFIX = ".crl.idx";
+	private static final String DELTA_SUFFIX = ".delta.idx";
+
+	private final Path crlDirectory;
+	private final Path indexDirectory;
+	private final Duration pollInterval;
+	private final Function<X500Principal, List<X509Certificate>> issuers;
+	private final ConcurrentMap<X500Principal, IssuerRevocation> revocations = new ConcurrentHashMap<>();
+	private final List<Consumer<IssuerRevocation>> listeners = new CopyOnWriteArrayList<>();
+
+	private Map<Path, FileVersion> loadedVersions = Map.of();
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param crlDirectory directory of DER encoded .crl files, complete and delta
+	 * @param indexDirectory where the serial indexes are kept across restarts
+	 * @param pollInterval how often the CRL directory is checked for changes
+	 * @param issuers candidate CRL signers by subject, typically the policy's trust anchors and intermediates
+	 */
+	public RevocationStore(Path crlDirectory, Path indexDirectory, Duration pollInterval,
+			Function<X500Principal, List<X509Certificate>> issuers) {
+		this.crlDirectory = crlDirectory;
+		this.indexDirectory = indexDirectory;
+		this.pollInterval = pollInterval;
+		this.issuers = issuers;
+	}
+
+	/**
+	 * Map the existing indexes, index any new CRLs, then start watching the CRL directory.
+	 *
+	 * @throws IOException if the index directory cannot be created or listed
+	 */
+	public synchronized void start() throws IOException {
+		if (scheduler != null) {
+			return;
+		}
+		Files.createDirectories(indexDirectory);
+		openIndexes();
+		reloadIfChanged();
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "crl-reload");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1, pollInterval.toMillis());
+		scheduler.scheduleWithFixedDelay(this::reloadIfChanged, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param issuer
+	 * @return the issuer's revocation information, or null if no CRL is held for it
+	 */
+	public IssuerRevocation get(X500Principal issuer) {
+		return revocations.get(issuer);
+	}
+
+	/**
+	 * @param certificate
+	 * @param now
+	 * @return the certificate's status according to its issuer's current CRLs
+	 */
+	public RevocationStatus getStatus(X509Certificate certificate, Instant now) {
+		IssuerRevocation revocation = revocations.get(certificate.getIssuerX500Principal());
+		if (revocation == null) {
+			return RevocationStatus.UNKNOWN;
+		}
+		return revocation.getStatus(certificate.getSerialNumber().toByteArray(), now);
+	}
+
+	public int size() {
+		return revocations.size();
+	}
+
+	/**
+	 * Called with an issuer's new revocation information each time one of its CRLs is
+	 * indexed, on the thread that indexed it.
+	 *
+	 * @param listener
+	 */
+	public void addListener(Consumer<IssuerRevocation> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Index any CRL file added or changed since the last check.
+	 *
+	 * @return true if any issuer's revocation information was replaced
+	 */
+	public synchronized boolean reloadIfChanged() {
+		Map<Path, FileVersion> versions;
+		try {
+			versions = versions();
+		} catch (IOException e) {
+			log.warn("Listing CRLs in {} failed", crlDirectory, e);
+			return false;
+		}
+		boolean changed = false;
+		for (Map.Entry<Path, FileVersion> entry : versions.entrySet()) {
+			if (!entry.getValue().equals(loadedVersions.get(entry.getKey()))) {
+				changed |= load(entry.getKey());
+			}
+		}
+		loadedVersions = versions;
+		return changed;
+	}
+
+	private boolean load(Path crlPath) {
+		try {
+			CrlFile crl = CrlFile.read(crlPath);
+			X500Principal issuer = crl.getIssuer();
+			IssuerRevocation current = revocations.get(issuer);
+			SerialIndex existing = current == null ? null : crl.isDelta() ? current.getDelta() : current.getComplete();
+			if (existing != null && !isNewer(crl, existing)) {
+				log.debug("CRL {} is not newer than the index held for {}", crlPath, issuer.getName());
+				return false;
+			}
+			if (!isSignedByIssuer(crl)) {
+				log.warn("CRL {} is not signed by a known certificate of {}; ignoring it", crlPath, issuer.getName());
+				return false;
+			}
+			SerialIndex index = SerialIndex.write(crl,
+					indexDirectory.resolve(indexName(crl.getEncodedIssuer()) + (crl.isDelta() ? DELTA_SUFFIX : COMPLETE_SUFFIX)));
+			log.info("Indexed {} CRL {} (number {}) of {}: {} entries", crl.isDelta() ? "delta" : "complete", crlPath,
+					index.getCrlNumber(), issuer.getName(), index.size());
+			publish(index);
+			return true;
+		} catch (IOException | RuntimeException e) {
+			log.warn("Loading CRL {} failed; keeping the previous revocation information", crlPath, e);
+			return false;
+		}
+	}
+
+	private boolean isSignedByIssuer(CrlFile crl) {
+		for (X509Certificate candidate : issuers.apply(crl.getIssuer())) {
+			if (crl.verify(candidate)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void publish(SerialIndex index) {
+		IssuerRevocation updated = revocations.compute(index.getIssuer(), (issuer, current) -> {
+			IssuerRevocation revocation = current == null ? new IssuerRevocation(issuer, null, null) : current;
+			return index.isDelta() ? revocation.withDelta(index) : revocation.withComplete(index);
+		});
+		for (Consumer<IssuerRevocation> listener : listeners) {
+			try {
+				listener.accept(updated);
+			} catch (RuntimeException e) {
+				log.warn("Revocation store listener failed", e);
+			}
+		}
+	}
+
+	private void openIndexes() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(indexDirectory, "*.idx")) {
+			for (Path file : files) {
+				try {
+					publish(SerialIndex.open(file));
+				} catch (IOException | RuntimeException e) {
+					log.warn("Ignoring unreadable CRL index {}", file, e);
+				}
+			}
+		}
+		log.info("Opened CRL indexes for {} issuers from {}", revocations.size(), indexDirectory);
+	}
+
+	private Map<Path, FileVersion> versions() throws IOException {
+		Map<Path, FileVersion> versions = new TreeMap<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(crlDirectory, "*.crl")) {
+			for (Path file : files) {
+				BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+				if (attributes.isRegularFile()) {
+					versions.put(file, FileVersion.of(attributes));
+				}
+			}
+		}
+		return versions;
+	}
+
+	private static boolean isNewer(CrlFile crl, SerialIndex existing) {
+		if (crl.getCrlNumber() != null && existing.getCrlNumber() != null) {
+			return crl.getCrlNumber().compareTo(existing.getCrlNumber()) > 0;
+		}
+		return crl.getThisUpdate().isAfter(existing.getThisUpdate());
+	}
+
+	private static String indexName(byte[] encodedIssuer) {
+		return HexFormat.of().formatHex(CertificateThumbprints.sha256(encodedIssuer), 0, 16);
+	}
+
+	/**
+	 * Stop watching the CRL directory and drop the index mappings; the store reports every
+	 * certificate as {@link RevocationStatus#UNKNOWN} from then on.
+	 */
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		// A mapping cannot be unmapped explicitly; it is released once no index refers to it.
+		revocations.clear();
+	}
+
+}
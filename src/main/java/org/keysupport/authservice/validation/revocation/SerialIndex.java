@@ -0,0 +1,375 @@
+package org.keysupport.authservice.validation.revocation;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * The revoked serial numbers of one CRL, as a sorted array of fixed-width records in a
+ * memory-mapped file.
+ * <p>
+ * Each record is a length octet, the serial's minimal two's complement octets left-aligned
+ * and zero padded to the widest serial in the CRL, and a status octet. Records sort
+ * lexicographically on length then octets, so {@link #find(byte[])} is a binary search of
+ * absolute reads against the mapping: no allocation, no heap copy of the CRL, and nothing to
+ * rebuild after a restart. Files are written once, to a temporary file that is atomically
+ * moved into place, and never modified.
+ * <p>
+ * Layout, big-endian: magic, version (2), kind (1), width (1), record count (4), thisUpdate
+ * and nextUpdate (8 each; epoch millis or -1), CRL number and base CRL number (1 length
+ * octet, 0 if absent, then up to {@value #NUMBER_LENGTH} octets of two's complement, zero
+ * padded), issuer length (4), issuer DER, records.
+ */
+public final class SerialIndex {
+
+	public static final int NOT_FOUND = 0;
+	public static final int REVOKED = 1;
+	/**
+	 * The entry is listed with reason removeFromCRL, in a delta CRL: it is no longer revoked.
+	 */
+	public static final int REMOVED = 2;
+
+	private static final int MAGIC = 0x43524c49;
+	private static final short VERSION = 2;
+	private static final byte COMPLETE = 0;
+	private static final byte DELTA = 1;
+	private static final int NUMBER_LENGTH = CrlFile.MAXIMUM_CRL_NUMBER_LENGTH;
+	private static final int HEADER_LENGTH = 32 + 2 * (1 + NUMBER_LENGTH);
+	private static final int MAXIMUM_SERIAL_LENGTH = 127;
+
+	private final Path path;
+	private final ByteBuffer buffer;
+	private final boolean delta;
+	private final int width;
+	private final int recordLength;
+	private final int recordsOffset;
+	private final int count;
+	private final Instant thisUpdate;
+	private final Instant nextUpdate;
+	private final BigInteger crlNumber;
+	private final BigInteger baseCrlNumber;
+	private final X500Principal issuer;
+
+	private SerialIndex(Path path, ByteBuffer buffer) throws IOException {
+		if (buffer.limit() < HEADER_LENGTH || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+			throw new IOException("Not a CRL serial index: " + path);
+		}
+		this.path = path;
+		this.buffer = buffer;
+		this.delta = buffer.get(6) == DELTA;
+		this.width = buffer.get(7) & 0xff;
+		this.recordLength = width + 2;
+		this.count = buffer.getInt(8);
+		this.thisUpdate = Instant.ofEpochMilli(buffer.getLong(12));
+		long next = buffer.getLong(20);
+		this.nextUpdate = next < 0 ? null : Instant.ofEpochMilli(next);
+		this.crlNumber = getNumber(buffer, 28);
+		this.baseCrlNumber = getNumber(buffer, 28 + 1 + NUMBER_LENGTH);
+		int issuerLength = buffer.getInt(HEADER_LENGTH - 4);
+		if (issuerLength < 0 || HEADER_LENGTH + (long) issuerLength + (long) count * recordLength != buffer.limit()) {
+			throw new IOException("Truncated CRL serial index: " + path);
+		}
+		byte[] encodedIssuer = new byte[issuerLength];
+		buffer.get(HEADER_LENGTH, encodedIssuer);
+		this.issuer = new X500Principal(encodedIssuer);
+		this.recordsOffset = HEADER_LENGTH + issuerLength;
+	}
+
+	/**
+	 * Map an index file written by {@link #write}.
+	 *
+	 * @param path
+	 * @return
+	 * @throws IOException if the file cannot be read or is not a complete index
+	 */
+	public static SerialIndex open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("CRL serial index too large: " + path);
+			}
+			return new SerialIndex(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Index the entries of a CRL into a new file, replacing any existing one atomically, and
+	 * map it.
+	 *
+	 * @param crl
+	 * @param path
+	 * @return
+	 * @throws IOException if the CRL has unsupported entries or the file cannot be written
+	 */
+	static SerialIndex write(CrlFile crl, Path path) throws IOException {
+		int[] size = new int[2];
+		crl.forEachEntry((buffer, offset, length, removed) -> {
+			if (length > MAXIMUM_SERIAL_LENGTH) {
+				throw new IOException("Serial number too long in CRL entry");
+			}
+			size[0]++;
+			size[1] = Math.max(size[1], length);
+		});
+		int width = size[1];
+		int recordLength = width + 2;
+		byte[] records = new byte[Math.multiplyExact(size[0], recordLength)];
+		int[] next = new int[1];
+		crl.forEachEntry((buffer, offset, length, removed) -> {
+			int record = next[0]++ * recordLength;
+			records[record] = (byte) length;
+			buffer.get(offset, records, record + 1, length);
+			records[record + 1 + width] = (byte) (removed ? REMOVED : REVOKED);
+		});
+		new RecordSorter(records, recordLength, width + 1).sort(0, size[0]);
+		int count = deduplicate(records, size[0], recordLength, width + 1);
+
+		byte[] issuer = crl.getEncodedIssuer();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + issuer.length);
+		header.putInt(MAGIC)
+				.putShort(VERSION)
+				.put(crl.isDelta() ? DELTA : COMPLETE)
+				.put((byte) width)
+				.putInt(count)
+				.putLong(crl.getThisUpdate().toEpochMilli())
+				.putLong(crl.getNextUpdate() == null ? -1 : crl.getNextUpdate().toEpochMilli());
+		putNumber(header, crl.getCrlNumber());
+		putNumber(header, crl.getBaseCrlNumber());
+		header.putInt(issuer.length)
+				.put(issuer)
+				.flip();
+		Path temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				ByteBuffer body = ByteBuffer.wrap(records, 0, count * recordLength);
+				while (header.hasRemaining()) {
+					channel.write(header);
+				}
+				while (body.hasRemaining()) {
+					channel.write(body);
+				}
+				channel.force(true);
+			}
+			Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+		return open(path);
+	}
+
+	/**
+	 * @param serial minimal two's complement octets of the serial number, as returned by
+	 *            {@link java.math.BigInteger#toByteArray()}
+	 * @return {@link #REVOKED}, {@link #REMOVED} or {@link #NOT_FOUND}
+	 */
+	public int find(byte[] serial) {
+		if (serial.length > width) {
+			return NOT_FOUND;
+		}
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int record = recordsOffset + middle * recordLength;
+			int comparison = compare(record, serial);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return buffer.get(record + 1 + width);
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	private int compare(int record, byte[] serial) {
+		int length = buffer.get(record) & 0xff;
+		if (length != serial.length) {
+			return length < serial.length ? -1 : 1;
+		}
+		for (int i = 0; i < length; i++) {
+			int a = buffer.get(record + 1 + i) & 0xff;
+			int b = serial[i] & 0xff;
+			if (a != b) {
+				return a < b ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public X500Principal getIssuer() {
+		return issuer;
+	}
+
+	public boolean isDelta() {
+		return delta;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public Instant getThisUpdate() {
+		return thisUpdate;
+	}
+
+	/**
+	 * @return the CRL's next update, or null if it has none
+	 */
+	public Instant getNextUpdate() {
+		return nextUpdate;
+	}
+
+	/**
+	 * @return the CRL number, or null if the CRL has none
+	 */
+	public BigInteger getCrlNumber() {
+		return crlNumber;
+	}
+
+	/**
+	 * @return the base CRL number of a delta CRL, or null for a complete CRL
+	 */
+	public BigInteger getBaseCrlNumber() {
+		return baseCrlNumber;
+	}
+
+	private static void putNumber(ByteBuffer header, BigInteger number) {
+		byte[] octets = number == null ? new byte[0] : number.toByteArray();
+		header.put((byte) octets.length).put(octets).position(header.position() + NUMBER_LENGTH - octets.length);
+	}
+
+	private static BigInteger getNumber(ByteBuffer buffer, int offset) throws IOException {
+		int length = buffer.get(offset);
+		if (length == 0) {
+			return null;
+		}
+		if (length < 0 || length > NUMBER_LENGTH) {
+			throw new IOException("Invalid CRL number in serial index");
+		}
+		byte[] octets = new byte[length];
+		buffer.get(offset + 1, octets);
+		return new BigInteger(octets);
+	}
+
+	/**
+	 * Collapse equal keys left by a CRL that lists a serial twice; revoked wins.
+	 *
+	 * @return the number of distinct records
+	 */
+	private static int deduplicate(byte[] records, int count, int recordLength, int keyLength) {
+		if (count == 0) {
+			return 0;
+		}
+		int kept = 0;
+		for (int i = 1; i < count; i++) {
+			int current = i * recordLength;
+			int last = kept * recordLength;
+			if (Arrays.equals(records, last, last + keyLength, records, current, current + keyLength)) {
+				if (records[current + keyLength] == REVOKED) {
+					records[last + keyLength] = REVOKED;
+				}
+				continue;
+			}
+			kept++;
+			if (kept != i) {
+				System.arraycopy(records, current, records, kept * recordLength, recordLength);
+			}
+		}
+		return kept + 1;
+	}
+
+	/**
+	 * In-place quicksort of fixed-width records by their unsigned key octets.
+	 */
+	private static final class RecordSorter {
+
+		private static final int INSERTION_SORT_THRESHOLD = 16;
+
+		private final byte[] records;
+		private final int recordLength;
+		private final int keyLength;
+		private final byte[] swap;
+
+		RecordSorter(byte[] records, int recordLength, int keyLength) {
+			this.records = records;
+			this.recordLength = recordLength;
+			this.keyLength = keyLength;
+			this.swap = new byte[recordLength];
+		}
+
+		void sort(int from, int to) {
+			while (to - from > INSERTION_SORT_THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				int last = to - 1;
+				// Median of three, leaving from <= middle <= last as sentinels for the scans.
+				if (compare(middle, from) < 0) {
+					swap(middle, from);
+				}
+				if (compare(last, from) < 0) {
+					swap(last, from);
+				}
+				if (compare(last, middle) < 0) {
+					swap(last, middle);
+				}
+				int pivot = to - 2;
+				swap(middle, pivot);
+				int i = from;
+				int j = pivot;
+				while (true) {
+					while (compare(++i, pivot) < 0) {
+					}
+					while (compare(--j, pivot) > 0) {
+					}
+					if (i >= j) {
+						break;
+					}
+					swap(i, j);
+				}
+				swap(i, pivot);
+				if (i - from < to - i) {
+					sort(from, i);
+					from = i + 1;
+				} else {
+					sort(i + 1, to);
+					to = i;
+				}
+			}
+			for (int i = from + 1; i < to; i++) {
+				for (int j = i; j > from && compare(j, j - 1) < 0; j--) {
+					swap(j, j - 1);
+				}
+			}
+		}
+
+		private int compare(int a, int b) {
+			int left = a * recordLength;
+			int right = b * recordLength;
+			return Arrays.compareUnsigned(records, left, left + keyLength, records, right, right + keyLength);
+		}
+
+		private void swap(int a, int b) {
+			if (a == b) {
+				return;
+			}
+			int left = a * recordLength;
+			int right = b * recordLength;
+			System.arraycopy(records, left, swap, 0, recordLength);
+			System.arraycopy(records, right, records, left, recordLength);
+			System.arraycopy(swap, 0, records, right, recordLength);
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package org.keysupport.authservice.web;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * An immutable, pre-serialized response body with a strong ETag and a Cache-Control header.
+ * Writing it is a header check plus a single copy of the bytes.
+ */
+public final class CachedDocument {
+
+	private final byte[] body;
+	private final String contentType;
+	private final String etag;
+	private final String cacheControl;
+
+	private CachedDocument(byte[] body, String contentType, String etag, String cacheControl) {
+		this.body = body;
+		this.contentType = contentType;
+		this.etag = etag;
+		this.cacheControl = cacheControl;
+	}
+
+	/**
+	 * @param body the serialized document; the array is copied
+	 * @param contentType
+	 * @param maxAge how long clients and shared caches may reuse the document
+	 * @return
+	 */
+	public static CachedDocument of(byte[] body, String contentType, Duration maxAge) {
+		byte[] copy = body.clone();
+		return new CachedDocument(copy, contentType, strongEtag(copy),
+				"public, max-age=" + Math.max(0, maxAge.getSeconds()));
+	}
+
+	public static CachedDocument ofJson(String json, Duration maxAge) {
+		return of(json.getBytes(StandardCharsets.UTF_8), "application/json", maxAge);
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public String getCacheControl() {
+		return cacheControl;
+	}
+
+	public int getContentLength() {
+		return body.length;
+	}
+
+	/**
+	 * Write the document, or 304 Not Modified when the request's If-None-Match matches.
+	 *
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	public void writeTo(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		response.setHeader("ETag", etag);
+		response.setHeader("Cache-Control", cacheControl);
+		if (matches(request.getHeader("If-None-Match"))) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(contentType);
+		response.setContentLength(body.length);
+		if (!"HEAD".equals(request.getMethod())) {
+			response.getOutputStream().write(body);
+		}
+	}
+
+	/**
+	 * If-None-Match uses the weak comparison function (RFC 9110, section 13.1.2).
+	 */
+	boolean matches(String ifNoneMatch) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		String opaque = etag.substring(1, etag.length() - 1);
+		for (String candidate : ifNoneMatch.split(",")) {
+			String value = candidate.trim();
+			if (value.equals("*")) {
+				return true;
+			}
+			if (value.startsWith("W/")) {
+				value = value.substring(2);
+			}
+			if (value.length() >= 2 && value.charAt(0) == '"' && value.substring(1, value.length() - 1).equals(opaque)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String strongEtag(byte[] body) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(body);
+			return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(hash) + '"';
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
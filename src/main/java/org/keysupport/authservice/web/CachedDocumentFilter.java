@@ -0,0 +1,93 @@
+package org.keysupport.authservice.web;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the JWKS and the authorization server metadata documents from pre-serialized bytes.
+ * <p>
+ * The JWKS comes from a supplier that is rebuilt only when the key set changes. The metadata
+ * documents are produced once by the authorization server, captured, and replayed from then on,
+ * keyed by path. They name the issuer, so they are only captured when the issuer is configured;
+ * without one the authorization server derives it from each request's Host header, and those
+ * requests pass through. The cache holds at most one document per path, whatever the client sends.
+ */
+public class CachedDocumentFilter extends OncePerRequestFilter {
+
+	private final String jwkSetPath;
+	private final Supplier<CachedDocument> jwkSetDocument;
+	private final Set<String> capturedPaths;
+	private final Duration maxAge;
+	private final ConcurrentMap<String, CachedDocument> captured = new ConcurrentHashMap<>();
+
+	/**
+	 * @param jwkSetPath path of the JWKS endpoint
+	 * @param jwkSetDocument supplier of the current JWKS document, or null to capture the JWKS like the metadata
+	 * @param metadataPaths paths whose responses are captured once and replayed
+	 * @param issuer the configured issuer, or null if it is derived from each request
+	 * @param maxAge Cache-Control max-age of captured documents
+	 */
+	public CachedDocumentFilter(String jwkSetPath, Supplier<CachedDocument> jwkSetDocument, Set<String> metadataPaths,
+			String issuer, Duration maxAge) {
+		this.jwkSetPath = jwkSetPath;
+		this.jwkSetDocument = jwkSetDocument;
+		Set<String> paths = issuer != null ? metadataPaths : Set.of();
+		this.capturedPaths = jwkSetDocument == null ? union(paths, jwkSetPath) : Set.copyOf(paths);
+		this.maxAge = maxAge;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		String method = request.getMethod();
+		if (!"GET".equals(method) && !"HEAD".equals(method)) {
+			return true;
+		}
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		return !path.equals(jwkSetPath) && !capturedPaths.contains(path);
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		if (jwkSetDocument != null && path.equals(jwkSetPath)) {
+			jwkSetDocument.get().writeTo(request, response);
+			return;
+		}
+
+		CachedDocument document = captured.get(path);
+		if (document != null) {
+			document.writeTo(request, response);
+			return;
+		}
+
+		ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+		filterChain.doFilter(request, wrapper);
+		if ("GET".equals(request.getMethod()) && wrapper.getStatus() == HttpServletResponse.SC_OK) {
+			// Only the fixed set of captured paths reach here, so the cache cannot outgrow it.
+			String contentType = wrapper.getContentType() != null ? wrapper.getContentType() : "application/json";
+			captured.putIfAbsent(path, CachedDocument.of(wrapper.getContentAsByteArray(), contentType, maxAge));
+		}
+		wrapper.copyBodyToResponse();
+	}
+
+	private static Set<String> union(Set<String> paths, String path) {
+		Set<String> all = new HashSet<>(paths);
+		all.add(path);
+		return Set.copyOf(all);
+	}
+
+}
@@ -0,0 +1,34 @@
+-- The authorization server's registered client table, as in Spring Authorization Server's
+-- oauth2-registered-client-schema.sql, with client_id indexed.
+CREATE TABLE IF NOT EXISTS oauth2_registered_client (
+    id varchar(100) NOT NULL,
+    client_id varchar(100) NOT NULL,
+    client_id_issued_at timestamp DEFAULT CURRENT_TIMESTAMP NOT NULL,
+    client_secret varchar(200) DEFAULT NULL,
+    client_secret_expires_at timestamp DEFAULT NULL,
+    client_name varchar(200) NOT NULL,
+    client_authentication_methods varchar(1000) NOT NULL,
+    authorization_grant_types varchar(1000) NOT NULL,
+    redirect_uris varchar(1000) DEFAULT NULL,
+    post_logout_redirect_uris varchar(1000) DEFAULT NULL,
+    scopes varchar(1000) NOT NULL,
+    client_settings varchar(2000) NOT NULL,
+    token_settings varchar(2000) NOT NULL,
+    PRIMARY KEY (id)
+);
+CREATE UNIQUE INDEX IF NOT EXISTS oauth2_registered_client_client_id ON oauth2_registered_client (client_id);
+
+-- Each client's version, bumped on every save, and the certificate identity it is bound to:
+-- the canonical tls_client_auth subject DN and the self_signed_tls_client_auth x5t#S256.
+CREATE TABLE IF NOT EXISTS oauth2_registered_client_index (
+    id varchar(100) NOT NULL,
+    version bigint NOT NULL,
+    updated_at timestamp DEFAULT CURRENT_TIMESTAMP NOT NULL,
+    subject_dn varchar(1000) DEFAULT NULL,
+    x5t_s256 varchar(64) DEFAULT NULL,
+    PRIMARY KEY (id),
+    FOREIGN KEY (id) REFERENCES oauth2_registered_client (id)
+);
+CREATE UNIQUE INDEX IF NOT EXISTS oauth2_registered_client_index_subject_dn ON oauth2_registered_client_index (subject_dn);
+CREATE UNIQUE INDEX IF NOT EXISTS oauth2_registered_client_index_x5t_s256 ON oauth2_registered_client_index (x5t_s256);
+CREATE INDEX IF NOT EXISTS oauth2_registered_client_index_updated_at ON oauth2_registered_client_index (updated_at);
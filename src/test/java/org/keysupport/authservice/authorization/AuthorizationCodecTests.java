@@ -0,0 +1,145 @@
+package org.keysupport.authservice.authorization;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.RememberMeAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2DeviceCode;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.security.oauth2.core.OAuth2UserCode;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationCode;
+
+class AuthorizationCodecTests {
+
+	private final AuthorizationCodec codec = new AuthorizationCodec();
+
+	@Test
+	void roundTripsAnAuthorizationCodeFlowAuthorization() throws IOException {
+		OAuth2Authorization authorization = TestAuthorizations.authorizationCode("authorization-1", Instant.now());
+
+		OAuth2Authorization decoded = codec.decode(codec.encode(authorization), TestAuthorizations.CLIENT);
+
+		assertThat(decoded.getId()).isEqualTo(authorization.getId());
+		assertThat(decoded.getRegisteredClientId()).isEqualTo(authorization.getRegisteredClientId());
+		assertThat(decoded.getPrincipalName()).isEqualTo(authorization.getPrincipalName());
+		assertThat(decoded.getAuthorizationGrantType()).isEqualTo(authorization.getAuthorizationGrantType());
+		assertThat(decoded.getAuthorizedScopes()).isEqualTo(authorization.getAuthorizedScopes());
+		for (Class<? extends org.springframework.security.oauth2.core.OAuth2Token> type : List.of(OAuth2AuthorizationCode.class,
+				OAuth2AccessToken.class, OAuth2RefreshToken.class, OidcIdToken.class)) {
+			assertThat(decoded.getToken(type)).isEqualTo(authorization.getToken(type));
+		}
+		assertThat(decoded.getToken(OAuth2AuthorizationCode.class).isInvalidated()).isTrue();
+		assertThat(decoded.getToken(OidcIdToken.class).getToken().getClaims()).containsEntry("nonce", "n-0S6_WzA2Mj");
+		assertThat((Object) decoded.getAttribute(Principal.class.getName()))
+				.isEqualTo(authorization.getAttribute(Principal.class.getName()));
+
+		OAuth2AuthorizationRequest request = authorization.getAttribute(OAuth2AuthorizationRequest.class.getName());
+		OAuth2AuthorizationRequest decodedRequest = decoded.getAttribute(OAuth2AuthorizationRequest.class.getName());
+		assertThat(decodedRequest.getAuthorizationUri()).isEqualTo(request.getAuthorizationUri());
+		assertThat(decodedRequest.getClientId()).isEqualTo(request.getClientId());
+		assertThat(decodedRequest.getRedirectUri()).isEqualTo(request.getRedirectUri());
+		assertThat(decodedRequest.getScopes()).isEqualTo(request.getScopes());
+		assertThat(decodedRequest.getState()).isEqualTo(request.getState());
+		assertThat(decodedRequest.getAdditionalParameters()).isEqualTo(request.getAdditionalParameters());
+		assertThat(decodedRequest.getAuthorizationRequestUri()).isEqualTo(request.getAuthorizationRequestUri());
+	}
+
+	@Test
+	void roundTripsADeviceCodeFlowAuthorization() throws IOException {
+		OAuth2Authorization authorization = TestAuthorizations.deviceCode("authorization-device", Instant.now());
+
+		OAuth2Authorization decoded = codec.decode(codec.encode(authorization), TestAuthorizations.CLIENT);
+
+		assertThat(decoded.getAuthorizationGrantType()).isEqualTo(AuthorizationGrantType.DEVICE_CODE);
+		assertThat(decoded.getToken(OAuth2DeviceCode.class)).isEqualTo(authorization.getToken(OAuth2DeviceCode.class));
+		assertThat(decoded.getToken(OAuth2UserCode.class)).isEqualTo(authorization.getToken(OAuth2UserCode.class));
+		assertThat((Object) decoded.getAttribute(OAuth2ParameterNames.SCOPE))
+				.isEqualTo(authorization.getAttribute(OAuth2ParameterNames.SCOPE));
+	}
+
+	@Test
+	void fallsBackToJsonForOtherAttributeTypes() throws IOException {
+		RememberMeAuthenticationToken principal = new RememberMeAuthenticationToken("key", "bob",
+				List.of(new SimpleGrantedAuthority("ROLE_USER")));
+		OAuth2Authorization authorization = OAuth2Authorization.from(TestAuthorizations.authorizationCode("authorization-2", Instant.now()))
+				.attribute(Principal.class.getName(), principal)
+				.build();
+
+		OAuth2Authorization decoded = codec.decode(codec.encode(authorization), TestAuthorizations.CLIENT);
+
+		assertThat((Object) decoded.getAttribute(Principal.class.getName())).isEqualTo(principal);
+	}
+
+	@Test
+	void encodesFarSmallerThanJavaSerialization() throws IOException {
+		OAuth2Authorization authorization = TestAuthorizations.clientCredentials("authorization-3", Instant.now(),
+				Duration.ofMinutes(5));
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+			out.writeObject(authorization);
+		}
+		int tokenLength = authorization.getAccessToken().getToken().getTokenValue().length();
+
+		byte[] encoded = codec.encode(authorization);
+
+		// The access token value itself is most of either; compare what goes around it.
+		assertThat(encoded.length - tokenLength).isLessThan(400);
+		assertThat((encoded.length - tokenLength) * 4).isLessThan(serialized.size() - tokenLength);
+	}
+
+	@Test
+	void rejectsTruncatedAndCorruptEncodings() {
+		byte[] encoded = codec.encode(TestAuthorizations.authorizationCode("authorization-4", Instant.now()));
+		for (int length = 0; length < encoded.length; length += 7) {
+			byte[] truncated = Arrays.copyOf(encoded, length);
+			assertThatThrownBy(() -> codec.decode(truncated, TestAuthorizations.CLIENT)).isInstanceOf(IOException.class);
+		}
+		byte[] otherVersion = encoded.clone();
+		otherVersion[0] = 9;
+		assertThatThrownBy(() -> codec.decode(otherVersion, TestAuthorizations.CLIENT)).isInstanceOf(IOException.class);
+	}
+
+	@Test
+	void rejectsAValueOfTheWrongTypeAsCorrupt() {
+		OAuth2Authorization authorization = TestAuthorizations.authorizationCode("authorization-5", Instant.now());
+		byte[] encoded = codec.encode(authorization);
+		byte[] codeValue = authorization.getToken(OAuth2AuthorizationCode.class).getToken().getTokenValue()
+				.getBytes(StandardCharsets.UTF_8);
+		int issuedAtTag = indexOf(encoded, codeValue) + codeValue.length;
+		assertThat(encoded[issuedAtTag]).isEqualTo((byte) 7);
+
+		// A boolean where the code's issue time belongs.
+		encoded[issuedAtTag] = 2;
+
+		assertThatThrownBy(() -> codec.decode(encoded, TestAuthorizations.CLIENT)).isInstanceOf(IOException.class)
+				.hasCauseInstanceOf(ClassCastException.class);
+	}
+
+	private static int indexOf(byte[] bytes, byte[] part) {
+		for (int i = 0; i + part.length <= bytes.length; i++) {
+			if (Arrays.equals(bytes, i, i + part.length, part, 0, part.length)) {
+				return i;
+			}
+		}
+		throw new AssertionError("Not found");
+	}
+
+}
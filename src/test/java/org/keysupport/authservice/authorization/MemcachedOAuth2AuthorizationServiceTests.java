@@ -0,0 +1,270 @@
+package org.keysupport.authservice.authorization;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.spy.memcached.ClientMode;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.MemcachedClient;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationCode;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.security.oauth2.server.authorization.client.InMemoryRegisteredClientRepository;
+
+class MemcachedOAuth2AuthorizationServiceTests {
+
+	private static final OAuth2TokenType CODE = new OAuth2TokenType(OAuth2ParameterNames.CODE);
+	private static final OAuth2TokenType STATE = new OAuth2TokenType(OAuth2ParameterNames.STATE);
+	private static final OAuth2TokenType DEVICE_CODE = new OAuth2TokenType(OAuth2ParameterNames.DEVICE_CODE);
+	private static final OAuth2TokenType USER_CODE = new OAuth2TokenType(OAuth2ParameterNames.USER_CODE);
+
+	private final List<MemcachedClient> clients = new ArrayList<>();
+	private final MutableClock clock = new MutableClock(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+	private MemcachedStandIn memcached;
+	private MemcachedOAuth2AuthorizationService node1;
+	private MemcachedOAuth2AuthorizationService node2;
+
+	@BeforeEach
+	void startMemcached() throws IOException {
+		memcached = new MemcachedStandIn();
+		node1 = node();
+		node2 = node();
+	}
+
+	@AfterEach
+	void stopMemcached() throws IOException {
+		clients.forEach(MemcachedClient::shutdown);
+		memcached.close();
+	}
+
+	@Test
+	void findsAnAuthorizationSavedOnAnotherNodeByIdAndByEachToken() {
+		OAuth2Authorization authorization = TestAuthorizations.authorizationCode("authorization-1", clock.instant());
+
+		node1.save(authorization);
+		assertThat(node1.awaitWrites(Duration.ofSeconds(5))).isTrue();
+
+		assertThat(node2.findById("authorization-1").getId()).isEqualTo("authorization-1");
+		assertThat(node2.findByToken("code-authorization-1", CODE).getId()).isEqualTo("authorization-1");
+		assertThat(node2.findByToken("refresh-authorization-1", OAuth2TokenType.REFRESH_TOKEN).getId()).isEqualTo("authorization-1");
+		String accessToken = authorization.getAccessToken().getToken().getTokenValue();
+		assertThat(node2.findByToken(accessToken, OAuth2TokenType.ACCESS_TOKEN).getAccessToken())
+				.isEqualTo(authorization.getAccessToken());
+		// The right value of the wrong type.
+		assertThat(node2.findByToken("code-authorization-1", OAuth2TokenType.ACCESS_TOKEN)).isNull();
+		assertThat(node2.findByToken("code-authorization-1", STATE)).isNull();
+		assertThat(node2.findByToken("unknown", null)).isNull();
+		assertThat(node2.findById("unknown")).isNull();
+	}
+
+	@Test
+	void findsADeviceAuthorizationByItsDeviceAndUserCodes() {
+		node1.save(TestAuthorizations.deviceCode("authorization-8", clock.instant()));
+		assertThat(node1.awaitWrites(Duration.ofSeconds(5))).isTrue();
+
+		assertThat(node2.findByToken("device-authorization-8", DEVICE_CODE).getId()).isEqualTo("authorization-8");
+		assertThat(node2.findByToken("WDJB-MJHT", USER_CODE).getId()).isEqualTo("authorization-8");
+		assertThat(node2.findByToken("device-authorization-8", null).getId()).isEqualTo("authorization-8");
+		assertThat(node2.findByToken("WDJB-MJHT", null).getId()).isEqualTo("authorization-8");
+		assertThat(node2.findByToken("WDJB-MJHT", DEVICE_CODE)).isNull();
+		assertThat(node2.findByToken("device-authorization-8", USER_CODE)).isNull();
+	}
+
+	@Test
+	void servesRepeatedLookupsFromTheNearCache() {
+		node1.save(TestAuthorizations.clientCredentials("authorization-2", clock.instant(), Duration.ofMinutes(5)));
+		node1.awaitWrites(Duration.ofSeconds(5));
+		String accessToken = node1.findById("authorization-2").getAccessToken().getToken().getTokenValue();
+		assertThat(memcached.getGets()).isEqualTo(0);
+
+		assertThat(node2.findByToken(accessToken, OAuth2TokenType.ACCESS_TOKEN)).isNotNull();
+		int gets = memcached.getGets();
+		assertThat(gets).isEqualTo(2);
+		for (int i = 0; i < 10; i++) {
+			assertThat(node2.findByToken(accessToken, OAuth2TokenType.ACCESS_TOKEN)).isNotNull();
+			assertThat(node2.findById("authorization-2")).isNotNull();
+		}
+		assertThat(memcached.getGets()).isEqualTo(gets);
+
+		clock.advance(MemcachedOAuth2AuthorizationService.DEFAULT_NEAR_CACHE_TTL.plusMillis(1));
+		assertThat(node2.findByToken(accessToken, OAuth2TokenType.ACCESS_TOKEN)).isNotNull();
+		assertThat(memcached.getGets()).isEqualTo(gets + 2);
+	}
+
+	@Test
+	void anotherNodeSeesAnInvalidatedCodeOnceItsNearCacheEntryExpires() {
+		OAuth2Authorization issued = OAuth2Authorization.from(TestAuthorizations.authorizationCode("authorization-3", clock.instant()))
+				.token(new OAuth2AuthorizationCode("code-authorization-3", clock.instant(), clock.instant().plusSeconds(300)),
+						metadata -> metadata.put(OAuth2Authorization.Token.INVALIDATED_METADATA_NAME, false))
+				.build();
+		node1.save(issued);
+		node1.awaitWrites(Duration.ofSeconds(5));
+		assertThat(node2.findByToken("code-authorization-3", CODE).getToken(OAuth2AuthorizationCode.class).isInvalidated()).isFalse();
+
+		node1.save(OAuth2Authorization.from(issued)
+				.token(issued.getToken(OAuth2AuthorizationCode.class).getToken(),
+						metadata -> metadata.put(OAuth2Authorization.Token.INVALIDATED_METADATA_NAME, true))
+				.build());
+		node1.awaitWrites(Duration.ofSeconds(5));
+
+		assertThat(node1.findByToken("code-authorization-3", CODE).getToken(OAuth2AuthorizationCode.class).isInvalidated()).isTrue();
+		clock.advance(MemcachedOAuth2AuthorizationService.DEFAULT_NEAR_CACHE_TTL);
+		assertThat(node2.findByToken("code-authorization-3", CODE).getToken(OAuth2AuthorizationCode.class).isInvalidated()).isTrue();
+	}
+
+	@Test
+	void anotherNodeFindsAnUnredeemedCodeAsSoonAsItIsSaved() {
+		memcached.delayStores(200);
+		OAuth2Authorization authorization = TestAuthorizations.authorizationCode("authorization-9", clock.instant());
+		node1.save(OAuth2Authorization.from(authorization)
+				.token(authorization.getToken(OAuth2AuthorizationCode.class).getToken(),
+						metadata -> metadata.put(OAuth2Authorization.Token.INVALIDATED_METADATA_NAME, false))
+				.build());
+		node1.save(TestAuthorizations.deviceCode("authorization-10", clock.instant()));
+
+		assertThat(node2.findByToken("code-authorization-9", CODE).getId()).isEqualTo("authorization-9");
+		assertThat(node2.findByToken("device-authorization-10", DEVICE_CODE).getId()).isEqualTo("authorization-10");
+		assertThat(node2.findByToken("WDJB-MJHT", USER_CODE).getId()).isEqualTo("authorization-10");
+	}
+
+	@Test
+	void doesNotFindARotatedRefreshTokenThroughItsCachedPointer() {
+		OAuth2Authorization authorization = TestAuthorizations.authorizationCode("authorization-4", clock.instant());
+		node1.save(authorization);
+		assertThat(node1.findByToken("refresh-authorization-4", OAuth2TokenType.REFRESH_TOKEN)).isNotNull();
+
+		node1.save(OAuth2Authorization.from(authorization)
+				.refreshToken(new OAuth2RefreshToken("rotated", clock.instant(), clock.instant().plusSeconds(3600)))
+				.build());
+		node1.awaitWrites(Duration.ofSeconds(5));
+
+		assertThat(node1.findByToken("refresh-authorization-4", OAuth2TokenType.REFRESH_TOKEN)).isNull();
+		assertThat(node2.findByToken("refresh-authorization-4", OAuth2TokenType.REFRESH_TOKEN)).isNull();
+		assertThat(node2.findByToken("rotated", OAuth2TokenType.REFRESH_TOKEN).getId()).isEqualTo("authorization-4");
+	}
+
+	@Test
+	void removesTheAuthorizationAndItsPointers() {
+		OAuth2Authorization authorization = TestAuthorizations.authorizationCode("authorization-5", clock.instant());
+		node1.save(authorization);
+		node1.awaitWrites(Duration.ofSeconds(5));
+		assertThat(memcached.getItems()).hasSize(5);
+
+		node1.remove(authorization);
+		node1.awaitWrites(Duration.ofSeconds(5));
+
+		assertThat(memcached.getItems()).isEmpty();
+		assertThat(node1.findById("authorization-5")).isNull();
+		assertThat(node2.findByToken("code-authorization-5", CODE)).isNull();
+	}
+
+	@Test
+	void keysNeverContainTokenValues() {
+		OAuth2Authorization authorization = TestAuthorizations.authorizationCode("authorization-6", clock.instant());
+		node1.save(authorization);
+		node1.awaitWrites(Duration.ofSeconds(5));
+
+		for (String key : memcached.getItems().keySet()) {
+			assertThat(key.startsWith("oauth2:")).isTrue();
+			assertThat(key.contains("authorization-6")).isFalse();
+			assertThat(key.length()).isLessThan(250);
+		}
+	}
+
+	@Test
+	void expiresItemsWithTheLastToken() {
+		node1.save(TestAuthorizations.clientCredentials("short", clock.instant(), Duration.ofMinutes(5)));
+		node1.setMaximumTtl(Duration.ofDays(90));
+		node1.save(TestAuthorizations.clientCredentials("long", clock.instant(), Duration.ofDays(60)));
+		node1.awaitWrites(Duration.ofSeconds(5));
+		long now = System.currentTimeMillis();
+
+		List<Long> lifetimes = new ArrayList<>();
+		memcached.getItems().values().forEach(item -> lifetimes.add(item.expiresAt - now));
+		lifetimes.sort(null);
+		assertThat(lifetimes).hasSize(4);
+		assertThat(lifetimes.get(0)).isBetween(Duration.ofMinutes(4).toMillis(), Duration.ofMinutes(6).toMillis());
+		// Beyond 30 days, sent as an absolute time.
+		assertThat(lifetimes.get(3)).isBetween(Duration.ofDays(59).toMillis(), Duration.ofDays(61).toMillis());
+
+		memcached.advance(Duration.ofMinutes(6).toMillis());
+		node2.setNearCacheTtl(Duration.ZERO);
+		assertThat(node2.findById("short")).isNull();
+		assertThat(node2.findById("long")).isNotNull();
+	}
+
+	@Test
+	void ignoresItemsWrittenInAnotherFormat() throws Exception {
+		OAuth2Authorization authorization = TestAuthorizations.clientCredentials("authorization-7", clock.instant(),
+				Duration.ofMinutes(5));
+		node1.save(authorization);
+		node1.awaitWrites(Duration.ofSeconds(5));
+		String key = memcached.getItems().keySet().iterator().next();
+		MemcachedStandIn.Item item = memcached.getItems().get(key);
+		memcached.getItems().replaceAll((k, v) -> new MemcachedStandIn.Item(0, v.data, v.expiresAt));
+
+		assertThat(node2.findById("authorization-7")).isNull();
+		assertThat(node2.findByToken(authorization.getAccessToken().getToken().getTokenValue(), null)).isNull();
+		assertThat(item.flags).isEqualTo(EncodedAuthorizationTranscoder.FLAGS);
+	}
+
+	private MemcachedOAuth2AuthorizationService node() throws IOException {
+		MemcachedClient client = new MemcachedClient(new ConnectionFactoryBuilder()
+				.setClientMode(ClientMode.Static)
+				.setProtocol(ConnectionFactoryBuilder.Protocol.TEXT)
+				.setOpTimeout(5000)
+				.setDaemon(true)
+				.build(), List.of(memcached.getAddress()));
+		clients.add(client);
+		MemcachedOAuth2AuthorizationService service = new MemcachedOAuth2AuthorizationService(client,
+				new InMemoryRegisteredClientRepository(TestAuthorizations.CLIENT));
+		service.setClock(clock);
+		service.setTimeout(Duration.ofSeconds(5));
+		return service;
+	}
+
+	private static final class MutableClock extends Clock {
+
+		private volatile Instant instant;
+
+		MutableClock(Instant instant) {
+			this.instant = instant;
+		}
+
+		void advance(Duration duration) {
+			instant = instant.plus(duration);
+		}
+
+		@Override
+		public Instant instant() {
+			return instant;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+	}
+
+}
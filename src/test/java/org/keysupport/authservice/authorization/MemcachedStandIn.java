@@ -0,0 +1,252 @@
+package org.keysupport.authservice.authorization;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Just enough of the memcached text protocol, in process, for the authorization service's
+ * client, and the revocation replicator's: get, set, add, replace, delete, touch, incr and
+ * decr, with expiration.
+ */
+public class MemcachedStandIn implements AutoCloseable {
+
+	private static final long MAXIMUM_RELATIVE_EXPIRATION = 60 * 60 * 24 * 30;
+
+	private final ServerSocket serverSocket;
+	private final Map<String, Item> items = new ConcurrentHashMap<>();
+	private final AtomicInteger gets = new AtomicInteger();
+	private volatile long clockOffsetMillis;
+	private volatile String failingPrefix;
+	private final AtomicInteger failingStores = new AtomicInteger();
+	private volatile long storeDelayMillis;
+
+	public MemcachedStandIn() throws IOException {
+		serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(this::accept, "memcached-stand-in");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public InetSocketAddress getAddress() {
+		return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+	}
+
+	/**
+	 * @return the number of keys looked up so far
+	 */
+	int getGets() {
+		return gets.get();
+	}
+
+	public Map<String, Item> getItems() {
+		return items;
+	}
+
+	/**
+	 * Move the server's clock, to expire items.
+	 */
+	public void advance(long millis) {
+		clockOffsetMillis += millis;
+	}
+
+	/**
+	 * Answer the next {@code count} stores of keys starting with {@code prefix} with a server
+	 * error, as memcached does when it is out of memory.
+	 */
+	public void failStores(String prefix, int count) {
+		failingPrefix = prefix;
+		failingStores.set(count);
+	}
+
+	/**
+	 * Answer each store only after {@code millis}, as a loaded server does.
+	 */
+	public void delayStores(long millis) {
+		storeDelayMillis = millis;
+	}
+
+	private long now() {
+		return System.currentTimeMillis() + clockOffsetMillis;
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				Thread connection = new Thread(() -> serve(socket), "memcached-stand-in-connection");
+				connection.setDaemon(true);
+				connection.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (socket; InputStream in = new BufferedInputStream(socket.getInputStream()); OutputStream out = socket.getOutputStream()) {
+			String line;
+			while ((line = readLine(in)) != null) {
+				String[] words = line.split(" ");
+				boolean noreply = words[words.length - 1].equals("noreply");
+				String response;
+				switch (words[0]) {
+					case "get":
+					case "gets":
+						response = get(words);
+						break;
+					case "set":
+					case "add":
+					case "replace":
+						byte[] data = in.readNBytes(Integer.parseInt(words[4]) + 2);
+						sleep(storeDelayMillis);
+						response = store(words, data);
+						break;
+					case "delete":
+						response = items.remove(words[1]) != null ? "DELETED\r\n" : "NOT_FOUND\r\n";
+						break;
+					case "touch":
+						Item item = live(words[1]);
+						if (item != null) {
+							items.put(words[1], new Item(item.flags, item.data, expiresAt(Long.parseLong(words[2]))));
+						}
+						response = item != null ? "TOUCHED\r\n" : "NOT_FOUND\r\n";
+						break;
+					case "incr":
+					case "decr":
+						response = mutate(words);
+						break;
+					case "version":
+						response = "VERSION 1.6.21\r\n";
+						break;
+					default:
+						response = "ERROR\r\n";
+				}
+				if (!noreply) {
+					out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+					out.flush();
+				}
+			}
+		} catch (IOException e) {
+			// Connection closed.
+		}
+	}
+
+	private String get(String[] words) {
+		StringBuilder response = new StringBuilder();
+		for (int i = 1; i < words.length; i++) {
+			gets.incrementAndGet();
+			Item item = live(words[i]);
+			if (item != null) {
+				response.append("VALUE ").append(words[i]).append(' ').append(item.flags & 0xffffffffL).append(' ')
+						.append(item.data.length).append("\r\n")
+						.append(new String(item.data, StandardCharsets.ISO_8859_1)).append("\r\n");
+			}
+		}
+		return response.append("END\r\n").toString();
+	}
+
+	private synchronized String store(String[] words, byte[] data) {
+		String key = words[1];
+		String prefix = failingPrefix;
+		if (prefix != null && key.startsWith(prefix) && failingStores.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+			return "SERVER_ERROR out of memory storing object\r\n";
+		}
+		boolean exists = live(key) != null;
+		if ((words[0].equals("add") && exists) || (words[0].equals("replace") && !exists)) {
+			return "NOT_STORED\r\n";
+		}
+		byte[] value = new byte[data.length - 2];
+		System.arraycopy(data, 0, value, 0, value.length);
+		items.put(key, new Item((int) Long.parseLong(words[2]), value, expiresAt(Long.parseLong(words[3]))));
+		return "STORED\r\n";
+	}
+
+	private synchronized String mutate(String[] words) {
+		Item item = live(words[1]);
+		if (item == null) {
+			return "NOT_FOUND\r\n";
+		}
+		long value = Long.parseLong(new String(item.data, StandardCharsets.ISO_8859_1).trim());
+		long delta = Long.parseLong(words[2]);
+		value = words[0].equals("incr") ? value + delta : Math.max(0, value - delta);
+		items.put(words[1], new Item(item.flags, Long.toString(value).getBytes(StandardCharsets.ISO_8859_1), item.expiresAt));
+		return value + "\r\n";
+	}
+
+	private Item live(String key) {
+		Item item = items.get(key);
+		if (item != null && item.expiresAt != 0 && item.expiresAt <= now()) {
+			items.remove(key, item);
+			return null;
+		}
+		return item;
+	}
+
+	private long expiresAt(long expiration) {
+		if (expiration == 0) {
+			return 0;
+		}
+		if (expiration < 0) {
+			return 1;
+		}
+		return expiration > MAXIMUM_RELATIVE_EXPIRATION ? expiration * 1000 : now() + expiration * 1000;
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != -1) {
+			if (b == '\n') {
+				byte[] bytes = line.toByteArray();
+				int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+				return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+			}
+			line.write(b);
+		}
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	public static final class Item {
+		final int flags;
+		final byte[] data;
+		/**
+		 * Epoch millis, or 0 for never.
+		 */
+		final long expiresAt;
+
+		Item(int flags, byte[] data, long expiresAt) {
+			this.flags = flags;
+			this.data = data;
+			this.expiresAt = expiresAt;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.keysupport.authservice.authorization;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.Principal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.ClientAuthenticationMethod;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2DeviceCode;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.security.oauth2.core.OAuth2UserCode;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2AuthorizationCode;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+
+/**
+ * Authorizations as the authorization server saves them in its flows.
+ */
+final class TestAuthorizations {
+
+	static final RegisteredClient CLIENT = RegisteredClient.withId("registered-client-1")
+			.clientId("client-1")
+			.clientSecret("{noop}secret")
+			.clientAuthenticationMethod(ClientAuthenticationMethod.CLIENT_SECRET_BASIC)
+			.authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+			.authorizationGrantType(AuthorizationGrantType.REFRESH_TOKEN)
+			.authorizationGrantType(AuthorizationGrantType.CLIENT_CREDENTIALS)
+			.redirectUri("https://client.example.org/callback")
+			.scope("openid")
+			.scope("read")
+			.build();
+
+	private TestAuthorizations() {
+	}
+
+	/**
+	 * As saved on the token endpoint's redemption of an authorization code: the code
+	 * invalidated, with access, refresh and ID tokens.
+	 */
+	static OAuth2Authorization authorizationCode(String id, Instant issuedAt) {
+		UsernamePasswordAuthenticationToken principal = UsernamePasswordAuthenticationToken.authenticated(
+				new User("alice", "", List.of(new SimpleGrantedAuthority("ROLE_USER"))), null,
+				List.of(new SimpleGrantedAuthority("ROLE_USER")));
+		principal.setDetails(new WebAuthenticationDetails("192.0.2.10", "session-1"));
+		OAuth2AuthorizationRequest request = OAuth2AuthorizationRequest.authorizationCode()
+				.authorizationUri("https://localhost:9000/oauth2/authorize")
+				.clientId(CLIENT.getClientId())
+				.redirectUri("https://client.example.org/callback")
+				.scopes(Set.of("openid", "read"))
+				.state("state-" + id)
+				.additionalParameters(Map.of("nonce", "n-0S6_WzA2Mj", "code_challenge_method", "S256"))
+				.build();
+		Instant expiresAt = issuedAt.plus(Duration.ofMinutes(5));
+		return OAuth2Authorization.withRegisteredClient(CLIENT)
+				.id(id)
+				.principalName("alice")
+				.authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+				.authorizedScopes(Set.of("openid", "read"))
+				.attribute(Principal.class.getName(), principal)
+				.attribute(OAuth2AuthorizationRequest.class.getName(), request)
+				.token(new OAuth2AuthorizationCode("code-" + id, issuedAt, expiresAt),
+						metadata -> metadata.put(OAuth2Authorization.Token.INVALIDATED_METADATA_NAME, true))
+				.token(new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, jwt("access-" + id), issuedAt,
+						expiresAt, Set.of("openid", "read")),
+						metadata -> metadata.put(OAuth2Authorization.Token.CLAIMS_METADATA_NAME, Map.of(
+								"iss", url("https://localhost:9000"),
+								"sub", "alice",
+								"aud", List.of(CLIENT.getClientId()),
+								"iat", issuedAt,
+								"exp", expiresAt,
+								"scope", Set.of("openid", "read"))))
+				.refreshToken(new OAuth2RefreshToken("refresh-" + id, issuedAt, issuedAt.plus(Duration.ofHours(1))))
+				.token(new OidcIdToken("id-" + id, issuedAt, expiresAt, Map.of("sub", "alice")),
+						metadata -> metadata.put(OAuth2Authorization.Token.CLAIMS_METADATA_NAME, Map.of(
+								"sub", "alice",
+								"nonce", "n-0S6_WzA2Mj",
+								"auth_time", issuedAt)))
+				.build();
+	}
+
+	/**
+	 * As saved by the client credentials grant, with a JWT access token.
+	 */
+	static OAuth2Authorization clientCredentials(String id, Instant issuedAt, Duration lifetime) {
+		Instant expiresAt = issuedAt.plus(lifetime);
+		return OAuth2Authorization.withRegisteredClient(CLIENT)
+				.id(id)
+				.principalName(CLIENT.getClientId())
+				.authorizationGrantType(AuthorizationGrantType.CLIENT_CREDENTIALS)
+				.authorizedScopes(Set.of("read"))
+				.token(new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, jwt("access-" + id), issuedAt,
+						expiresAt, Set.of("read")),
+						metadata -> metadata.put(OAuth2Authorization.Token.CLAIMS_METADATA_NAME, Map.of(
+								"iss", "https://localhost:9000",
+								"sub", CLIENT.getClientId(),
+								"aud", List.of(CLIENT.getClientId()),
+								"iat", issuedAt,
+								"exp", expiresAt,
+								"jti", id,
+								"cnf", Map.of("x5t#S256", "bwcK0esc3ACC3DB2Y5_lESsXE8o9ltc05O89jdN-dg2"),
+								"scope", Set.of("read"))))
+				.build();
+	}
+
+	/**
+	 * As saved by the device authorization endpoint (RFC 8628): a device code and a user
+	 * code, with the requested scopes.
+	 */
+	static OAuth2Authorization deviceCode(String id, Instant issuedAt) {
+		Instant expiresAt = issuedAt.plus(Duration.ofMinutes(5));
+		return OAuth2Authorization.withRegisteredClient(CLIENT)
+				.id(id)
+				.principalName(CLIENT.getClientId())
+				.authorizationGrantType(AuthorizationGrantType.DEVICE_CODE)
+				.attribute(OAuth2ParameterNames.SCOPE, Set.of("read"))
+				.token(new OAuth2DeviceCode("device-" + id, issuedAt, expiresAt))
+				.token(new OAuth2UserCode("WDJB-MJHT", issuedAt, expiresAt))
+				.build();
+	}
+
+	/**
+	 * A token value of the length of a signed JWT.
+	 */
+	private static String jwt(String seed) {
+		StringBuilder value = new StringBuilder("eyJraWQiOiJSU0E0MDk2IiwiYWxnIjoiUFM1MTIifQ.");
+		while (value.length() < 1200) {
+			value.append(Integer.toHexString((seed + value.length()).hashCode()));
+		}
+		return value.toString();
+	}
+
+	private static URL url(String url) {
+		try {
+			return new URL(url);
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.AliasListEntry;
+import software.amazon.awssdk.services.kms.model.ListAliasesRequest;
+import software.amazon.awssdk.services.kms.model.ListAliasesResponse;
+
+class KmsAliasCacheTests {
+
+	@Test
+	void pagesOnceAndServesFromIndex() {
+		PagingKmsClient kmsClient = new PagingKmsClient();
+		KmsAliasCache cache = new KmsAliasCache(kmsClient, Duration.ofMinutes(5), Duration.ofMinutes(1), Runnable::run);
+
+		assertThat(cache.getTargetKeyId("RSA4096")).isEqualTo("key-1");
+		assertThat(cache.getTargetKeyId("alias/EC256")).isEqualTo("key-2");
+		assertThat(cache.getAliases()).hasSize(2);
+		assertThat(kmsClient.calls.get()).isEqualTo(2);
+	}
+
+	@Test
+	void missesAreNegativelyCached() {
+		PagingKmsClient kmsClient = new PagingKmsClient();
+		KmsAliasCache cache = new KmsAliasCache(kmsClient, Duration.ofMinutes(5), Duration.ofMinutes(1), Runnable::run);
+
+		assertThat(cache.getTargetKeyId("missing")).isNull();
+		int afterFirstMiss = kmsClient.calls.get();
+		assertThat(cache.getTargetKeyId("missing")).isNull();
+		assertThat(kmsClient.calls.get()).isEqualTo(afterFirstMiss);
+	}
+
+	@Test
+	void unknownAliasesLookedUpInTurnDoNotEachPageListAliases() throws Exception {
+		PagingKmsClient kmsClient = new PagingKmsClient();
+		KmsAliasCache cache = new KmsAliasCache(kmsClient, Duration.ofMinutes(5), Duration.ofMillis(500), Runnable::run);
+		assertThat(cache.getTargetKeyId("RSA4096")).isEqualTo("key-1");
+		Thread.sleep(600);
+
+		for (int i = 0; i < 10; i++) {
+			assertThat(cache.getTargetKeyId("missing-1")).isNull();
+			assertThat(cache.getTargetKeyId("missing-2")).isNull();
+		}
+
+		// Only the first miss, against a snapshot older than the negative TTL, paged ListAliases.
+		assertThat(cache.getMissCount()).isEqualTo(1);
+		assertThat(kmsClient.calls.get()).isEqualTo(4);
+	}
+
+	@Test
+	void negativeEntriesAreBounded() {
+		PagingKmsClient kmsClient = new PagingKmsClient();
+		KmsAliasCache cache = new KmsAliasCache(kmsClient, Duration.ofMinutes(5), Duration.ofMinutes(1), Runnable::run);
+
+		for (int i = 0; i < KmsAliasCache.MAXIMUM_MISSES * 4; i++) {
+			assertThat(cache.getTargetKeyId("missing-" + i)).isNull();
+		}
+
+		assertThat(cache.getNegativeEntryCount()).isLessThanOrEqualTo(KmsAliasCache.MAXIMUM_MISSES);
+		assertThat(kmsClient.calls.get()).isEqualTo(2);
+	}
+
+	@Test
+	void aRejectedRefreshDoesNotBlockTheNextOne() {
+		PagingKmsClient kmsClient = new PagingKmsClient();
+		AtomicBoolean rejecting = new AtomicBoolean(true);
+		KmsAliasCache cache = new KmsAliasCache(kmsClient, Duration.ofMinutes(5), Duration.ofMinutes(1), command -> {
+			if (rejecting.get()) {
+				throw new RejectedExecutionException("saturated");
+			}
+			command.run();
+		});
+
+		assertThrows(RejectedExecutionException.class, () -> cache.getTargetKeyId("RSA4096"));
+		rejecting.set(false);
+
+		assertThat(cache.getTargetKeyId("RSA4096")).isEqualTo("key-1");
+	}
+
+	@Test
+	void refreshesRunOnTheCachesOwnThreadUntilClosed() {
+		PagingKmsClient kmsClient = new PagingKmsClient();
+		KmsAliasCache cache = new KmsAliasCache(kmsClient);
+
+		assertThat(cache.getTargetKeyId("RSA4096")).isEqualTo("key-1");
+		assertThat(kmsClient.threadName).isEqualTo("kms-alias-refresh");
+
+		cache.close();
+		cache.invalidate();
+		assertThrows(RejectedExecutionException.class, () -> cache.getTargetKeyId("RSA4096"));
+	}
+
+	private static class PagingKmsClient implements KmsClient {
+
+		private final AtomicInteger calls = new AtomicInteger();
+		private volatile String threadName;
+
+		@Override
+		public ListAliasesResponse listAliases(ListAliasesRequest request) {
+			calls.incrementAndGet();
+			threadName = Thread.currentThread().getName();
+			if (request.marker() == null) {
+				return ListAliasesResponse.builder()
+						.aliases(List.of(AliasListEntry.builder().aliasName("alias/RSA4096").targetKeyId("key-1").build()))
+						.nextMarker("page-2")
+						.truncated(true)
+						.build();
+			}
+			return ListAliasesResponse.builder()
+					.aliases(List.of(AliasListEntry.builder().aliasName("alias/EC256").targetKeyId("key-2").build()))
+					.truncated(false)
+					.build();
+		}
+
+		@Override
+		public String serviceName() {
+			return "kms";
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
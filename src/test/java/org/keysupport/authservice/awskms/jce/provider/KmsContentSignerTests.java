@@ -0,0 +1,67 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Map;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.awskms.jce.provider.ec.KmsECKeyFactory;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAKeyFactory;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.keysupport.authservice.awskms.simulator.KmsSimulator;
+
+class KmsContentSignerTests {
+
+	@Test
+	void certificatesSignedInKmsVerifyWithTheKmsPublicKey() throws Exception {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			KmsProvider provider = new KmsProvider(simulator.client());
+			for (KmsSigningAlgorithm algorithm : new KmsSigningAlgorithm[] { KmsSigningAlgorithm.RSASSA_PSS_SHA_256,
+					KmsSigningAlgorithm.RSASSA_PKCS1_V1_5_SHA_384, KmsSigningAlgorithm.ECDSA_SHA_256 }) {
+				String keyId = simulator.createKey(KmsSimulator.keySpecFor(algorithm));
+				boolean ec = algorithm == KmsSigningAlgorithm.ECDSA_SHA_256;
+				PrivateKey privateKey = ec ? KmsECKeyFactory.getPrivateKey(keyId) : KmsRSAKeyFactory.getPrivateKey(keyId);
+				KmsPublicKey publicKey = ec ? KmsECKeyFactory.getPublicKey(simulator.client(), keyId)
+						: KmsRSAKeyFactory.getPublicKey(simulator.client(), keyId);
+
+				X509Certificate certificate = selfSigned(new KmsContentSigner(provider, privateKey, algorithm),
+						publicKey.getPublicKey());
+
+				certificate.verify(publicKey.getPublicKey());
+				assertThat(certificate.getSigAlgName()).as(algorithm.name()).isNotBlank();
+			}
+		}
+	}
+
+	@Test
+	void aKeyThatIsNotInKmsIsRejected() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		PrivateKey privateKey = generator.generateKeyPair().getPrivate();
+
+		assertThrows(InvalidKeyException.class,
+				() -> new KmsContentSigner(new KmsProvider(null), privateKey, KmsSigningAlgorithm.RSASSA_PSS_SHA_256));
+	}
+
+	private static X509Certificate selfSigned(KmsContentSigner contentSigner, PublicKey publicKey) throws Exception {
+		X500Name name = new X500Name("CN=KMS content signer");
+		Instant now = Instant.now();
+		return new JcaX509CertificateConverter().getCertificate(new JcaX509v3CertificateBuilder(name, BigInteger.ONE,
+				Date.from(now), Date.from(now.plus(Duration.ofDays(1))), name, publicKey).build(contentSigner));
+	}
+
+}
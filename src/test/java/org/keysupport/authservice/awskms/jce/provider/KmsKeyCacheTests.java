@@ -0,0 +1,162 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.ref.WeakReference;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.KeyUsageType;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+class KmsKeyCacheTests {
+
+	@Test
+	void concurrentMetadataAndPublicKeyLookupsShareOneGetPublicKey() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		PublicKeyKmsClient kmsClient = new PublicKeyKmsClient(release);
+		KmsKeyCache cache = new KmsKeyCache(kmsClient);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<PublicKey>> publicKeys = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				boolean metadata = i % 2 == 0;
+				publicKeys.add(executor.submit(() -> metadata
+						? cache.getKeyInfo("key").getPublicKey()
+						: cache.getPublicKey("key")));
+			}
+			kmsClient.awaitCalls(1);
+			Thread.sleep(50);
+			release.countDown();
+
+			for (Future<PublicKey> publicKey : publicKeys) {
+				assertThat(publicKey.get(5, TimeUnit.SECONDS)).isNotNull().isSameAs(cache.getPublicKey("key"));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertThat(kmsClient.getPublicKeyCalls.get()).isEqualTo(1);
+		assertThat(kmsClient.describeKeyCalls.get()).isZero();
+		KmsKeyCache.KeyInfo keyInfo = cache.getKeyInfo("key");
+		assertThat(keyInfo.getKeySpec()).isEqualTo(KeySpec.RSA_2048);
+		assertThat(keyInfo.getKeyUsage()).isEqualTo(KeyUsageType.SIGN_VERIFY);
+		assertThat(keyInfo.getSigningAlgorithms()).contains(SigningAlgorithmSpec.RSASSA_PSS_SHA_256);
+	}
+
+	@Test
+	void leastRecentlyUsedKeysAreEvicted() throws Exception {
+		PublicKeyKmsClient kmsClient = new PublicKeyKmsClient(new CountDownLatch(0));
+		KmsKeyCache cache = new KmsKeyCache(kmsClient, 2);
+		cache.getKeyInfo("a");
+		cache.getKeyInfo("b");
+		cache.getPublicKey("a");
+
+		cache.getKeyInfo("c");
+
+		assertThat(cache.size()).isEqualTo(2);
+		assertThat(kmsClient.getPublicKeyCalls.get()).isEqualTo(3);
+		cache.getKeyInfo("a");
+		assertThat(kmsClient.getPublicKeyCalls.get()).isEqualTo(3);
+		cache.getKeyInfo("b");
+		assertThat(kmsClient.getPublicKeyCalls.get()).isEqualTo(4);
+	}
+
+	@Test
+	void theSharedCacheDoesNotKeepItsClientReachable() throws Exception {
+		PublicKeyKmsClient kmsClient = new PublicKeyKmsClient(new CountDownLatch(0));
+		KmsKeyCache.forClient(kmsClient).getKeyInfo("key");
+		assertThat(KmsKeyCache.forClient(kmsClient)).isSameAs(KmsKeyCache.forClient(kmsClient));
+		WeakReference<KmsClient> reference = new WeakReference<>(kmsClient);
+		kmsClient = null;
+
+		for (int i = 0; i < 50 && reference.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+
+		assertThat(reference.get()).isNull();
+	}
+
+	/**
+	 * Answers GetPublicKey with one RSA key for every key id, once released.
+	 */
+	private static final class PublicKeyKmsClient implements KmsClient {
+
+		private static final byte[] PUBLIC_KEY = generatePublicKey();
+
+		private final CountDownLatch release;
+		private final AtomicInteger getPublicKeyCalls = new AtomicInteger();
+		private final AtomicInteger describeKeyCalls = new AtomicInteger();
+
+		PublicKeyKmsClient(CountDownLatch release) {
+			this.release = release;
+		}
+
+		@Override
+		public GetPublicKeyResponse getPublicKey(GetPublicKeyRequest request) {
+			getPublicKeyCalls.incrementAndGet();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return GetPublicKeyResponse.builder()
+					.keyId("arn:aws:kms:us-east-1:111122223333:key/" + request.keyId())
+					.keySpec(KeySpec.RSA_2048)
+					.keyUsage(KeyUsageType.SIGN_VERIFY)
+					.signingAlgorithms(List.of(SigningAlgorithmSpec.RSASSA_PSS_SHA_256))
+					.publicKey(SdkBytes.fromByteArray(PUBLIC_KEY))
+					.build();
+		}
+
+		@Override
+		public DescribeKeyResponse describeKey(DescribeKeyRequest request) {
+			describeKeyCalls.incrementAndGet();
+			throw new UnsupportedOperationException();
+		}
+
+		void awaitCalls(int calls) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (getPublicKeyCalls.get() < calls && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+		}
+
+		@Override
+		public String serviceName() {
+			return "kms";
+		}
+
+		@Override
+		public void close() {
+		}
+
+		private static byte[] generatePublicKey() {
+			try {
+				KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+				generator.initialize(2048);
+				return generator.generateKeyPair().getPublic().getEncoded();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,190 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.AliasListEntry;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.kms.model.ListAliasesRequest;
+import software.amazon.awssdk.services.kms.model.ListAliasesResponse;
+
+class KmsKeyConcurrencyLimitingClientTests {
+
+	private static final String EAST_REPLICA = "arn:aws:kms:us-east-1:111122223333:key/mrk-busy";
+
+	private static final String WEST_REPLICA = "arn:aws:kms:us-west-2:111122223333:key/mrk-busy";
+
+	@Test
+	void requestsOverTheCapForAKeyFailAsThrottled() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		KmsKeyConcurrencyLimitingClient kmsClient = limitingClient(new BlockingKmsClient(release), 2);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			Thread thread = new Thread(() -> kmsClient.describeKey(request -> request.keyId("busy")));
+			thread.start();
+			threads.add(thread);
+		}
+		awaitInFlight(kmsClient, "busy", 2);
+
+		KmsException e = assertThrows(KmsException.class, () -> kmsClient.describeKey(request -> request.keyId("busy")));
+		assertThat(e.isThrottlingException()).isTrue();
+
+		release.countDown();
+		for (Thread thread : threads) {
+			thread.join(5_000);
+		}
+		assertThat(kmsClient.getInFlight("busy")).isZero();
+	}
+
+	@Test
+	void keysAreLimitedSeparately() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		KmsKeyConcurrencyLimitingClient kmsClient = limitingClient(new BlockingKmsClient(release), 1);
+		Thread busy = new Thread(() -> kmsClient.describeKey(request -> request.keyId("busy")));
+		busy.start();
+		awaitInFlight(kmsClient, "busy", 1);
+
+		kmsClient.describeKey(request -> request.keyId("idle"));
+
+		assertThat(kmsClient.getInFlight("busy")).isEqualTo(1);
+		release.countDown();
+		busy.join(5_000);
+	}
+
+	@Test
+	void aKeyIsLimitedAsOneWhateverItIsNamedBy() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		BlockingKmsClient blockingClient = new BlockingKmsClient(release);
+		KmsAliasCache aliasCache = new KmsAliasCache(blockingClient);
+		assertThat(aliasCache.getTargetKeyId("alias/busy-alias")).isEqualTo("busy");
+		KmsKeyConcurrencyLimitingClient kmsClient = new KmsKeyConcurrencyLimitingClient(blockingClient, aliasCache, "us-east-1",
+				2, Duration.ofMillis(50));
+		List<Thread> threads = new ArrayList<>();
+		for (String keyId : List.of("busy", "arn:aws:kms:us-east-1:111122223333:key/busy")) {
+			Thread thread = new Thread(() -> kmsClient.describeKey(request -> request.keyId(keyId)));
+			thread.start();
+			threads.add(thread);
+		}
+		awaitInFlight(kmsClient, "alias/busy-alias", 2);
+
+		KmsException e = assertThrows(KmsException.class,
+				() -> kmsClient.describeKey(request -> request.keyId("alias/busy-alias")));
+		assertThat(e.isThrottlingException()).isTrue();
+		// The alias was resolved through the cache it shares with the provider, not paged again.
+		assertThat(blockingClient.listAliasesCalls).hasValue(1);
+
+		release.countDown();
+		for (Thread thread : threads) {
+			thread.join(5_000);
+		}
+	}
+
+	@Test
+	void multiRegionReplicasAreLimitedSeparately() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		KmsKeyConcurrencyLimitingClient kmsClient = limitingClient(new BlockingKmsClient(release), 1);
+		Thread busy = new Thread(() -> kmsClient.describeKey(request -> request.keyId(EAST_REPLICA)));
+		busy.start();
+		awaitInFlight(kmsClient, EAST_REPLICA, 1);
+
+		KmsException e = assertThrows(KmsException.class,
+				() -> kmsClient.describeKey(request -> request.keyId("mrk-busy")));
+		assertThat(e.isThrottlingException()).isTrue();
+		kmsClient.describeKey(request -> request.keyId(WEST_REPLICA));
+
+		assertThat(kmsClient.getInFlight(EAST_REPLICA)).isEqualTo(1);
+		assertThat(kmsClient.getInFlight(WEST_REPLICA)).isZero();
+		release.countDown();
+		busy.join(5_000);
+	}
+
+	@Test
+	void idleKeysAreNotKeptWithoutBound() {
+		KmsKeyConcurrencyLimitingClient kmsClient = limitingClient(new BlockingKmsClient(new CountDownLatch(0)), 1);
+
+		for (int i = 0; i < KmsKeyPermits.MAXIMUM_KEYS * 4; i++) {
+			String keyId = "key-" + i;
+			kmsClient.describeKey(request -> request.keyId(keyId));
+		}
+
+		assertThat(kmsClient.getPermits().getKeyCount()).isLessThanOrEqualTo(KmsKeyPermits.MAXIMUM_KEYS);
+	}
+
+	private static KmsKeyConcurrencyLimitingClient limitingClient(KmsClient kmsClient, int maxInFlightPerKey) {
+		return new KmsKeyConcurrencyLimitingClient(kmsClient, new KmsAliasCache(kmsClient), "us-east-1",
+				maxInFlightPerKey, Duration.ofMillis(50));
+	}
+
+	private static void awaitInFlight(KmsKeyConcurrencyLimitingClient kmsClient, String keyId, int inFlight)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (kmsClient.getInFlight(keyId) < inFlight && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertThat(kmsClient.getInFlight(keyId)).isEqualTo(inFlight);
+	}
+
+	/**
+	 * Holds DescribeKey requests for the "busy" key, named by id, ARN or its alias
+	 * "alias/busy-alias", and for the us-east-1 replica of "mrk-busy", until released.
+	 */
+	private static final class BlockingKmsClient implements KmsClient {
+
+		private static final Set<String> BUSY = Set.of("busy", "arn:aws:kms:us-east-1:111122223333:key/busy",
+				"alias/busy-alias", EAST_REPLICA);
+
+		private final CountDownLatch release;
+		private final AtomicInteger listAliasesCalls = new AtomicInteger();
+
+		BlockingKmsClient(CountDownLatch release) {
+			this.release = release;
+		}
+
+		@Override
+		public DescribeKeyResponse describeKey(DescribeKeyRequest describeKeyRequest) {
+			try {
+				if (BUSY.contains(describeKeyRequest.keyId())) {
+					release.await(5, TimeUnit.SECONDS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return DescribeKeyResponse.builder().build();
+		}
+
+		@Override
+		public ListAliasesResponse listAliases(ListAliasesRequest listAliasesRequest) {
+			listAliasesCalls.incrementAndGet();
+			return ListAliasesResponse.builder()
+					.aliases(List.of(AliasListEntry.builder()
+							.aliasName("alias/busy-alias")
+							.targetKeyId("busy")
+							.build()))
+					.truncated(false)
+					.build();
+		}
+
+		@Override
+		public String serviceName() {
+			return "kms";
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package org.keysupport.authservice.awskms.jce.provider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.awskms.jce.provider.KmsRequestScheduler.Priority;
+import org.keysupport.authservice.awskms.simulator.KmsSimulator;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.kms.model.MessageType;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+class KmsRequestSchedulerTests {
+
+	@Test
+	void signingGoesAheadOfQueuedBackgroundRequests() throws Exception {
+		KmsRequestScheduler scheduler = new KmsRequestScheduler(Map.of(KmsRequestScheduler.RSA, 2), 1.0, Duration.ofSeconds(5));
+		scheduler.acquire(KmsRequestScheduler.RSA, Priority.SIGN);
+		scheduler.acquire(KmsRequestScheduler.RSA, Priority.SIGN);
+		List<Priority> order = new CopyOnWriteArrayList<>();
+
+		Thread verify = start(scheduler, Priority.BACKGROUND, order);
+		awaitQueued(scheduler, 1);
+		Thread sign = start(scheduler, Priority.SIGN, order);
+		awaitQueued(scheduler, 2);
+		verify.join(5_000);
+		sign.join(5_000);
+
+		assertThat(order).isEqualTo(List.of(Priority.SIGN, Priority.BACKGROUND));
+	}
+
+	@Test
+	void eachRequestLeavingTheHeadOfTheQueueHandsTheNextItsTurn() throws Exception {
+		KmsRequestScheduler scheduler = new KmsRequestScheduler(Map.of(KmsRequestScheduler.RSA, 20), 1.0, Duration.ofSeconds(5));
+		for (int i = 0; i < 20; i++) {
+			scheduler.acquire(KmsRequestScheduler.RSA, Priority.SIGN);
+		}
+		List<Priority> order = new CopyOnWriteArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		Priority[] priorities = { Priority.BACKGROUND, Priority.BACKGROUND, Priority.NORMAL, Priority.SIGN };
+		long started = System.nanoTime();
+		for (int i = 0; i < priorities.length; i++) {
+			threads.add(start(scheduler, priorities[i], order));
+			awaitQueued(scheduler, i + 1);
+		}
+		for (Thread thread : threads) {
+			thread.join(5_000);
+		}
+
+		// Waiters behind the head sleep until woken, so a missed handoff would hold them for the full queue time.
+		assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(2));
+		assertThat(order).isEqualTo(List.of(Priority.SIGN, Priority.NORMAL, Priority.BACKGROUND, Priority.BACKGROUND));
+		assertThat(scheduler.getQueued(KmsRequestScheduler.RSA)).isZero();
+	}
+
+	@Test
+	void throttlingBacksOffOncePerInterval() {
+		KmsRequestScheduler scheduler = new KmsRequestScheduler(Map.of(KmsRequestScheduler.ECC, 100), 1.0, Duration.ofSeconds(5));
+
+		scheduler.throttled(KmsRequestScheduler.ECC);
+		double backedOff = scheduler.getRate(KmsRequestScheduler.ECC);
+		scheduler.throttled(KmsRequestScheduler.ECC);
+
+		assertThat(backedOff).isLessThan(71.0);
+		assertThat(scheduler.getRate(KmsRequestScheduler.ECC)).isLessThan(backedOff + 1);
+		assertThat(scheduler.getRate(KmsRequestScheduler.ECC)).isGreaterThan(69.0);
+	}
+
+	@Test
+	void requestsThatWaitTooLongFailAsThrottled() throws Exception {
+		KmsRequestScheduler scheduler = new KmsRequestScheduler(Map.of("DescribeKey", 1), 1.0, Duration.ofMillis(50));
+		scheduler.acquire("DescribeKey", Priority.BACKGROUND);
+
+		KmsException e = assertThrows(KmsException.class, () -> scheduler.acquire("DescribeKey", Priority.BACKGROUND));
+		assertThat(e.isThrottlingException()).isTrue();
+		scheduler.acquire("ListAliases", Priority.BACKGROUND);
+	}
+
+	@Test
+	void throttledRequestsAreRetriedAtAReducedRate() {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(KmsRequestScheduler.RSA, 1), Map.of())) {
+			String keyId = simulator.createKey(KeySpec.RSA_2048);
+			KmsRequestScheduler scheduler = new KmsRequestScheduler(Map.of(KmsRequestScheduler.RSA, 10), 1.0, Duration.ofSeconds(5));
+			KmsClient kmsClient = new KmsSchedulingClient(simulator.client(), scheduler, 50);
+			for (int i = 0; i < 2; i++) {
+				kmsClient.sign(request -> request.keyId(keyId)
+						.signingAlgorithm(SigningAlgorithmSpec.RSASSA_PSS_SHA_256)
+						.messageType(MessageType.RAW)
+						.message(SdkBytes.fromUtf8String("payload")));
+			}
+
+			assertThat(simulator.getThrottles("Sign")).isGreaterThan(0L);
+			assertThat(scheduler.getRate(KmsRequestScheduler.RSA)).isLessThan(10.0);
+		}
+	}
+
+	private static Thread start(KmsRequestScheduler scheduler, Priority priority, List<Priority> order) {
+		Thread thread = new Thread(() -> {
+			try {
+				scheduler.acquire(KmsRequestScheduler.RSA, priority);
+				order.add(priority);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	private static void awaitQueued(KmsRequestScheduler scheduler, int queued) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (scheduler.getQueued(KmsRequestScheduler.RSA) < queued && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+	}
+
+}
@@ -0,0 +1,311 @@
+package org.keysupport.authservice.awskms.jce.provider.signature;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.awskms.jce.provider.KmsAliasCache;
+import org.keysupport.authservice.awskms.jce.provider.KmsKeyPermits;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.KmsRequestScheduler;
+import org.keysupport.authservice.awskms.jce.provider.KmsRequestSchedulers;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAKeyFactory;
+import org.keysupport.authservice.awskms.simulator.KmsSimulator;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+class KmsAsyncSignerTests {
+
+	private static final SigningAlgorithmSpec ALGORITHM = SigningAlgorithmSpec.RSASSA_PSS_SHA_256;
+
+	private static final String WEST_KEY = "arn:aws:kms:us-west-2:111122223333:key/mrk-west";
+
+	@Test
+	void requestsOverTheCapForAKeyWaitForACompletion() {
+		HeldKmsAsyncClient kmsAsyncClient = new HeldKmsAsyncClient();
+		KmsAsyncSigner signer = new KmsAsyncSigner(kmsAsyncClient, 2);
+
+		List<CompletableFuture<byte[]>> signatures = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			signatures.add(signer.sign("key", ALGORITHM, digest(i)));
+		}
+		signer.sign("other", ALGORITHM, digest(0));
+
+		assertThat(kmsAsyncClient.requests).hasSize(3);
+		assertThat(signer.getInFlight("key")).isEqualTo(2);
+
+		kmsAsyncClient.complete(0);
+		assertThat(signatures.get(0).join()).isEqualTo(digest(0));
+		assertThat(kmsAsyncClient.requests).hasSize(4);
+		assertThat(signer.getInFlight("key")).isEqualTo(2);
+	}
+
+	@Test
+	void identicalRequestsInFlightShareOneSign() {
+		HeldKmsAsyncClient kmsAsyncClient = new HeldKmsAsyncClient();
+		KmsAsyncSigner signer = new KmsAsyncSigner(kmsAsyncClient, 2);
+
+		CompletableFuture<byte[]> first = signer.sign("key", ALGORITHM, digest(1));
+		CompletableFuture<byte[]> second = signer.sign("key", ALGORITHM, digest(1));
+
+		assertThat(second).isSameAs(first);
+		assertThat(kmsAsyncClient.requests).hasSize(1);
+		kmsAsyncClient.complete(0);
+		assertThat(signer.sign("key", ALGORITHM, digest(1))).isNotSameAs(first);
+	}
+
+	@Test
+	void failuresCompleteTheCallersFutureAndFreeTheSlot() {
+		HeldKmsAsyncClient kmsAsyncClient = new HeldKmsAsyncClient();
+		KmsAsyncSigner signer = new KmsAsyncSigner(kmsAsyncClient, 1);
+		CompletableFuture<byte[]> failed = signer.sign("key", ALGORITHM, digest(1));
+		CompletableFuture<byte[]> queued = signer.sign("key", ALGORITHM, digest(2));
+
+		kmsAsyncClient.responses.get(0).completeExceptionally(KmsException.builder().message("denied").build());
+
+		ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+		assertThat(e.getCause()).isInstanceOf(KmsException.class);
+		assertThat(kmsAsyncClient.requests).hasSize(2);
+		kmsAsyncClient.complete(1);
+		assertThat(queued.join()).isEqualTo(digest(2));
+	}
+
+	@Test
+	void aLongQueueCompletingInlineDoesNotGrowTheStack() {
+		HeldKmsAsyncClient kmsAsyncClient = new HeldKmsAsyncClient();
+		KmsAsyncSigner signer = new KmsAsyncSigner(kmsAsyncClient, 1);
+		CompletableFuture<byte[]> first = signer.sign("key", ALGORITHM, digest(0));
+		List<CompletableFuture<byte[]>> queued = new ArrayList<>();
+		for (int i = 1; i <= 50_000; i++) {
+			queued.add(signer.sign("key", ALGORITHM, digest(i)));
+		}
+		kmsAsyncClient.completeInline = true;
+
+		kmsAsyncClient.complete(0);
+
+		assertThat(first.join()).isEqualTo(digest(0));
+		assertThat(queued.stream().allMatch(CompletableFuture::isDone)).isTrue();
+		assertThat(queued.get(queued.size() - 1).join()).isEqualTo(digest(50_000));
+		assertThat(signer.getInFlight("key")).isZero();
+	}
+
+	@Test
+	void aCallerReusingItsDigestBufferDoesNotChangeTheRequest() {
+		HeldKmsAsyncClient kmsAsyncClient = new HeldKmsAsyncClient();
+		KmsAsyncSigner signer = new KmsAsyncSigner(kmsAsyncClient, 1);
+		byte[] buffer = digest(1);
+		CompletableFuture<byte[]> first = signer.sign("key", ALGORITHM, buffer);
+		buffer[3] = 2;
+
+		CompletableFuture<byte[]> second = signer.sign("key", ALGORITHM, buffer);
+
+		assertThat(second).isNotSameAs(first);
+		kmsAsyncClient.complete(0);
+		assertThat(first.join()).isEqualTo(digest(1));
+		kmsAsyncClient.complete(1);
+		assertThat(second.join()).isEqualTo(digest(2));
+	}
+
+	@Test
+	void keysInOtherRegionsAreSignedByTheirRegionsClient() {
+		HeldKmsAsyncClient eastClient = new HeldKmsAsyncClient();
+		HeldKmsAsyncClient westClient = new HeldKmsAsyncClient();
+		KmsAsyncSigner signer = new KmsAsyncSigner(eastClient, Map.of("us-west-2", westClient), null, null, 2);
+
+		signer.sign(WEST_KEY, ALGORITHM, digest(1));
+		signer.sign("alias/signing", ALGORITHM, digest(2));
+
+		assertThat(westClient.requests).extracting(SignRequest::keyId).containsExactly(WEST_KEY);
+		assertThat(eastClient.requests).extracting(SignRequest::keyId).containsExactly("alias/signing");
+	}
+
+	@Test
+	void aKeysPermitsAreSharedWithTheBlockingClient() throws Exception {
+		HeldKmsAsyncClient kmsAsyncClient = new HeldKmsAsyncClient();
+		KmsKeyPermits permits = new KmsKeyPermits(new KmsAliasCache(null), "us-east-1", 1, Duration.ofSeconds(5));
+		KmsAsyncSigner signer = new KmsAsyncSigner(kmsAsyncClient, Map.of(), null, permits, 2);
+		KmsKeyPermits.Permit blocking = permits.acquire("key");
+
+		CompletableFuture<byte[]> signature = signer.sign("key", ALGORITHM, digest(1));
+		Thread.sleep(4 * KmsAsyncSigner.PERMIT_RETRY_INTERVAL.toMillis());
+		assertThat(kmsAsyncClient.requests).isEmpty();
+
+		blocking.release();
+		await(() -> kmsAsyncClient.requests.size(), 1);
+		assertThat(permits.getInFlight("key")).isEqualTo(1);
+		kmsAsyncClient.complete(0);
+		assertThat(signature.join()).isEqualTo(digest(1));
+		assertThat(permits.getInFlight("key")).isZero();
+	}
+
+	@Test
+	void requestsWaitingTooLongForAPermitFailAsThrottled() {
+		HeldKmsAsyncClient kmsAsyncClient = new HeldKmsAsyncClient();
+		KmsKeyPermits permits = new KmsKeyPermits(new KmsAliasCache(null), "us-east-1", 1, Duration.ofMillis(20));
+		KmsAsyncSigner signer = new KmsAsyncSigner(kmsAsyncClient, Map.of(), null, permits, 2);
+		permits.acquire("key");
+
+		ExecutionException e = assertThrows(ExecutionException.class,
+				() -> signer.sign("key", ALGORITHM, digest(1)).get(5, TimeUnit.SECONDS));
+
+		assertThat(((KmsException) e.getCause()).isThrottlingException()).isTrue();
+		assertThat(kmsAsyncClient.requests).isEmpty();
+	}
+
+	@Test
+	void throttledRequestsSlowTheSchedulerAndAreRetriedOnTheirTurn() throws Exception {
+		HeldKmsAsyncClient kmsAsyncClient = new HeldKmsAsyncClient();
+		KmsRequestScheduler scheduler = new KmsRequestScheduler(Map.of(KmsRequestScheduler.RSA, 100), 1.0,
+				Duration.ofSeconds(5));
+		KmsAsyncSigner signer = new KmsAsyncSigner(kmsAsyncClient, Map.of(),
+				new KmsRequestSchedulers(scheduler, Map.of(), 3), null, 2);
+
+		CompletableFuture<byte[]> signature = signer.sign("key", ALGORITHM, digest(1));
+		await(() -> kmsAsyncClient.requests.size(), 1);
+		kmsAsyncClient.responses.get(0).completeExceptionally(throttled());
+		await(() -> kmsAsyncClient.requests.size(), 2);
+
+		assertThat(scheduler.getRate(KmsRequestScheduler.RSA)).isLessThan(100);
+		assertThat(signer.getInFlight("key")).isEqualTo(1);
+		kmsAsyncClient.complete(1);
+		assertThat(signature.get(5, TimeUnit.SECONDS)).isEqualTo(digest(1));
+		assertThat(signer.getInFlight("key")).isZero();
+	}
+
+	@Test
+	void providerSignaturesSignThroughTheBlockingClientAndOfferTheAsyncSigner() throws Exception {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			String keyId = simulator.createKey(KeySpec.RSA_2048);
+			CountingKmsAsyncClient kmsAsyncClient = new CountingKmsAsyncClient(simulator.asyncClient());
+			KmsProvider provider = new KmsProvider(simulator.client(), new KmsAliasCache(simulator.client()),
+					KmsVerificationMode.LOCAL_PREFERRED, new KmsAsyncSigner(kmsAsyncClient));
+			assertThat(provider.getAsyncSigner()).isNotNull();
+
+			Signature signer = Signature.getInstance(KmsSigningAlgorithm.RSASSA_PSS_SHA_256.getAlgorithm(), provider);
+			signer.initSign(KmsRSAKeyFactory.getPrivateKey(keyId));
+			signer.update("payload".getBytes());
+			byte[] signature = signer.sign();
+
+			assertThat(kmsAsyncClient.signs).isEmpty();
+			Signature verifier = Signature.getInstance(KmsSigningAlgorithm.RSASSA_PSS_SHA_256.getAlgorithm(), provider);
+			verifier.initVerify(KmsRSAKeyFactory.getPublicKey(simulator.client(), keyId));
+			verifier.update("payload".getBytes());
+			assertThat(verifier.verify(signature)).isTrue();
+			verifier.update("payload".getBytes());
+			assertThat(verifier.verify(provider.getAsyncSigner()
+					.sign(keyId, ALGORITHM, sha256("payload")).join())).isTrue();
+			assertThat(kmsAsyncClient.signs).hasSize(1);
+		}
+	}
+
+	private static void await(IntSupplier actual, int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (actual.getAsInt() < expected && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertThat(actual.getAsInt()).isEqualTo(expected);
+	}
+
+	private static KmsException throttled() {
+		return (KmsException) KmsException.builder()
+				.message("Rate exceeded")
+				.statusCode(400)
+				.awsErrorDetails(AwsErrorDetails.builder()
+						.errorCode("ThrottlingException")
+						.errorMessage("Rate exceeded")
+						.serviceName("Kms")
+						.build())
+				.build();
+	}
+
+	private static byte[] sha256(String message) throws Exception {
+		return MessageDigest.getInstance("SHA-256").digest(message.getBytes());
+	}
+
+	private static byte[] digest(int i) {
+		return new byte[] { (byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i };
+	}
+
+	/**
+	 * Holds each Sign response, whose signature is the digest, until completed; once
+	 * {@code completeInline} is set, answers further requests before returning them.
+	 */
+	private static final class HeldKmsAsyncClient implements KmsAsyncClient {
+
+		private final List<SignRequest> requests = new CopyOnWriteArrayList<>();
+		private final List<CompletableFuture<SignResponse>> responses = new CopyOnWriteArrayList<>();
+		private boolean completeInline;
+
+		@Override
+		public CompletableFuture<SignResponse> sign(SignRequest signRequest) {
+			requests.add(signRequest);
+			CompletableFuture<SignResponse> response = new CompletableFuture<>();
+			responses.add(response);
+			if (completeInline) {
+				response.complete(SignResponse.builder().signature(signRequest.message()).build());
+			}
+			return response;
+		}
+
+		void complete(int request) {
+			responses.get(request).complete(SignResponse.builder()
+					.signature(SdkBytes.fromByteArray(requests.get(request).message().asByteArray()))
+					.build());
+		}
+
+		@Override
+		public String serviceName() {
+			return SERVICE_NAME;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static final class CountingKmsAsyncClient implements KmsAsyncClient {
+
+		private final KmsAsyncClient delegate;
+		private final List<SignRequest> signs = new CopyOnWriteArrayList<>();
+
+		CountingKmsAsyncClient(KmsAsyncClient delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public CompletableFuture<SignResponse> sign(SignRequest signRequest) {
+			signs.add(signRequest);
+			return delegate.sign(signRequest);
+		}
+
+		@Override
+		public String serviceName() {
+			return SERVICE_NAME;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
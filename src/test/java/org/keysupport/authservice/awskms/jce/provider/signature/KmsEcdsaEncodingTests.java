@@ -0,0 +1,78 @@
+package org.keysupport.authservice.awskms.jce.provider.signature;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.ECGenParameterSpec;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+class KmsEcdsaEncodingTests {
+
+	@Test
+	void transcodesToWhatTheJdkVerifiesAndBack() throws Exception {
+		assertRoundTrips("secp256r1", KmsSigningAlgorithm.ECDSA_SHA_256);
+		assertRoundTrips("secp384r1", KmsSigningAlgorithm.ECDSA_SHA_384);
+		assertRoundTrips("secp521r1", KmsSigningAlgorithm.ECDSA_SHA_512);
+	}
+
+	@Test
+	void shortIntegersAreLeftPadded() throws Exception {
+		byte[] der = { 0x30, 0x08, 0x02, 0x02, 0x00, (byte) 0x80, 0x02, 0x02, 0x01, 0x02 };
+
+		byte[] concat = KmsEcdsaEncoding.derToConcat(der, 8);
+
+		assertThat(concat).isEqualTo(new byte[] { 0, 0, 0, (byte) 0x80, 0, 0, 1, 2 });
+		assertThat(KmsEcdsaEncoding.concatToDer(concat)).isEqualTo(der);
+	}
+
+	@Test
+	void malformedSignaturesAreRejected() {
+		assertThrows(SignatureException.class, () -> KmsEcdsaEncoding.derToConcat(new byte[] { 0x30, 0x06, 0x02, 0x01, 0x01, 0x02, 0x01 }, 64));
+		assertThrows(SignatureException.class,
+				() -> KmsEcdsaEncoding.derToConcat(new byte[] { 0x30, 0x06, 0x02, 0x01, 0x01, 0x04, 0x01, 0x01 }, 64));
+		assertThrows(SignatureException.class, () -> KmsEcdsaEncoding.derToConcat(
+				new byte[] { 0x30, 0x08, 0x02, 0x03, 0x01, 0x01, 0x01, 0x02, 0x01, 0x01 }, 4));
+		assertThrows(SignatureException.class, () -> KmsEcdsaEncoding.concatToDer(new byte[63]));
+	}
+
+	@Test
+	void lengthsFollowTheCurveKmsPairsWithEachAlgorithm() {
+		assertThat(KmsEcdsaEncoding.concatLength(SigningAlgorithmSpec.ECDSA_SHA_256)).isEqualTo(64);
+		assertThat(KmsEcdsaEncoding.concatLength(SigningAlgorithmSpec.ECDSA_SHA_512)).isEqualTo(132);
+		assertThat(KmsEcdsaEncoding.concatLength(SigningAlgorithmSpec.RSASSA_PSS_SHA_256)).isZero();
+		assertThat(KmsSigningAlgorithm.RSASSA_PSS_SHA_256.getP1363Algorithm()).isNull();
+	}
+
+	private static void assertRoundTrips(String curve, KmsSigningAlgorithm algorithm) throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec(curve));
+		KeyPair keyPair = generator.generateKeyPair();
+		int length = KmsEcdsaEncoding.concatLength(algorithm.getSigningAlgorithmSpec());
+		// Enough signatures that some have an integer with its high bit set, and some a short one.
+		for (int i = 0; i < 50; i++) {
+			byte[] message = ("message " + i).getBytes(StandardCharsets.UTF_8);
+			Signature signer = Signature.getInstance(algorithm.getAlgorithm());
+			signer.initSign(keyPair.getPrivate());
+			signer.update(message);
+			byte[] der = signer.sign();
+
+			byte[] concat = KmsEcdsaEncoding.derToConcat(der, length);
+
+			assertThat(concat).hasSize(length);
+			Signature verifier = Signature.getInstance(algorithm.getP1363Algorithm());
+			verifier.initVerify(keyPair.getPublic());
+			verifier.update(message);
+			assertThat(verifier.verify(concat)).isTrue();
+			assertThat(KmsEcdsaEncoding.concatToDer(concat)).isEqualTo(der);
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.keysupport.authservice.awskms.jce.provider.signature;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+class KmsLocalVerifierTests {
+
+	private static final byte[] MESSAGE = "header.payload".getBytes();
+
+	@Test
+	void signaturesVerifyAndTamperedOnesDoNot() throws Exception {
+		KeyPair rsa = keyPair("RSA", null);
+		for (KmsSigningAlgorithm algorithm : KmsSigningAlgorithm.values()) {
+			KeyPair keyPair = algorithm.name().startsWith("ECDSA") ? keyPair("EC", curve(algorithm)) : rsa;
+			SigningAlgorithmSpec spec = algorithm.getSigningAlgorithmSpec();
+			AsymmetricKeyParameter key = KmsLocalVerifier.toKeyParameter(keyPair.getPublic());
+			byte[] digest = MessageDigest.getInstance(algorithm.getDigestAlgorithm()).digest(MESSAGE);
+			byte[] signature = sign(algorithm, keyPair);
+
+			assertThat(KmsLocalVerifier.verify(spec, key, digest, signature)).as(algorithm.name()).isTrue();
+
+			byte[] tamperedSignature = signature.clone();
+			tamperedSignature[tamperedSignature.length / 2] ^= 1;
+			assertThat(KmsLocalVerifier.verify(spec, key, digest, tamperedSignature)).as(algorithm.name()).isFalse();
+
+			byte[] tamperedDigest = digest.clone();
+			tamperedDigest[0] ^= 1;
+			assertThat(KmsLocalVerifier.verify(spec, key, tamperedDigest, signature)).as(algorithm.name()).isFalse();
+		}
+	}
+
+	@Test
+	void signaturesTooLargeForTheModulusDoNotVerify() throws Exception {
+		KeyPair rsa = keyPair("RSA", null);
+		for (KmsSigningAlgorithm algorithm : new KmsSigningAlgorithm[] { KmsSigningAlgorithm.RSASSA_PSS_SHA_256,
+				KmsSigningAlgorithm.RSASSA_PKCS1_V1_5_SHA_256 }) {
+			Signature verifier = Signature.getInstance(algorithm.getAlgorithm(), new KmsProvider(null));
+			for (int length : new int[] { 256, 257, 512 }) {
+				byte[] oversized = new byte[length];
+				Arrays.fill(oversized, (byte) 0xff);
+				verifier.initVerify(rsa.getPublic());
+				verifier.update(MESSAGE);
+
+				assertThat(verifies(verifier, oversized)).as(algorithm.name() + " " + length).isFalse();
+			}
+		}
+	}
+
+	/**
+	 * @return whether the signature verified; a SignatureException counts as not verified
+	 */
+	private static boolean verifies(Signature verifier, byte[] signature) {
+		try {
+			return verifier.verify(signature);
+		} catch (SignatureException e) {
+			return false;
+		}
+	}
+
+	private static byte[] sign(KmsSigningAlgorithm algorithm, KeyPair keyPair) throws Exception {
+		String digestAlgorithm = algorithm.getDigestAlgorithm();
+		String digestName = digestAlgorithm.replace("-", "");
+		Signature signer;
+		switch (algorithm.getSigningAlgorithmSpec()) {
+			case RSASSA_PSS_SHA_256:
+			case RSASSA_PSS_SHA_384:
+			case RSASSA_PSS_SHA_512:
+				signer = Signature.getInstance("RSASSA-PSS");
+				signer.setParameter(new PSSParameterSpec(digestAlgorithm, "MGF1", new MGF1ParameterSpec(digestAlgorithm),
+						MessageDigest.getInstance(digestAlgorithm).getDigestLength(), 1));
+				break;
+			case ECDSA_SHA_256:
+			case ECDSA_SHA_384:
+			case ECDSA_SHA_512:
+				signer = Signature.getInstance(digestName + "withECDSA");
+				break;
+			default:
+				signer = Signature.getInstance(digestName + "withRSA");
+		}
+		signer.initSign(keyPair.getPrivate());
+		signer.update(MESSAGE);
+		return signer.sign();
+	}
+
+	private static String curve(KmsSigningAlgorithm algorithm) {
+		switch (algorithm.getSigningAlgorithmSpec()) {
+			case ECDSA_SHA_384:
+				return "secp384r1";
+			case ECDSA_SHA_512:
+				return "secp521r1";
+			default:
+				return "secp256r1";
+		}
+	}
+
+	private static KeyPair keyPair(String algorithm, String curve) throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+		if (curve != null) {
+			generator.initialize(new ECGenParameterSpec(curve));
+		} else {
+			generator.initialize(2048);
+		}
+		return generator.generateKeyPair();
+	}
+
+}
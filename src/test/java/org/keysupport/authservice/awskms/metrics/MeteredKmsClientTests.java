@@ -0,0 +1,139 @@
+package org.keysupport.authservice.awskms.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.awskms.jce.provider.KmsKeyCache;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAKeyFactory;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAPrivateKey;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsAsyncSigner;
+import org.keysupport.authservice.awskms.simulator.KmsSimulator;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.kms.model.MessageType;
+import software.amazon.awssdk.services.kms.model.NotFoundException;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+class MeteredKmsClientTests {
+
+	@Test
+	void signingIsTimedByKeyAndAlgorithm() throws Exception {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			String keyId = simulator.createKey(KeySpec.RSA_2048);
+			KmsClient kmsClient = new MeteredKmsClient(simulator.client(), registry);
+			KmsProvider provider = new KmsProvider(kmsClient);
+			for (int i = 0; i < 3; i++) {
+				Signature signer = Signature.getInstance("SHA256withRSA", provider);
+				signer.initSign(new KmsRSAPrivateKey(keyId));
+				signer.update("payload".getBytes(StandardCharsets.UTF_8));
+				signer.sign();
+			}
+
+			assertThat(registry.get(MeteredKmsClient.REQUESTS)
+					.tag("operation", "Sign")
+					.tag("key.id", keyId)
+					.tag("signing.algorithm", "RSASSA_PKCS1_V1_5_SHA_256")
+					.timer().count()).isEqualTo(3);
+			assertThat(registry.get(MeteredKmsClient.IN_FLIGHT).tag("operation", "Sign").gauge().value()).isEqualTo(0.0);
+		}
+	}
+
+	@Test
+	void throttlesAndErrorsAreCountedByErrorCode() {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of("DescribeKey", 1), Map.of())) {
+			String keyId = simulator.createKey(KeySpec.ECC_NIST_P256);
+			KmsClient kmsClient = new MeteredKmsClient(simulator.client(), registry);
+			kmsClient.describeKey(request -> request.keyId(keyId));
+			assertThrows(KmsException.class, () -> kmsClient.describeKey(request -> request.keyId(keyId)));
+			assertThrows(NotFoundException.class, () -> kmsClient.describeKey(request -> request.keyId("alias/missing")));
+
+			assertThat(registry.get(MeteredKmsClient.THROTTLED)
+					.tag("operation", "DescribeKey")
+					.tag("error.code", "ThrottlingException")
+					.counter().count()).isEqualTo(1.0);
+			assertThat(registry.get(MeteredKmsClient.ERRORS)
+					.tag("key.id", "alias/missing")
+					.tag("error.code", "NotFoundException")
+					.counter().count()).isEqualTo(1.0);
+			assertThat(registry.get(MeteredKmsClient.REQUESTS)
+					.tag("operation", "DescribeKey")
+					.tag("key.id", keyId)
+					.timer().count()).isEqualTo(2);
+		}
+	}
+
+	@Test
+	void asynchronousSignsAreTimedWithTheBlockingClientsSigns() throws Exception {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			String keyId = simulator.createKey(KeySpec.ECC_NIST_P256);
+			KmsClient kmsClient = new MeteredKmsClient(simulator.client(), registry);
+			KmsAsyncSigner signer = new KmsAsyncSigner(
+					new MeteredKmsAsyncClient(simulator.asyncClient(), registry, MeteredKmsClient.DEFAULT_REGION));
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest("payload".getBytes(StandardCharsets.UTF_8));
+			kmsClient.sign(request -> request.keyId(keyId)
+					.signingAlgorithm(SigningAlgorithmSpec.ECDSA_SHA_256)
+					.messageType(MessageType.DIGEST)
+					.message(SdkBytes.fromByteArray(digest)));
+			signer.sign(keyId, SigningAlgorithmSpec.ECDSA_SHA_256, digest).join();
+			assertThrows(CompletionException.class,
+					() -> signer.sign("alias/missing", SigningAlgorithmSpec.ECDSA_SHA_256, digest).join());
+
+			assertThat(registry.get(MeteredKmsClient.REQUESTS)
+					.tag("operation", "Sign")
+					.tag("key.id", keyId)
+					.tag("signing.algorithm", "ECDSA_SHA_256")
+					.timer().count()).isEqualTo(2);
+			assertThat(registry.get(MeteredKmsClient.ERRORS)
+					.tag("operation", "Sign")
+					.tag("key.id", "alias/missing")
+					.tag("error.code", "NotFoundException")
+					.counter().count()).isEqualTo(1.0);
+		}
+	}
+
+	@Test
+	void cacheHitsAndMissesArePublished() throws Exception {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			simulator.createKey("alias/RSA2048", KeySpec.RSA_2048);
+			KmsClient kmsClient = new MeteredKmsClient(simulator.client(), registry);
+			KmsProvider provider = new KmsProvider(kmsClient);
+			new KmsCacheMetrics(KmsKeyCache.forClient(kmsClient), provider.getAliasCache()).bindTo(registry);
+			KeyStore keyStore = KeyStore.getInstance("KMS", provider);
+			keyStore.load(null, null);
+			keyStore.getKey("RSA2048", null);
+			keyStore.getKey("RSA2048", null);
+			KmsRSAKeyFactory.getPublicKey(kmsClient, "alias/RSA2048");
+
+			assertThat(registry.get("cache.gets").tag("cache", KmsCacheMetrics.KEY_CACHE).tag("result", "hit")
+					.functionCounter().count()).isEqualTo(1.0);
+			assertThat(registry.get("cache.gets").tag("cache", KmsCacheMetrics.KEY_CACHE).tag("result", "miss")
+					.functionCounter().count()).isEqualTo(2.0);
+			assertThat(registry.get("cache.gets").tag("cache", KmsCacheMetrics.ALIAS_CACHE).tag("result", "hit")
+					.functionCounter().count()).isEqualTo(2.0);
+			assertThat(registry.get("cache.size").tag("cache", KmsCacheMetrics.ALIAS_CACHE).gauge().value()).isEqualTo(1.0);
+		}
+	}
+
+}
@@ -0,0 +1,181 @@
+package org.keysupport.authservice.awskms.simulator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.awskms.jce.provider.KmsAliasCache;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.ec.KmsECPrivateKey;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAPrivateKey;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DataKeySpec;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.kms.model.InvalidCiphertextException;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.kms.model.KmsInvalidSignatureException;
+import software.amazon.awssdk.services.kms.model.MessageType;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+class KmsSimulatorTests {
+
+	private static final byte[] PAYLOAD = "payload".getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	void signaturesFromTheProviderVerifyLocally() throws Exception {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			String rsaKeyId = simulator.createKey(KeySpec.RSA_2048);
+			String ecKeyId = simulator.createKey("alias/EC256", KeySpec.ECC_NIST_P256);
+			KmsClient kmsClient = simulator.client();
+			KmsProvider provider = new KmsProvider(kmsClient, new KmsAliasCache(kmsClient));
+
+			assertThat(verifies("SHA256withRSA", provider, new KmsRSAPrivateKey(rsaKeyId), publicKey(kmsClient, rsaKeyId, "RSA")))
+					.isTrue();
+			assertThat(verifies("SHA256withECDSA", provider, new KmsECPrivateKey("alias/EC256"),
+					publicKey(kmsClient, ecKeyId, "EC"))).isTrue();
+			assertThat(simulator.getRequests("Sign")).isEqualTo(2);
+		}
+	}
+
+	@Test
+	void invalidSignaturesFailVerification() {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			String keyId = simulator.createKey(KeySpec.RSA_2048);
+			SignResponse signed = simulator.client().sign(request -> request.keyId(keyId)
+					.signingAlgorithm(SigningAlgorithmSpec.RSASSA_PSS_SHA_256)
+					.messageType(MessageType.RAW)
+					.message(SdkBytes.fromByteArray(PAYLOAD)));
+
+			assertThat(simulator.client().verify(request -> request.keyId(keyId)
+					.signingAlgorithm(SigningAlgorithmSpec.RSASSA_PSS_SHA_256)
+					.messageType(MessageType.RAW)
+					.message(SdkBytes.fromByteArray(PAYLOAD))
+					.signature(signed.signature())).signatureValid()).isTrue();
+			assertThrows(KmsInvalidSignatureException.class, () -> simulator.client().verify(request -> request.keyId(keyId)
+					.signingAlgorithm(SigningAlgorithmSpec.RSASSA_PSS_SHA_256)
+					.messageType(MessageType.RAW)
+					.message(SdkBytes.fromUtf8String("tampered"))
+					.signature(signed.signature())));
+		}
+	}
+
+	@Test
+	void requestsOverTheQuotaAreThrottled() {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of("DescribeKey", 5), Map.of())) {
+			String keyId = simulator.createKey(KeySpec.ECC_NIST_P256);
+			int throttled = 0;
+			for (int i = 0; i < 10; i++) {
+				try {
+					simulator.client().describeKey(request -> request.keyId(keyId));
+				} catch (KmsException e) {
+					assertThat(e.isThrottlingException()).isTrue();
+					assertThat(e.awsErrorDetails().errorCode()).isEqualTo("ThrottlingException");
+					throttled++;
+				}
+			}
+
+			assertThat(throttled).isGreaterThanOrEqualTo(4);
+			assertThat(simulator.getThrottles("DescribeKey")).isEqualTo(throttled);
+			assertThat(simulator.getRequests("DescribeKey")).isEqualTo(10);
+		}
+	}
+
+	@Test
+	void aliasesArePaged() {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			String keyId = simulator.createKey(KeySpec.ECC_NIST_P384);
+			for (int i = 0; i < 120; i++) {
+				simulator.createAlias("key-" + i, keyId);
+			}
+			KmsAliasCache aliasCache = new KmsAliasCache(simulator.client());
+
+			assertThat(aliasCache.getAliases()).hasSize(120);
+			assertThat(aliasCache.getTargetKeyId("key-119")).isEqualTo(keyId);
+			assertThat(simulator.getRequests("ListAliases")).isEqualTo(3);
+		}
+	}
+
+	@Test
+	void dataKeysDecryptOnlyUnderTheirEncryptionContext() {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			String keyArn = "arn:aws:kms:us-east-1:111122223333:key/0d7f1b4c-6c1a-4c52-9e0e-2d5f3a7b9c11";
+			simulator.createKey(keyArn, KeySpec.SYMMETRIC_DEFAULT);
+			GenerateDataKeyResponse dataKey = simulator.client().generateDataKey(request -> request.keyId(keyArn)
+					.keySpec(DataKeySpec.AES_256)
+					.encryptionContext(Map.of("purpose", "test")));
+			DecryptResponse decrypted = simulator.client().decrypt(request -> request.keyId(keyArn)
+					.ciphertextBlob(dataKey.ciphertextBlob())
+					.encryptionContext(Map.of("purpose", "test")));
+
+			assertThat(dataKey.keyId()).isEqualTo(keyArn);
+			assertThat(decrypted.plaintext().asByteArray()).isEqualTo(dataKey.plaintext().asByteArray());
+			assertThrows(InvalidCiphertextException.class, () -> simulator.client().decrypt(request -> request
+					.ciphertextBlob(dataKey.ciphertextBlob())
+					.encryptionContext(Map.of("purpose", "other"))));
+		}
+	}
+
+	@Test
+	void asyncRequestsCompleteAfterTheirLatency() throws Exception {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of("ECC", 1), Map.of("Sign", KmsSimulator.Latency.fixed(Duration.ofMillis(50))))) {
+			String keyId = simulator.createKey(KeySpec.ECC_NIST_P256);
+			long started = System.nanoTime();
+			CompletableFuture<SignResponse> signed = sign(simulator, keyId);
+			CompletableFuture<SignResponse> throttled = sign(simulator, keyId);
+
+			assertThat(signed.isDone()).isFalse();
+			assertThat(signed.get(5, TimeUnit.SECONDS).signature().asByteArray().length).isGreaterThan(0);
+			assertThat(System.nanoTime() - started).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+			ExecutionException failure = assertThrows(ExecutionException.class, () -> throttled.get(5, TimeUnit.SECONDS));
+			assertThat(((KmsException) failure.getCause()).isThrottlingException()).isTrue();
+		}
+	}
+
+	private static CompletableFuture<SignResponse> sign(KmsSimulator simulator, String keyId) {
+		return simulator.asyncClient().sign(request -> request.keyId(keyId)
+				.signingAlgorithm(SigningAlgorithmSpec.ECDSA_SHA_256)
+				.messageType(MessageType.RAW)
+				.message(SdkBytes.fromByteArray(PAYLOAD)));
+	}
+
+	private static boolean verifies(String algorithm, KmsProvider provider, PrivateKey privateKey, PublicKey publicKey)
+			throws Exception {
+		Signature signer = Signature.getInstance(algorithm, provider);
+		signer.initSign(privateKey);
+		signer.update(PAYLOAD);
+		byte[] signature = signer.sign();
+		Signature verifier = Signature.getInstance(algorithm);
+		verifier.initVerify(publicKey);
+		verifier.update(PAYLOAD);
+		return verifier.verify(signature);
+	}
+
+	private static PublicKey publicKey(KmsClient kmsClient, String keyId, String algorithm) throws Exception {
+		byte[] encoded = kmsClient.getPublicKey(request -> request.keyId(keyId)).publicKey().asByteArray();
+		return KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(encoded));
+	}
+
+}
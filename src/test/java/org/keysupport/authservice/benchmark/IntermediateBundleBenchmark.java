@@ -0,0 +1,90 @@
+package org.keysupport.authservice.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.keysupport.authservice.validation.CmsCertificateBundles;
+import org.keysupport.authservice.validation.IntermediateIndex;
+import org.keysupport.authservice.validation.TestCertificates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Load time of a CMS hint list bundle into an {@link IntermediateIndex}, and the cost of an
+ * issuer lookup once loaded. The GC profiler reports allocation per load.
+ *
+ * <pre>
+ * ./mvnw -Pbenchmark test -Dbenchmark.includes=IntermediateBundleBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IntermediateBundleBenchmark {
+
+	@Param({ "500", "2000" })
+	public int certificateCount;
+
+	private Path bundle;
+	private IntermediateIndex index;
+	private X509Certificate leafIssuer;
+	private X500Principal lookupSubject;
+
+	@Setup
+	public void setup() throws Exception {
+		TestCertificates.Issued root = TestCertificates.root("CN=Benchmark Root,O=Test,C=US");
+		List<X509Certificate> certificates = new ArrayList<>(certificateCount);
+		for (int i = 0; i < certificateCount; i++) {
+			certificates.add(TestCertificates.intermediate("CN=Benchmark CA " + i + ",OU=Certification Authorities,O=Test,C=US",
+					root).getCertificate());
+		}
+		bundle = Files.createTempFile("intermediates", ".p7b");
+		Files.write(bundle, TestCertificates.bundle(certificates));
+		leafIssuer = certificates.get(certificateCount / 2);
+		lookupSubject = leafIssuer.getSubjectX500Principal();
+		index = new IntermediateIndex(CmsCertificateBundles.read(bundle));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(bundle);
+	}
+
+	@Benchmark
+	public IntermediateIndex loadBundle() throws Exception {
+		return new IntermediateIndex(CmsCertificateBundles.read(bundle));
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public List<X509Certificate> lookupBySubject() {
+		return index.getBySubject(lookupSubject);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public X509Certificate lookupByX5tS256() {
+		return index.getByX5tS256("not-present");
+	}
+
+}
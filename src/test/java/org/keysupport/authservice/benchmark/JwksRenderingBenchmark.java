@@ -0,0 +1,105 @@
+package org.keysupport.authservice.benchmark;
+
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.authservice.jose.KmsJwkSet;
+import org.keysupport.authservice.web.CachedDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+
+/**
+ * JWKS rendering: writing the response to a JWKS request from {@link KmsJwkSet}'s cached
+ * document, in full and as 304 Not Modified, next to rebuilding the document, as happens on
+ * each key set change, and serializing the set per request.
+ *
+ * <pre>
+ * ./mvnw -Pbenchmark test -Dbenchmark.includes=JwksRenderingBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwksRenderingBenchmark {
+
+	@Param({ "1", "4" })
+	public int keys;
+
+	private KmsJwkSet jwkSet;
+
+	@Setup
+	public void setup() throws Exception {
+		KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA");
+		rsa.initialize(4096);
+		KeyPairGenerator ec = KeyPairGenerator.getInstance("EC");
+		ec.initialize(new ECGenParameterSpec("secp384r1"));
+		List<JWK> jwks = new ArrayList<>();
+		for (int i = 0; i < keys; i++) {
+			if (i % 2 == 0) {
+				jwks.add(new RSAKey.Builder((RSAPublicKey) rsa.generateKeyPair().getPublic())
+						.keyID("rsa-" + i).keyUse(KeyUse.SIGNATURE).algorithm(JWSAlgorithm.PS512).build());
+			} else {
+				jwks.add(new ECKey.Builder(Curve.P_384, (ECPublicKey) ec.generateKeyPair().getPublic())
+						.keyID("ec-" + i).keyUse(KeyUse.SIGNATURE).algorithm(JWSAlgorithm.ES384).build());
+			}
+		}
+		jwkSet = new KmsJwkSet(jwks, null, Duration.ofHours(1));
+	}
+
+	@Benchmark
+	public MockHttpServletResponse writeDocument() throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		jwkSet.getDocument().writeTo(new MockHttpServletRequest("GET", "/oauth2/jwks"), response);
+		return response;
+	}
+
+	@Benchmark
+	public MockHttpServletResponse writeNotModified() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/oauth2/jwks");
+		request.addHeader("If-None-Match", jwkSet.getDocument().getEtag());
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		jwkSet.getDocument().writeTo(request, response);
+		return response;
+	}
+
+	@Benchmark
+	public CachedDocument refresh() {
+		jwkSet.refresh();
+		return jwkSet.getDocument();
+	}
+
+	@Benchmark
+	public String serializePerRequest() {
+		JWKSet set = jwkSet.getJwkSet();
+		return set.toString(true);
+	}
+
+}
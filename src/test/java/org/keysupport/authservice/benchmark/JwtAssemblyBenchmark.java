@@ -0,0 +1,111 @@
+package org.keysupport.authservice.benchmark;
+
+import java.security.KeyPairGenerator;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsAliasCache;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAPrivateKey;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.keysupport.authservice.jose.KmsJwtEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * Assembling, signing and serializing an RFC 8705 certificate-bound access token, both as
+ * {@code AwsKmsRfc8705.main} does it, building a Nimbus {@link SignedJWT} per token, and
+ * through {@link KmsJwtEncoder} as the authorization server does. KMS answers Sign in process
+ * without delay, so what is measured is the JOSE and provider work around the one call;
+ * the GC profiler shows what each token allocates.
+ *
+ * <pre>
+ * ./mvnw -Pbenchmark test -Dbenchmark.includes=JwtAssemblyBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtAssemblyBenchmark {
+
+	private static final String SUBJECT = "SERIALNUMBER=403611 + CN=Todd E. Johnson, OU=People, "
+			+ "OU=Bureau of the Fiscal Service, OU=Department of the Treasury, O=U.S. Government, C=US";
+	private static final String ACR = "http://idmanagement.gov/ns/assurance/ial/3/aal/3/fal/3";
+	private static final Map<String, Object> CNF = Map.of("x5t#S256", "wrVZ8xpFCBIWy2/tODog8fVN7R3Y6E0t6KHsaAipF2M=");
+
+	private final String keyId = UUID.nameUUIDFromBytes("RSA4096".getBytes()).toString();
+	private RSASSASigner signer;
+	private KmsJwtEncoder encoder;
+
+	@Setup
+	public void setup() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(4096);
+		LatencyKmsClient kmsClient = new LatencyKmsClient(0).addKey("bench-rsa", null, generator.generateKeyPair());
+		KmsProvider provider = new KmsProvider(kmsClient, new KmsAliasCache(kmsClient));
+		KmsRSAPrivateKey privateKey = new KmsRSAPrivateKey("bench-rsa");
+		signer = new RSASSASigner(privateKey, true);
+		signer.getJCAContext().setProvider(provider);
+		encoder = new KmsJwtEncoder(provider, privateKey, keyId, KmsSigningAlgorithm.RSASSA_PSS_SHA_512, null);
+	}
+
+	@Benchmark
+	public String signedJwt() throws Exception {
+		Instant now = Instant.now();
+		SignedJWT jwt = new SignedJWT(
+				new JWSHeader.Builder(JWSAlgorithm.PS512).keyID(keyId).build(),
+				new JWTClaimsSet.Builder()
+						.subject(SUBJECT)
+						.issuer("https://keysupport.net/")
+						.audience("https://api.keysupport.org/")
+						.claim("acr", ACR)
+						.expirationTime(Date.from(now.plusSeconds(900)))
+						.notBeforeTime(Date.from(now))
+						.claim("cnf", CNF)
+						.build());
+		jwt.sign(signer);
+		return jwt.serialize();
+	}
+
+	@Benchmark
+	public Jwt kmsJwtEncoder() {
+		Instant now = Instant.now();
+		JwtClaimsSet claims = JwtClaimsSet.builder()
+				.subject(SUBJECT)
+				.issuer("https://keysupport.net/")
+				.audience(List.of("https://api.keysupport.org/"))
+				.claim("acr", ACR)
+				.expiresAt(now.plusSeconds(900))
+				.notBefore(now)
+				.claim("cnf", CNF)
+				.build();
+		return encoder.encode(JwtEncoderParameters.from(JwsHeader.with(SignatureAlgorithm.PS512).build(), claims));
+	}
+
+}
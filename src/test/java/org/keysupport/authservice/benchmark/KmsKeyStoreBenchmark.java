@@ -0,0 +1,73 @@
+package org.keysupport.authservice.benchmark;
+
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsAliasCache;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code KmsKeyStore.engineGetKey}: alias resolution against the cached alias list, the key
+ * metadata lookup and the private key handle, for an alias that exists and for one that does
+ * not. Once warm neither should reach KMS; if a change makes them do so, the 5 ms of simulated
+ * latency dominates the result.
+ *
+ * <pre>
+ * ./mvnw -Pbenchmark test -Dbenchmark.includes=KmsKeyStoreBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KmsKeyStoreBenchmark {
+
+	@Param({ "10", "1000" })
+	public int aliases;
+
+	private KeyStore keyStore;
+	private String alias;
+
+	@Setup
+	public void setup() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		KeyPair keyPair = generator.generateKeyPair();
+		LatencyKmsClient kmsClient = new LatencyKmsClient(5);
+		for (int i = 0; i < aliases; i++) {
+			kmsClient.addKey("key-" + i, "alias/signing-" + i, keyPair);
+		}
+		keyStore = KeyStore.getInstance("KMS", new KmsProvider(kmsClient, new KmsAliasCache(kmsClient)));
+		keyStore.load(null, null);
+		alias = "signing-" + (aliases / 2);
+		keyStore.getKey(alias, null);
+		keyStore.getKey("missing", null);
+	}
+
+	@Benchmark
+	public Key getKey() throws Exception {
+		return keyStore.getKey(alias, null);
+	}
+
+	@Benchmark
+	public Key getMissingKey() throws Exception {
+		return keyStore.getKey("missing", null);
+	}
+
+}
@@ -0,0 +1,85 @@
+package org.keysupport.authservice.benchmark;
+
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsAliasCache;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.ec.KmsECPrivateKey;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAPrivateKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code KmsSignature} signing through the provider: the digest of the payload, the Sign
+ * request and response, with KMS served in process after a configurable delay. At zero
+ * latency this is the provider's own cost per signature, and the GC profiler's figures its
+ * allocation per signature.
+ *
+ * <pre>
+ * ./mvnw -Pbenchmark test -Dbenchmark.includes=KmsSignBenchmark
+ * ./mvnw -Pbenchmark test -Dbenchmark.includes=KmsSignBenchmark -Dbenchmark.args="-prof gc -p kmsLatencyMillis=0"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KmsSignBenchmark {
+
+	@Param({ "SHA256withRSA", "SHA512withRSAandMGF1", "SHA384withECDSA" })
+	public String algorithm;
+
+	@Param({ "256", "4096" })
+	public int payloadSize;
+
+	@Param({ "0", "5" })
+	public long kmsLatencyMillis;
+
+	private KmsProvider provider;
+	private PrivateKey privateKey;
+	private byte[] payload;
+
+	@Setup
+	public void setup() throws Exception {
+		LatencyKmsClient kmsClient = new LatencyKmsClient(kmsLatencyMillis);
+		if (algorithm.endsWith("ECDSA")) {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+			generator.initialize(new ECGenParameterSpec("secp384r1"));
+			kmsClient.addKey("bench-ec", null, generator.generateKeyPair());
+			privateKey = new KmsECPrivateKey("bench-ec");
+		} else {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+			generator.initialize(4096);
+			kmsClient.addKey("bench-rsa", null, generator.generateKeyPair());
+			privateKey = new KmsRSAPrivateKey("bench-rsa");
+		}
+		provider = new KmsProvider(kmsClient, new KmsAliasCache(kmsClient));
+		payload = new byte[payloadSize];
+		new Random(payloadSize).nextBytes(payload);
+	}
+
+	@Benchmark
+	public byte[] sign() throws Exception {
+		Signature signer = Signature.getInstance(algorithm, provider);
+		signer.initSign(privateKey);
+		signer.update(payload);
+		return signer.sign();
+	}
+
+}
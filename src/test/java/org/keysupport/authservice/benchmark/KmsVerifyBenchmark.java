@@ -0,0 +1,106 @@
+package org.keysupport.authservice.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsAliasCache;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.ec.KmsECPublicKey;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAPublicKey;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsVerificationMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.amazon.awssdk.services.kms.KmsClient;
+
+/**
+ * Compares {@code KmsSignature.engineVerify} checking signatures locally against the cached
+ * public key with the KMS Verify path. The KMS path is served by an in-process client that
+ * only models the round trip latency, so the difference shown is a lower bound.
+ *
+ * <pre>
+ * ./mvnw -Pbenchmark test -Dbenchmark.includes=KmsVerifyBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KmsVerifyBenchmark {
+
+	@Param({ "LOCAL_PREFERRED", "KMS_ONLY" })
+	public KmsVerificationMode mode;
+
+	@Param({ "SHA256withRSA", "SHA512withRSAandMGF1", "SHA384withECDSA" })
+	public String algorithm;
+
+	@Param({ "0", "5" })
+	public long kmsLatencyMillis;
+
+	private KmsProvider provider;
+	private PublicKey publicKey;
+	private byte[] payload;
+	private byte[] signature;
+
+	@Setup
+	public void setup() throws Exception {
+		KmsClient kmsClient = new LatencyKmsClient(kmsLatencyMillis);
+		provider = new KmsProvider(kmsClient, new KmsAliasCache(kmsClient), mode);
+		payload = ("eyJraWQiOiI0YzFkM2M5NC04MTMzLTM0ZTItYTdiYy1iZWQxYTg0YjUyNzMiLCJhbGciOiJQUzUxMiJ9."
+				+ "eyJzdWIiOiJDTj1UZXN0IiwiaXNzIjoiaHR0cHM6Ly9rZXlzdXBwb3J0Lm5ldC8iLCJhdWQiOiJodHRwczovL2FwaS5rZXlzdXBwb3J0Lm9yZy8ifQ")
+				.getBytes(StandardCharsets.US_ASCII);
+
+		Signature signer;
+		KeyPair keyPair;
+		if (algorithm.endsWith("ECDSA")) {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+			generator.initialize(new ECGenParameterSpec("secp384r1"));
+			keyPair = generator.generateKeyPair();
+			signer = Signature.getInstance(algorithm);
+			publicKey = new KmsECPublicKey("bench-ec", (ECPublicKey) keyPair.getPublic());
+		} else {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+			generator.initialize(4096);
+			keyPair = generator.generateKeyPair();
+			if (algorithm.endsWith("MGF1")) {
+				signer = Signature.getInstance("RSASSA-PSS");
+				signer.setParameter(new PSSParameterSpec("SHA-512", "MGF1", MGF1ParameterSpec.SHA512, 64, 1));
+			} else {
+				signer = Signature.getInstance(algorithm);
+			}
+			publicKey = new KmsRSAPublicKey("bench-rsa", (RSAPublicKey) keyPair.getPublic());
+		}
+		signer.initSign(keyPair.getPrivate());
+		signer.update(payload);
+		signature = signer.sign();
+	}
+
+	@Benchmark
+	public boolean verify() throws Exception {
+		Signature verifier = Signature.getInstance(algorithm, provider);
+		verifier.initVerify(publicKey);
+		verifier.update(payload);
+		return verifier.verify(signature);
+	}
+
+}
@@ -0,0 +1,179 @@
+package org.keysupport.authservice.benchmark;
+
+import java.security.KeyPair;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.AliasListEntry;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.KeyMetadata;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.KeyUsageType;
+import software.amazon.awssdk.services.kms.model.ListAliasesRequest;
+import software.amazon.awssdk.services.kms.model.ListAliasesResponse;
+import software.amazon.awssdk.services.kms.model.NotFoundException;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+import software.amazon.awssdk.services.kms.model.VerifyRequest;
+import software.amazon.awssdk.services.kms.model.VerifyResponse;
+
+/**
+ * Stands in for KMS in the benchmarks, modelling only the round trip latency: Sign returns a
+ * canned signature of the key's size, Verify accepts every signature, and DescribeKey,
+ * GetPublicKey and ListAliases answer from the keys added.
+ */
+class LatencyKmsClient implements KmsClient {
+
+	private static final List<SigningAlgorithmSpec> RSA_SIGNING_ALGORITHMS = List.of(
+			SigningAlgorithmSpec.RSASSA_PKCS1_V1_5_SHA_256, SigningAlgorithmSpec.RSASSA_PKCS1_V1_5_SHA_384,
+			SigningAlgorithmSpec.RSASSA_PKCS1_V1_5_SHA_512, SigningAlgorithmSpec.RSASSA_PSS_SHA_256,
+			SigningAlgorithmSpec.RSASSA_PSS_SHA_384, SigningAlgorithmSpec.RSASSA_PSS_SHA_512);
+	private static final List<SigningAlgorithmSpec> EC_SIGNING_ALGORITHMS = List.of(SigningAlgorithmSpec.ECDSA_SHA_384);
+
+	private final long latencyMillis;
+	private final Map<String, Key> keys = new ConcurrentHashMap<>();
+	private final Map<String, String> aliases = new ConcurrentHashMap<>();
+
+	LatencyKmsClient(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * @param keyId
+	 * @param alias alias name, e.g. "alias/signing", or null
+	 * @param keyPair an RSA 4096 or EC P-384 key pair
+	 */
+	LatencyKmsClient addKey(String keyId, String alias, KeyPair keyPair) {
+		keys.put(keyId, new Key(keyId, keyPair));
+		if (alias != null) {
+			aliases.put(alias, keyId);
+		}
+		return this;
+	}
+
+	@Override
+	public SignResponse sign(SignRequest signRequest) {
+		Key key = key(signRequest.keyId());
+		delay();
+		return SignResponse.builder()
+				.keyId(key.keyId)
+				.signingAlgorithm(signRequest.signingAlgorithm())
+				.signature(key.signature)
+				.build();
+	}
+
+	@Override
+	public VerifyResponse verify(VerifyRequest verifyRequest) {
+		delay();
+		return VerifyResponse.builder()
+				.keyId(verifyRequest.keyId())
+				.signingAlgorithm(verifyRequest.signingAlgorithm())
+				.signatureValid(true)
+				.build();
+	}
+
+	@Override
+	public DescribeKeyResponse describeKey(DescribeKeyRequest describeKeyRequest) {
+		Key key = key(describeKeyRequest.keyId());
+		delay();
+		return DescribeKeyResponse.builder()
+				.keyMetadata(KeyMetadata.builder()
+						.keyId(key.keyId)
+						.keySpec(key.keySpec)
+						.keyUsage(KeyUsageType.SIGN_VERIFY)
+						.signingAlgorithms(key.signingAlgorithms)
+						.build())
+				.build();
+	}
+
+	@Override
+	public GetPublicKeyResponse getPublicKey(GetPublicKeyRequest getPublicKeyRequest) {
+		Key key = key(getPublicKeyRequest.keyId());
+		delay();
+		return GetPublicKeyResponse.builder()
+				.keyId(key.keyId)
+				.keySpec(key.keySpec)
+				.keyUsage(KeyUsageType.SIGN_VERIFY)
+				.signingAlgorithms(key.signingAlgorithms)
+				.publicKey(SdkBytes.fromByteArray(key.keyPair.getPublic().getEncoded()))
+				.build();
+	}
+
+	@Override
+	public ListAliasesResponse listAliases(ListAliasesRequest listAliasesRequest) {
+		delay();
+		List<AliasListEntry> entries = new ArrayList<>();
+		aliases.forEach((alias, keyId) -> entries.add(AliasListEntry.builder().aliasName(alias).targetKeyId(keyId).build()));
+		return ListAliasesResponse.builder().aliases(entries).truncated(false).build();
+	}
+
+	@Override
+	public String serviceName() {
+		return KmsClient.SERVICE_NAME;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private Key key(String keyId) {
+		Key key = keys.get(keyId.startsWith("alias/") ? aliases.getOrDefault(keyId, keyId) : keyId);
+		if (key == null) {
+			throw NotFoundException.builder().message("Key " + keyId + " does not exist").build();
+		}
+		return key;
+	}
+
+	private void delay() {
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static final class Key {
+
+		private final String keyId;
+		private final KeyPair keyPair;
+		private final KeySpec keySpec;
+		private final List<SigningAlgorithmSpec> signingAlgorithms;
+		private final SdkBytes signature;
+
+		Key(String keyId, KeyPair keyPair) {
+			this.keyId = keyId;
+			this.keyPair = keyPair;
+			if (keyPair.getPublic() instanceof RSAPublicKey) {
+				int length = (((RSAPublicKey) keyPair.getPublic()).getModulus().bitLength() + 7) / 8;
+				this.keySpec = KeySpec.valueOf("RSA_" + length * 8);
+				this.signingAlgorithms = RSA_SIGNING_ALGORITHMS;
+				this.signature = SdkBytes.fromByteArray(new byte[length]);
+			} else {
+				this.keySpec = KeySpec.ECC_NIST_P384;
+				this.signingAlgorithms = EC_SIGNING_ALGORITHMS;
+				// DER SEQUENCE of two 48 byte INTEGERs, the size of a P-384 signature.
+				byte[] der = new byte[2 + 2 * 50];
+				der[0] = 0x30;
+				der[1] = 100;
+				for (int i = 2; i < der.length; i += 50) {
+					der[i] = 0x02;
+					der[i + 1] = 48;
+					der[i + 2] = 1;
+				}
+				this.signature = SdkBytes.fromByteArray(der);
+			}
+		}
+	}
+
+}
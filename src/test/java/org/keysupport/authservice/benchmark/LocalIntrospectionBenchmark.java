@@ -0,0 +1,139 @@
+package org.keysupport.authservice.benchmark;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.authservice.introspection.LocalTokenIntrospector;
+import org.keysupport.authservice.introspection.RevocationFilter;
+import org.keysupport.authservice.jose.KmsJwkSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenIntrospection;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * Introspections per second on one core with {@link LocalTokenIntrospector}: signature
+ * verification against the cached public key, claim checks and the revocation filter, with
+ * the filter empty or holding many revoked ids. Signature verification dominates; RSA
+ * verification is far cheaper than ECDSA.
+ *
+ * <pre>
+ * ./mvnw -Pbenchmark test -Dbenchmark.includes=LocalIntrospectionBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class LocalIntrospectionBenchmark {
+
+	@Param({ "RS256", "PS512", "ES256" })
+	public String algorithm;
+
+	@Param({ "0", "100000" })
+	public int revokedTokens;
+
+	private LocalTokenIntrospector introspector;
+	private String activeToken;
+	private String revokedToken;
+
+	@Setup
+	public void setup() throws Exception {
+		JWSAlgorithm jwsAlgorithm = JWSAlgorithm.parse(algorithm);
+		JWK publicJwk;
+		JWSSigner signer;
+		if (JWSAlgorithm.Family.EC.contains(jwsAlgorithm)) {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+			generator.initialize(new ECGenParameterSpec("secp256r1"));
+			KeyPair keyPair = generator.generateKeyPair();
+			publicJwk = new ECKey.Builder(Curve.P_256, (ECPublicKey) keyPair.getPublic())
+					.keyID("bench").keyUse(KeyUse.SIGNATURE).algorithm(jwsAlgorithm).build();
+			signer = new ECDSASigner((ECPrivateKey) keyPair.getPrivate());
+		} else {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+			generator.initialize(4096);
+			KeyPair keyPair = generator.generateKeyPair();
+			publicJwk = new RSAKey.Builder((RSAPublicKey) keyPair.getPublic())
+					.keyID("bench").keyUse(KeyUse.SIGNATURE).algorithm(jwsAlgorithm).build();
+			signer = new RSASSASigner((RSAPrivateKey) keyPair.getPrivate());
+		}
+
+		RevocationFilter revocationFilter = new RevocationFilter();
+		Instant expiresAt = Instant.now().plus(Duration.ofHours(1));
+		for (int i = 0; i < revokedTokens; i++) {
+			revocationFilter.revoke(UUID.randomUUID().toString(), expiresAt);
+		}
+		String revokedId = UUID.randomUUID().toString();
+		revocationFilter.revoke(revokedId, expiresAt);
+
+		introspector = new LocalTokenIntrospector(new KmsJwkSet(List.of(publicJwk), null, Duration.ofHours(1)), null,
+				revocationFilter, Clock.systemUTC());
+		activeToken = sign(signer, jwsAlgorithm, UUID.randomUUID().toString(), expiresAt);
+		revokedToken = sign(signer, jwsAlgorithm, revokedId, expiresAt);
+	}
+
+	@Benchmark
+	public OAuth2TokenIntrospection introspectActive() {
+		return introspector.introspect(activeToken, "https://auth.keysupport.org");
+	}
+
+	@Benchmark
+	public OAuth2TokenIntrospection introspectRevoked() {
+		return introspector.introspect(revokedToken, "https://auth.keysupport.org");
+	}
+
+	private static String sign(JWSSigner signer, JWSAlgorithm algorithm, String tokenId, Instant expiresAt) throws Exception {
+		Instant now = Instant.now();
+		JWTClaimsSet claims = new JWTClaimsSet.Builder()
+				.issuer("https://auth.keysupport.org")
+				.subject("CN=Test")
+				.audience("4492269c-1a8d-45fd-b90e-1e6289cdf506")
+				.issueTime(Date.from(now))
+				.notBeforeTime(Date.from(now))
+				.expirationTime(Date.from(expiresAt))
+				.jwtID(tokenId)
+				.claim("scope", List.of("openid", "profile"))
+				.build();
+		SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(algorithm).keyID("bench").build(), claims);
+		jwt.sign(signer);
+		return jwt.serialize();
+	}
+
+}
@@ -0,0 +1,130 @@
+package org.keysupport.authservice.benchmark;
+
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.keysupport.authservice.awskms.jce.provider.KmsAliasCache;
+import org.keysupport.authservice.awskms.jce.provider.KmsKeyConcurrencyLimitingClient;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAPrivateKey;
+import org.keysupport.authservice.web.VirtualThreads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A burst of token requests, each blocking on one KMS Sign through the per-key concurrency
+ * limit, handled as Tomcat would: on its default pool of 200 platform threads, or on a virtual
+ * thread per request as with {@code keysupport.threads.virtual=true}. KMS answers after a
+ * fixed delay, so the score is signatures per second at the given concurrency, and
+ * the GC profiler shows the memory each mode holds for waiting requests.
+ * <p>
+ * The virtual mode needs Java 21 or later and fails its setup on older runtimes; the jdk21
+ * profile runs the benchmark on one while the build stays on Java 17. With the
+ * per-key limit below both pools' size the two modes reach KMS equally fast; the difference
+ * is in what waiting costs, and what is left for requests not waiting on KMS.
+ * <p>
+ * On Java 21.0.1, one CPU, {@code -prof gc}, signatures per second:
+ *
+ * <pre>
+ * maxInFlightPerKey  platform           virtual
+ * 32                  1575 ±   3         1574 ±   3
+ * 1000                9869 ± 130        46265 ± 453
+ * </pre>
+ *
+ * Each mode is held to what its waiting requests allow at 20 ms a signature: 32 per key gives
+ * 1600 a second either way, and at 1000 the platform pool stops near its 200 threads' 10000
+ * while virtual threads approach the limit's 50000. Virtual threads allocated 2.7-3.3 KB a
+ * signature against 1.2 KB on the pool.
+ *
+ * <pre>
+ * JAVA21_HOME=/usr/lib/jvm/java-21 ./mvnw -Pbenchmark,jdk21 test -Dbenchmark.includes=RequestThreadingBenchmark
+ * ./mvnw -Pbenchmark test -Dbenchmark.includes=RequestThreadingBenchmark -Dbenchmark.args="-prof gc -p threads=platform"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestThreadingBenchmark {
+
+	private static final int TOMCAT_MAX_THREADS = 200;
+	private static final int REQUESTS = 2000;
+
+	@Param({ "platform", "virtual" })
+	public String threads;
+
+	@Param({ "32", "1000" })
+	public int maxInFlightPerKey;
+
+	@Param({ "20" })
+	public long kmsLatencyMillis;
+
+	private ExecutorService executor;
+	private KmsProvider provider;
+	private PrivateKey privateKey;
+	private final byte[] payload = new byte[512];
+
+	@Setup
+	public void setup() throws Exception {
+		executor = "virtual".equals(threads)
+				? VirtualThreads.newThreadPerTaskExecutor("bench-request-")
+				: Executors.newFixedThreadPool(TOMCAT_MAX_THREADS);
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(4096);
+		LatencyKmsClient latencyClient = new LatencyKmsClient(kmsLatencyMillis)
+				.addKey("bench-rsa", null, generator.generateKeyPair());
+		KmsAliasCache aliasCache = new KmsAliasCache(latencyClient);
+		KmsKeyConcurrencyLimitingClient kmsClient = new KmsKeyConcurrencyLimitingClient(latencyClient, aliasCache, null,
+				maxInFlightPerKey, Duration.ofMinutes(1));
+		provider = new KmsProvider(kmsClient, aliasCache);
+		privateKey = new KmsRSAPrivateKey("bench-rsa");
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(REQUESTS)
+	public int signBurst() throws Exception {
+		List<Future<byte[]>> signatures = new ArrayList<>(REQUESTS);
+		for (int i = 0; i < REQUESTS; i++) {
+			signatures.add(executor.submit(this::sign));
+		}
+		int length = 0;
+		for (Future<byte[]> signature : signatures) {
+			length += signature.get().length;
+		}
+		return length;
+	}
+
+	private byte[] sign() throws Exception {
+		Signature signer = Signature.getInstance("SHA256withRSA", provider);
+		signer.initSign(privateKey);
+		signer.update(payload);
+		return signer.sign();
+	}
+
+}
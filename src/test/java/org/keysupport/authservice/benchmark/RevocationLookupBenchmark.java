@@ -0,0 +1,117 @@
+package org.keysupport.authservice.benchmark;
+
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.keysupport.authservice.validation.TestCertificates;
+import org.keysupport.authservice.validation.revocation.IssuerRevocation;
+import org.keysupport.authservice.validation.revocation.RevocationStatus;
+import org.keysupport.authservice.validation.revocation.RevocationStore;
+import org.keysupport.authservice.validation.revocation.SerialIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Revocation lookups against a memory-mapped CRL serial index, and the cost of mapping an
+ * existing index as after a restart. The GC profiler confirms lookups allocate nothing.
+ *
+ * <pre>
+ * ./mvnw -Pbenchmark test -Dbenchmark.includes=RevocationLookupBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RevocationLookupBenchmark {
+
+	@Param({ "10000", "300000" })
+	public int entryCount;
+
+	private Path crlDirectory;
+	private RevocationStore store;
+	private IssuerRevocation revocation;
+	private Path completeIndex;
+	private byte[] revokedSerial;
+	private byte[] goodSerial;
+	private Instant now;
+
+	@Setup
+	public void setup() throws Exception {
+		TestCertificates.Issued ca = TestCertificates.root("CN=Benchmark Issuing CA,O=Test,C=US");
+		Random random = new SecureRandom();
+		Map<BigInteger, Integer> entries = new HashMap<>(entryCount * 2);
+		while (entries.size() < entryCount) {
+			entries.put(new BigInteger(128, random), CRLReason.keyCompromise);
+		}
+		BigInteger revoked = entries.keySet().iterator().next();
+		BigInteger good;
+		do {
+			good = new BigInteger(128, random);
+		} while (entries.containsKey(good));
+		revokedSerial = revoked.toByteArray();
+		goodSerial = good.toByteArray();
+
+		crlDirectory = Files.createTempDirectory("crls");
+		byte[] crl = TestCertificates.crl(ca, 1, null, Instant.now().plus(Duration.ofDays(7)), entries);
+		Files.write(crlDirectory.resolve("complete.crl"), crl);
+		store = new RevocationStore(crlDirectory, crlDirectory.resolve("index"), Duration.ofHours(1),
+				subject -> List.of(ca.getCertificate()));
+		store.start();
+		revocation = store.get(ca.getCertificate().getSubjectX500Principal());
+		completeIndex = revocation.getComplete().getPath();
+		now = Instant.now();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		store.close();
+		try (Stream<Path> paths = Files.walk(crlDirectory)) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Benchmark
+	public RevocationStatus lookupRevoked() {
+		return revocation.getStatus(revokedSerial, now);
+	}
+
+	@Benchmark
+	public RevocationStatus lookupGood() {
+		return revocation.getStatus(goodSerial, now);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public SerialIndex reopenIndex() throws Exception {
+		return SerialIndex.open(completeIndex);
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.keysupport.authservice.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.mtls.MtlsClientSettings;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.settings.ClientSettings;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class CachingJdbcRegisteredClientRepositoryTests {
+
+	private static final String SUBJECT_DN = "CN=Client One, OU=Clients, O=Example, C=US";
+	private static final String X5T_S256 = "wrVZ8xpFCBIWy2_tODog8fVN7R3Y6E0t6KHsaAipF2M";
+
+	private EmbeddedDatabase database;
+	private JdbcTemplate jdbcTemplate;
+	private TransactionTemplate transactionTemplate;
+
+	@BeforeEach
+	void createDatabase() {
+		database = new EmbeddedDatabaseBuilder()
+				.generateUniqueName(true)
+				.setType(EmbeddedDatabaseType.H2)
+				.addScript("org/keysupport/authservice/client/registered-client-schema.sql")
+				.build();
+		jdbcTemplate = new JdbcTemplate(database);
+		transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(database));
+	}
+
+	@AfterEach
+	void shutdownDatabase() {
+		database.shutdown();
+	}
+
+	@Test
+	void clientsAreFoundByIdClientIdSubjectAndThumbprint() {
+		CachingJdbcRegisteredClientRepository repository = repository();
+		repository.save(pkiClient("pki-client", "client_credentials"));
+		repository.save(selfSignedClient());
+
+		assertThat(repository.findById("1").getClientId()).isEqualTo("pki-client");
+		assertThat(repository.findByClientId("pki-client").getId()).isEqualTo("1");
+		assertThat(repository.findBySubjectDn("cn=client one,ou=clients,o=example,c=us").getId()).isEqualTo("1");
+		assertThat(repository.findByX5tS256(X5T_S256).getId()).isEqualTo("2");
+		assertThat(repository.findByClientId("unknown")).isNull();
+		assertThat(repository.findBySubjectDn("CN=Someone Else, C=US")).isNull();
+	}
+
+	@Test
+	void clientsSeenRecentlyAreServedWithoutTheDatabase() {
+		CachingJdbcRegisteredClientRepository repository = repository();
+		repository.save(pkiClient("pki-client", "client_credentials"));
+		repository.findByClientId("pki-client");
+		repository.findBySubjectDn(SUBJECT_DN);
+
+		database.shutdown();
+
+		assertThat(repository.findByClientId("pki-client").getId()).isEqualTo("1");
+		assertThat(repository.findBySubjectDn(SUBJECT_DN).getId()).isEqualTo("1");
+		assertThat(repository.findById("1").getClientId()).isEqualTo("pki-client");
+	}
+
+	@Test
+	void changesSavedByAnotherNodeEvictTheCachedClient() {
+		CachingJdbcRegisteredClientRepository node = repository();
+		CachingJdbcRegisteredClientRepository otherNode = repository();
+		node.save(pkiClient("pki-client", "client_credentials"));
+		node.poll();
+		assertThat(node.findByClientId("pki-client").getScopes()).containsExactly("client_credentials");
+
+		otherNode.save(pkiClient("pki-client", "tokens.read"));
+		assertThat(node.findByClientId("pki-client").getScopes()).containsExactly("client_credentials");
+		node.poll();
+
+		assertThat(node.findByClientId("pki-client").getScopes()).containsExactly("tokens.read");
+		assertThat(jdbcTemplate.queryForObject("SELECT version FROM oauth2_registered_client_index WHERE id = '1'",
+				Long.class)).isEqualTo(2L);
+	}
+
+	private CachingJdbcRegisteredClientRepository repository() {
+		return new CachingJdbcRegisteredClientRepository(jdbcTemplate, transactionTemplate);
+	}
+
+	private static RegisteredClient pkiClient(String clientId, String scope) {
+		return RegisteredClient.withId("1")
+				.clientId(clientId)
+				.clientName("PKI client")
+				.clientAuthenticationMethod(MtlsClientSettings.TLS_CLIENT_AUTH)
+				.authorizationGrantType(AuthorizationGrantType.CLIENT_CREDENTIALS)
+				.scope(scope)
+				.clientSettings(ClientSettings.builder()
+						.setting(MtlsClientSettings.SUBJECT_DN, SUBJECT_DN)
+						.setting(MtlsClientSettings.VALIDATION_POLICY_ID, "client-policy")
+						.build())
+				.build();
+	}
+
+	private static RegisteredClient selfSignedClient() {
+		return RegisteredClient.withId("2")
+				.clientId("self-signed-client")
+				.clientAuthenticationMethod(MtlsClientSettings.SELF_SIGNED_TLS_CLIENT_AUTH)
+				.authorizationGrantType(AuthorizationGrantType.CLIENT_CREDENTIALS)
+				.scope("client_credentials")
+				.clientSettings(ClientSettings.builder().setting(MtlsClientSettings.X5T_S256, X5T_S256).build())
+				.build();
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.keysupport.authservice.introspection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.jose.KmsJwkSet;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenIntrospection;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+class LocalTokenIntrospectorTests {
+
+	private static final String ISSUER = "https://auth.keysupport.org";
+	private static final Instant NOW = Instant.parse("2026-10-18T12:00:00Z");
+
+	private RSAKey signingKey;
+	private RevocationFilter revocationFilter;
+	private LocalTokenIntrospector introspector;
+
+	@BeforeEach
+	void setup() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		KeyPair keyPair = generator.generateKeyPair();
+		signingKey = new RSAKey.Builder((RSAPublicKey) keyPair.getPublic())
+				.privateKey((RSAPrivateKey) keyPair.getPrivate())
+				.keyID("kms-key")
+				.keyUse(KeyUse.SIGNATURE)
+				.algorithm(JWSAlgorithm.RS256)
+				.build();
+		revocationFilter = new RevocationFilter(1_000, 0.01, Duration.ofMinutes(5), Clock.fixed(NOW, ZoneOffset.UTC));
+		introspector = new LocalTokenIntrospector(new KmsJwkSet(List.of(signingKey.toPublicJWK()), null, Duration.ofHours(1)),
+				null, revocationFilter, Clock.fixed(NOW, ZoneOffset.UTC));
+	}
+
+	@Test
+	void activeTokenClaimsAreReturnedAsTheAuthorizationServerWould() throws Exception {
+		OAuth2TokenIntrospection introspection = introspector.introspect(sign(claims("token-1").build(), "kms-key"), ISSUER);
+
+		assertThat(introspection.isActive()).isTrue();
+		assertThat(introspection.getClientId()).isEqualTo("client-1");
+		assertThat(introspection.getSubject()).isEqualTo("alice");
+		assertThat(introspection.getScopes()).isEqualTo(List.of("read", "write"));
+		assertThat(introspection.getExpiresAt()).isEqualTo(NOW.plusSeconds(300));
+		assertThat(introspection.getTokenType()).isEqualTo("Bearer");
+	}
+
+	@Test
+	void expiredRevokedOrForeignIssuerTokensAreInactive() throws Exception {
+		String expired = sign(claims("token-2").expirationTime(Date.from(NOW)).build(), "kms-key");
+		String revoked = sign(claims("token-3").build(), "kms-key");
+		revocationFilter.revoke("token-3", NOW.plusSeconds(300));
+
+		assertThat(introspector.introspect(expired, ISSUER).isActive()).isFalse();
+		assertThat(introspector.introspect(revoked, ISSUER).isActive()).isFalse();
+		assertThat(introspector.introspect(sign(claims("token-4").build(), "kms-key"), "https://other.example").isActive()).isFalse();
+	}
+
+	@Test
+	void badSignaturesAreInactive() throws Exception {
+		String token = sign(claims("token-5").build(), "kms-key");
+		String tampered = token.substring(0, token.length() - 4) + (token.endsWith("AAAA") ? "BBBB" : "AAAA");
+
+		assertThat(introspector.introspect(tampered, ISSUER).isActive()).isFalse();
+	}
+
+	@Test
+	void tokensItCannotDecideAreLeftToTheStore() throws Exception {
+		assertThat(introspector.introspect("opaque-refresh-token", ISSUER)).isNull();
+		assertThat(introspector.introspect(sign(claims("token-6").build(), "unpublished-key"), ISSUER)).isNull();
+		assertThat(introspector.introspect(sign(claims(null).build(), "kms-key"), ISSUER)).isNull();
+	}
+
+	private JWTClaimsSet.Builder claims(String tokenId) {
+		return new JWTClaimsSet.Builder()
+				.issuer(ISSUER)
+				.subject("alice")
+				.audience("client-1")
+				.issueTime(Date.from(NOW.minusSeconds(10)))
+				.notBeforeTime(Date.from(NOW.minusSeconds(10)))
+				.expirationTime(Date.from(NOW.plusSeconds(300)))
+				.jwtID(tokenId)
+				.claim("scope", List.of("read", "write"));
+	}
+
+	private String sign(JWTClaimsSet claims, String keyId) throws Exception {
+		SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(keyId).build(), claims);
+		jwt.sign(new RSASSASigner(signingKey));
+		return jwt.serialize();
+	}
+
+}
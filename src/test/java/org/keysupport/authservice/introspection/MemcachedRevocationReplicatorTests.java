@@ -0,0 +1,145 @@
+package org.keysupport.authservice.introspection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import net.spy.memcached.ClientMode;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.MemcachedClient;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.authorization.MemcachedStandIn;
+
+class MemcachedRevocationReplicatorTests {
+
+	private static final String KEY_PREFIX = "oauth2:";
+
+	private final List<AutoCloseable> closeables = new ArrayList<>();
+	private final List<MemcachedClient> clients = new ArrayList<>();
+	private MemcachedStandIn memcached;
+
+	@BeforeEach
+	void startMemcached() throws IOException {
+		memcached = new MemcachedStandIn();
+	}
+
+	@AfterEach
+	void stopMemcached() throws Exception {
+		for (AutoCloseable closeable : closeables) {
+			closeable.close();
+		}
+		clients.forEach(MemcachedClient::shutdown);
+		memcached.close();
+	}
+
+	@Test
+	void revocationOnOneNodeIsSeenByTheOthers() throws Exception {
+		RevocationFilter node1 = node(Clock.systemUTC(), Duration.ofMinutes(10));
+		RevocationFilter node2 = node(Clock.systemUTC(), Duration.ofMinutes(10));
+
+		node1.revoke("token-1", Instant.now().plusSeconds(300));
+		node2.revoke("token-2", Instant.now().plusSeconds(300));
+
+		await(() -> node1.isRevoked("token-2") && node2.isRevoked("token-1"));
+		assertThat(node1.size()).isEqualTo(2);
+		assertThat(node2.size()).isEqualTo(2);
+	}
+
+	@Test
+	void aDeltaMemcachedFailedToStoreIsWrittenAgain() throws Exception {
+		RevocationFilter node1 = node(Clock.systemUTC(), Duration.ofMinutes(10));
+		RevocationFilter node2 = node(Clock.systemUTC(), Duration.ofMinutes(10));
+		memcached.failStores(KEY_PREFIX + "rv:d:", 1);
+
+		node1.revoke("token-1", Instant.now().plusSeconds(300));
+		node1.revoke("token-2", Instant.now().plusSeconds(300));
+
+		await(() -> node2.isRevoked("token-1") && node2.isRevoked("token-2"));
+		assertThat(memcached.getItems()).containsKeys(KEY_PREFIX + "rv:d:1", KEY_PREFIX + "rv:d:2")
+				.doesNotContainKey(KEY_PREFIX + "rv:d:3");
+	}
+
+	@Test
+	void nodeStartingAfterTheDeltasExpiredLoadsTheSnapshot() throws Exception {
+		RevocationFilter node1 = node(Clock.systemUTC(), Duration.ofMinutes(2));
+		node1.revoke("short", Instant.now().plusSeconds(30));
+		node1.revoke("long", Instant.now().plusSeconds(3600));
+		awaitSnapshotOf(node1);
+
+		memcached.advance(Duration.ofMinutes(7).toMillis());
+		RevocationFilter node2 = node(Clock.offset(Clock.systemUTC(), Duration.ofMinutes(7)), Duration.ofMinutes(2));
+
+		assertThat(node2.isRevoked("long")).isTrue();
+		assertThat(node2.isRevoked("short")).isFalse();
+	}
+
+	@Test
+	void snapshotBucketsExpireWholeInMemcached() throws Exception {
+		RevocationFilter node1 = node(Clock.systemUTC(), Duration.ofMinutes(2));
+		node1.revoke("short", Instant.now().plusSeconds(30));
+		node1.revoke("long", Instant.now().plusSeconds(3600));
+		awaitSnapshotOf(node1);
+		long shortEnd = node1.getBuckets().get(0).getEnd();
+		long longEnd = node1.getBuckets().get(1).getEnd();
+
+		memcached.advance(Duration.ofMinutes(7).toMillis());
+		// Reading the items lets the stand-in drop the expired ones.
+		MemcachedClient client = client();
+		client.get(KEY_PREFIX + "rv:b:" + shortEnd + ":0", EncodedRevocationsTranscoder.INSTANCE);
+		client.get(KEY_PREFIX + "rv:b:" + longEnd + ":0", EncodedRevocationsTranscoder.INSTANCE);
+
+		assertThat(memcached.getItems().containsKey(KEY_PREFIX + "rv:b:" + shortEnd + ":0")).isFalse();
+		assertThat(memcached.getItems().containsKey(KEY_PREFIX + "rv:b:" + longEnd + ":0")).isTrue();
+	}
+
+	private RevocationFilter node(Clock clock, Duration deltaTtl) throws IOException {
+		RevocationFilter revocationFilter = new RevocationFilter(1_000, 0.01, Duration.ofMinutes(5), clock);
+		MemcachedRevocationReplicator replicator = new MemcachedRevocationReplicator(client(), revocationFilter,
+				KEY_PREFIX, clock);
+		replicator.setPollInterval(Duration.ofMillis(20));
+		replicator.setSnapshotInterval(Duration.ofMillis(50));
+		replicator.setDeltaTtl(deltaTtl);
+		replicator.start();
+		closeables.add(replicator);
+		return revocationFilter;
+	}
+
+	private MemcachedClient client() throws IOException {
+		MemcachedClient client = new MemcachedClient(new ConnectionFactoryBuilder()
+				.setClientMode(ClientMode.Static)
+				.setProtocol(ConnectionFactoryBuilder.Protocol.TEXT)
+				.setOpTimeout(5000)
+				.setDaemon(true)
+				.build(), List.of(memcached.getAddress()));
+		clients.add(client);
+		return client;
+	}
+
+	/**
+	 * Wait for a snapshot naming all of the node's buckets.
+	 */
+	private void awaitSnapshotOf(RevocationFilter node) throws InterruptedException {
+		await(() -> {
+			MemcachedStandIn.Item manifest = memcached.getItems().get(KEY_PREFIX + "rv:snapshot");
+			return manifest != null && manifest.getData().length == 13 + node.getBuckets().size() * 12;
+		});
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).isLessThan(deadline);
+			Thread.sleep(10);
+		}
+	}
+
+}
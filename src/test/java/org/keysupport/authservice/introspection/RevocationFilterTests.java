@@ -0,0 +1,103 @@
+package org.keysupport.authservice.introspection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+class RevocationFilterTests {
+
+	private static final Instant NOW = Instant.parse("2026-10-18T12:00:00Z");
+
+	@Test
+	void answersExactlyForRevokedIds() {
+		RevocationFilter filter = new RevocationFilter(1_000, 0.01, Duration.ofMinutes(5), Clock.fixed(NOW, ZoneOffset.UTC));
+		filter.revoke("revoked", NOW.plusSeconds(60));
+
+		assertThat(filter.isRevoked("revoked")).isTrue();
+		assertThat(filter.isRevoked("other")).isFalse();
+	}
+
+	@Test
+	void ignoresTokensThatHaveAlreadyExpired() {
+		RevocationFilter filter = new RevocationFilter(1_000, 0.01, Duration.ofMinutes(5), Clock.fixed(NOW, ZoneOffset.UTC));
+		filter.revoke("expired", NOW);
+
+		assertThat(filter.isRevoked("expired")).isFalse();
+		assertThat(filter.size()).isZero();
+	}
+
+	@Test
+	void bloomFilterStaysNearItsFalsePositiveRate() {
+		RevocationFilter.BloomFilter bloomFilter = new RevocationFilter.BloomFilter(10_000, 0.01);
+		for (int i = 0; i < 10_000; i++) {
+			bloomFilter.put(UUID.randomUUID().toString());
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < 100_000; i++) {
+			if (bloomFilter.mightContain(UUID.randomUUID().toString())) {
+				falsePositives++;
+			}
+		}
+		assertThat(falsePositives).isLessThan(2_000);
+	}
+
+	@Test
+	void purgeDropsExpiredIdsAndKeepsTheRest() {
+		MutableClock clock = new MutableClock(NOW);
+		RevocationFilter filter = new RevocationFilter(1_000, 0.01, Duration.ofMinutes(5), clock);
+		filter.revoke("short", NOW.plusSeconds(60));
+		filter.revoke("long", NOW.plusSeconds(3600));
+
+		clock.instant = NOW.plus(Duration.ofMinutes(10));
+
+		assertThat(filter.purgeExpired()).isEqualTo(1);
+		assertThat(filter.isRevoked("short")).isFalse();
+		assertThat(filter.isRevoked("long")).isTrue();
+	}
+
+	@Test
+	void growsBeyondTheExpectedNumberOfRevocations() {
+		RevocationFilter filter = new RevocationFilter(10, 0.01, Duration.ofMinutes(5), Clock.fixed(NOW, ZoneOffset.UTC));
+		for (int i = 0; i < 1_000; i++) {
+			filter.revoke("token-" + i, NOW.plus(Duration.ofMinutes(5)));
+		}
+
+		assertThat(filter.size()).isEqualTo(1_000);
+		for (int i = 0; i < 1_000; i++) {
+			assertThat(filter.isRevoked("token-" + i)).isTrue();
+		}
+		assertThat(filter.isRevoked("other")).isFalse();
+	}
+
+	private static final class MutableClock extends Clock {
+
+		private volatile Instant instant;
+
+		MutableClock(Instant instant) {
+			this.instant = instant;
+		}
+
+		@Override
+		public Instant instant() {
+			return instant;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+	}
+
+}
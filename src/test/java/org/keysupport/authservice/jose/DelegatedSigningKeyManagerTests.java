@@ -0,0 +1,152 @@
+package org.keysupport.authservice.jose;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAKeyFactory;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.keysupport.authservice.awskms.simulator.KmsSimulator;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.util.Base64;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import software.amazon.awssdk.services.kms.model.KeySpec;
+
+class DelegatedSigningKeyManagerTests {
+
+	private static final boolean[] DIGITAL_SIGNATURE_ONLY = { true, false, false, false, false, false, false, false, false };
+
+	@Test
+	void delegatedCertificatesAreIssuedByTheKmsRoot() throws Exception {
+		try (KmsSimulator simulator = simulator()) {
+			String keyId = simulator.createKey(KeySpec.RSA_2048);
+			PublicKey rootPublicKey = KmsRSAKeyFactory.getPublicKey(simulator.client(), keyId).getPublicKey();
+			Duration rotationInterval = Duration.ofMinutes(15);
+			Duration maxTokenLifetime = Duration.ofHours(1);
+			try (DelegatedSigningKeyManager manager = manager(simulator, keyId, rootPublicKey, rotationInterval,
+					maxTokenLifetime)) {
+				manager.start();
+
+				X509Certificate root = manager.getRootCertificate();
+				assertThat(root.getSubjectX500Principal()).isEqualTo(new X500Principal("CN=root-kid"));
+				assertThat(root.getIssuerX500Principal()).isEqualTo(root.getSubjectX500Principal());
+				assertThat(root.getBasicConstraints()).isZero();
+				assertThat(root.getKeyUsage()[5]).as("keyCertSign").isTrue();
+				assertThat(Duration.between(root.getNotBefore().toInstant(), root.getNotAfter().toInstant()))
+						.isGreaterThan(Duration.ofDays(365));
+				root.verify(rootPublicKey);
+
+				List<DelegatedSigningKey> keys = manager.getPublishedKeys();
+				assertThat(keys).hasSize(2);
+				for (DelegatedSigningKey key : keys) {
+					X509Certificate certificate = key.getCertificateChain().get(0);
+					assertThat(key.getCertificateChain()).containsExactly(certificate, root);
+					assertThat(certificate.getIssuerX500Principal()).isEqualTo(root.getSubjectX500Principal());
+					assertThat(certificate.getSubjectX500Principal()).isEqualTo(new X500Principal("CN=" + key.getKeyId()));
+					assertThat(certificate.getBasicConstraints()).isEqualTo(-1);
+					assertThat(certificate.getKeyUsage()).containsExactly(DIGITAL_SIGNATURE_ONLY);
+					assertThat(certificate.getNotBefore().toInstant()).isBefore(Instant.now());
+					assertThat(certificate.getNotAfter().toInstant()).isEqualTo(key.getExpiresAt())
+							.isEqualTo(key.getActivatesAt().plus(rotationInterval.multipliedBy(2)).plus(maxTokenLifetime)
+									.truncatedTo(ChronoUnit.SECONDS));
+					assertThat(certificate.getPublicKey()).isEqualTo(key.getPublicJwk().toECPublicKey());
+					certificate.verify(rootPublicKey);
+				}
+				assertThat(keys.get(1).getActivatesAt()).isEqualTo(keys.get(0).getActivatesAt().plus(rotationInterval));
+			}
+		}
+	}
+
+	@Test
+	void tokensCarryTheDelegatedKeyAndVerifyWithItsCertificate() throws Exception {
+		try (KmsSimulator simulator = simulator()) {
+			String keyId = simulator.createKey(KeySpec.RSA_2048);
+			PublicKey rootPublicKey = KmsRSAKeyFactory.getPublicKey(simulator.client(), keyId).getPublicKey();
+			try (DelegatedSigningKeyManager manager = manager(simulator, keyId, rootPublicKey, Duration.ofMinutes(15),
+					Duration.ofHours(1))) {
+				manager.start();
+				DelegatedSigningKey key = manager.current();
+
+				SignedJWT jwt = manager.sign(new JWTClaimsSet.Builder().subject("alice").build());
+
+				assertThat(jwt.getHeader().getAlgorithm()).isEqualTo(JWSAlgorithm.ES256);
+				assertThat(jwt.getHeader().getKeyID()).isEqualTo(key.getKeyId());
+				List<Base64> x5c = jwt.getHeader().getX509CertChain();
+				assertThat(x5c).hasSize(2);
+				assertThat(x5c.get(0).decode()).isEqualTo(key.getCertificateChain().get(0).getEncoded());
+				assertThat(x5c.get(1).decode()).isEqualTo(manager.getRootCertificate().getEncoded());
+				assertThat(key.getPublicJwk().isPrivate()).isFalse();
+				ECPublicKey certified = (ECPublicKey) key.getCertificateChain().get(0).getPublicKey();
+				assertThat(SignedJWT.parse(jwt.serialize()).verify(new ECDSAVerifier(certified))).isTrue();
+			}
+		}
+	}
+
+	@Test
+	void rotationKeepsEarlierKeysPublishedUntilTheirTokensExpire() throws Exception {
+		try (KmsSimulator simulator = simulator()) {
+			String keyId = simulator.createKey(KeySpec.RSA_2048);
+			PublicKey rootPublicKey = KmsRSAKeyFactory.getPublicKey(simulator.client(), keyId).getPublicKey();
+			// Certificate validity has one-second precision; keep the keys' expiries in separate seconds.
+			Duration rotationInterval = Duration.ofSeconds(1);
+			try (DelegatedSigningKeyManager manager = manager(simulator, keyId, rootPublicKey, rotationInterval,
+					Duration.ofSeconds(1))) {
+				manager.start();
+				manager.close();
+				DelegatedSigningKey first = manager.current();
+				DelegatedSigningKey second = manager.getPublishedKeys().get(1);
+				SignedJWT token = manager.sign(new JWTClaimsSet.Builder().subject("alice").build());
+
+				sleepUntil(second.getActivatesAt());
+				manager.rotate();
+
+				assertThat(manager.current().getKeyId()).isEqualTo(second.getKeyId());
+				List<DelegatedSigningKey> published = manager.getPublishedKeys();
+				assertThat(published).hasSize(3);
+				assertThat(published).extracting(DelegatedSigningKey::getKeyId).contains(first.getKeyId());
+				assertThat(published.get(2).getActivatesAt()).isEqualTo(second.getActivatesAt().plus(rotationInterval));
+				assertThat(token.verify(new ECDSAVerifier(published.get(0).getPublicJwk()))).isTrue();
+
+				sleepUntil(first.getExpiresAt().plusMillis(1));
+				manager.rotate();
+
+				assertThat(manager.getPublishedKeys()).extracting(DelegatedSigningKey::getKeyId)
+						.doesNotContain(first.getKeyId())
+						.contains(second.getKeyId());
+			}
+		}
+	}
+
+	private static DelegatedSigningKeyManager manager(KmsSimulator simulator, String keyId, PublicKey rootPublicKey,
+			Duration rotationInterval, Duration maxTokenLifetime) {
+		return new DelegatedSigningKeyManager(new KmsProvider(simulator.client()), KmsRSAKeyFactory.getPrivateKey(keyId),
+				rootPublicKey, "root-kid", KmsSigningAlgorithm.RSASSA_PSS_SHA_256, rotationInterval, maxTokenLifetime);
+	}
+
+	private static KmsSimulator simulator() {
+		return new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT, Map.of(), Map.of());
+	}
+
+	private static void sleepUntil(Instant instant) throws InterruptedException {
+		long millis = Duration.between(Instant.now(), instant).toMillis();
+		if (millis > 0) {
+			Thread.sleep(millis + 1);
+		}
+	}
+
+}
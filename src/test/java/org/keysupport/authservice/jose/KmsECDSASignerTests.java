@@ -0,0 +1,78 @@
+package org.keysupport.authservice.jose;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.time.Instant;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.ec.KmsECKeyFactory;
+import org.keysupport.authservice.awskms.jce.provider.ec.KmsECPublicKey;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.keysupport.authservice.awskms.simulator.KmsSimulator;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jwt.SignedJWT;
+
+class KmsECDSASignerTests {
+
+	@Test
+	void ecTokensVerifyWithNimbus() throws Exception {
+		assertSignsAndVerifies(KmsSigningAlgorithm.ECDSA_SHA_256, JWSAlgorithm.ES256);
+		assertSignsAndVerifies(KmsSigningAlgorithm.ECDSA_SHA_384, JWSAlgorithm.ES384);
+		assertSignsAndVerifies(KmsSigningAlgorithm.ECDSA_SHA_512, JWSAlgorithm.ES512);
+	}
+
+	@Test
+	void anRsaRequestGetsTheKeysOwnAlgorithm() throws Exception {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			String keyId = simulator.createKey(KmsSimulator.keySpecFor(KmsSigningAlgorithm.ECDSA_SHA_256));
+			KmsJwtEncoder encoder = new KmsJwtEncoder(new KmsProvider(simulator.client()), KmsECKeyFactory.getPrivateKey(keyId),
+					"ec", KmsSigningAlgorithm.ECDSA_SHA_256, null);
+
+			Jwt jwt = encoder.encode(JwtEncoderParameters.from(JwsHeader.with(SignatureAlgorithm.RS256).build(), claims()));
+
+			assertThat(SignedJWT.parse(jwt.getTokenValue()).getHeader().getAlgorithm()).isEqualTo(JWSAlgorithm.ES256);
+		}
+	}
+
+	private static void assertSignsAndVerifies(KmsSigningAlgorithm algorithm, JWSAlgorithm jwsAlgorithm) throws Exception {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			String keyId = simulator.createKey(KmsSimulator.keySpecFor(algorithm));
+			KmsProvider provider = new KmsProvider(simulator.client());
+			KmsJwtEncoder encoder = new KmsJwtEncoder(provider, KmsECKeyFactory.getPrivateKey(keyId), "ec", algorithm, null);
+			KmsECPublicKey kmsPublicKey = KmsECKeyFactory.getPublicKey(simulator.client(), keyId);
+			ECPublicKey publicKey = (ECPublicKey) kmsPublicKey.getPublicKey();
+
+			for (int i = 0; i < 10; i++) {
+				Jwt jwt = encoder.encode(JwtEncoderParameters.from(
+						JwsHeader.with(SignatureAlgorithm.from(jwsAlgorithm.getName())).build(), claims()));
+
+				SignedJWT signed = SignedJWT.parse(jwt.getTokenValue());
+				assertThat(signed.getHeader().getAlgorithm()).isEqualTo(jwsAlgorithm);
+				assertThat(signed.getHeader().getKeyID()).isEqualTo("ec");
+				assertThat(signed.verify(new ECDSAVerifier(publicKey))).isTrue();
+				Signature verifier = Signature.getInstance(algorithm.getP1363Algorithm(), provider);
+				verifier.initVerify(kmsPublicKey);
+				verifier.update(signed.getSigningInput());
+				assertThat(verifier.verify(signed.getSignature().decode())).isTrue();
+			}
+		}
+	}
+
+	private static JwtClaimsSet claims() {
+		return JwtClaimsSet.builder().subject("alice").expiresAt(Instant.now().plusSeconds(300)).build();
+	}
+
+}
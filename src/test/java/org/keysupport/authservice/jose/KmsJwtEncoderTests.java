@@ -0,0 +1,247 @@
+package org.keysupport.authservice.jose;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.ec.KmsECKeyFactory;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAKeyFactory;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.keysupport.authservice.awskms.simulator.KmsSimulator;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+import org.springframework.security.oauth2.jwt.JwtEncodingException;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jwt.SignedJWT;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+
+class KmsJwtEncoderTests {
+
+	@Test
+	void rsaTokensCarryTheKidAndThePublishedAlgorithmAndVerify() throws Exception {
+		try (KmsSimulator simulator = simulator()) {
+			String keyId = simulator.createKey(KeySpec.RSA_2048);
+			RSAPublicKey publicKey = (RSAPublicKey) KmsRSAKeyFactory.getPublicKey(simulator.client(), keyId)
+					.getPublicKey();
+			KmsJwtEncoder encoder = new KmsJwtEncoder(new KmsProvider(simulator.client()),
+					KmsRSAKeyFactory.getPrivateKey(keyId), "rsa-kid", KmsSigningAlgorithm.RSASSA_PSS_SHA_256, null);
+
+			for (SignatureAlgorithm algorithm : new SignatureAlgorithm[] { SignatureAlgorithm.PS256,
+					SignatureAlgorithm.RS256, SignatureAlgorithm.PS512 }) {
+				Jwt jwt = encoder.encode(parameters(JwsHeader.with(algorithm).build()));
+
+				SignedJWT parsed = SignedJWT.parse(jwt.getTokenValue());
+				assertThat(parsed.getHeader().getAlgorithm()).as(algorithm.getName()).isEqualTo(JWSAlgorithm.PS256);
+				assertThat(parsed.getHeader().getKeyID()).isEqualTo("rsa-kid");
+				assertThat(jwt.getHeaders()).containsEntry("alg", "PS256").containsEntry("kid", "rsa-kid");
+				assertThat(parsed.getJWTClaimsSet().getSubject()).isEqualTo("alice");
+				assertThat(parsed.verify(new RSASSAVerifier(publicKey))).as(algorithm.getName()).isTrue();
+			}
+		}
+	}
+
+	@Test
+	void idTokensVerifyAgainstThePublishedJwkSet() throws Exception {
+		try (KmsSimulator simulator = simulator()) {
+			String keyId = simulator.createKey(KeySpec.RSA_2048);
+			KmsJwkSet jwkSet = new KmsJwkSet(List.of(KmsJwkSet.toJwk(KmsRSAKeyFactory.getPublicKey(simulator.client(), keyId),
+					"rsa-kid", KmsSigningAlgorithm.RSASSA_PSS_SHA_512)), null, Duration.ofHours(1));
+			KmsJwtEncoder encoder = new KmsJwtEncoder(new KmsProvider(simulator.client()),
+					KmsRSAKeyFactory.getPrivateKey(keyId), "rsa-kid", KmsSigningAlgorithm.RSASSA_PSS_SHA_512, null);
+
+			// The authorization server's default for ID tokens.
+			SignedJWT idToken = SignedJWT.parse(encoder.encode(JwtEncoderParameters.from(
+					JwsHeader.with(SignatureAlgorithm.RS256).build(),
+					JwtClaimsSet.builder()
+							.issuer("https://auth.example.gov")
+							.subject("alice")
+							.audience(List.of("client"))
+							.claim("nonce", "n-0S6_WzA2Mj")
+							.expiresAt(Instant.now().plusSeconds(300))
+							.build())).getTokenValue());
+
+			List<JWK> keys = jwkSet.get(new JWKSelector(JWKMatcher.forJWSHeader(idToken.getHeader())), null);
+			assertThat(keys).hasSize(1);
+			assertThat(idToken.verify(new RSASSAVerifier(keys.get(0).toRSAKey()))).isTrue();
+		}
+	}
+
+	@Test
+	void anAlgorithmTheKeyCannotUseFallsBackToTheDefault() throws Exception {
+		try (KmsSimulator simulator = simulator()) {
+			String keyId = simulator.createKey(KeySpec.RSA_2048);
+			RSAPublicKey publicKey = (RSAPublicKey) KmsRSAKeyFactory.getPublicKey(simulator.client(), keyId)
+					.getPublicKey();
+			KmsJwtEncoder encoder = new KmsJwtEncoder(new KmsProvider(simulator.client()),
+					KmsRSAKeyFactory.getPrivateKey(keyId), "rsa-kid", KmsSigningAlgorithm.RSASSA_PSS_SHA_384, null);
+
+			SignedJWT parsed = SignedJWT.parse(
+					encoder.encode(parameters(JwsHeader.with(SignatureAlgorithm.ES256).build())).getTokenValue());
+
+			assertThat(parsed.getHeader().getAlgorithm()).isEqualTo(JWSAlgorithm.PS384);
+			assertThat(parsed.verify(new RSASSAVerifier(publicKey))).isTrue();
+		}
+	}
+
+	@Test
+	void ecTokensAreSignedWithTheKeysCurve() throws Exception {
+		try (KmsSimulator simulator = simulator()) {
+			String keyId = simulator.createKey(KeySpec.ECC_NIST_P256);
+			ECPublicKey publicKey = (ECPublicKey) KmsECKeyFactory.getPublicKey(simulator.client(), keyId).getPublicKey();
+			KmsJwtEncoder encoder = new KmsJwtEncoder(new KmsProvider(simulator.client()),
+					KmsECKeyFactory.getPrivateKey(keyId), "ec-kid", KmsSigningAlgorithm.ECDSA_SHA_256, null);
+
+			SignedJWT parsed = SignedJWT.parse(
+					encoder.encode(parameters(JwsHeader.with(SignatureAlgorithm.RS256).build())).getTokenValue());
+
+			assertThat(parsed.getHeader().getAlgorithm()).isEqualTo(JWSAlgorithm.ES256);
+			assertThat(parsed.getHeader().getKeyID()).isEqualTo("ec-kid");
+			assertThat(parsed.getSignature().decode()).hasSize(64);
+			assertThat(parsed.verify(new ECDSAVerifier(publicKey))).isTrue();
+		}
+	}
+
+	@Test
+	void extraHeadersAreSignedButTheKidCannotBeOverridden() throws Exception {
+		try (KmsSimulator simulator = simulator()) {
+			String keyId = simulator.createKey(KeySpec.RSA_2048);
+			RSAPublicKey publicKey = (RSAPublicKey) KmsRSAKeyFactory.getPublicKey(simulator.client(), keyId)
+					.getPublicKey();
+			KmsJwtEncoder encoder = new KmsJwtEncoder(new KmsProvider(simulator.client()),
+					KmsRSAKeyFactory.getPrivateKey(keyId), "rsa-kid", KmsSigningAlgorithm.RSASSA_PSS_SHA_256, null);
+
+			Jwt jwt = encoder.encode(parameters(
+					JwsHeader.with(SignatureAlgorithm.PS256).type("at+jwt").keyId("someone-else").build()));
+
+			SignedJWT parsed = SignedJWT.parse(jwt.getTokenValue());
+			assertThat(parsed.getHeader().getType().toString()).isEqualTo("at+jwt");
+			assertThat(parsed.getHeader().getKeyID()).isEqualTo("rsa-kid");
+			assertThat(jwt.getHeaders()).containsEntry("typ", "at+jwt").containsEntry("kid", "rsa-kid");
+			assertThat(parsed.verify(new RSASSAVerifier(publicKey))).isTrue();
+		}
+	}
+
+	@Test
+	void anEcKeyWithAnRsaDefaultAlgorithmIsRejected() {
+		try (KmsSimulator simulator = simulator()) {
+			String keyId = simulator.createKey(KeySpec.ECC_NIST_P256);
+			KmsJwtEncoder encoder = new KmsJwtEncoder(new KmsProvider(simulator.client()),
+					KmsECKeyFactory.getPrivateKey(keyId), "ec-kid", KmsSigningAlgorithm.RSASSA_PSS_SHA_256, null);
+
+			assertThrows(JwtEncodingException.class,
+					() -> encoder.encode(parameters(JwsHeader.with(SignatureAlgorithm.ES256).build())));
+		}
+	}
+
+	@Test
+	void kmsFailuresSurfaceAsEncodingErrors() {
+		try (KmsSimulator simulator = simulator()) {
+			String keyId = simulator.createKey(KeySpec.RSA_2048);
+			FailingKmsClient kmsClient = new FailingKmsClient(simulator.client(), "DisabledException");
+			KmsJwtEncoder encoder = new KmsJwtEncoder(new KmsProvider(kmsClient), KmsRSAKeyFactory.getPrivateKey(keyId),
+					"rsa-kid", KmsSigningAlgorithm.RSASSA_PSS_SHA_256, null);
+
+			JwtEncodingException e = assertThrows(JwtEncodingException.class,
+					() -> encoder.encode(parameters(JwsHeader.with(SignatureAlgorithm.PS256).build())));
+
+			assertThat(KmsSigningRouter.isThrottling(e)).isFalse();
+			assertThat(kmsClient.signs).hasValue(1);
+		}
+	}
+
+	@Test
+	void aLoneThrottledKeyIsNotRetried() {
+		try (KmsSimulator simulator = simulator()) {
+			String keyId = simulator.createKey(KeySpec.RSA_2048);
+			FailingKmsClient kmsClient = new FailingKmsClient(simulator.client(), "ThrottlingException");
+			KmsJwtEncoder encoder = new KmsJwtEncoder(new KmsProvider(kmsClient), KmsRSAKeyFactory.getPrivateKey(keyId),
+					"rsa-kid", KmsSigningAlgorithm.RSASSA_PSS_SHA_256, null);
+
+			JwtEncodingException e = assertThrows(JwtEncodingException.class,
+					() -> encoder.encode(parameters(JwsHeader.with(SignatureAlgorithm.PS256).build())));
+
+			assertThat(KmsSigningRouter.isThrottling(e)).isTrue();
+			assertThat(kmsClient.signs).hasValue(1);
+		}
+	}
+
+	private static JwtEncoderParameters parameters(JwsHeader header) {
+		return JwtEncoderParameters.from(header, JwtClaimsSet.builder()
+				.issuer("https://auth.example.gov")
+				.subject("alice")
+				.audience(List.of("resource"))
+				.expiresAt(Instant.now().plusSeconds(300))
+				.build());
+	}
+
+	private static KmsSimulator simulator() {
+		return new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT, Map.of(), Map.of());
+	}
+
+	/**
+	 * Fails every Sign request with the given KMS error code.
+	 */
+	private static final class FailingKmsClient implements KmsClient {
+
+		private final KmsClient kmsClient;
+		private final String errorCode;
+		private final AtomicInteger signs = new AtomicInteger();
+
+		FailingKmsClient(KmsClient kmsClient, String errorCode) {
+			this.kmsClient = kmsClient;
+			this.errorCode = errorCode;
+		}
+
+		@Override
+		public SignResponse sign(SignRequest signRequest) {
+			signs.incrementAndGet();
+			throw (KmsException) KmsException.builder()
+					.message(errorCode)
+					.statusCode(400)
+					.awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).build())
+					.build();
+		}
+
+		@Override
+		public GetPublicKeyResponse getPublicKey(GetPublicKeyRequest getPublicKeyRequest) {
+			return kmsClient.getPublicKey(getPublicKeyRequest);
+		}
+
+		@Override
+		public String serviceName() {
+			return kmsClient.serviceName();
+		}
+
+		@Override
+		public void close() {
+			kmsClient.close();
+		}
+	}
+
+}
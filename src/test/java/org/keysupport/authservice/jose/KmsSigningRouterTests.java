@@ -0,0 +1,168 @@
+package org.keysupport.authservice.jose;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAPrivateKey;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.keysupport.authservice.awskms.simulator.KmsSimulator;
+import org.keysupport.authservice.jose.KmsSigningRouter.SigningKey;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+
+class KmsSigningRouterTests {
+
+	@Test
+	void prefersTheFasterKey() {
+		SigningKey fast = new SigningKey("fast", null);
+		SigningKey slow = new SigningKey("slow", null);
+		KmsSigningRouter router = new KmsSigningRouter(List.of(fast, slow));
+		for (int i = 0; i < 50; i++) {
+			SigningKey key = router.select();
+			router.completed(key, Duration.ofMillis(key == fast ? 2 : 100).toNanos(), null);
+		}
+
+		int toFast = 0;
+		for (int i = 0; i < 100; i++) {
+			SigningKey key = router.select();
+			router.completed(key, Duration.ofMillis(key == fast ? 2 : 100).toNanos(), null);
+			toFast += key == fast ? 1 : 0;
+		}
+
+		assertThat(toFast).isEqualTo(100);
+	}
+
+	@Test
+	void throttledKeysAreTakenOutOfRotation() {
+		SigningKey throttled = new SigningKey("throttled", null);
+		SigningKey healthy = new SigningKey("healthy", null);
+		KmsSigningRouter router = new KmsSigningRouter(List.of(throttled, healthy));
+
+		router.completed(router.select(healthy), 0, throttling());
+
+		assertThat(throttled.isAvailable()).isFalse();
+		for (int i = 0; i < 20; i++) {
+			SigningKey key = router.select();
+			router.completed(key, 0, null);
+			assertThat(key).isSameAs(healthy);
+		}
+		assertThat(throttled.getInFlight()).isZero();
+	}
+
+	@Test
+	void aLoneKeyIsUsedEvenWhenBenched() {
+		SigningKey only = new SigningKey("only", null);
+		KmsSigningRouter router = new KmsSigningRouter(List.of(only));
+
+		router.completed(router.select(), 0, throttling());
+
+		assertThat(router.select(only)).isSameAs(only);
+	}
+
+	@Test
+	void throttlingIsFoundInTheCauseChain() {
+		assertThat(KmsSigningRouter.isThrottling(new IllegalStateException(new RuntimeException(throttling())))).isTrue();
+		assertThat(KmsSigningRouter.isThrottling(new IllegalStateException("KMS unavailable"))).isFalse();
+		assertThat(KmsSigningRouter.isThrottling(null)).isFalse();
+	}
+
+	@Test
+	void encoderSignsAgainWithAnotherKeyWhenOneIsThrottled() {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			String throttledKey = simulator.createKey("throttled", KeySpec.RSA_2048);
+			String healthyKey = simulator.createKey("healthy", KeySpec.RSA_2048);
+			ThrottlingKmsClient kmsClient = new ThrottlingKmsClient(simulator.client(), throttledKey);
+			KmsProvider provider = new KmsProvider(kmsClient);
+			KmsSigningRouter router = new KmsSigningRouter(List.of(
+					new SigningKey("throttled", new KmsRSAPrivateKey(throttledKey)),
+					new SigningKey("healthy", new KmsRSAPrivateKey(healthyKey))));
+			KmsJwtEncoder encoder = new KmsJwtEncoder(provider, router, KmsSigningAlgorithm.RSASSA_PSS_SHA_256, null);
+			// Make the healthy key look slow, so the throttled one is tried first.
+			for (int i = 0; i < 20; i++) {
+				router.completed(router.select(router.getKeys().get(0)), Duration.ofSeconds(1).toNanos(), null);
+			}
+
+			for (int i = 0; i < 10; i++) {
+				Jwt jwt = encoder.encode(JwtEncoderParameters.from(JwsHeader.with(SignatureAlgorithm.PS256).build(),
+						JwtClaimsSet.builder().subject("user-" + i).expiresAt(Instant.now().plusSeconds(300)).build()));
+				assertThat(jwt.getHeaders()).containsEntry("kid", "healthy");
+			}
+			assertThat(kmsClient.throttled.get()).isPositive();
+		}
+	}
+
+	private static KmsException throttling() {
+		return (KmsException) KmsException.builder()
+				.message("Rate exceeded")
+				.statusCode(400)
+				.awsErrorDetails(AwsErrorDetails.builder().errorCode("ThrottlingException").build())
+				.build();
+	}
+
+	/**
+	 * Throttles every Sign request for one key.
+	 */
+	private static final class ThrottlingKmsClient implements KmsClient {
+
+		private final KmsClient kmsClient;
+		private final String throttledKey;
+		private final AtomicInteger throttled = new AtomicInteger();
+
+		ThrottlingKmsClient(KmsClient kmsClient, String throttledKey) {
+			this.kmsClient = kmsClient;
+			this.throttledKey = throttledKey;
+		}
+
+		@Override
+		public SignResponse sign(SignRequest signRequest) {
+			if (signRequest.keyId().equals(throttledKey)) {
+				throttled.incrementAndGet();
+				throw throttling();
+			}
+			return kmsClient.sign(signRequest);
+		}
+
+		@Override
+		public DescribeKeyResponse describeKey(DescribeKeyRequest describeKeyRequest) {
+			return kmsClient.describeKey(describeKeyRequest);
+		}
+
+		@Override
+		public GetPublicKeyResponse getPublicKey(GetPublicKeyRequest getPublicKeyRequest) {
+			return kmsClient.getPublicKey(getPublicKeyRequest);
+		}
+
+		@Override
+		public String serviceName() {
+			return kmsClient.serviceName();
+		}
+
+		@Override
+		public void close() {
+			kmsClient.close();
+		}
+	}
+
+}
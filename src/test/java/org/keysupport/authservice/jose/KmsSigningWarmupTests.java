@@ -0,0 +1,79 @@
+package org.keysupport.authservice.jose;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.awskms.jce.provider.KmsKeyCache;
+import org.keysupport.authservice.awskms.jce.provider.KmsProvider;
+import org.keysupport.authservice.awskms.jce.provider.ec.KmsECKeyFactory;
+import org.keysupport.authservice.awskms.jce.provider.rsa.KmsRSAKeyFactory;
+import org.keysupport.authservice.awskms.jce.provider.signature.KmsSigningAlgorithm;
+import org.keysupport.authservice.awskms.simulator.KmsSimulator;
+import org.keysupport.authservice.jose.KmsSigningRouter.SigningKey;
+
+import com.nimbusds.jose.jwk.JWK;
+
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+
+class KmsSigningWarmupTests {
+
+	@Test
+	void opensConnectionsAndSignsWithEveryKey() throws Exception {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			List<String> keyIds = List.of(simulator.createKey(KeySpec.RSA_2048), simulator.createKey(KeySpec.RSA_2048));
+			KmsClient kmsClient = simulator.client();
+			KmsKeyCache keyCache = new KmsKeyCache(kmsClient);
+			keyCache.preloadPublicKeys(keyIds);
+			assertThat(simulator.getRequests("GetPublicKey")).isEqualTo(2);
+
+			List<SigningKey> keys = new ArrayList<>();
+			List<JWK> jwks = new ArrayList<>();
+			for (String keyId : keyIds) {
+				keys.add(new SigningKey(keyId, KmsRSAKeyFactory.getPrivateKey(keyId)));
+				jwks.add(KmsJwkSet.toJwk(KmsRSAKeyFactory.getPublicKey(keyCache, keyId), keyId, KmsSigningAlgorithm.RSASSA_PSS_SHA_256));
+			}
+			assertThat(simulator.getRequests("GetPublicKey")).isEqualTo(2);
+			KmsProvider provider = new KmsProvider(kmsClient);
+			KmsSigningRouter router = new KmsSigningRouter(keys);
+			KmsSigningWarmup warmup = new KmsSigningWarmup(kmsClient,
+					new KmsJwtEncoder(provider, router, KmsSigningAlgorithm.RSASSA_PSS_SHA_256, null), provider, router,
+					new KmsJwkSet(jwks, null, Duration.ofHours(1)), KmsSigningAlgorithm.RSASSA_PSS_SHA_256, 3, 2, 50,
+					Duration.ofSeconds(10));
+
+			assertThat(warmup.warmUp()).isEqualTo(50);
+
+			assertThat(simulator.getRequests("DescribeKey")).isGreaterThanOrEqualTo(6);
+			assertThat(simulator.getRequests("Sign")).isEqualTo(4);
+			assertThat(simulator.getRequests("Verify")).isZero();
+		}
+	}
+
+	@Test
+	void loopsOverEcdsaTokensWithinTheTimeBudget() throws Exception {
+		try (KmsSimulator simulator = new KmsSimulator(KmsSimulator.DEFAULT_REGION, KmsSimulator.DEFAULT_ACCOUNT,
+				Map.of(), Map.of())) {
+			String keyId = simulator.createKey(KeySpec.ECC_NIST_P256);
+			KmsClient kmsClient = simulator.client();
+			KmsProvider provider = new KmsProvider(kmsClient);
+			KmsSigningRouter router = new KmsSigningRouter(List.of(new SigningKey(keyId, KmsECKeyFactory.getPrivateKey(keyId))));
+			JWK jwk = KmsJwkSet.toJwk(KmsECKeyFactory.getPublicKey(kmsClient, keyId), keyId, KmsSigningAlgorithm.ECDSA_SHA_256);
+			KmsSigningWarmup warmup = new KmsSigningWarmup(kmsClient,
+					new KmsJwtEncoder(provider, router, KmsSigningAlgorithm.ECDSA_SHA_256, null), provider, router,
+					new KmsJwkSet(List.of(jwk), null, Duration.ofHours(1)), KmsSigningAlgorithm.ECDSA_SHA_256, 0, 3,
+					Integer.MAX_VALUE, Duration.ofMillis(200));
+
+			assertThat(warmup.warmUp()).isPositive().isLessThan(Integer.MAX_VALUE);
+
+			assertThat(simulator.getRequests("Sign")).isEqualTo(3);
+			assertThat(simulator.getRequests("Verify")).isZero();
+		}
+	}
+
+}
@@ -0,0 +1,274 @@
+package org.keysupport.authservice.jose;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWEObject;
+import com.nimbusds.jose.crypto.DirectDecrypter;
+import com.nimbusds.jwt.JWTClaimsSet;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.kms.model.InvalidCiphertextException;
+
+class TokenEncryptionKeyManagerTests {
+
+	private static final String KEY_ARN = "arn:aws:kms:us-east-1:000000000000:key/test";
+
+	private static final Duration ROTATION_INTERVAL = Duration.ofMinutes(15);
+
+	private static final Duration MAX_TOKEN_LIFETIME = Duration.ofHours(1);
+
+	private final DataKeyKmsClient kmsClient = new DataKeyKmsClient();
+
+	private final MutableClock clock = new MutableClock(Instant.parse("2026-10-18T12:00:00Z"));
+
+	@Test
+	void encryptsWithoutCallingKmsAndInteroperatesWithNimbus() throws Exception {
+		try (TokenEncryptionKeyManager manager = manager()) {
+			int generated = kmsClient.generateCalls.get();
+
+			String token = manager.encrypt(claims("alice"));
+			for (int i = 0; i < 100; i++) {
+				manager.decrypt(manager.encrypt(claims("user-" + i)));
+			}
+
+			assertThat(manager.decrypt(token).getSubject()).isEqualTo("alice");
+			assertThat(kmsClient.generateCalls.get()).isEqualTo(generated);
+			assertThat(kmsClient.decryptCalls.get()).isZero();
+
+			JWEObject jwe = JWEObject.parse(token);
+			assertThat(jwe.getHeader().getKeyID()).isEqualTo(manager.current().getKeyId());
+			jwe.decrypt(new DirectDecrypter(manager.current().getSecretKey()));
+			assertThat(jwe.getPayload().toJSONObject()).containsEntry("sub", "alice");
+		}
+	}
+
+	@Test
+	void rotationKeepsEarlierKeysForTheTokenLifetime() throws Exception {
+		try (TokenEncryptionKeyManager manager = manager()) {
+			TokenEncryptionKey first = manager.current();
+			String token = manager.encrypt(claims("alice"));
+
+			clock.advance(ROTATION_INTERVAL);
+			manager.rotate();
+
+			assertThat(manager.current().getKeyId()).isNotEqualTo(first.getKeyId());
+			assertThat(manager.decrypt(token).getSubject()).isEqualTo("alice");
+
+			clock.advance(ROTATION_INTERVAL.multipliedBy(2).plus(MAX_TOKEN_LIFETIME));
+			manager.rotate();
+
+			assertThat(manager.getKeys().stream().map(TokenEncryptionKey::getKeyId).toList()).doesNotContain(first.getKeyId());
+		}
+	}
+
+	@Test
+	void otherNodesRecoverTheKeyWithOneKmsDecrypt() throws Exception {
+		try (TokenEncryptionKeyManager issuer = manager(); TokenEncryptionKeyManager other = manager()) {
+			String first = issuer.encrypt(claims("alice"));
+			String second = issuer.encrypt(claims("bob"));
+
+			assertThat(other.decrypt(first).getSubject()).isEqualTo("alice");
+			assertThat(other.decrypt(second).getSubject()).isEqualTo("bob");
+			assertThat(kmsClient.decryptCalls.get()).isEqualTo(1);
+		}
+	}
+
+	@Test
+	void rejectsAKeyIdThatDoesNotMatchTheEncryptedKey() throws Exception {
+		try (TokenEncryptionKeyManager issuer = manager(); TokenEncryptionKeyManager other = manager()) {
+			String token = issuer.encrypt(claims("alice"));
+			String forged = Base64.getUrlEncoder().withoutPadding().encodeToString(
+					JWEObject.parse(token).getHeader().toBase64URL().decodeToString()
+							.replace(issuer.current().getKeyId(), "AAAAAAAAAAAAAAAAAAAAAA")
+							.getBytes())
+					+ token.substring(token.indexOf('.'));
+
+			assertThatThrownBy(() -> other.decrypt(forged)).isInstanceOf(JOSEException.class);
+			assertThat(kmsClient.decryptCalls.get()).isZero();
+		}
+	}
+
+	@Test
+	void limitsKmsDecryptsForUnknownKeysPerRotation() throws Exception {
+		try (TokenEncryptionKeyManager other = manager()) {
+			other.setMaximumRemoteKeyDecrypts(1);
+			try (TokenEncryptionKeyManager first = manager(); TokenEncryptionKeyManager second = manager()) {
+				String known = first.encrypt(claims("alice"));
+				String unknown = second.encrypt(claims("bob"));
+
+				assertThat(other.decrypt(known).getSubject()).isEqualTo("alice");
+				assertThatThrownBy(() -> other.decrypt(unknown)).isInstanceOf(JOSEException.class);
+				assertThat(kmsClient.decryptCalls.get()).isEqualTo(1);
+
+				// Rotation runs every quarter interval; the limit holds for the whole interval.
+				clock.advance(ROTATION_INTERVAL.dividedBy(4));
+				other.rotate();
+				assertThatThrownBy(() -> other.decrypt(unknown)).isInstanceOf(JOSEException.class);
+
+				clock.advance(ROTATION_INTERVAL.multipliedBy(3).dividedBy(4));
+				other.rotate();
+				assertThat(other.decrypt(unknown).getSubject()).isEqualTo("bob");
+			}
+		}
+	}
+
+	@Test
+	void madeUpKeysAreTriedOnceAndDoNotUseUpTheAllowanceForGenuineKeys() throws Exception {
+		try (TokenEncryptionKeyManager other = manager(); TokenEncryptionKeyManager issuer = manager()) {
+			other.setMaximumRemoteKeyDecrypts(2);
+			other.setMaximumFailedRemoteKeyDecrypts(2);
+			other.setMaximumReservedRemoteKeyDecrypts(1);
+			String first = madeUpToken();
+			String second = madeUpToken();
+
+			assertThatThrownBy(() -> other.decrypt(first)).isInstanceOf(JOSEException.class);
+			assertThatThrownBy(() -> other.decrypt(first)).isInstanceOf(JOSEException.class);
+			assertThatThrownBy(() -> other.decrypt(second)).isInstanceOf(JOSEException.class);
+			assertThat(kmsClient.decryptCalls.get()).isEqualTo(2);
+
+			// The failure allowance is used up; a genuine key is recovered through the reserve and gives it back.
+			assertThat(other.decrypt(issuer.encrypt(claims("alice"))).getSubject()).isEqualTo("alice");
+			assertThat(kmsClient.decryptCalls.get()).isEqualTo(3);
+
+			assertThatThrownBy(() -> other.decrypt(madeUpToken())).isInstanceOf(JOSEException.class);
+			assertThatThrownBy(() -> other.decrypt(madeUpToken())).isInstanceOf(JOSEException.class);
+			assertThat(kmsClient.decryptCalls.get()).isEqualTo(4);
+
+			clock.advance(ROTATION_INTERVAL);
+			other.rotate();
+			assertThatThrownBy(() -> other.decrypt(first)).isInstanceOf(JOSEException.class);
+			assertThat(kmsClient.decryptCalls.get()).isEqualTo(5);
+		}
+	}
+
+	private TokenEncryptionKeyManager manager() {
+		TokenEncryptionKeyManager manager = new TokenEncryptionKeyManager(kmsClient, KEY_ARN, ROTATION_INTERVAL,
+				MAX_TOKEN_LIFETIME, clock);
+		manager.start();
+		return manager;
+	}
+
+	/**
+	 * A token whose header carries random bytes as its encrypted key, under the matching kid.
+	 */
+	private static String madeUpToken() throws Exception {
+		byte[] blob = new byte[64];
+		new SecureRandom().nextBytes(blob);
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(blob);
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+		String header = "{\"alg\":\"dir\",\"enc\":\"A256GCM\",\"kid\":\""
+				+ encoder.encodeToString(Arrays.copyOf(digest, 16)) + "\",\"" + TokenEncryptionKey.ENCRYPTED_KEY_HEADER
+				+ "\":\"" + encoder.encodeToString(blob) + "\"}";
+		return encoder.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + "..AAAAAAAAAAAAAAAA.AAAA.AAAAAAAAAAAAAAAAAAAAAA";
+	}
+
+	private static JWTClaimsSet claims(String subject) {
+		return new JWTClaimsSet.Builder().subject(subject).claim("scope", "read").build();
+	}
+
+	/**
+	 * Hands out random data keys and remembers them by ciphertext blob, as KMS would decrypt
+	 * them for any caller with the key.
+	 */
+	private static final class DataKeyKmsClient implements KmsClient {
+
+		private final SecureRandom random = new SecureRandom();
+
+		private final Map<String, byte[]> dataKeys = new ConcurrentHashMap<>();
+
+		private final AtomicInteger generateCalls = new AtomicInteger();
+
+		private final AtomicInteger decryptCalls = new AtomicInteger();
+
+		@Override
+		public GenerateDataKeyResponse generateDataKey(GenerateDataKeyRequest request) {
+			generateCalls.incrementAndGet();
+			assertThat(request.encryptionContext()).isEqualTo(TokenEncryptionKeyManager.ENCRYPTION_CONTEXT);
+			byte[] plaintext = new byte[32];
+			byte[] blob = new byte[64];
+			random.nextBytes(plaintext);
+			random.nextBytes(blob);
+			dataKeys.put(Base64.getEncoder().encodeToString(blob), plaintext.clone());
+			return GenerateDataKeyResponse.builder()
+					.keyId(request.keyId())
+					.plaintext(SdkBytes.fromByteArray(plaintext))
+					.ciphertextBlob(SdkBytes.fromByteArray(blob))
+					.build();
+		}
+
+		@Override
+		public DecryptResponse decrypt(DecryptRequest request) {
+			decryptCalls.incrementAndGet();
+			assertThat(request.encryptionContext()).isEqualTo(TokenEncryptionKeyManager.ENCRYPTION_CONTEXT);
+			byte[] plaintext = dataKeys.get(Base64.getEncoder().encodeToString(request.ciphertextBlob().asByteArray()));
+			if (plaintext == null) {
+				throw InvalidCiphertextException.builder().message("Invalid ciphertext").build();
+			}
+			return DecryptResponse.builder()
+					.keyId(request.keyId())
+					.plaintext(SdkBytes.fromByteArray(plaintext.clone()))
+					.build();
+		}
+
+		@Override
+		public String serviceName() {
+			return "kms";
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static final class MutableClock extends Clock {
+
+		private volatile Instant instant;
+
+		MutableClock(Instant instant) {
+			this.instant = instant;
+		}
+
+		void advance(Duration duration) {
+			instant = instant.plus(duration);
+		}
+
+		@Override
+		public Instant instant() {
+			return instant;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+	}
+
+}
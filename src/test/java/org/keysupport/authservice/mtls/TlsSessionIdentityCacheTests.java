@@ -0,0 +1,244 @@
+package org.keysupport.authservice.mtls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.net.SSLHostConfig;
+import org.apache.tomcat.util.net.SSLHostConfigCertificate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.validation.CertificateThumbprints;
+import org.keysupport.authservice.validation.TestCertificates;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+class TlsSessionIdentityCacheTests {
+
+	private static final char[] PASSWORD = "changeit".toCharArray();
+
+	private final TlsSessionIdentityCache cache = new TlsSessionIdentityCache();
+	private TestCertificates.Issued clientCa;
+	private TestCertificates.Issued selfSignedClient;
+	private Path baseDir;
+	private Tomcat tomcat;
+	private int port;
+
+	@BeforeEach
+	void startTomcat() throws Exception {
+		baseDir = Files.createTempDirectory("tomcat");
+		clientCa = TestCertificates.root("CN=Client CA");
+		selfSignedClient = TestCertificates.root("CN=Self-Signed Client");
+		TestCertificates.Issued serverCa = TestCertificates.root("CN=Server CA");
+		TestCertificates.Issued server = TestCertificates.endEntity("CN=localhost", serverCa);
+
+		SSLHostConfig sslHostConfig = new SSLHostConfig();
+		sslHostConfig.setCertificateVerification("optional");
+		sslHostConfig.setTrustStore(trustStore(clientCa, selfSignedClient));
+		SSLHostConfigCertificate certificate = new SSLHostConfigCertificate(sslHostConfig, SSLHostConfigCertificate.Type.EC);
+		certificate.setCertificateKeystore(keyStore(server));
+		certificate.setCertificateKeystorePassword(new String(PASSWORD));
+		sslHostConfig.addCertificate(certificate);
+
+		Connector connector = new Connector("org.apache.coyote.http11.Http11NioProtocol");
+		connector.setPort(0);
+		connector.setScheme("https");
+		connector.setSecure(true);
+		connector.setProperty("SSLEnabled", "true");
+		connector.addSslHostConfig(sslHostConfig);
+
+		tomcat = new Tomcat();
+		tomcat.setBaseDir(baseDir.toString());
+		tomcat.setConnector(connector);
+		Context context = tomcat.addContext("", baseDir.toString());
+		Tomcat.addServlet(context, "identity", new HttpServlet() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+				ClientCertificateIdentity identity = cache.resolve(request);
+				response.getWriter().write(identity == null ? "none" : identity.getX5tS256());
+			}
+		});
+		context.addServletMappingDecoded("/identity", "identity");
+		tomcat.start();
+		port = connector.getLocalPort();
+	}
+
+	@AfterEach
+	void stopTomcat() throws Exception {
+		tomcat.stop();
+		tomcat.destroy();
+	}
+
+	@Test
+	void derivesIdentityOncePerTlsSession() throws Exception {
+		TestCertificates.Issued client = TestCertificates.endEntity("CN=Client", clientCa);
+		HttpClient httpClient = httpClient(client);
+
+		for (int i = 0; i < 5; i++) {
+			assertThat(get(httpClient)).isEqualTo(CertificateThumbprints.x5tS256(client.getCertificate()));
+		}
+
+		assertThat(cache.getDerivations()).isEqualTo(1L);
+		assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	void derivesSeparateIdentitiesForDifferentCertificates() throws Exception {
+		TestCertificates.Issued first = TestCertificates.endEntity("CN=First", clientCa);
+		TestCertificates.Issued second = selfSignedClient;
+
+		assertThat(get(httpClient(first))).isEqualTo(CertificateThumbprints.x5tS256(first.getCertificate()));
+		assertThat(get(httpClient(second))).isEqualTo(CertificateThumbprints.x5tS256(second.getCertificate()));
+
+		assertThat(cache.getDerivations()).isEqualTo(2L);
+	}
+
+	@Test
+	void resolvesNothingWithoutClientCertificate() throws Exception {
+		assertThat(get(httpClient(null))).isEqualTo("none");
+		assertThat(cache.getDerivations()).isEqualTo(0L);
+	}
+
+	private String get(HttpClient httpClient) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("https://localhost:" + port + "/identity")).GET().build();
+		return httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+	}
+
+	private static HttpClient httpClient(TestCertificates.Issued client) throws Exception {
+		SSLContext sslContext = SSLContext.getInstance("TLS");
+		KeyManager[] keyManagers = client == null ? null : new KeyManager[] { new ClientKeyManager(client) };
+		sslContext.init(keyManagers, new TrustManager[] { new TrustingTrustManager() }, new SecureRandom());
+		return HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).sslContext(sslContext).build();
+	}
+
+	private static KeyStore keyStore(TestCertificates.Issued issued) throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		keyStore.load(null, null);
+		keyStore.setKeyEntry("key", issued.getKeyPair().getPrivate(), PASSWORD,
+				new Certificate[] { issued.getCertificate() });
+		return keyStore;
+	}
+
+	private static KeyStore trustStore(TestCertificates.Issued... trusted) throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		keyStore.load(null, null);
+		for (int i = 0; i < trusted.length; i++) {
+			keyStore.setCertificateEntry("trusted-" + i, trusted[i].getCertificate());
+		}
+		return keyStore;
+	}
+
+	/**
+	 * Always presents the client certificate, whatever certificate authorities the server
+	 * lists in its CertificateRequest.
+	 */
+	private static final class ClientKeyManager extends X509ExtendedKeyManager {
+
+		private static final String ALIAS = "client";
+
+		private final TestCertificates.Issued client;
+
+		ClientKeyManager(TestCertificates.Issued client) {
+			this.client = client;
+		}
+
+		@Override
+		public String chooseClientAlias(String[] keyTypes, Principal[] issuers, Socket socket) {
+			return ALIAS;
+		}
+
+		@Override
+		public String chooseEngineClientAlias(String[] keyTypes, Principal[] issuers, SSLEngine engine) {
+			return ALIAS;
+		}
+
+		@Override
+		public String[] getClientAliases(String keyType, Principal[] issuers) {
+			return new String[] { ALIAS };
+		}
+
+		@Override
+		public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+			return null;
+		}
+
+		@Override
+		public String[] getServerAliases(String keyType, Principal[] issuers) {
+			return null;
+		}
+
+		@Override
+		public X509Certificate[] getCertificateChain(String alias) {
+			return new X509Certificate[] { client.getCertificate() };
+		}
+
+		@Override
+		public PrivateKey getPrivateKey(String alias) {
+			return client.getKeyPair().getPrivate();
+		}
+	}
+
+	/**
+	 * The test server certificate is not issued for any trusted CA or checked host name.
+	 */
+	private static final class TrustingTrustManager extends X509ExtendedTrustManager {
+
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType) {
+		}
+
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType) {
+		}
+
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) {
+		}
+
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) {
+		}
+
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+		}
+
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+		}
+
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
+			return new X509Certificate[0];
+		}
+	}
+
+}
@@ -0,0 +1,245 @@
+package org.keysupport.authservice.mtls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.client.CachingJdbcRegisteredClientRepository;
+import org.keysupport.authservice.validation.CertificateValidator;
+import org.keysupport.authservice.validation.TestCertificates;
+import org.keysupport.authservice.validation.ValidationPolicy;
+import org.keysupport.authservice.validation.ValidationResult;
+import org.keysupport.authservice.validation.ValidationServiceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.ClientAuthenticationMethod;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.security.oauth2.server.authorization.authentication.OAuth2ClientAuthenticationToken;
+import org.springframework.security.oauth2.server.authorization.authentication.OAuth2ClientCredentialsAuthenticationToken;
+import org.springframework.security.oauth2.server.authorization.client.InMemoryRegisteredClientRepository;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClientRepository;
+import org.springframework.security.oauth2.server.authorization.settings.ClientSettings;
+import org.springframework.security.oauth2.server.authorization.token.JwtEncodingContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class X509ClientAuthenticationProviderTests {
+
+	private TestCertificates.Issued client;
+	private TestCertificates.Issued selfSigned;
+	private final AtomicInteger validations = new AtomicInteger();
+	private volatile boolean verdict = true;
+	private volatile boolean serviceAvailable = true;
+	private RegisteredClient pkiClient;
+	private RegisteredClient selfSignedClient;
+	private X509ClientAuthenticationProvider provider;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		TestCertificates.Issued ca = TestCertificates.root("CN=Client CA");
+		client = TestCertificates.endEntity("CN=PKI Client, O=Example", ca);
+		selfSigned = TestCertificates.root("CN=Self-Signed Client");
+
+		pkiClient = RegisteredClient.withId("1")
+				.clientId("pki-client")
+				.clientAuthenticationMethod(MtlsClientSettings.TLS_CLIENT_AUTH)
+				.authorizationGrantType(AuthorizationGrantType.CLIENT_CREDENTIALS)
+				.clientSettings(ClientSettings.builder()
+						.setting(MtlsClientSettings.SUBJECT_DN, client.getCertificate().getSubjectX500Principal().getName())
+						.setting(MtlsClientSettings.VALIDATION_POLICY_ID, "client-policy")
+						.build())
+				.build();
+		selfSignedClient = RegisteredClient.withId("2")
+				.clientId("self-signed-client")
+				.clientAuthenticationMethod(MtlsClientSettings.SELF_SIGNED_TLS_CLIENT_AUTH)
+				.authorizationGrantType(AuthorizationGrantType.CLIENT_CREDENTIALS)
+				.clientSettings(ClientSettings.builder()
+						.setting(MtlsClientSettings.X5T_S256, ClientCertificateIdentity.of(
+								new X509Certificate[] { selfSigned.getCertificate() }).getX5tS256())
+						.build())
+				.build();
+
+		provider = new X509ClientAuthenticationProvider(
+				new InMemoryRegisteredClientRepository(pkiClient, selfSignedClient), new StubValidator(), "default");
+	}
+
+	@Test
+	void authenticatesPkiClientWithValidCertificateAndSubject() {
+		Authentication authenticated = provider.authenticate(token("pki-client", MtlsClientSettings.TLS_CLIENT_AUTH, client));
+
+		assertThat(authenticated.isAuthenticated()).isTrue();
+		assertThat(authenticated.getCredentials()).isInstanceOf(ClientCertificateIdentity.class);
+		assertThat(validations.get()).isEqualTo(1);
+	}
+
+	@Test
+	void rejectsPkiClientWithOtherSubject() throws Exception {
+		TestCertificates.Issued other = TestCertificates.endEntity("CN=Other Client", TestCertificates.root("CN=Other CA"));
+
+		assertThatThrownBy(() -> provider.authenticate(token("pki-client", MtlsClientSettings.TLS_CLIENT_AUTH, other)))
+				.isInstanceOf(OAuth2AuthenticationException.class);
+		assertThat(validations.get()).isEqualTo(0);
+	}
+
+	@Test
+	void rejectsPkiClientWithInvalidCertificate() {
+		verdict = false;
+
+		assertThatThrownBy(() -> provider.authenticate(token("pki-client", MtlsClientSettings.TLS_CLIENT_AUTH, client)))
+				.isInstanceOf(OAuth2AuthenticationException.class);
+	}
+
+	@Test
+	void rejectsPkiClientWhenNoVerdictIsAvailable() {
+		serviceAvailable = false;
+
+		assertThatThrownBy(() -> provider.authenticate(token("pki-client", MtlsClientSettings.TLS_CLIENT_AUTH, client)))
+				.isInstanceOf(OAuth2AuthenticationException.class);
+	}
+
+	@Test
+	void authenticatesSelfSignedClientByThumbprint() {
+		Authentication authenticated = provider.authenticate(
+				token("self-signed-client", MtlsClientSettings.SELF_SIGNED_TLS_CLIENT_AUTH, selfSigned));
+
+		assertThat(authenticated.isAuthenticated()).isTrue();
+		assertThat(validations.get()).isEqualTo(0);
+	}
+
+	@Test
+	void rejectsSelfSignedClientWithOtherCertificate() throws Exception {
+		TestCertificates.Issued other = TestCertificates.root("CN=Self-Signed Client");
+
+		assertThatThrownBy(() -> provider.authenticate(
+				token("self-signed-client", MtlsClientSettings.SELF_SIGNED_TLS_CLIENT_AUTH, other)))
+				.isInstanceOf(OAuth2AuthenticationException.class);
+	}
+
+	@Test
+	void leavesMethodTheClientIsNotRegisteredForToOtherProviders() {
+		assertThat(provider.authenticate(token("self-signed-client", MtlsClientSettings.TLS_CLIENT_AUTH, selfSigned)))
+				.isNull();
+	}
+
+	@Test
+	void leavesPublicClientPresentingCertificateToOtherAuthenticators() {
+		RegisteredClient publicClient = RegisteredClient.withId("3")
+				.clientId("public-client")
+				.clientAuthenticationMethod(ClientAuthenticationMethod.NONE)
+				.authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+				.redirectUri("https://client.example.com/callback")
+				.build();
+		RegisteredClientRepository repository = new InMemoryRegisteredClientRepository(pkiClient, selfSignedClient,
+				publicClient);
+		X509ClientAuthenticationConverter converter = new X509ClientAuthenticationConverter(
+				new TlsSessionIdentityCache(), repository);
+		provider = new X509ClientAuthenticationProvider(repository, new StubValidator(), "default");
+
+		assertThat(converter.convert(tokenRequest("public-client", client))).isNull();
+		assertThat(converter.convert(tokenRequest("pki-client", client)))
+				.isInstanceOfSatisfying(OAuth2ClientAuthenticationToken.class, token -> assertThat(
+						token.getClientAuthenticationMethod()).isEqualTo(MtlsClientSettings.TLS_CLIENT_AUTH));
+		assertThat(provider.authenticate(token("public-client", MtlsClientSettings.TLS_CLIENT_AUTH, client))).isNull();
+		assertThat(validations.get()).isEqualTo(0);
+	}
+
+	@Test
+	void bindsAccessTokenToAuthenticatedCertificate() {
+		Authentication clientPrincipal = provider.authenticate(
+				token("self-signed-client", MtlsClientSettings.SELF_SIGNED_TLS_CLIENT_AUTH, selfSigned));
+		JwtClaimsSet.Builder claims = JwtClaimsSet.builder().subject("self-signed-client");
+		JwtEncodingContext context = JwtEncodingContext.with(JwsHeader.with(SignatureAlgorithm.RS256), claims)
+				.tokenType(OAuth2TokenType.ACCESS_TOKEN)
+				.authorizationGrant(new OAuth2ClientCredentialsAuthenticationToken(clientPrincipal, Set.of(), null))
+				.build();
+
+		new CertificateBoundTokenCustomizer().customize(context);
+
+		assertThat(claims.build().<Map<String, Object>>getClaim(CertificateBoundTokenCustomizer.CONFIRMATION_CLAIM))
+				.isEqualTo(Map.of(CertificateBoundTokenCustomizer.X5T_S256,
+						((ClientCertificateIdentity) clientPrincipal.getCredentials()).getX5tS256()));
+	}
+
+	@Test
+	void findsClientsInTheClientRegistryByTheirCertificates() {
+		EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+				.generateUniqueName(true)
+				.setType(EmbeddedDatabaseType.H2)
+				.addScript("org/keysupport/authservice/client/registered-client-schema.sql")
+				.build();
+		try (CachingJdbcRegisteredClientRepository repository = new CachingJdbcRegisteredClientRepository(
+				new JdbcTemplate(database), new TransactionTemplate(new DataSourceTransactionManager(database)))) {
+			repository.save(pkiClient);
+			repository.save(selfSignedClient);
+			provider = new X509ClientAuthenticationProvider(repository, new StubValidator(), "default");
+
+			assertThat(provider.authenticate(token("pki-client", MtlsClientSettings.TLS_CLIENT_AUTH, client))
+					.getPrincipal()).isEqualTo(pkiClient.getClientId());
+			assertThat(provider.authenticate(
+					token("self-signed-client", MtlsClientSettings.SELF_SIGNED_TLS_CLIENT_AUTH, selfSigned))
+					.getPrincipal()).isEqualTo(selfSignedClient.getClientId());
+			assertThatThrownBy(() -> provider.authenticate(
+					token("pki-client", MtlsClientSettings.SELF_SIGNED_TLS_CLIENT_AUTH, selfSigned)))
+					.isInstanceOf(OAuth2AuthenticationException.class);
+			assertThatThrownBy(() -> provider.authenticate(
+					token("self-signed-client", MtlsClientSettings.TLS_CLIENT_AUTH, client)))
+					.isInstanceOf(OAuth2AuthenticationException.class);
+			assertThat(validations.get()).isEqualTo(1);
+		} finally {
+			database.shutdown();
+		}
+	}
+
+	private static OAuth2ClientAuthenticationToken token(String clientId,
+			ClientAuthenticationMethod method, TestCertificates.Issued issued) {
+		return new OAuth2ClientAuthenticationToken(clientId, method,
+				ClientCertificateIdentity.of(new X509Certificate[] { issued.getCertificate() }), Collections.emptyMap());
+	}
+
+	private static MockHttpServletRequest tokenRequest(String clientId, TestCertificates.Issued issued) {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/oauth2/token");
+		request.setAttribute(TlsSessionIdentityCache.X509_CERTIFICATE_ATTRIBUTE,
+				new X509Certificate[] { issued.getCertificate() });
+		request.addParameter(OAuth2ParameterNames.CLIENT_ID, clientId);
+		return request;
+	}
+
+	private final class StubValidator implements CertificateValidator {
+
+		@Override
+		public ValidationResult validate(X509Certificate certificate, String validationPolicyId) {
+			assertThat(validationPolicyId).isEqualTo("client-policy");
+			if (!serviceAvailable) {
+				throw new ValidationServiceException("unavailable");
+			}
+			validations.incrementAndGet();
+			return new ValidationResult(validationPolicyId, null, certificate.getSubjectX500Principal().getName(),
+					verdict, verdict ? "SUCCESS" : "FAIL", Instant.now(), null);
+		}
+
+		@Override
+		public ValidationPolicy getPolicy(String validationPolicyId) {
+			return new ValidationPolicy();
+		}
+	}
+
+}
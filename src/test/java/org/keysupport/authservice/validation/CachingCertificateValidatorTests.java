@@ -0,0 +1,253 @@
+package org.keysupport.authservice.validation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+class CachingCertificateValidatorTests {
+
+	private static final String POLICY_ID = "cc54e0ec-49da-333a-8150-2dd00b758b17";
+	private static final DateTimeFormatter VSS_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
+			.withZone(ZoneOffset.UTC);
+
+	private final MutableClock clock = new MutableClock(Instant.parse("2023-07-26T02:44:27.749Z"));
+	private final AtomicInteger validateCalls = new AtomicInteger();
+	private volatile String result = "SUCCESS";
+	private volatile Duration nextUpdateIn = Duration.ofMinutes(15);
+	private volatile long responseDelayMillis;
+	private volatile String validationTime;
+
+	private HttpServer server;
+	private VssClient vssClient;
+	private X509Certificate certificate;
+
+	@BeforeEach
+	void startServer() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/vss/v2/policies/" + POLICY_ID, exchange -> respond(exchange,
+				"{\"validationPolicyId\":\"" + POLICY_ID + "\",\"validationPolicyName\":\"aal3\","
+						+ "\"requireExplicitPolicy\":true,\"validCacheLifetime\":900,\"inValidCacheLifetime\":300}"));
+		server.createContext("/vss/v2/validate", exchange -> {
+			validateCalls.incrementAndGet();
+			exchange.getRequestBody().readAllBytes();
+			sleep(responseDelayMillis);
+			Instant now = clock.instant();
+			respond(exchange, "{\"validationPolicyId\":\"" + POLICY_ID + "\",\"x509SubjectName\":\"CN=Client\","
+					+ "\"validationTime\":\"" + (validationTime != null ? validationTime : VSS_TIME.format(now)) + "\","
+					+ "\"nextUpdate\":\"" + VSS_TIME.format(now.plus(nextUpdateIn)) + "\","
+					+ "\"validationResult\":{\"result\":\"" + result + "\"}}");
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		vssClient = new VssClient(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/vss/v2"),
+				Duration.ofSeconds(5));
+		certificate = selfSignedCertificate();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	void reusesResultWithinValidCacheLifetime() {
+		CachingCertificateValidator validator = validator();
+
+		ValidationResult first = validator.validate(certificate, POLICY_ID);
+		clock.advance(Duration.ofMinutes(10));
+		ValidationResult second = validator.validate(certificate, POLICY_ID);
+
+		assertThat(first.isValid()).isTrue();
+		assertThat(first.getX5tS256()).isEqualTo(CertificateThumbprints.x5tS256(certificate));
+		assertThat(second).isSameAs(first);
+		assertThat(validateCalls).hasValue(1);
+	}
+
+	@Test
+	void expiresAtNextUpdateWhenEarlierThanLifetime() {
+		nextUpdateIn = Duration.ofMinutes(1);
+		CachingCertificateValidator validator = validator();
+
+		validator.validate(certificate, POLICY_ID);
+		clock.advance(Duration.ofSeconds(61));
+		validator.validate(certificate, POLICY_ID);
+
+		assertThat(validateCalls).hasValue(2);
+	}
+
+	@Test
+	void usesInvalidCacheLifetimeForFailures() {
+		result = "FAIL";
+		CachingCertificateValidator validator = validator();
+
+		assertThat(validator.validate(certificate, POLICY_ID).isValid()).isFalse();
+		clock.advance(Duration.ofSeconds(230));
+		validator.validate(certificate, POLICY_ID);
+		assertThat(validateCalls).hasValue(1);
+
+		clock.advance(Duration.ofSeconds(71));
+		validator.validate(certificate, POLICY_ID);
+		assertThat(validateCalls).hasValue(2);
+	}
+
+	@Test
+	void reportsMalformedTimesAsServiceFailures() {
+		validationTime = "26 July 2023";
+
+		assertThatThrownBy(() -> vssClient.validate(certificate, POLICY_ID))
+				.isInstanceOf(ValidationServiceException.class)
+				.hasMessageStartingWith("Invalid response from ");
+	}
+
+	@Test
+	void collapsesConcurrentValidationsIntoOneCall() throws Exception {
+		responseDelayMillis = 200;
+		CachingCertificateValidator validator = validator();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<ValidationResult>> results = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			results.add(executor.submit(() -> {
+				start.await();
+				return validator.validate(certificate, POLICY_ID);
+			}));
+		}
+		start.countDown();
+		for (Future<ValidationResult> future : results) {
+			assertThat(future.get().isValid()).isTrue();
+		}
+		executor.shutdown();
+
+		assertThat(validateCalls).hasValue(1);
+	}
+
+	@Test
+	void refreshesHotEntriesBeforeTheyExpire() {
+		CachingCertificateValidator validator = validator();
+
+		ValidationResult first = validator.validate(certificate, POLICY_ID);
+		clock.advance(Duration.ofMinutes(13));
+		ValidationResult servedDuringRefresh = validator.validate(certificate, POLICY_ID);
+		assertThat(servedDuringRefresh).isSameAs(first);
+		assertThat(validateCalls).hasValue(2);
+
+		clock.advance(Duration.ofMinutes(5));
+		ValidationResult refreshed = validator.validate(certificate, POLICY_ID);
+		assertThat(refreshed).isNotSameAs(first);
+		assertThat(validateCalls).hasValue(2);
+	}
+
+	@Test
+	void evictsTheLeastRecentlyReadResults() {
+		CachingCertificateValidator validator = new CachingCertificateValidator(vssClient, 0.2, 10, Runnable::run, clock);
+		String hot = CertificateThumbprints.x5tS256(certificate);
+		validator.validate(certificate, hot, POLICY_ID);
+
+		for (int i = 0; i < 10; i++) {
+			validator.validate(certificate, "cold-" + i, POLICY_ID);
+			validator.validate(certificate, hot, POLICY_ID);
+		}
+
+		assertThat(validator.size()).isLessThanOrEqualTo(10);
+		assertThat(validateCalls).hasValue(11);
+		validator.validate(certificate, hot, POLICY_ID);
+		assertThat(validateCalls).hasValue(11);
+		validator.validate(certificate, "cold-0", POLICY_ID);
+		assertThat(validateCalls).hasValue(12);
+	}
+
+	private CachingCertificateValidator validator() {
+		return new CachingCertificateValidator(vssClient, 0.2, 100, Runnable::run, clock);
+	}
+
+	private static void respond(HttpExchange exchange, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static X509Certificate selfSignedCertificate() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(256);
+		KeyPair keyPair = generator.generateKeyPair();
+		X500Name name = new X500Name("CN=Client");
+		Instant now = Instant.now();
+		return new JcaX509CertificateConverter().getCertificate(new JcaX509v3CertificateBuilder(name, BigInteger.ONE,
+				Date.from(now), Date.from(now.plus(Duration.ofDays(1))), name, keyPair.getPublic())
+				.build(new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate())));
+	}
+
+	private static final class MutableClock extends Clock {
+
+		private volatile Instant instant;
+
+		MutableClock(Instant instant) {
+			this.instant = instant;
+		}
+
+		void advance(Duration duration) {
+			instant = instant.plus(duration);
+		}
+
+		@Override
+		public Instant instant() {
+			return instant;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+	}
+
+}
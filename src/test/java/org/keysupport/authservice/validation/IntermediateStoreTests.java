@@ -0,0 +1,127 @@
+package org.keysupport.authservice.validation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.cert.CertStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.DEROctetString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class IntermediateStoreTests {
+
+	private Path directory;
+	private Path bundle;
+	private TestCertificates.Issued root;
+	private TestCertificates.Issued bridge;
+	private TestCertificates.Issued issuing;
+
+	@BeforeEach
+	void writeBundle() throws Exception {
+		directory = Files.createTempDirectory("intermediates");
+		bundle = directory.resolve("hints.p7b");
+		root = TestCertificates.root("CN=Test Common Policy CA,O=Test,C=US");
+		bridge = TestCertificates.intermediate("CN=Test Bridge CA,O=Test,C=US", root);
+		issuing = TestCertificates.intermediate("CN=Test Issuing CA,O=Test,C=US", bridge);
+		Files.write(bundle, TestCertificates.bundle(List.of(bridge.getCertificate(), issuing.getCertificate())));
+	}
+
+	@AfterEach
+	void deleteBundle() throws Exception {
+		Files.deleteIfExists(bundle);
+		Files.deleteIfExists(directory);
+	}
+
+	@Test
+	void indexesBundleBySubjectKeyIdentifierAndThumbprint() throws Exception {
+		IntermediateIndex index = new IntermediateIndex(CmsCertificateBundles.read(bundle));
+		X509Certificate certificate = issuing.getCertificate();
+
+		assertThat(index.size()).isEqualTo(2);
+		assertThat(index.getBySubject(certificate.getSubjectX500Principal())).containsExactly(certificate);
+		assertThat(index.getBySubjectKeyIdentifier(KeyIdentifiers.subjectKeyIdentifier(certificate))).containsExactly(certificate);
+		assertThat(index.getByX5tS256(CertificateThumbprints.x5tS256(certificate))).isEqualTo(certificate);
+	}
+
+	@Test
+	void readsPemBundles() throws Exception {
+		byte[] der = TestCertificates.bundle(List.of(bridge.getCertificate()));
+		String pem = "-----BEGIN PKCS7-----\n" + Base64.getMimeEncoder().encodeToString(der) + "\n-----END PKCS7-----\n";
+		Files.write(bundle, pem.getBytes(StandardCharsets.US_ASCII));
+
+		assertThat(CmsCertificateBundles.read(bundle)).containsExactly(bridge.getCertificate());
+
+		Files.write(bundle, "-----BEGIN PKCS7-----".getBytes(StandardCharsets.US_ASCII));
+		assertThatThrownBy(() -> CmsCertificateBundles.read(bundle)).isInstanceOf(IOException.class);
+	}
+
+	@Test
+	void answersCertStoreSelectorsFromTheIndex() throws Exception {
+		IntermediateIndex index = new IntermediateIndex(CmsCertificateBundles.read(bundle));
+		CertStore certStore = IndexedCertStore.create(() -> index);
+
+		X509CertSelector bySubject = new X509CertSelector();
+		bySubject.setSubject(issuing.getCertificate().getSubjectX500Principal());
+		X509CertSelector bySki = new X509CertSelector();
+		bySki.setSubjectKeyIdentifier(
+				new DEROctetString(KeyIdentifiers.subjectKeyIdentifier(issuing.getCertificate())).getEncoded());
+
+		assertThat(new ArrayList<Certificate>(certStore.getCertificates(bySubject))).containsExactly(issuing.getCertificate());
+		assertThat(new ArrayList<Certificate>(certStore.getCertificates(bySki))).containsExactly(issuing.getCertificate());
+		assertThat(certStore.getCertificates(null)).hasSize(2);
+	}
+
+	@Test
+	void swapsInChangedBundles() throws Exception {
+		try (IntermediateStore store = new IntermediateStore(List.of(bundle), Duration.ofHours(1))) {
+			store.start();
+			AtomicInteger reloads = new AtomicInteger();
+			store.addListener(index -> reloads.incrementAndGet());
+			IntermediateIndex before = store.current();
+			assertThat(store.reloadIfChanged()).isFalse();
+
+			TestCertificates.Issued added = TestCertificates.intermediate("CN=Added CA,O=Test,C=US", root);
+			Files.write(bundle, TestCertificates.bundle(
+					List.of(bridge.getCertificate(), issuing.getCertificate(), added.getCertificate())));
+			Files.setLastModifiedTime(bundle, FileTime.from(Instant.now().plusSeconds(5)));
+
+			assertThat(store.reloadIfChanged()).isTrue();
+			assertThat(store.current()).isNotSameAs(before);
+			assertThat(store.current().size()).isEqualTo(3);
+			assertThat(before.size()).isEqualTo(2);
+			assertThat(store.getCertStore().getCertificates(null)).hasSize(3);
+			assertThat(reloads).hasValue(1);
+		}
+	}
+
+	@Test
+	void keepsPreviousIndexWhenBundleIsCorrupt() throws Exception {
+		try (IntermediateStore store = new IntermediateStore(List.of(bundle), Duration.ofHours(1))) {
+			store.start();
+			IntermediateIndex before = store.current();
+
+			Files.write(bundle, new byte[] { 0x30, 0x03, 0x02, 0x01 });
+			Files.setLastModifiedTime(bundle, FileTime.from(Instant.now().plusSeconds(5)));
+
+			assertThat(store.reloadIfChanged()).isFalse();
+			assertThat(store.current()).isSameAs(before);
+		}
+	}
+
+}
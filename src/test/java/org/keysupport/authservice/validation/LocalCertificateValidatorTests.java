@@ -0,0 +1,251 @@
+package org.keysupport.authservice.validation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.bouncycastle.asn1.x509.CRLReason;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.validation.revocation.RevocationStore;
+
+class LocalCertificateValidatorTests {
+
+	private static final String POLICY_ID = "cc54e0ec-49da-333a-8150-2dd00b758b17";
+	private static final String PIV_AUTH = "2.16.840.1.101.3.2.1.3.13";
+	private static final String OTHER = "2.16.840.1.101.3.2.1.3.1";
+	private static final String ANY_POLICY = "2.5.29.32.0";
+
+	private TestCertificates.Issued root;
+	private TestCertificates.Issued bridge;
+	private TestCertificates.Issued issuing;
+
+	@BeforeEach
+	void createPki() throws Exception {
+		root = TestCertificates.root("CN=Test Common Policy CA,O=Test,C=US");
+		bridge = TestCertificates.intermediate("CN=Test Bridge CA,O=Test,C=US", root, PIV_AUTH, OTHER);
+		issuing = TestCertificates.intermediate("CN=Test Issuing CA,O=Test,C=US", bridge, PIV_AUTH, OTHER);
+	}
+
+	@Test
+	void validatesPathBuiltFromIndexedIntermediates() throws Exception {
+		LocalCertificateValidator validator = validator(policy(), bridge.getCertificate(), issuing.getCertificate());
+		X509Certificate client = TestCertificates.endEntity("CN=Client,O=Test,C=US", issuing, PIV_AUTH).getCertificate();
+
+		ValidationResult result = validator.validate(client, POLICY_ID);
+
+		assertThat(result.isValid()).isTrue();
+		assertThat(result.getResult()).isEqualTo("SUCCESS");
+		assertThat(result.getX5tS256()).isEqualTo(CertificateThumbprints.x5tS256(client));
+		assertThat(result.getNextUpdate()).isEqualTo(client.getNotAfter().toInstant());
+	}
+
+	@Test
+	void selectsIssuerByKeyIdentifierAmongSameNamedCertificates() throws Exception {
+		TestCertificates.Issued decoyRoot = TestCertificates.root("CN=Decoy Root,O=Test,C=US");
+		TestCertificates.Issued decoy = TestCertificates.intermediate("CN=Test Issuing CA,O=Test,C=US", decoyRoot, PIV_AUTH);
+		LocalCertificateValidator validator = validator(policy(), decoy.getCertificate(), bridge.getCertificate(),
+				issuing.getCertificate());
+		X509Certificate client = TestCertificates.endEntity("CN=Client,O=Test,C=US", issuing, PIV_AUTH).getCertificate();
+
+		assertThat(validator.validate(client, POLICY_ID).isValid()).isTrue();
+		assertThat(validator.getCompiledPolicy(POLICY_ID).getIntermediates()
+				.getBySubject(issuing.getCertificate().getSubjectX500Principal())).hasSize(2);
+		assertThat(validator.getCompiledPolicy(POLICY_ID).getIntermediates().getIssuerCandidates(client))
+				.containsExactly(issuing.getCertificate());
+	}
+
+	@Test
+	void givesUpOnACrossCertifiedMeshWithNoWayOut() throws Exception {
+		TestCertificates.Issued outsideRoot = TestCertificates.root("CN=Outside Root,O=Test,C=US");
+		List<TestCertificates.Issued> mesh = new ArrayList<>();
+		List<X509Certificate> intermediates = new ArrayList<>();
+		for (int i = 0; i < 7; i++) {
+			TestCertificates.Issued ca = TestCertificates.intermediate("CN=Mesh CA " + i + ",O=Test,C=US", outsideRoot,
+					PIV_AUTH);
+			mesh.add(ca);
+			intermediates.add(ca.getCertificate());
+		}
+		for (TestCertificates.Issued subject : mesh) {
+			for (TestCertificates.Issued issuer : mesh) {
+				if (subject != issuer) {
+					intermediates.add(TestCertificates.crossCertificate(subject, issuer, PIV_AUTH).getCertificate());
+				}
+			}
+		}
+		CompiledPolicy compiled = CompiledPolicy.compile(policy(), intermediates);
+		X509Certificate client = TestCertificates.endEntity("CN=Client,O=Test,C=US", mesh.get(0), PIV_AUTH).getCertificate();
+
+		assertThatThrownBy(() -> compiled.validate(client, new Date()))
+				.isInstanceOf(CertPathValidatorException.class)
+				.hasMessageContaining("Gave up");
+	}
+
+	@Test
+	void findsTheWayOutOfACrossCertifiedMesh() throws Exception {
+		List<TestCertificates.Issued> mesh = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			mesh.add(TestCertificates.intermediate("CN=Mesh CA " + i + ",O=Test,C=US", bridge, PIV_AUTH));
+		}
+		// Cross-certificates come first, so the search starts inside the mesh.
+		List<X509Certificate> intermediates = new ArrayList<>();
+		for (TestCertificates.Issued subject : mesh) {
+			for (TestCertificates.Issued issuer : mesh) {
+				if (subject != issuer) {
+					intermediates.add(TestCertificates.crossCertificate(subject, issuer, PIV_AUTH).getCertificate());
+				}
+			}
+		}
+		// The bridge cross-certified from outside the policy, which leads nowhere.
+		TestCertificates.Issued outsideRoot = TestCertificates.root("CN=Outside Root,O=Test,C=US");
+		intermediates.add(TestCertificates.crossCertificate(bridge, outsideRoot, PIV_AUTH).getCertificate());
+		for (TestCertificates.Issued ca : mesh) {
+			intermediates.add(ca.getCertificate());
+		}
+		intermediates.add(bridge.getCertificate());
+		CompiledPolicy compiled = CompiledPolicy.compile(policy(), intermediates);
+		X509Certificate client = TestCertificates.endEntity("CN=Client,O=Test,C=US", mesh.get(4), PIV_AUTH).getCertificate();
+
+		List<X509Certificate> path = compiled.validate(client, new Date());
+
+		assertThat(path.get(0)).isEqualTo(client);
+		assertThat(path.get(path.size() - 1)).isEqualTo(bridge.getCertificate());
+	}
+
+	@Test
+	void repeatChainsReuseVerifiedLinksWithinTheirValidity() throws Exception {
+		CompiledPolicy compiled = CompiledPolicy.compile(policy(), List.of(bridge.getCertificate(), issuing.getCertificate()));
+		X509Certificate client = TestCertificates.endEntity("CN=Client,O=Test,C=US", issuing, PIV_AUTH).getCertificate();
+
+		List<X509Certificate> first = compiled.validate(client, new Date());
+		int verifiedLinks = compiled.getVerifiedLinkCount();
+		List<X509Certificate> second = compiled.validate(client, new Date());
+
+		assertThat(second).isEqualTo(first);
+		assertThat(verifiedLinks).isEqualTo(3);
+		assertThat(compiled.getVerifiedLinkCount()).isEqualTo(verifiedLinks);
+		assertThat(compiled.getValidatedPathCount()).isEqualTo(1);
+		Date afterExpiry = new Date(client.getNotAfter().getTime() + 1);
+		assertThatThrownBy(() -> compiled.validate(client, afterExpiry))
+				.isInstanceOf(CertPathValidatorException.class);
+	}
+
+	@Test
+	void rejectsCertificateOutsideUserPolicySet() throws Exception {
+		LocalCertificateValidator validator = validator(policy(), bridge.getCertificate(), issuing.getCertificate());
+		X509Certificate client = TestCertificates.endEntity("CN=Client,O=Test,C=US", issuing, OTHER).getCertificate();
+
+		ValidationResult result = validator.validate(client, POLICY_ID);
+
+		assertThat(result.isValid()).isFalse();
+		assertThat(result.getResult()).isEqualTo("FAIL");
+	}
+
+	@Test
+	void honoursInhibitAnyPolicy() throws Exception {
+		TestCertificates.Issued anyPolicyCa = TestCertificates.intermediate("CN=Any Policy CA,O=Test,C=US", root, ANY_POLICY);
+		X509Certificate client = TestCertificates.endEntity("CN=Client,O=Test,C=US", anyPolicyCa, PIV_AUTH).getCertificate();
+
+		ValidationPolicy inhibited = policy();
+		ValidationPolicy permitted = policy();
+		permitted.setInhibitAnyPolicy(false);
+
+		assertThat(validator(inhibited, anyPolicyCa.getCertificate()).validate(client, POLICY_ID).isValid()).isFalse();
+		assertThat(validator(permitted, anyPolicyCa.getCertificate()).validate(client, POLICY_ID).isValid()).isTrue();
+	}
+
+	@Test
+	void dropsExcludedIntermediates() throws Exception {
+		ValidationPolicy policy = policy();
+		ValidationPolicy.ExcludedIntermediate exclude = new ValidationPolicy.ExcludedIntermediate();
+		exclude.setX5tS256(Base64.getEncoder().encodeToString(CertificateThumbprints.sha256(bridge.getCertificate())));
+		exclude.setExcludeReason("wrong direction");
+		policy.setExcludeIntermediates(List.of(exclude));
+		LocalCertificateValidator validator = validator(policy, bridge.getCertificate(), issuing.getCertificate());
+		X509Certificate client = TestCertificates.endEntity("CN=Client,O=Test,C=US", issuing, PIV_AUTH).getCertificate();
+
+		assertThat(validator.getCompiledPolicy(POLICY_ID).getIntermediates().size()).isEqualTo(1);
+		assertThat(validator.validate(client, POLICY_ID).isValid()).isFalse();
+	}
+
+	@Test
+	void checksRevocationOfEveryCertificateInThePath() throws Exception {
+		LocalCertificateValidator validator = validator(policy(), bridge.getCertificate(), issuing.getCertificate());
+		X509Certificate client = TestCertificates.endEntity("CN=Client,O=Test,C=US", issuing, PIV_AUTH).getCertificate();
+		X509Certificate revoked = TestCertificates.endEntity("CN=Revoked,O=Test,C=US", issuing, PIV_AUTH).getCertificate();
+		Instant nextUpdate = Instant.now().plus(Duration.ofDays(1)).truncatedTo(ChronoUnit.SECONDS);
+		Path crls = Files.createTempDirectory("crls");
+		Files.write(crls.resolve("root.crl"), TestCertificates.crl(root, 1, null, nextUpdate, Map.of()));
+		Files.write(crls.resolve("bridge.crl"), TestCertificates.crl(bridge, 1, null, nextUpdate.plusSeconds(60), Map.of()));
+		RevocationStore store = new RevocationStore(crls, crls.resolve("index"), Duration.ofHours(1),
+				validator::findCertificatesBySubject);
+		try {
+			store.start();
+			validator.setRevocationStore(store);
+
+			// No CRL for the issuing CA yet: its certificates cannot be shown to be unrevoked.
+			assertThat(validator.validate(client, POLICY_ID).isValid()).isFalse();
+
+			Files.write(crls.resolve("issuing.crl"), TestCertificates.crl(issuing, 1, null, nextUpdate.plusSeconds(120),
+					Map.of(revoked.getSerialNumber(), CRLReason.keyCompromise)));
+			assertThat(store.reloadIfChanged()).isTrue();
+
+			ValidationResult result = validator.validate(client, POLICY_ID);
+			assertThat(result.isValid()).isTrue();
+			assertThat(result.getNextUpdate()).isEqualTo(nextUpdate);
+			assertThat(validator.validate(revoked, POLICY_ID).isValid()).isFalse();
+		} finally {
+			store.close();
+			try (Stream<Path> paths = Files.walk(crls)) {
+				for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+					Files.delete(path);
+				}
+			}
+		}
+	}
+
+	@Test
+	void rejectsUnknownPolicy() {
+		LocalCertificateValidator validator = new LocalCertificateValidator();
+
+		assertThatThrownBy(() -> validator.validate(issuing.getCertificate(), POLICY_ID))
+				.isInstanceOf(ValidationServiceException.class);
+	}
+
+	private ValidationPolicy policy() throws Exception {
+		ValidationPolicy policy = new ValidationPolicy();
+		policy.setValidationPolicyId(POLICY_ID);
+		policy.setValidationPolicyName("aal3");
+		policy.setTrustAnchors(List.of(TestCertificates.trustAnchor(root.getCertificate())));
+		policy.setUserPolicySet(List.of(PIV_AUTH));
+		policy.setRequireExplicitPolicy(true);
+		policy.setInhibitAnyPolicy(true);
+		policy.setInhibitPolicyMapping(false);
+		policy.setValidCacheLifetime(900);
+		policy.setInValidCacheLifetime(900);
+		return policy;
+	}
+
+	private static LocalCertificateValidator validator(ValidationPolicy policy, X509Certificate... intermediates)
+			throws Exception {
+		LocalCertificateValidator validator = new LocalCertificateValidator();
+		validator.register(CompiledPolicy.compile(policy, List.of(intermediates)));
+		return validator;
+	}
+
+}
@@ -0,0 +1,180 @@
+package org.keysupport.authservice.validation;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CertificatePolicies;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.PolicyInformation;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSAbsentContent;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * Small EC P-256 PKI for tests: roots, intermediates and end entities with
+ * key identifiers and certificate policies, and the CRLs they issue.
+ */
+public final class TestCertificates {
+
+	private static final AtomicLong SERIAL = new AtomicLong(1);
+
+	private TestCertificates() {
+	}
+
+	public static KeyPair keyPair() throws GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec("secp256r1"));
+		return generator.generateKeyPair();
+	}
+
+	public static Issued root(String name) throws Exception {
+		KeyPair keyPair = keyPair();
+		return new Issued(build(new X500Name(name), keyPair, null, keyPair, true, Duration.ofDays(3650)), keyPair);
+	}
+
+	public static Issued intermediate(String name, Issued issuer, String... policies) throws Exception {
+		KeyPair keyPair = keyPair();
+		return new Issued(build(new X500Name(name), keyPair, issuer, issuer.keyPair, true, Duration.ofDays(1825), policies), keyPair);
+	}
+
+	/**
+	 * @param subject the CA to certify again, keeping its name and key
+	 * @param issuer
+	 * @param policies
+	 * @return a cross-certificate for the subject, issued by the issuer
+	 */
+	public static Issued crossCertificate(Issued subject, Issued issuer, String... policies) throws Exception {
+		X500Name name = X500Name.getInstance(subject.certificate.getSubjectX500Principal().getEncoded());
+		return new Issued(build(name, subject.keyPair, issuer, issuer.keyPair, true, Duration.ofDays(1825), policies),
+				subject.keyPair);
+	}
+
+	public static Issued endEntity(String name, Issued issuer, String... policies) throws Exception {
+		KeyPair keyPair = keyPair();
+		return new Issued(build(new X500Name(name), keyPair, issuer, issuer.keyPair, false, Duration.ofDays(365), policies), keyPair);
+	}
+
+	/**
+	 * @param certificate
+	 * @return the policy document representation of a trust anchor
+	 */
+	public static ValidationPolicy.TrustAnchor trustAnchor(X509Certificate certificate) throws Exception {
+		ValidationPolicy.TrustAnchor anchor = new ValidationPolicy.TrustAnchor();
+		anchor.setX509Certificate(Base64.getEncoder().encodeToString(certificate.getEncoded()));
+		anchor.setX5tS256(Base64.getEncoder().encodeToString(CertificateThumbprints.sha256(certificate)));
+		anchor.setX509SubjectName(certificate.getSubjectX500Principal().getName());
+		return anchor;
+	}
+
+	/**
+	 * @param certificates
+	 * @return a DER CMS "certs-only" bundle, as served for hint lists
+	 */
+	public static byte[] bundle(List<X509Certificate> certificates) throws Exception {
+		CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+		generator.addCertificates(new JcaCertStore(certificates));
+		return generator.generate(new CMSAbsentContent()).getEncoded();
+	}
+
+	/**
+	 * @param issuer
+	 * @param crlNumber
+	 * @param baseCrlNumber the delta CRL indicator, or null for a complete CRL
+	 * @param nextUpdate
+	 * @param revoked serial numbers and their CRLReason codes
+	 * @return a DER encoded CRL signed by the issuer
+	 */
+	public static byte[] crl(Issued issuer, long crlNumber, Long baseCrlNumber, Instant nextUpdate,
+			Map<BigInteger, Integer> revoked) throws Exception {
+		return crl(issuer, BigInteger.valueOf(crlNumber), baseCrlNumber == null ? null : BigInteger.valueOf(baseCrlNumber),
+				nextUpdate, revoked);
+	}
+
+	/**
+	 * As {@link #crl(Issued, long, Long, Instant, Map)}, for CRL numbers of any width.
+	 */
+	public static byte[] crl(Issued issuer, BigInteger crlNumber, BigInteger baseCrlNumber, Instant nextUpdate,
+			Map<BigInteger, Integer> revoked) throws Exception {
+		Instant thisUpdate = Instant.now().minus(Duration.ofMinutes(1));
+		X509v2CRLBuilder builder = new X509v2CRLBuilder(
+				X500Name.getInstance(issuer.certificate.getSubjectX500Principal().getEncoded()), Date.from(thisUpdate));
+		builder.setNextUpdate(Date.from(nextUpdate));
+		builder.addExtension(Extension.cRLNumber, false, new CRLNumber(crlNumber));
+		if (baseCrlNumber != null) {
+			builder.addExtension(Extension.deltaCRLIndicator, true, new CRLNumber(baseCrlNumber));
+		}
+		for (Map.Entry<BigInteger, Integer> entry : revoked.entrySet()) {
+			builder.addCRLEntry(entry.getKey(), Date.from(thisUpdate), entry.getValue());
+		}
+		return builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(issuer.keyPair.getPrivate())).getEncoded();
+	}
+
+	private static X509Certificate build(X500Name subject, KeyPair subjectKeyPair, Issued issuer, KeyPair issuerKeyPair,
+			boolean ca, Duration lifetime, String... policies) throws Exception {
+		JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+		X500Name issuerName = issuer == null ? subject : X500Name.getInstance(issuer.certificate.getSubjectX500Principal().getEncoded());
+		Instant notBefore = Instant.now().minus(Duration.ofDays(1));
+		X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuerName,
+				BigInteger.valueOf(SERIAL.getAndIncrement()), Date.from(notBefore), Date.from(notBefore.plus(lifetime)),
+				subject, subjectKeyPair.getPublic())
+				.addExtension(Extension.subjectKeyIdentifier, false,
+						extensionUtils.createSubjectKeyIdentifier(subjectKeyPair.getPublic()))
+				.addExtension(Extension.authorityKeyIdentifier, false,
+						extensionUtils.createAuthorityKeyIdentifier(issuerKeyPair.getPublic()))
+				.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca))
+				.addExtension(Extension.keyUsage, true, ca
+						? new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign)
+						: new KeyUsage(KeyUsage.digitalSignature));
+		if (policies.length > 0) {
+			PolicyInformation[] information = new PolicyInformation[policies.length];
+			for (int i = 0; i < policies.length; i++) {
+				information[i] = new PolicyInformation(new ASN1ObjectIdentifier(policies[i]));
+			}
+			builder.addExtension(Extension.certificatePolicies, false, new CertificatePolicies(information));
+		}
+		return new JcaX509CertificateConverter().getCertificate(
+				builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(issuerKeyPair.getPrivate())));
+	}
+
+	public static final class Issued {
+
+		private final X509Certificate certificate;
+		private final KeyPair keyPair;
+
+		Issued(X509Certificate certificate, KeyPair keyPair) {
+			this.certificate = certificate;
+			this.keyPair = keyPair;
+		}
+
+		public X509Certificate getCertificate() {
+			return certificate;
+		}
+
+		public KeyPair getKeyPair() {
+			return keyPair;
+		}
+	}
+
+}
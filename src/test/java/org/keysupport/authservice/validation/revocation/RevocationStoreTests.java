@@ -0,0 +1,221 @@
+package org.keysupport.authservice.validation.revocation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keysupport.authservice.validation.TestCertificates;
+
+class RevocationStoreTests {
+
+	private Path crlDirectory;
+	private Path indexDirectory;
+	private TestCertificates.Issued ca;
+	private final List<RevocationStore> stores = new ArrayList<>();
+
+	@BeforeEach
+	void createDirectories() throws Exception {
+		crlDirectory = Files.createTempDirectory("crls");
+		indexDirectory = crlDirectory.resolve("index");
+		ca = TestCertificates.root("CN=Test Issuing CA,O=Test,C=US");
+	}
+
+	@AfterEach
+	void deleteDirectories() throws IOException {
+		stores.forEach(RevocationStore::close);
+		try (Stream<Path> paths = Files.walk(crlDirectory)) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Test
+	void findsRevokedSerialsAmongManyEntries() throws Exception {
+		X509Certificate revoked = TestCertificates.endEntity("CN=Revoked,O=Test,C=US", ca).getCertificate();
+		X509Certificate good = TestCertificates.endEntity("CN=Good,O=Test,C=US", ca).getCertificate();
+		Random random = new SecureRandom();
+		Map<BigInteger, Integer> entries = new HashMap<>();
+		for (int i = 0; i < 20_000; i++) {
+			// Mixed widths, as CAs use anything from sequential to 20 octet random serials.
+			entries.put(new BigInteger(1 + random.nextInt(159), random).add(BigInteger.valueOf(1000)),
+					CRLReason.keyCompromise);
+		}
+		entries.put(revoked.getSerialNumber(), CRLReason.unspecified);
+		entries.remove(good.getSerialNumber());
+		writeCrl("complete.crl", TestCertificates.crl(ca, 1, null, nextWeek(), entries), 1);
+
+		RevocationStore store = start();
+		IssuerRevocation revocation = store.get(ca.getCertificate().getSubjectX500Principal());
+
+		assertThat(revocation.getComplete().size()).isEqualTo(entries.size());
+		for (BigInteger serial : entries.keySet()) {
+			assertThat(revocation.getStatus(serial.toByteArray(), Instant.now())).isEqualTo(RevocationStatus.REVOKED);
+		}
+		for (int i = 0; i < 1000; i++) {
+			BigInteger serial = new BigInteger(1 + random.nextInt(159), random).add(BigInteger.valueOf(1000));
+			if (!entries.containsKey(serial)) {
+				assertThat(revocation.getStatus(serial.toByteArray(), Instant.now())).isEqualTo(RevocationStatus.GOOD);
+			}
+		}
+		assertThat(store.getStatus(revoked, Instant.now())).isEqualTo(RevocationStatus.REVOKED);
+		assertThat(store.getStatus(good, Instant.now())).isEqualTo(RevocationStatus.GOOD);
+	}
+
+	@Test
+	void servesPersistedIndexAfterRestartWithoutRereadingCrls() throws Exception {
+		X509Certificate revoked = TestCertificates.endEntity("CN=Revoked,O=Test,C=US", ca).getCertificate();
+		Path crl = writeCrl("complete.crl",
+				TestCertificates.crl(ca, 7, null, nextWeek(), Map.of(revoked.getSerialNumber(), CRLReason.keyCompromise)), 1);
+		start().close();
+		Files.delete(crl);
+
+		// No issuer certificates: a CRL could not be verified, so only the persisted index can answer.
+		RevocationStore restarted = new RevocationStore(crlDirectory, indexDirectory, Duration.ofHours(1), subject -> List.of());
+		stores.add(restarted);
+		restarted.start();
+
+		assertThat(restarted.getStatus(revoked, Instant.now())).isEqualTo(RevocationStatus.REVOKED);
+		assertThat(restarted.get(ca.getCertificate().getSubjectX500Principal()).getComplete().getCrlNumber())
+				.isEqualTo(BigInteger.valueOf(7));
+	}
+
+	@Test
+	void ordersCrlNumbersWiderThan64Bits() throws Exception {
+		X509Certificate held = TestCertificates.endEntity("CN=Held,O=Test,C=US", ca).getCertificate();
+		BigInteger base = BigInteger.ONE.shiftLeft(150).add(BigInteger.valueOf(5));
+		writeCrl("complete.crl", TestCertificates.crl(ca, base, null, nextWeek(),
+				Map.of(held.getSerialNumber(), CRLReason.certificateHold)), 1);
+		RevocationStore store = start();
+
+		writeCrl("complete.crl", TestCertificates.crl(ca, base.subtract(BigInteger.ONE), null, nextWeek(), Map.of()), 2);
+		assertThat(store.reloadIfChanged()).isFalse();
+		assertThat(store.getStatus(held, Instant.now())).isEqualTo(RevocationStatus.REVOKED);
+
+		writeCrl("delta.crl", TestCertificates.crl(ca, base.add(BigInteger.ONE), base, nextWeek(),
+				Map.of(held.getSerialNumber(), CRLReason.removeFromCRL)), 3);
+		assertThat(store.reloadIfChanged()).isTrue();
+		assertThat(store.get(ca.getCertificate().getSubjectX500Principal()).isDeltaApplicable()).isTrue();
+		assertThat(store.getStatus(held, Instant.now())).isEqualTo(RevocationStatus.GOOD);
+
+		store.close();
+		RevocationStore restarted = start();
+		IssuerRevocation revocation = restarted.get(ca.getCertificate().getSubjectX500Principal());
+		assertThat(revocation.getComplete().getCrlNumber()).isEqualTo(base);
+		assertThat(revocation.getDelta().getCrlNumber()).isEqualTo(base.add(BigInteger.ONE));
+		assertThat(revocation.getDelta().getBaseCrlNumber()).isEqualTo(base);
+	}
+
+	@Test
+	void appliesDeltaCrlsOnTopOfTheCompleteCrl() throws Exception {
+		X509Certificate held = TestCertificates.endEntity("CN=Held,O=Test,C=US", ca).getCertificate();
+		X509Certificate compromised = TestCertificates.endEntity("CN=Compromised,O=Test,C=US", ca).getCertificate();
+		writeCrl("complete.crl",
+				TestCertificates.crl(ca, 1, null, nextWeek(), Map.of(held.getSerialNumber(), CRLReason.certificateHold)), 1);
+		RevocationStore store = start();
+		assertThat(store.getStatus(held, Instant.now())).isEqualTo(RevocationStatus.REVOKED);
+
+		writeCrl("delta.crl", TestCertificates.crl(ca, 2, 1L, nextWeek(), Map.of(
+				held.getSerialNumber(), CRLReason.removeFromCRL,
+				compromised.getSerialNumber(), CRLReason.keyCompromise)), 2);
+		SerialIndex complete = store.get(ca.getCertificate().getSubjectX500Principal()).getComplete();
+		assertThat(store.reloadIfChanged()).isTrue();
+
+		IssuerRevocation revocation = store.get(ca.getCertificate().getSubjectX500Principal());
+		assertThat(revocation.getComplete()).isSameAs(complete);
+		assertThat(store.getStatus(held, Instant.now())).isEqualTo(RevocationStatus.GOOD);
+		assertThat(store.getStatus(compromised, Instant.now())).isEqualTo(RevocationStatus.REVOKED);
+
+		// A newer complete CRL supersedes the delta.
+		writeCrl("complete.crl", TestCertificates.crl(ca, 3, null, nextWeek(), Map.of(
+				held.getSerialNumber(), CRLReason.certificateHold)), 3);
+		assertThat(store.reloadIfChanged()).isTrue();
+
+		assertThat(store.get(ca.getCertificate().getSubjectX500Principal()).isDeltaApplicable()).isFalse();
+		assertThat(store.getStatus(held, Instant.now())).isEqualTo(RevocationStatus.REVOKED);
+		assertThat(store.getStatus(compromised, Instant.now())).isEqualTo(RevocationStatus.GOOD);
+	}
+
+	@Test
+	void ignoresCrlsNotSignedByTheIssuer() throws Exception {
+		TestCertificates.Issued impostor = TestCertificates.root("CN=Test Issuing CA,O=Test,C=US");
+		X509Certificate certificate = TestCertificates.endEntity("CN=Client,O=Test,C=US", ca).getCertificate();
+		writeCrl("forged.crl", TestCertificates.crl(impostor, 1, null, nextWeek(), Map.of()), 1);
+
+		RevocationStore store = new RevocationStore(crlDirectory, indexDirectory, Duration.ofHours(1),
+				subject -> List.of(ca.getCertificate()));
+		stores.add(store);
+		store.start();
+
+		assertThat(store.size()).isEqualTo(0);
+		assertThat(store.getStatus(certificate, Instant.now())).isEqualTo(RevocationStatus.UNKNOWN);
+	}
+
+	@Test
+	void reportsUnknownOnceTheCrlIsPastItsNextUpdate() throws Exception {
+		X509Certificate certificate = TestCertificates.endEntity("CN=Client,O=Test,C=US", ca).getCertificate();
+		writeCrl("complete.crl", TestCertificates.crl(ca, 1, null, nextWeek(), Map.of()), 1);
+		RevocationStore store = start();
+
+		assertThat(store.getStatus(certificate, Instant.now())).isEqualTo(RevocationStatus.GOOD);
+		assertThat(store.getStatus(certificate, nextWeek().plusSeconds(60))).isEqualTo(RevocationStatus.UNKNOWN);
+	}
+
+	@Test
+	void keepsNewerIndexWhenAnOlderCrlAppears() throws Exception {
+		X509Certificate certificate = TestCertificates.endEntity("CN=Client,O=Test,C=US", ca).getCertificate();
+		writeCrl("complete.crl",
+				TestCertificates.crl(ca, 5, null, nextWeek(), Map.of(certificate.getSerialNumber(), CRLReason.superseded)), 1);
+		RevocationStore store = start();
+
+		writeCrl("complete.crl", TestCertificates.crl(ca, 4, null, nextWeek(), Map.of()), 2);
+
+		assertThat(store.reloadIfChanged()).isFalse();
+		assertThat(store.getStatus(certificate, Instant.now())).isEqualTo(RevocationStatus.REVOKED);
+	}
+
+	private RevocationStore start() throws IOException {
+		RevocationStore store = new RevocationStore(crlDirectory, indexDirectory, Duration.ofHours(1), this::issuers);
+		stores.add(store);
+		store.start();
+		return store;
+	}
+
+	private List<X509Certificate> issuers(X500Principal subject) {
+		return subject.equals(ca.getCertificate().getSubjectX500Principal()) ? List.of(ca.getCertificate()) : List.of();
+	}
+
+	private Path writeCrl(String name, byte[] crl, int version) throws IOException {
+		Path path = crlDirectory.resolve(name);
+		Files.write(path, crl);
+		Files.setLastModifiedTime(path, FileTime.fromMillis(1_000_000L * version));
+		return path;
+	}
+
+	private static Instant nextWeek() {
+		return Instant.now().plus(Duration.ofDays(7)).truncatedTo(ChronoUnit.SECONDS);
+	}
+
+}
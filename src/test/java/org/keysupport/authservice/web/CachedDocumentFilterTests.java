@@ -0,0 +1,85 @@
+package org.keysupport.authservice.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+
+class CachedDocumentFilterTests {
+
+	private static final String METADATA = "/.well-known/openid-configuration";
+
+	private final AtomicInteger served = new AtomicInteger();
+
+	private final FilterChain authorizationServer = (request, response) -> {
+		served.incrementAndGet();
+		response.setContentType("application/json");
+		response.getWriter().write("{\"issuer\":\"https://" + ((HttpServletRequest) request).getServerName() + "\"}");
+	};
+
+	@Test
+	void metadataIsCapturedOncePerPathWhateverTheHost() throws Exception {
+		CachedDocumentFilter filter = new CachedDocumentFilter("/oauth2/jwks", null, Set.of(METADATA),
+				"https://auth.example.gov", Duration.ofMinutes(5));
+
+		MockHttpServletResponse first = get(filter, "auth.example.gov", METADATA);
+		MockHttpServletResponse second = get(filter, "attacker.example", METADATA);
+		MockHttpServletResponse last = second;
+		for (int i = 0; i < 100; i++) {
+			last = get(filter, "host-" + i + ".example", METADATA);
+		}
+
+		assertThat(served).hasValue(1);
+		assertThat(second.getContentAsString()).isEqualTo(first.getContentAsString())
+				.isEqualTo("{\"issuer\":\"https://auth.example.gov\"}");
+		assertThat(last.getHeader("ETag")).isNotNull().isEqualTo(second.getHeader("ETag"));
+	}
+
+	@Test
+	void metadataPassesThroughWhenTheIssuerComesFromTheRequest() throws Exception {
+		CachedDocumentFilter filter = new CachedDocumentFilter("/oauth2/jwks", null, Set.of(METADATA), null,
+				Duration.ofMinutes(5));
+
+		get(filter, "auth.example.gov", METADATA);
+		MockHttpServletResponse other = get(filter, "other.example.gov", METADATA);
+
+		assertThat(served).hasValue(2);
+		assertThat(other.getContentAsString()).isEqualTo("{\"issuer\":\"https://other.example.gov\"}");
+		assertThat(other.getHeader("ETag")).isNull();
+	}
+
+	@Test
+	void theJwkSetIsServedFromItsDocumentOrCapturedOnce() throws Exception {
+		CachedDocument jwks = CachedDocument.ofJson("{\"keys\":[]}", Duration.ofMinutes(5));
+		CachedDocumentFilter supplied = new CachedDocumentFilter("/oauth2/jwks", () -> jwks, Set.of(METADATA), null,
+				Duration.ofMinutes(5));
+		assertThat(get(supplied, "auth.example.gov", "/oauth2/jwks").getContentAsString()).isEqualTo("{\"keys\":[]}");
+		assertThat(served).hasValue(0);
+
+		CachedDocumentFilter captured = new CachedDocumentFilter("/oauth2/jwks", null, Set.of(METADATA), null,
+				Duration.ofMinutes(5));
+		get(captured, "auth.example.gov", "/oauth2/jwks");
+		get(captured, "other.example.gov", "/oauth2/jwks");
+		assertThat(served).hasValue(1);
+	}
+
+	private MockHttpServletResponse get(CachedDocumentFilter filter, String host, String path)
+			throws ServletException, IOException {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+		request.setServerName(host);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request, response, authorizationServer);
+		return response;
+	}
+
+}
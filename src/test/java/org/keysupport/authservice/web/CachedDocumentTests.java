@@ -0,0 +1,44 @@
+package org.keysupport.authservice.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+class CachedDocumentTests {
+
+	private final CachedDocument document = CachedDocument.ofJson("{\"keys\":[]}", Duration.ofMinutes(5));
+
+	@Test
+	void writesBodyWithStrongEtagAndMaxAge() throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		document.writeTo(new MockHttpServletRequest("GET", "/oauth2/jwks"), response);
+
+		assertThat(response.getStatus()).isEqualTo(200);
+		assertThat(response.getContentAsString()).isEqualTo("{\"keys\":[]}");
+		assertThat(response.getHeader("ETag")).startsWith("\"").endsWith("\"");
+		assertThat(response.getHeader("Cache-Control")).isEqualTo("public, max-age=300");
+	}
+
+	@Test
+	void answersNotModifiedForMatchingIfNoneMatch() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/oauth2/jwks");
+		request.addHeader("If-None-Match", "\"other\", W/" + document.getEtag());
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		document.writeTo(request, response);
+
+		assertThat(response.getStatus()).isEqualTo(304);
+		assertThat(response.getContentLength()).isZero();
+		assertThat(response.getHeader("ETag")).isEqualTo(document.getEtag());
+	}
+
+	@Test
+	void ignoresStaleIfNoneMatch() {
+		assertThat(document.matches("\"stale\"")).isFalse();
+		assertThat(document.matches("*")).isTrue();
+	}
+
+}